@@ -1,79 +1,442 @@
 package com.bidinote.core;
 
 import com.bidinote.core.graph.GraphExpansionService;
+import com.bidinote.core.graph.GraphIndex;
+import com.bidinote.core.graph.LinkQueryIndex;
 import com.bidinote.core.graph.LinkQueryService;
+import com.bidinote.core.graph.SavedLinkQueries;
 import com.bidinote.core.mention.AliasDictionary;
 import com.bidinote.core.mention.MentionDetector;
 import com.bidinote.core.mention.UnlinkedMention;
 import com.bidinote.core.model.NoteBlock;
 import com.bidinote.core.model.NoteEdge;
 import com.bidinote.core.model.NoteNode;
+import com.bidinote.core.model.PageChangeSet;
+import com.bidinote.core.parser.EdgeBuilder;
 import com.bidinote.core.parser.MarkdownBlockExtractor;
+import com.bidinote.core.parser.TextChange;
 import com.bidinote.core.parser.WikiLink;
 import com.bidinote.core.parser.WikiLinkParser;
 import com.bidinote.core.repository.NoteRepository;
 import com.bidinote.core.suggest.LinkSuggestionService;
+import com.bidinote.core.util.ContentHash;
 import com.bidinote.core.util.UlidHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * 核心领域服务：负责保存、解析、重命名与查询。
  */
 public class NoteService {
     private static final Logger log = LoggerFactory.getLogger(NoteService.class);
+    private static final int PARSED_PAGE_CACHE_SIZE = 16;
     private final NoteRepository repository;
+    private final Executor analysisExecutor;
+    /**
+     * 各页面进行中的提及识别与链接建议，同一页面的新保存取消旧的那次。
+     */
+    private final Map<String, CompletableFuture<PageAnalysis>> analyses = new ConcurrentHashMap<>();
     private final MarkdownBlockExtractor blockExtractor = new MarkdownBlockExtractor();
     private final WikiLinkParser linkParser = new WikiLinkParser();
+    private final EdgeBuilder edgeBuilder = new EdgeBuilder(linkParser);
+    /**
+     * 最近写入的页面的解析结果（块 ID 已对齐），作为下一次增量解析的基础。按访问顺序淘汰。
+     */
+    private final Map<String, MarkdownBlockExtractor.Result> parsedPages = new LinkedHashMap<>(PARSED_PAGE_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MarkdownBlockExtractor.Result> eldest) {
+            return size() > PARSED_PAGE_CACHE_SIZE;
+        }
+    };
+    private final Object graphMonitor = new Object();
+    /**
+     * 首次展开图谱时从全部边构建，之后随本服务的每次保存按页替换出边。
+     */
+    private GraphIndex graphIndex;
+    /**
+     * 首次链接查询时从全部页面构建，与 graphIndex 共用页面编号，之后随本服务的保存与重命名更新页面。
+     */
+    private LinkQueryIndex linkQueryIndex;
+    /**
+     * 首次保存查询时创建，保存与重命名经由它更新 linkQueryIndex 并刷新结果。
+     */
+    private SavedLinkQueries savedQueries;
+    private final Object nodeIndexMonitor = new Object();
+    /**
+     * 首次识别提及时从全部页面构建，之后随本服务的保存与重命名按页更新。
+     */
+    private volatile AliasDictionary aliasDictionary;
+    /**
+     * 链接建议的倒排索引，构建与更新方式同 aliasDictionary。
+     */
+    private volatile LinkSuggestionService suggestionService;
 
     public NoteService(NoteRepository repository) {
+        this(repository, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param analysisExecutor 执行保存后的提及识别与链接建议
+     */
+    public NoteService(NoteRepository repository, Executor analysisExecutor) {
         this.repository = Objects.requireNonNull(repository, "repository");
+        this.analysisExecutor = Objects.requireNonNull(analysisExecutor, "analysisExecutor");
+    }
+
+    /**
+     * 保存流程中可以跳过的阶段。
+     */
+    public enum SaveStage {
+        /** 切块与块 ID 对齐 */
+        PARSE,
+        /** 链接解析、边的比对与图索引更新 */
+        EDGES,
+        /** 写入数据库与更新内存索引 */
+        WRITE,
+        /** 未链接提及与链接建议 */
+        ANALYSIS
+    }
+
+    /**
+     * 写入完成时的结果，skipped 为因内容未变化而跳过的阶段。analysis 在写入之后另行计算：
+     * 同一页面再次保存时被取消；跳过 ANALYSIS 时沿用该页进行中的那次，没有时为已取消的 future，调用方应保留上次的结果。
+     */
+    public record SaveResult(List<NoteBlock> blocks, List<NoteEdge> edges, Set<SaveStage> skipped,
+                             CompletableFuture<PageAnalysis> analysis) {
     }
 
-    public record SaveResult(List<NoteBlock> blocks, List<NoteEdge> edges, List<UnlinkedMention> mentions, List<NoteNode> suggestions) {
+    /**
+     * 一次保存的未链接提及与链接建议。
+     */
+    public record PageAnalysis(List<UnlinkedMention> mentions, List<NoteNode> suggestions) {
+    }
+
+    /**
+     * 已解析、尚未写入的一次保存：块与边已对齐到库中现有数据，changes 为需要写入的增量，parsed 为对应的解析结果。
+     * 跳过 PARSE 时 parsed 为 null；正文与页面属性都未变化且链接都已解析时 skipped 包含全部阶段。
+     */
+    public record PreparedSave(NoteNode node, String markdown, List<NoteBlock> blocks, List<NoteEdge> edges, PageChangeSet changes,
+                               MarkdownBlockExtractor.Result parsed, Set<SaveStage> skipped) {
+        boolean written() {
+            return !skipped.contains(SaveStage.WRITE);
+        }
+    }
+
+    /**
+     * 页面中全部链接的签名：各块的 ID 与其中链接的原文，以及整页的嵌入。links 为链接总数。
+     */
+    private record LinkSignature(long hash, int links) {
     }
 
     public SaveResult save(NoteNode node, String markdown) {
+        return save(node, markdown, null);
+    }
+
+    /**
+     * 与 {@link #save(NoteNode, String)} 相同，change 为相对该页上一次保存内容的变化范围，为 null 时整页解析。
+     * 写入完成即返回，提及与建议见 {@link SaveResult#analysis()}。
+     */
+    public SaveResult save(NoteNode node, String markdown, TextChange change) {
+        PreparedSave prepared = prepareSave(node, markdown, change);
+        if (prepared.written()) {
+            repository.applyChanges(node, prepared.changes());
+            rememberParsed(List.of(prepared));
+            updateGraph(List.of(prepared));
+            updateNodeIndexes(List.of(node));
+        }
+        return completeSaves(List.of(prepared)).get(0);
+    }
+
+    /**
+     * 保存的第一步：切块、复用已有块 ID、生成边并计算与库中数据的差异，不写入数据库。
+     */
+    public PreparedSave prepareSave(NoteNode node, String markdown) {
+        return prepareSave(node, markdown, null);
+    }
+
+    /**
+     * 同 {@link #prepareSave(NoteNode, String)}。给出 change 且该页最近由本服务写入过时，只重新解析改动涉及的块，
+     * 其余块沿用上次的块 ID；change 与上次的内容对不上时退回整页解析。
+     * 正文哈希与库中记录相同且页面属性未变时不解析也不写入，但上次有链接未解析到页面时仍按库中的块重建边；
+     * 链接签名相同时沿用库中的边，不再解析链接目标。
+     */
+    public PreparedSave prepareSave(NoteNode node, String markdown, TextChange change) {
+        long contentHash = ContentHash.of(markdown == null ? "" : markdown);
+        NoteNode stored = repository.findNodeById(node.getId()).orElse(null);
+        if (stored != null && stored.getContentHash() == contentHash && sameProperties(stored, node)) {
+            node.setContentHash(stored.getContentHash());
+            List<NoteBlock> blocks = repository.findBlocksByPageId(node.getId());
+            List<NoteEdge> edges = repository.findEdgesByPageId(node.getId());
+            if (stored.getLinkHash() != 0) {
+                log.debug("页面 {} 内容未变化，跳过保存", node.getTitle());
+                node.setLinkHash(stored.getLinkHash());
+                return new PreparedSave(node, markdown, blocks, edges, PageChangeSet.between(blocks, blocks, edges, edges), null,
+                        EnumSet.allOf(SaveStage.class));
+            }
+            // 上次有链接没有解析到页面，之后新建或改名的页面可能让它解析成功：块不变，只重建边。
+            log.info("页面 {} 内容未变化，重新解析链接", node.getTitle());
+            LinkSignature signature = linkSignature(blocks, null, markdown);
+            List<NoteEdge> rebuilt = buildEdges(node, blocks, null, markdown);
+            node.setLinkHash(rebuilt.size() == signature.links() ? signature.hash() : 0);
+            return new PreparedSave(node, markdown, blocks, rebuilt, PageChangeSet.between(blocks, blocks, edges, rebuilt), null,
+                    EnumSet.of(SaveStage.PARSE, SaveStage.ANALYSIS));
+        }
         log.info("保存页面 {}", node.getTitle());
         node.setUpdatedAt(Instant.now());
-        repository.saveNode(node);
         List<NoteBlock> previous = repository.findBlocksByPageId(node.getId());
-        MarkdownBlockExtractor.Result result = blockExtractor.extract(node.getId(), markdown);
-        List<NoteBlock> blocks = reconcileBlocks(previous, result.getBlocks());
-        repository.saveBlocks(node.getId(), blocks);
-        List<NoteEdge> edges = buildEdges(node, blocks, markdown);
-        repository.saveEdges(node.getId(), edges);
-        AliasDictionary dictionary = buildAliasDictionary();
-        MentionDetector detector = new MentionDetector(dictionary);
-        List<UnlinkedMention> mentions = detector.detect(markdown).stream()
-                .filter(mention -> mention.noteId() != null)
-                .collect(Collectors.toList());
-        LinkSuggestionService suggestionService = new LinkSuggestionService(repository.loadAllNodes());
-        List<NoteNode> suggestions = blocks.stream()
-                .flatMap(block -> suggestionService.suggest(block.getText(), 5).stream())
-                .distinct()
-                .limit(5)
-                .collect(Collectors.toList());
-        return new SaveResult(blocks, edges, mentions, suggestions);
-    }
-
-    private List<NoteBlock> reconcileBlocks(List<NoteBlock> previous, List<NoteBlock> current) {
+        MarkdownBlockExtractor.Result cached = change == null ? null : cachedParse(node.getId());
+        MarkdownBlockExtractor.Result result = cached == null
+                ? blockExtractor.extract(node.getId(), markdown)
+                : blockExtractor.extract(node.getId(), cached, markdown, change);
+        List<NoteBlock> blocks;
+        if (result.isIncremental()) {
+            // 区间外的块已带有上次对齐过的 ID，只需把新解析的块与被替换的旧块对齐。
+            List<NoteBlock> all = result.getBlocks();
+            Set<String> kept = new HashSet<>();
+            all.subList(0, result.getReparsedFrom()).forEach(block -> kept.add(block.getId()));
+            all.subList(result.getReparsedTo(), all.size()).forEach(block -> kept.add(block.getId()));
+            blocks = new ArrayList<>(all.size());
+            blocks.addAll(all.subList(0, result.getReparsedFrom()));
+            blocks.addAll(reconcileBlocks(result.getReplacedBlocks(), all.subList(result.getReparsedFrom(), result.getReparsedTo()), kept));
+            blocks.addAll(all.subList(result.getReparsedTo(), all.size()));
+        } else {
+            blocks = reconcileBlocks(previous, result.getBlocks(), new HashSet<>());
+        }
+        int[] blockRanges = result.getBlockRanges();
+        LinkSignature signature = linkSignature(blocks, blockRanges, markdown);
+        List<NoteEdge> previousEdges = repository.findEdgesByPageId(node.getId());
+        List<NoteEdge> edges;
+        Set<SaveStage> skipped = EnumSet.noneOf(SaveStage.class);
+        if (stored != null && stored.getLinkHash() == signature.hash()) {
+            edges = previousEdges;
+            skipped.add(SaveStage.EDGES);
+        } else {
+            edges = buildEdges(node, blocks, blockRanges, markdown);
+        }
+        node.setContentHash(contentHash);
+        // 有链接没有解析到页面时不记录签名，之后新建或改名的页面可能让它解析成功，下次保存仍需重建边。
+        node.setLinkHash(skipped.contains(SaveStage.EDGES) || edges.size() == signature.links() ? signature.hash() : 0);
+        return new PreparedSave(node, markdown, blocks, edges, PageChangeSet.between(previous, blocks, previousEdges, edges),
+                result.withBlocks(blocks), skipped);
+    }
+
+    private static boolean sameProperties(NoteNode stored, NoteNode node) {
+        return stored.getTitle().equals(node.getTitle())
+                && stored.getAliases().equals(node.getAliases())
+                && stored.getTags().equals(node.getTags());
+    }
+
+    /**
+     * 与 EdgeBuilder 生成边的范围一致：块内的全部链接，以及整页中的嵌入。有块区间时一遍扫描整页，按偏移直接哈希原文。
+     */
+    private LinkSignature linkSignature(List<NoteBlock> blocks, int[] blockRanges, String markdown) {
+        String text = markdown == null ? "" : markdown;
+        ContentHash hash = new ContentHash();
+        ContentHash embeds = new ContentHash();
+        int[] counts = new int[2];
+        if (blockRanges != null && blockRanges.length == blocks.size() * 2) {
+            int[] lastBlock = {-1};
+            linkParser.scanPage(text, blockRanges, link -> {
+                if (link.block() >= 0) {
+                    if (link.block() != lastBlock[0]) {
+                        lastBlock[0] = link.block();
+                        hash.add(blocks.get(link.block()).getId());
+                    }
+                    hash.add(text, link.start(), link.end());
+                    counts[0]++;
+                }
+                if (link.isEmbed()) {
+                    embeds.add(text, link.start(), link.end());
+                    counts[1]++;
+                }
+            });
+        } else {
+            for (NoteBlock block : blocks) {
+                boolean[] first = {true};
+                linkParser.scan(block.getText(), link -> {
+                    if (first[0]) {
+                        first[0] = false;
+                        hash.add(block.getId());
+                    }
+                    hash.add(link.text(), link.start(), link.end());
+                    counts[0]++;
+                });
+            }
+            linkParser.scan(text, link -> {
+                if (link.isEmbed()) {
+                    embeds.add(text, link.start(), link.end());
+                    counts[1]++;
+                }
+            });
+        }
+        hash.add(-1L).add(embeds.value());
+        return new LinkSignature(hash.value(), counts[0] + counts[1]);
+    }
+
+    private MarkdownBlockExtractor.Result cachedParse(String pageId) {
+        synchronized (parsedPages) {
+            return parsedPages.get(pageId);
+        }
+    }
+
+    private void rememberParsed(List<PreparedSave> saves) {
+        synchronized (parsedPages) {
+            // 跳过解析的保存没有新的解析结果，保留已缓存的那份。
+            saves.stream()
+                    .filter(save -> save.parsed() != null)
+                    .forEach(save -> parsedPages.put(save.node().getId(), save.parsed()));
+        }
+    }
+
+    /**
+     * 保存的第二步：在同一个事务中写入多个页面的增量。
+     */
+    public void commitSaves(List<PreparedSave> saves) {
+        saves = saves.stream().filter(PreparedSave::written).toList();
+        if (saves.isEmpty()) {
+            return;
+        }
+        repository.applyChangesBatch(saves.stream()
+                .map(save -> new NoteRepository.PageUpdate(save.node(), save.changes()))
+                .collect(Collectors.toList()));
+        rememberParsed(saves);
+        updateGraph(saves);
+        updateNodeIndexes(saves.stream().map(PreparedSave::node).toList());
+    }
+
+    /**
+     * 写入后调用。与索引构建互斥：构建期间提交的保存在构建结束后再替换一次，整页替换重复执行结果不变。
+     */
+    private void updateGraph(List<PreparedSave> saves) {
+        synchronized (graphMonitor) {
+            Runnable update = () -> {
+                if (graphIndex != null) {
+                    saves.stream()
+                            .filter(save -> !save.skipped().contains(SaveStage.EDGES))
+                            .forEach(save -> graphIndex.replaceEdges(save.node().getId(), save.edges()));
+                }
+                if (linkQueryIndex != null) {
+                    saves.forEach(save -> linkQueryIndex.putNode(save.node()));
+                }
+            };
+            if (savedQueries != null) {
+                savedQueries.apply(saves.stream().map(save -> save.node().getId()).toList(), update);
+            } else {
+                update.run();
+            }
+        }
+    }
+
+    private GraphIndex graphIndex() {
+        synchronized (graphMonitor) {
+            if (graphIndex == null) {
+                try (Stream<NoteEdge> edges = repository.streamEdges()) {
+                    graphIndex = GraphIndex.build(edges);
+                }
+            }
+            return graphIndex;
+        }
+    }
+
+    private LinkQueryIndex linkQueryIndex() {
+        synchronized (graphMonitor) {
+            if (linkQueryIndex == null) {
+                try (Stream<NoteNode> nodes = repository.streamNodes()) {
+                    linkQueryIndex = LinkQueryIndex.build(graphIndex(), nodes.toList());
+                }
+            }
+            return linkQueryIndex;
+        }
+    }
+
+    /**
+     * 保存的第三步：写入完成后为每个页面安排未链接提及与链接建议，在 analysisExecutor 上执行，不等待结果。
+     * 同一页面尚未完成的上一次分析被取消。
+     */
+    public List<SaveResult> completeSaves(List<PreparedSave> saves) {
+        List<SaveResult> results = new ArrayList<>(saves.size());
+        for (PreparedSave save : saves) {
+            String pageId = save.node().getId();
+            CompletableFuture<PageAnalysis> analysis;
+            if (save.skipped().contains(SaveStage.ANALYSIS)) {
+                analysis = analyses.get(pageId);
+                if (analysis == null) {
+                    analysis = new CompletableFuture<>();
+                    analysis.cancel(false);
+                }
+            } else {
+                analysis = new CompletableFuture<>();
+                CompletableFuture<PageAnalysis> previous = analyses.put(pageId, analysis);
+                if (previous != null) {
+                    previous.cancel(false);
+                }
+                scheduleAnalysis(save, analysis);
+            }
+            results.add(new SaveResult(save.blocks(), save.edges(), save.skipped(), analysis));
+        }
+        return results;
+    }
+
+    private void scheduleAnalysis(PreparedSave save, CompletableFuture<PageAnalysis> future) {
+        String pageId = save.node().getId();
+        try {
+            analysisExecutor.execute(() -> {
+                try {
+                    // 排队期间被新的保存取代时不再计算；两步之间再检查一次。
+                    if (future.isDone()) {
+                        return;
+                    }
+                    List<UnlinkedMention> mentions = new MentionDetector(aliasDictionary()).detect(save.markdown()).stream()
+                            .filter(mention -> mention.noteId() != null)
+                            .collect(Collectors.toList());
+                    if (future.isDone()) {
+                        return;
+                    }
+                    List<NoteNode> suggestions = suggestionService().suggestForPage(save.blocks().stream().map(NoteBlock::getText).toList(), 5);
+                    future.complete(new PageAnalysis(mentions, suggestions));
+                } catch (RuntimeException e) {
+                    log.warn("页面分析失败: {}", pageId, e);
+                    future.completeExceptionally(e);
+                } finally {
+                    analyses.remove(pageId, future);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            analyses.remove(pageId, future);
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * 为 current 中的块复用 previous 中的块 ID，claimed 为已被占用、不能再分配的 ID。块的顺序号保持解析结果中的值。
+     */
+    private List<NoteBlock> reconcileBlocks(List<NoteBlock> previous, List<NoteBlock> current, Set<String> claimed) {
         Map<String, NoteBlock> byAnchor = previous.stream()
                 .filter(block -> block.getAnchor() != null)
                 .collect(Collectors.toMap(NoteBlock::getAnchor, block -> block, (a, b) -> a, HashMap::new));
         Map<String, NoteBlock> bySnippet = previous.stream()
                 .collect(Collectors.toMap(block -> snippet(block.getText()), block -> block, (a, b) -> a, HashMap::new));
         List<NoteBlock> resolved = new ArrayList<>();
-        int order = 0;
         for (NoteBlock block : current) {
             NoteBlock match = null;
             if (block.getAnchor() != null) {
@@ -82,11 +445,13 @@ public class NoteService {
             if (match == null) {
                 match = bySnippet.remove(snippet(block.getText()));
             }
-            String id = match != null ? match.getId() : block.getId();
-            if (id == null || id.isBlank()) {
+            // 同一旧块可能同时被锚点和摘要命中，增量写入要求块 ID 唯一。
+            String id = match != null && !claimed.contains(match.getId()) ? match.getId() : block.getId();
+            if (id == null || id.isBlank() || claimed.contains(id)) {
                 id = UlidHelper.newUlid();
             }
-            resolved.add(new NoteBlock(id, block.getPageId(), block.getText(), block.getAnchor(), order++));
+            claimed.add(id);
+            resolved.add(new NoteBlock(id, block.getPageId(), block.getText(), block.getAnchor(), block.getOrderNo()));
         }
         return resolved;
     }
@@ -99,39 +464,24 @@ public class NoteService {
         return normalized.length() > 40 ? normalized.substring(0, 40) : normalized;
     }
 
-    private List<NoteEdge> buildEdges(NoteNode node, List<NoteBlock> blocks, String markdown) {
-        List<NoteEdge> edges = new ArrayList<>();
-        for (NoteBlock block : blocks) {
-            for (WikiLink link : linkParser.parse(block.getText())) {
-                resolveTarget(link).ifPresent(target -> {
-                    String dstBlockId = link.getType() == WikiLink.Type.BLOCK ? link.getAnchor() : null;
-                    edges.add(new NoteEdge(block.getId(), node.getId(), target.getId(), dstBlockId,
-                            link.isEmbed() ? "embed" : "link",
-                            link.isEmbed() ? "{\"mode\":\"follow\"}" : null,
-                            Instant.now()));
-                });
-            }
-        }
-        for (WikiLink link : linkParser.parse(markdown)) {
-            if (link.isEmbed()) {
-                resolveTarget(link).ifPresent(target -> edges.add(new NoteEdge(null, node.getId(), target.getId(), link.getAnchor(),
-                        "transclusion", "{\"mode\":\"follow\"}", Instant.now())));
-            }
-        }
-        return edges;
+    private List<NoteEdge> buildEdges(NoteNode node, List<NoteBlock> blocks, int[] blockRanges, String markdown) {
+        return edgeBuilder.build(node.getId(), blocks, blockRanges, markdown, link -> resolveTarget(node, link).map(NoteNode::getId));
     }
 
-    private Optional<NoteNode> resolveTarget(WikiLink link) {
+    private Optional<NoteNode> resolveTarget(NoteNode source, WikiLink link) {
         if (link.getTargetTitle() == null || link.getTargetTitle().isBlank()) {
             return Optional.empty();
         }
-        Optional<NoteNode> node = repository.findNodeByTitle(link.getTargetTitle());
-        if (node.isPresent()) {
-            return node;
+        // 页面与边同一事务写入，自引用时数据库中可能还是旧标题。
+        if (link.getTargetTitle().equals(source.getTitle())) {
+            return Optional.of(source);
         }
-        return repository.loadAllNodes().values().stream()
-                .filter(candidate -> candidate.getAliases().stream().anyMatch(alias -> alias.equalsIgnoreCase(link.getTargetTitle())))
-                .findFirst();
+        // 一次索引查找同时覆盖标题与别名；大小写不同的多个标题都命中时优先取完全一致的那个。
+        List<NoteNode> candidates = repository.findNodesByTitleOrAlias(link.getTargetTitle());
+        return candidates.stream()
+                .filter(candidate -> candidate.getTitle().equals(link.getTargetTitle()))
+                .findFirst()
+                .or(() -> candidates.stream().findFirst());
     }
 
     public void rename(NoteNode node, String newTitle) {
@@ -139,18 +489,71 @@ public class NoteService {
         String oldTitle = node.getTitle();
         node.setTitle(newTitle);
         node.addAlias(oldTitle);
+        // 调用方持有的节点可能早于最近一次保存，沿用库中的哈希，避免覆盖成旧值。
+        repository.findNodeById(node.getId()).ifPresent(stored -> {
+            node.setContentHash(stored.getContentHash());
+            node.setLinkHash(stored.getLinkHash());
+        });
         repository.saveNode(node);
+        updateNodeIndexes(List.of(node));
+        synchronized (graphMonitor) {
+            if (savedQueries != null) {
+                savedQueries.apply(List.of(node.getId()), () -> linkQueryIndex.putNode(node));
+            } else if (linkQueryIndex != null) {
+                linkQueryIndex.putNode(node);
+            }
+        }
     }
 
     public GraphExpansionService.GraphResult expandGraph(String nodeId, int depth, int degreeThreshold) {
         NoteNode anchor = repository.findNodeById(nodeId).orElseThrow();
         GraphExpansionService service = new GraphExpansionService();
-        return service.expand(anchor, new ArrayList<>(repository.loadAllNodes().values()), repository.loadAllEdges(), depth, degreeThreshold);
+        return service.expand(anchor, graphIndex(), repository::findNodeById, depth, degreeThreshold);
+    }
+
+    /**
+     * 逐层展开图谱，每层算完即回调，适合锚点度数很高、一次性结果过大的场景。切换锚点时取消上一次返回的 future。
+     */
+    public CompletableFuture<GraphExpansionService.GraphResult> expandGraphProgressively(String nodeId, int depth, int degreeThreshold,
+                                                                                       GraphExpansionService.ExpansionBudget budget,
+                                                                                       Consumer<GraphExpansionService.GraphLevel> onLevel,
+                                                                                       Executor executor) {
+        NoteNode anchor = repository.findNodeById(nodeId).orElseThrow();
+        GraphExpansionService service = new GraphExpansionService();
+        return service.expandProgressively(anchor, this::graphIndex, repository::findNodeById, depth, degreeThreshold, budget, onLevel, executor);
     }
 
+    /**
+     * 链接查询，例如 {@code tag="project" AND in(type="embed")->tag="meeting" AND NOT tag="archived" LIMIT 20}，语法见 LinkQuery。
+     */
     public LinkQueryService.QueryResult query(String expression) {
         LinkQueryService service = new LinkQueryService();
-        return service.query(new ArrayList<>(repository.loadAllNodes().values()), repository.loadAllEdges(), expression);
+        return service.query(linkQueryIndex(), expression);
+    }
+
+    /**
+     * 保存一个具名查询，结果常驻内存。之后每次经本服务保存或重命名页面，只重算变更页面附近的页面，
+     * 结果有变化时在保存线程上以增量回调 onChange。
+     */
+    public void saveQuery(String name, String expression, Consumer<SavedLinkQueries.Delta> onChange) {
+        savedQueries().register(name, expression, onChange);
+    }
+
+    public List<NoteNode> savedQueryResults(String name) {
+        return savedQueries().results(name);
+    }
+
+    public void removeSavedQuery(String name) {
+        savedQueries().remove(name);
+    }
+
+    private SavedLinkQueries savedQueries() {
+        synchronized (graphMonitor) {
+            if (savedQueries == null) {
+                savedQueries = new SavedLinkQueries(linkQueryIndex());
+            }
+            return savedQueries;
+        }
     }
 
     public List<NoteEdge> reverseLinks(String pageId) {
@@ -161,9 +564,67 @@ public class NoteService {
         return repository.search(keyword);
     }
 
-    private AliasDictionary buildAliasDictionary() {
-        AliasDictionary dictionary = new AliasDictionary();
-        repository.loadAllNodes().values().forEach(node -> dictionary.addEntry(node.getId(), node.getTitle(), node.getAliases()));
-        return dictionary;
+    public NoteRepository.SearchPage search(String keyword, int limit, String cursor, boolean groupByPage) {
+        return repository.search(keyword, limit, cursor, groupByPage);
+    }
+
+    /**
+     * 别名词典当前快照的估算内存占用，词典尚未构建时为 0。
+     */
+    public long aliasDictionaryBytes() {
+        AliasDictionary dictionary = aliasDictionary;
+        return dictionary == null ? 0 : dictionary.estimatedBytes();
+    }
+
+    /**
+     * 更新按页面维护的别名词典与建议索引。词条没有变化的页面不会触发词典更新。
+     */
+    private void updateNodeIndexes(List<NoteNode> nodes) {
+        synchronized (nodeIndexMonitor) {
+            if (aliasDictionary != null) {
+                aliasDictionary.putAll(nodes.stream().map(NoteService::aliasEntry).toList());
+            }
+            if (suggestionService != null) {
+                nodes.forEach(suggestionService::putNode);
+            }
+        }
+    }
+
+    private AliasDictionary aliasDictionary() {
+        AliasDictionary dictionary = aliasDictionary;
+        if (dictionary != null) {
+            return dictionary;
+        }
+        synchronized (nodeIndexMonitor) {
+            if (aliasDictionary == null) {
+                AliasDictionary built = new AliasDictionary();
+                try (Stream<NoteNode> nodes = repository.streamNodes()) {
+                    built.putAll(nodes.map(NoteService::aliasEntry).toList());
+                }
+                aliasDictionary = built;
+            }
+            return aliasDictionary;
+        }
+    }
+
+    private LinkSuggestionService suggestionService() {
+        LinkSuggestionService service = suggestionService;
+        if (service != null) {
+            return service;
+        }
+        synchronized (nodeIndexMonitor) {
+            if (suggestionService == null) {
+                LinkSuggestionService built = new LinkSuggestionService();
+                try (Stream<NoteNode> nodes = repository.streamNodes()) {
+                    nodes.forEach(built::putNode);
+                }
+                suggestionService = built;
+            }
+            return suggestionService;
+        }
+    }
+
+    private static AliasDictionary.Entry aliasEntry(NoteNode node) {
+        return new AliasDictionary.Entry(node.getId(), node.getTitle(), node.getAliases());
     }
 }
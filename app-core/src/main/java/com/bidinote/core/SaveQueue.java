@@ -0,0 +1,219 @@
+package com.bidinote.core;
+
+import com.bidinote.core.NoteService.PreparedSave;
+import com.bidinote.core.NoteService.SaveResult;
+import com.bidinote.core.model.NoteNode;
+import com.bidinote.core.parser.TextChange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 页面保存的写回队列。所有保存由同一个写线程串行处理：同一页面排队中的多次保存合并为最新一次，
+ * 不同页面的保存合并到一个事务中提交。被合并掉的请求与最终执行的那次保存得到同一个结果。
+ * 事务提交后立即完成 future，提及与建议不占用写线程，随 {@link SaveResult#analysis()} 另行送达。
+ */
+public class SaveQueue implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(SaveQueue.class);
+    private static final int DEFAULT_MAX_BATCH = 64;
+
+    private final NoteService noteService;
+    private final int maxBatch;
+    private final Object lock = new Object();
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+    private final Thread writer;
+    private boolean busy;
+    private boolean closed;
+
+    private static final class Pending {
+        private NoteNode node;
+        private String markdown;
+        // 相对该页上一次提交内容的变化范围，合并多次提交时依次合并；为 null 时整页解析。
+        private TextChange change;
+        private final List<CompletableFuture<SaveResult>> waiters = new ArrayList<>();
+    }
+
+    public SaveQueue(NoteService noteService) {
+        this(noteService, DEFAULT_MAX_BATCH);
+    }
+
+    /**
+     * @param maxBatch 单个事务最多包含的页面数
+     */
+    public SaveQueue(NoteService noteService, int maxBatch) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("maxBatch 必须大于 0");
+        }
+        this.noteService = Objects.requireNonNull(noteService, "noteService");
+        this.maxBatch = maxBatch;
+        this.writer = new Thread(this::run, "note-save-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * 提交一次保存。该页面已有尚未开始处理的保存时直接替换其内容。
+     */
+    public CompletableFuture<SaveResult> submit(NoteNode node, String markdown) {
+        return submit(node, markdown, null);
+    }
+
+    /**
+     * 提交一次保存，change 为相对该页上一次提交内容的变化范围，为 null 时整页解析。
+     * 与排队中的保存合并时变化范围一并合并。
+     */
+    public CompletableFuture<SaveResult> submit(NoteNode node, String markdown, TextChange change) {
+        Objects.requireNonNull(node, "node");
+        CompletableFuture<SaveResult> future = new CompletableFuture<>();
+        synchronized (lock) {
+            if (closed) {
+                future.completeExceptionally(new IllegalStateException("保存队列已关闭"));
+                return future;
+            }
+            Pending entry = pending.get(node.getId());
+            if (entry == null) {
+                entry = new Pending();
+                entry.change = change;
+                pending.put(node.getId(), entry);
+            } else {
+                entry.change = entry.change == null || change == null ? null : entry.change.then(change);
+            }
+            entry.node = node;
+            entry.markdown = markdown;
+            entry.waiters.add(future);
+            lock.notifyAll();
+        }
+        return future;
+    }
+
+    /**
+     * 排队中尚未开始处理的页面数。
+     */
+    public int queueDepth() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * 阻塞到队列为空且写线程空闲。
+     */
+    public void flush() {
+        synchronized (lock) {
+            while (!pending.isEmpty() || busy) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 不再接受新的保存，写完队列中剩余的页面后返回。
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            List<Pending> batch = new ArrayList<>();
+            synchronized (lock) {
+                while (pending.isEmpty() && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        log.warn("保存写线程被中断，继续处理剩余保存");
+                    }
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                Iterator<Pending> iterator = pending.values().iterator();
+                while (iterator.hasNext() && batch.size() < maxBatch) {
+                    batch.add(iterator.next());
+                    iterator.remove();
+                }
+                busy = true;
+            }
+            try {
+                process(batch);
+            } finally {
+                synchronized (lock) {
+                    busy = false;
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void process(List<Pending> batch) {
+        List<Pending> accepted = new ArrayList<>();
+        List<PreparedSave> prepared = new ArrayList<>();
+        for (Pending entry : batch) {
+            try {
+                prepared.add(noteService.prepareSave(entry.node, entry.markdown, entry.change));
+                accepted.add(entry);
+            } catch (RuntimeException e) {
+                fail(entry, e);
+            }
+        }
+        if (prepared.isEmpty()) {
+            return;
+        }
+        try {
+            noteService.commitSaves(prepared);
+        } catch (RuntimeException e) {
+            // 整批回滚后逐页重试，避免一个页面的错误连累同批的其他页面。
+            log.warn("批量保存 {} 页失败，逐页重试", prepared.size(), e);
+            List<Pending> committed = new ArrayList<>();
+            List<PreparedSave> committedSaves = new ArrayList<>();
+            for (int i = 0; i < prepared.size(); i++) {
+                try {
+                    noteService.commitSaves(List.of(prepared.get(i)));
+                    committed.add(accepted.get(i));
+                    committedSaves.add(prepared.get(i));
+                } catch (RuntimeException single) {
+                    fail(accepted.get(i), single);
+                }
+            }
+            accepted = committed;
+            prepared = committedSaves;
+        }
+        List<SaveResult> results;
+        try {
+            results = noteService.completeSaves(prepared);
+        } catch (RuntimeException e) {
+            accepted.forEach(entry -> fail(entry, e));
+            return;
+        }
+        for (int i = 0; i < accepted.size(); i++) {
+            SaveResult result = results.get(i);
+            accepted.get(i).waiters.forEach(waiter -> waiter.complete(result));
+        }
+    }
+
+    private void fail(Pending entry, Throwable error) {
+        log.error("保存页面失败: {}", entry.node.getId(), error);
+        entry.waiters.forEach(waiter -> waiter.completeExceptionally(error));
+    }
+}
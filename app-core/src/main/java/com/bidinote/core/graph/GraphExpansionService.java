@@ -3,15 +3,18 @@ package com.bidinote.core.graph;
 import com.bidinote.core.model.NoteEdge;
 import com.bidinote.core.model.NoteNode;
 
-import java.util.ArrayDeque;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Deque;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -21,41 +24,99 @@ public class GraphExpansionService {
     public record GraphResult(List<NoteNode> nodes, List<NoteEdge> edges) {
     }
 
+    /**
+     * 逐层展开的预算：累计最多发出的页面数与边数，以及从开始计时的时限（为 null 表示不限时）。
+     */
+    public record ExpansionBudget(int maxNodes, int maxEdges, Duration timeLimit) {
+        public static final ExpansionBudget UNLIMITED = new ExpansionBudget(Integer.MAX_VALUE, Integer.MAX_VALUE, null);
+
+        public ExpansionBudget {
+            if (maxNodes < 1 || maxEdges < 0) {
+                throw new IllegalArgumentException("maxNodes 必须大于 0，maxEdges 不能为负数");
+            }
+        }
+    }
+
+    /**
+     * 交给回调的一层。truncated 为 true 表示预算、时限或取消使本层不完整，之后不会再有新的层。
+     */
+    public record GraphLevel(int level, List<NoteNode> nodes, List<NoteEdge> edges, boolean truncated) {
+    }
+
+    /**
+     * 在已维护的邻接索引上展开，耗时只与访问到的边数有关；nodes 按 ID 取回展开到的页面，取不到的页面不出现在结果中。
+     */
+    public GraphResult expand(NoteNode anchor, GraphIndex index, Function<String, Optional<NoteNode>> nodes, int depth, int degreeThreshold) {
+        Objects.requireNonNull(anchor, "anchor");
+        GraphIndex.Subgraph subgraph = index.expand(anchor.getId(), depth, degreeThreshold);
+        List<NoteNode> selected = subgraph.nodeIds().stream()
+                .map(nodes)
+                .flatMap(Optional::stream)
+                .collect(Collectors.toList());
+        return new GraphResult(selected, subgraph.edges());
+    }
+
     public GraphResult expand(NoteNode anchor, List<NoteNode> allNodes, List<NoteEdge> allEdges, int depth, int degreeThreshold) {
         Objects.requireNonNull(anchor, "anchor");
         Map<String, NoteNode> byId = allNodes.stream().collect(Collectors.toMap(NoteNode::getId, n -> n));
-        Set<String> visited = new HashSet<>();
-        Set<String> selectedNodeIds = new HashSet<>();
-        List<NoteEdge> selectedEdges = new ArrayList<>();
-        Deque<String> queue = new ArrayDeque<>();
-        queue.add(anchor.getId());
-        visited.add(anchor.getId());
-        int currentDepth = 0;
-        while (!queue.isEmpty() && currentDepth <= depth) {
-            int levelSize = queue.size();
-            for (int i = 0; i < levelSize; i++) {
-                String nodeId = queue.poll();
-                selectedNodeIds.add(nodeId);
-                List<NoteEdge> neighbours = allEdges.stream()
-                        .filter(edge -> edge.getSrcPageId().equals(nodeId) || edge.getDstPageId().equals(nodeId))
-                        .collect(Collectors.toList());
-                if (neighbours.size() >= degreeThreshold) {
-                    selectedEdges.addAll(neighbours);
-                    for (NoteEdge edge : neighbours) {
-                        String targetId = edge.getSrcPageId().equals(nodeId) ? edge.getDstPageId() : edge.getSrcPageId();
-                        if (!visited.contains(targetId)) {
-                            visited.add(targetId);
-                            queue.add(targetId);
-                        }
-                    }
-                }
+        return expand(anchor, GraphIndex.build(allEdges.stream()), id -> Optional.ofNullable(byId.get(id)), depth, degreeThreshold);
+    }
+
+    /**
+     * 在 executor 上逐层展开，每算完一层立即交给 onLevel：第 0 层只有锚点，第 k 层是新到达的页面及连向已发出页面的边。
+     * 剩余预算容不下整层时按度数从高到低保留页面。取消返回的 future（例如用户切换了锚点）后，
+     * 展开在当前页面处理完后停止，不再回调。future 的结果是已发出的全部页面与边。
+     */
+    public CompletableFuture<GraphResult> expandProgressively(NoteNode anchor, Supplier<GraphIndex> index, Function<String, Optional<NoteNode>> nodes,
+                                                              int depth, int degreeThreshold, ExpansionBudget budget,
+                                                              Consumer<GraphLevel> onLevel, Executor executor) {
+        Objects.requireNonNull(anchor, "anchor");
+        Objects.requireNonNull(budget, "budget");
+        Objects.requireNonNull(onLevel, "onLevel");
+        CompletableFuture<GraphResult> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                GraphResult result = runProgressive(anchor, index.get(), nodes, depth, degreeThreshold, budget, onLevel, future);
+                future.complete(result);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private GraphResult runProgressive(NoteNode anchor, GraphIndex index, Function<String, Optional<NoteNode>> nodes, int depth, int degreeThreshold,
+                                       ExpansionBudget budget, Consumer<GraphLevel> onLevel, CompletableFuture<?> future) {
+        long start = System.nanoTime();
+        BooleanSupplier stop = () -> future.isDone()
+                || (budget.timeLimit() != null && System.nanoTime() - start > budget.timeLimit().toNanos());
+        GraphIndex.Expansion expansion = index.startExpansion(anchor.getId(), degreeThreshold);
+        List<NoteNode> allNodes = new ArrayList<>();
+        List<NoteEdge> allEdges = new ArrayList<>();
+        int nodesLeft = budget.maxNodes();
+        int edgesLeft = budget.maxEdges();
+        for (int level = 0; level <= depth && nodesLeft > 0; level++) {
+            GraphIndex.Ring ring = expansion.next(nodesLeft, edgesLeft, stop);
+            if (ring == null || future.isDone()) {
+                break;
+            }
+            List<NoteNode> ringNodes = ring.nodeIds().stream()
+                    .map(id -> id.equals(anchor.getId()) ? Optional.of(anchor) : nodes.apply(id))
+                    .flatMap(Optional::stream)
+                    .collect(Collectors.toList());
+            nodesLeft -= ring.nodeIds().size();
+            edgesLeft -= ring.edges().size();
+            allNodes.addAll(ringNodes);
+            allEdges.addAll(ring.edges());
+            boolean truncated = ring.truncated() || (level < depth && stop.getAsBoolean());
+            if (future.isDone()) {
+                break;
+            }
+            onLevel.accept(new GraphLevel(ring.level(), ringNodes, ring.edges(), truncated));
+            if (truncated) {
+                break;
             }
-            currentDepth++;
         }
-        List<NoteNode> nodes = selectedNodeIds.stream()
-                .map(byId::get)
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
-        return new GraphResult(nodes, selectedEdges);
+        return new GraphResult(allNodes, allEdges);
     }
 }
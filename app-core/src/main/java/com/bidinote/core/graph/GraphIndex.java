@@ -0,0 +1,485 @@
+package com.bidinote.core.graph;
+
+import com.bidinote.core.model.NoteEdge;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
+
+/**
+ * 页面级邻接索引：页面 ULID 映射为连续的整数编号，出边与入边以 CSR（偏移数组 + 边号数组）存放，度数预先计算。
+ * 替换某页出边时旧边只打删除标记，新边记入按页面的增量表；删除标记与增量累计到一定比例后整体重建 CSR。
+ * 边类型（忽略大小写）同样映射为整数，供链接查询按类型遍历邻接。
+ */
+public final class GraphIndex {
+    static final int ANY_TYPE = -1;
+    private static final int COMPACT_MIN_CHANGES = 1024;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> ulids = new ArrayList<>();
+    private int[] degree = new int[16];
+    private final Map<String, Integer> typeIds = new HashMap<>();
+    private int[] typeEdgeCounts = new int[4];
+
+    // 边表：下标即边号，删除的边置为 null。
+    private NoteEdge[] edges = new NoteEdge[16];
+    private int[] edgeSrc = new int[16];
+    private int[] edgeDst = new int[16];
+    private int[] edgeType = new int[16];
+    private int edgeCount;
+    private int deadEdges;
+
+    // CSR 只覆盖上次重建时已有的页面和边，之后的新边在 addedOut/addedIn 中。
+    private int baseNodes;
+    private int[] outOffsets = new int[1];
+    private int[] outEdges = new int[0];
+    private int[] inOffsets = new int[1];
+    private int[] inEdges = new int[0];
+    private final Map<Integer, IntList> addedOut = new HashMap<>();
+    private final Map<Integer, IntList> addedIn = new HashMap<>();
+    private int addedEdges;
+
+    /**
+     * 以 anchor 为起点按层展开后得到的页面与边，每条边只出现一次。
+     */
+    public record Subgraph(List<String> nodeIds, List<NoteEdge> edges) {
+    }
+
+    /**
+     * 逐层展开时的一环：本层新增的页面，以及把它们连到已发出页面上的边。truncated 表示本层因预算、期限或取消被截断。
+     */
+    public record Ring(int level, List<String> nodeIds, List<NoteEdge> edges, boolean truncated) {
+    }
+
+    public static GraphIndex build(Stream<NoteEdge> edges) {
+        GraphIndex index = new GraphIndex();
+        edges.forEach(index::addEdge);
+        index.compact();
+        return index;
+    }
+
+    /**
+     * 用新的出边整体替换 pageId 的出边，与 saveEdges 的语义一致。
+     */
+    public void replaceEdges(String pageId, List<NoteEdge> pageEdges) {
+        Objects.requireNonNull(pageId, "pageId");
+        lock.writeLock().lock();
+        try {
+            Integer src = ids.get(pageId);
+            if (src != null) {
+                forEachOut(src, this::removeEdge);
+                addedOut.remove(src);
+            }
+            pageEdges.forEach(this::addEdge);
+            if (deadEdges + addedEdges > Math.max(COMPACT_MIN_CHANGES, (edgeCount - deadEdges) / 4)) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int degree(String pageId) {
+        lock.readLock().lock();
+        try {
+            Integer id = ids.get(pageId);
+            return id == null ? 0 : degree[id];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int edgeCount() {
+        lock.readLock().lock();
+        try {
+            return edgeCount - deadEdges;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 广度优先展开 depth 层。只有度数不低于 minDegree 的页面才继续向外展开，其余页面只作为终点出现。
+     * 耗时与访问到的边数成正比。
+     */
+    public Subgraph expand(String anchorId, int depth, int minDegree) {
+        lock.readLock().lock();
+        try {
+            List<String> nodeIds = new ArrayList<>();
+            List<NoteEdge> selected = new ArrayList<>();
+            nodeIds.add(anchorId);
+            Integer anchor = ids.get(anchorId);
+            if (anchor == null) {
+                return new Subgraph(nodeIds, selected);
+            }
+            BitSet visited = new BitSet(ulids.size());
+            BitSet visitedEdges = new BitSet(edgeCount);
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            queue.add(anchor);
+            visited.set(anchor);
+            for (int level = 0; level <= depth && !queue.isEmpty(); level++) {
+                for (int remaining = queue.size(); remaining > 0; remaining--) {
+                    int node = queue.poll();
+                    if (node != anchor) {
+                        nodeIds.add(ulids.get(node));
+                    }
+                    if (degree[node] < minDegree) {
+                        continue;
+                    }
+                    forEachIncident(node, edge -> {
+                        if (!visitedEdges.get(edge)) {
+                            visitedEdges.set(edge);
+                            selected.add(edges[edge]);
+                        }
+                        int other = edgeSrc[edge] == node ? edgeDst[edge] : edgeSrc[edge];
+                        if (!visited.get(other)) {
+                            visited.set(other);
+                            queue.add(other);
+                        }
+                    });
+                }
+            }
+            return new Subgraph(nodeIds, selected);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 开始一次逐层展开。返回的游标只能由一个线程使用；每层在读锁内计算，层与层之间不阻塞写入。
+     */
+    public Expansion startExpansion(String anchorId, int minDegree) {
+        return new Expansion(anchorId, minDegree);
+    }
+
+    /**
+     * 逐层展开的游标。节点编号在索引重建后保持不变，边号会变，因此跨层只记录节点状态：
+     * 一条边在它的第一个被展开的端点上发出，另一端已展开过的边跳过。度数低于阈值的页面不遍历自己的边，
+     * 因此不算已展开，它的边仍由另一端发出。
+     */
+    public final class Expansion {
+        private final String anchorId;
+        private final int minDegree;
+        private final BitSet emitted = new BitSet();
+        private final BitSet expanded = new BitSet();
+        private List<Integer> ring = new ArrayList<>();
+        private int level;
+
+        private Expansion(String anchorId, int minDegree) {
+            this.anchorId = anchorId;
+            this.minDegree = minDegree;
+        }
+
+        /**
+         * 计算下一层，最多发出 maxNodes 个页面和 maxEdges 条边。候选页面多于预算时按度数从高到低保留；
+         * stop 返回 true（到期或取消）时停止扫描，用已收集的部分组成本层。没有更多页面时返回 null。
+         */
+        public Ring next(int maxNodes, int maxEdges, BooleanSupplier stop) {
+            lock.readLock().lock();
+            try {
+                if (level == 0) {
+                    level++;
+                    Integer anchor = ids.get(anchorId);
+                    if (anchor != null) {
+                        emitted.set(anchor);
+                        ring = List.of(anchor);
+                    }
+                    return new Ring(0, List.of(anchorId), List.of(), false);
+                }
+                if (ring.isEmpty()) {
+                    return null;
+                }
+                Map<Integer, List<NoteEdge>> candidates = new HashMap<>();
+                List<NoteEdge> internal = new ArrayList<>();
+                boolean stopped = false;
+                for (int node : ring) {
+                    if (stop.getAsBoolean()) {
+                        stopped = true;
+                        break;
+                    }
+                    if (degree[node] >= minDegree) {
+                        forEachIncident(node, edge -> {
+                            int other = edgeSrc[edge] == node ? edgeDst[edge] : edgeSrc[edge];
+                            if (expanded.get(other)) {
+                                return;
+                            }
+                            if (emitted.get(other)) {
+                                internal.add(edges[edge]);
+                            } else {
+                                candidates.computeIfAbsent(other, k -> new ArrayList<>()).add(edges[edge]);
+                            }
+                        });
+                        expanded.set(node);
+                    }
+                }
+                List<Integer> next = new ArrayList<>(candidates.keySet());
+                boolean truncated = stopped;
+                if (next.size() > maxNodes) {
+                    next.sort((a, b) -> degree[b] != degree[a] ? Integer.compare(degree[b], degree[a]) : Integer.compare(a, b));
+                    next = new ArrayList<>(next.subList(0, Math.max(0, maxNodes)));
+                    truncated = true;
+                }
+                List<String> nodeIds = new ArrayList<>(next.size());
+                List<NoteEdge> ringEdges = new ArrayList<>(internal);
+                for (int node : next) {
+                    emitted.set(node);
+                    nodeIds.add(ulids.get(node));
+                    ringEdges.addAll(candidates.get(node));
+                }
+                if (ringEdges.size() > maxEdges) {
+                    ringEdges = new ArrayList<>(ringEdges.subList(0, Math.max(0, maxEdges)));
+                    truncated = true;
+                }
+                ring = next;
+                return new Ring(level++, nodeIds, ringEdges, truncated);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    ReadWriteLock lock() {
+        return lock;
+    }
+
+    int nodeId(String ulid) {
+        Integer id = ids.get(ulid);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * 为没有任何边的页面也分配编号，调用方须持有写锁。
+     */
+    int ensureNode(String ulid) {
+        return idOf(ulid);
+    }
+
+    String ulid(int id) {
+        return ulids.get(id);
+    }
+
+    int nodeCount() {
+        return ulids.size();
+    }
+
+    int degree(int id) {
+        return degree[id];
+    }
+
+    /**
+     * 返回类型编号；库中没有这种类型的边时返回 -2，与 {@link #ANY_TYPE} 区分。
+     */
+    int typeId(String type) {
+        Integer id = typeIds.get(typeKey(type));
+        return id == null ? -2 : id;
+    }
+
+    int edgeCount(int type) {
+        return type == ANY_TYPE ? edgeCount - deadEdges : type < 0 ? 0 : typeEdgeCounts[type];
+    }
+
+    /**
+     * 遍历 node 在 outgoing 方向上类型为 type 的边的另一端，type 为 {@link #ANY_TYPE} 时不限类型。
+     */
+    void forEachNeighbour(int node, boolean outgoing, int type, IntConsumer consumer) {
+        IntConsumer filtered = edge -> {
+            if (type == ANY_TYPE || edgeType[edge] == type) {
+                consumer.accept(outgoing ? edgeDst[edge] : edgeSrc[edge]);
+            }
+        };
+        if (outgoing) {
+            forEachOut(node, filtered);
+        } else {
+            forEachIn(node, filtered);
+        }
+    }
+
+    void forEachEdge(int node, boolean outgoing, Consumer<NoteEdge> consumer) {
+        IntConsumer toEdge = edge -> consumer.accept(edges[edge]);
+        if (outgoing) {
+            forEachOut(node, toEdge);
+        } else {
+            forEachIn(node, toEdge);
+        }
+    }
+
+    private void forEachIn(int node, IntConsumer consumer) {
+        if (node < baseNodes) {
+            for (int i = inOffsets[node]; i < inOffsets[node + 1]; i++) {
+                if (edges[inEdges[i]] != null) {
+                    consumer.accept(inEdges[i]);
+                }
+            }
+        }
+        forEachLive(addedIn.get(node), consumer);
+    }
+
+    private void forEachIncident(int node, IntConsumer consumer) {
+        forEachOut(node, consumer);
+        // 自环已在出边中出现过一次。
+        forEachIn(node, edge -> {
+            if (edgeSrc[edge] != node) {
+                consumer.accept(edge);
+            }
+        });
+    }
+
+    private void forEachOut(int node, IntConsumer consumer) {
+        if (node < baseNodes) {
+            for (int i = outOffsets[node]; i < outOffsets[node + 1]; i++) {
+                if (edges[outEdges[i]] != null) {
+                    consumer.accept(outEdges[i]);
+                }
+            }
+        }
+        forEachLive(addedOut.get(node), consumer);
+    }
+
+    private void forEachLive(IntList list, IntConsumer consumer) {
+        if (list == null) {
+            return;
+        }
+        for (int i = 0; i < list.size; i++) {
+            if (edges[list.items[i]] != null) {
+                consumer.accept(list.items[i]);
+            }
+        }
+    }
+
+    private int idOf(String ulid) {
+        Integer id = ids.get(ulid);
+        if (id != null) {
+            return id;
+        }
+        int created = ulids.size();
+        ids.put(ulid, created);
+        ulids.add(ulid);
+        if (created == degree.length) {
+            degree = Arrays.copyOf(degree, created * 2);
+        }
+        return created;
+    }
+
+    private void addEdge(NoteEdge edge) {
+        int src = idOf(edge.getSrcPageId());
+        int dst = idOf(edge.getDstPageId());
+        int type = typeIds.computeIfAbsent(typeKey(edge.getType()), k -> typeIds.size());
+        if (type == typeEdgeCounts.length) {
+            typeEdgeCounts = Arrays.copyOf(typeEdgeCounts, type * 2);
+        }
+        if (edgeCount == edges.length) {
+            edges = Arrays.copyOf(edges, edgeCount * 2);
+            edgeSrc = Arrays.copyOf(edgeSrc, edgeCount * 2);
+            edgeDst = Arrays.copyOf(edgeDst, edgeCount * 2);
+            edgeType = Arrays.copyOf(edgeType, edgeCount * 2);
+        }
+        int id = edgeCount++;
+        edges[id] = edge;
+        edgeSrc[id] = src;
+        edgeDst[id] = dst;
+        edgeType[id] = type;
+        typeEdgeCounts[type]++;
+        addedOut.computeIfAbsent(src, k -> new IntList()).add(id);
+        addedIn.computeIfAbsent(dst, k -> new IntList()).add(id);
+        addedEdges++;
+        degree[src]++;
+        if (dst != src) {
+            degree[dst]++;
+        }
+    }
+
+    private void removeEdge(int id) {
+        edges[id] = null;
+        deadEdges++;
+        typeEdgeCounts[edgeType[id]]--;
+        degree[edgeSrc[id]]--;
+        if (edgeDst[id] != edgeSrc[id]) {
+            degree[edgeDst[id]]--;
+        }
+    }
+
+    /**
+     * 丢弃删除标记、并入增量，按计数排序重建 CSR，边号随之重新编排。
+     */
+    private void compact() {
+        int live = edgeCount - deadEdges;
+        NoteEdge[] liveEdges = new NoteEdge[Math.max(16, live)];
+        int[] liveSrc = new int[liveEdges.length];
+        int[] liveDst = new int[liveEdges.length];
+        int[] liveType = new int[liveEdges.length];
+        int next = 0;
+        for (int i = 0; i < edgeCount; i++) {
+            if (edges[i] != null) {
+                liveEdges[next] = edges[i];
+                liveSrc[next] = edgeSrc[i];
+                liveDst[next] = edgeDst[i];
+                liveType[next] = edgeType[i];
+                next++;
+            }
+        }
+        int nodes = ulids.size();
+        outOffsets = offsets(liveSrc, live, nodes);
+        inOffsets = offsets(liveDst, live, nodes);
+        outEdges = bucket(liveSrc, live, outOffsets);
+        inEdges = bucket(liveDst, live, inOffsets);
+        edges = liveEdges;
+        edgeSrc = liveSrc;
+        edgeDst = liveDst;
+        edgeType = liveType;
+        edgeCount = live;
+        deadEdges = 0;
+        baseNodes = nodes;
+        addedOut.clear();
+        addedIn.clear();
+        addedEdges = 0;
+    }
+
+    private static String typeKey(String type) {
+        return type == null ? "" : type.toLowerCase(Locale.ROOT);
+    }
+
+    private static int[] offsets(int[] endpoints, int count, int nodes) {
+        int[] offsets = new int[nodes + 1];
+        for (int i = 0; i < count; i++) {
+            offsets[endpoints[i] + 1]++;
+        }
+        for (int i = 0; i < nodes; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        return offsets;
+    }
+
+    private static int[] bucket(int[] endpoints, int count, int[] offsets) {
+        int[] cursor = Arrays.copyOf(offsets, offsets.length - 1);
+        int[] bucketed = new int[count];
+        for (int i = 0; i < count; i++) {
+            bucketed[cursor[endpoints[i]]++] = i;
+        }
+        return bucketed;
+    }
+
+    private static final class IntList {
+        private int[] items = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = value;
+        }
+    }
+}
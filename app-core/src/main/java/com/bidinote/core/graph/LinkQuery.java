@@ -0,0 +1,55 @@
+package com.bidinote.core.graph;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 链接查询 DSL 的语法树。标签、边类型的比较忽略大小写。
+ * <pre>
+ * query   := or [LIMIT n]
+ * or      := and (OR and)*
+ * and     := unary (AND unary)*
+ * unary   := NOT unary | primary
+ * primary := ( or ) | tag=值 | type=值 | out([type=值])->unary | in([type=值])->unary
+ * </pre>
+ * 值可以加双引号；关键字不区分大小写。
+ */
+public sealed interface LinkQuery {
+
+    /**
+     * 解析查询表达式，语法错误抛出 IllegalArgumentException。
+     */
+    static Parsed parse(String expression) {
+        return new LinkQueryParser(Objects.requireNonNull(expression, "expression")).parse();
+    }
+
+    /**
+     * 解析结果。limit 为 0 表示不限条数。
+     */
+    record Parsed(LinkQuery root, int limit) {
+    }
+
+    record Tag(String tag) implements LinkQuery {
+    }
+
+    /**
+     * 页面类型，目前所有页面都是 note。
+     */
+    record Type(String type) implements LinkQuery {
+    }
+
+    /**
+     * 沿某类型的边走一步：out 为有指向 target 的出边的页面，in 为有来自 target 的入边的页面。edgeType 为 null 时不限类型。
+     */
+    record Step(boolean outgoing, String edgeType, LinkQuery target) implements LinkQuery {
+    }
+
+    record And(List<LinkQuery> children) implements LinkQuery {
+    }
+
+    record Or(List<LinkQuery> children) implements LinkQuery {
+    }
+
+    record Not(LinkQuery child) implements LinkQuery {
+    }
+}
@@ -0,0 +1,113 @@
+package com.bidinote.core.graph;
+
+import com.bidinote.core.model.NoteNode;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * 链接查询使用的页面索引：标签（忽略大小写）到页面位图的倒排表，以及页面快照。
+ * 页面编号与 {@link GraphIndex} 共用，读写也使用同一把锁，因此查询可以直接在位图与 CSR 邻接之间来回。
+ */
+public final class LinkQueryIndex {
+    private static final BitSet EMPTY = new BitSet();
+
+    private final GraphIndex graph;
+    private final Map<String, BitSet> tags = new HashMap<>();
+    private final BitSet present = new BitSet();
+    private NoteNode[] nodes = new NoteNode[16];
+
+    private LinkQueryIndex(GraphIndex graph) {
+        this.graph = graph;
+    }
+
+    public static LinkQueryIndex build(GraphIndex graph, Collection<NoteNode> nodes) {
+        LinkQueryIndex index = new LinkQueryIndex(Objects.requireNonNull(graph, "graph"));
+        nodes.forEach(index::putNode);
+        return index;
+    }
+
+    /**
+     * 新增或更新页面：只改动该页旧标签与新标签对应的位图。
+     */
+    public void putNode(NoteNode node) {
+        NoteNode snapshot = copy(node);
+        ReadWriteLock lock = graph.lock();
+        lock.writeLock().lock();
+        try {
+            int id = graph.ensureNode(snapshot.getId());
+            if (id >= nodes.length) {
+                nodes = Arrays.copyOf(nodes, Math.max(id + 1, nodes.length * 2));
+            }
+            NoteNode previous = nodes[id];
+            if (previous != null) {
+                // 标签区分大小写，"Project" 与 "project" 可以同时存在，按键去重后只清除一次。
+                previous.getTags().stream().map(LinkQueryIndex::tagKey).distinct().forEach(key -> {
+                    BitSet pages = tags.get(key);
+                    pages.clear(id);
+                    if (pages.isEmpty()) {
+                        tags.remove(key);
+                    }
+                });
+            }
+            for (String tag : snapshot.getTags()) {
+                tags.computeIfAbsent(tagKey(tag), key -> new BitSet()).set(id);
+            }
+            nodes[id] = snapshot;
+            present.set(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        ReadWriteLock lock = graph.lock();
+        lock.readLock().lock();
+        try {
+            return present.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    GraphIndex graph() {
+        return graph;
+    }
+
+    /**
+     * 以下方法返回内部位图，调用方须持有读锁且不得修改。
+     */
+    BitSet pagesTagged(String tag) {
+        return tags.getOrDefault(tagKey(tag), EMPTY);
+    }
+
+    BitSet present() {
+        return present;
+    }
+
+    boolean isPresent(int id) {
+        return present.get(id);
+    }
+
+    NoteNode node(int id) {
+        return copy(nodes[id]);
+    }
+
+    private static String tagKey(String tag) {
+        return tag.toLowerCase(Locale.ROOT);
+    }
+
+    private static NoteNode copy(NoteNode node) {
+        NoteNode copy = new NoteNode(node.getId(), node.getTitle());
+        copy.addAliases(node.getAliases());
+        copy.setTags(node.getTags());
+        copy.setUpdatedAt(node.getUpdatedAt());
+        return copy;
+    }
+}
@@ -0,0 +1,176 @@
+package com.bidinote.core.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 链接查询的递归下降解析器，语法见 {@link LinkQuery}。
+ */
+final class LinkQueryParser {
+    private enum Kind { WORD, STRING, LPAREN, RPAREN, EQUALS, ARROW, END }
+
+    private record Token(Kind kind, String text, int position) {
+    }
+
+    private final String expression;
+    private final List<Token> tokens;
+    private int next;
+
+    LinkQueryParser(String expression) {
+        this.expression = expression;
+        this.tokens = tokenize(expression);
+    }
+
+    LinkQuery.Parsed parse() {
+        LinkQuery root = or();
+        int limit = 0;
+        if (keyword("LIMIT")) {
+            Token token = expect(Kind.WORD, "LIMIT 之后需要条数");
+            try {
+                limit = Integer.parseInt(token.text());
+            } catch (NumberFormatException e) {
+                throw error(token, "LIMIT 之后需要条数");
+            }
+            if (limit <= 0) {
+                throw error(token, "LIMIT 必须大于 0");
+            }
+        }
+        if (peek().kind() != Kind.END) {
+            throw error(peek(), "多余的内容");
+        }
+        return new LinkQuery.Parsed(root, limit);
+    }
+
+    private LinkQuery or() {
+        List<LinkQuery> children = new ArrayList<>();
+        children.add(and());
+        while (keyword("OR")) {
+            children.add(and());
+        }
+        return children.size() == 1 ? children.get(0) : new LinkQuery.Or(List.copyOf(children));
+    }
+
+    private LinkQuery and() {
+        List<LinkQuery> children = new ArrayList<>();
+        children.add(unary());
+        while (keyword("AND")) {
+            children.add(unary());
+        }
+        return children.size() == 1 ? children.get(0) : new LinkQuery.And(List.copyOf(children));
+    }
+
+    private LinkQuery unary() {
+        if (keyword("NOT")) {
+            return new LinkQuery.Not(unary());
+        }
+        return primary();
+    }
+
+    private LinkQuery primary() {
+        Token token = peek();
+        if (token.kind() == Kind.LPAREN) {
+            next++;
+            LinkQuery inner = or();
+            expect(Kind.RPAREN, "缺少右括号");
+            return inner;
+        }
+        Token word = expect(Kind.WORD, "需要 tag=、type=、out() 或 in()");
+        String name = word.text().toLowerCase(Locale.ROOT);
+        switch (name) {
+            case "tag" -> {
+                return new LinkQuery.Tag(value());
+            }
+            case "type" -> {
+                return new LinkQuery.Type(value());
+            }
+            case "out", "in" -> {
+                expect(Kind.LPAREN, name + " 之后需要左括号");
+                String edgeType = null;
+                if (peek().kind() != Kind.RPAREN) {
+                    Token key = expect(Kind.WORD, name + "() 中只能写 type=值");
+                    if (!key.text().equalsIgnoreCase("type")) {
+                        throw error(key, name + "() 中只能写 type=值");
+                    }
+                    edgeType = value();
+                }
+                expect(Kind.RPAREN, "缺少右括号");
+                expect(Kind.ARROW, name + "() 之后需要 ->");
+                return new LinkQuery.Step(name.equals("out"), edgeType, unary());
+            }
+            default -> throw error(word, "未知的条件 " + word.text());
+        }
+    }
+
+    private String value() {
+        expect(Kind.EQUALS, "需要 =");
+        Token token = peek();
+        if (token.kind() != Kind.WORD && token.kind() != Kind.STRING) {
+            throw error(token, "= 之后需要值");
+        }
+        next++;
+        return token.text();
+    }
+
+    private boolean keyword(String keyword) {
+        Token token = peek();
+        if (token.kind() == Kind.WORD && token.text().equalsIgnoreCase(keyword)) {
+            next++;
+            return true;
+        }
+        return false;
+    }
+
+    private Token expect(Kind kind, String message) {
+        Token token = peek();
+        if (token.kind() != kind) {
+            throw error(token, message);
+        }
+        next++;
+        return token;
+    }
+
+    private Token peek() {
+        return tokens.get(next);
+    }
+
+    private IllegalArgumentException error(Token token, String message) {
+        return new IllegalArgumentException("无法解析查询: " + message + "（位置 " + token.position() + "）: " + expression);
+    }
+
+    private List<Token> tokenize(String text) {
+        List<Token> result = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(') {
+                result.add(new Token(Kind.LPAREN, "(", i++));
+            } else if (c == ')') {
+                result.add(new Token(Kind.RPAREN, ")", i++));
+            } else if (c == '=') {
+                result.add(new Token(Kind.EQUALS, "=", i++));
+            } else if (text.startsWith("->", i)) {
+                result.add(new Token(Kind.ARROW, "->", i));
+                i += 2;
+            } else if (c == '"') {
+                int end = text.indexOf('"', i + 1);
+                if (end < 0) {
+                    throw error(new Token(Kind.STRING, "", i), "引号没有闭合");
+                }
+                result.add(new Token(Kind.STRING, text.substring(i + 1, end), i));
+                i = end + 1;
+            } else {
+                int start = i;
+                while (i < text.length() && !Character.isWhitespace(text.charAt(i))
+                        && "()=\"".indexOf(text.charAt(i)) < 0 && !text.startsWith("->", i)) {
+                    i++;
+                }
+                result.add(new Token(Kind.WORD, text.substring(start, i), start));
+            }
+        }
+        result.add(new Token(Kind.END, "", text.length()));
+        return result;
+    }
+}
@@ -4,69 +4,239 @@ import com.bidinote.core.model.NoteEdge;
 import com.bidinote.core.model.NoteNode;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.ReadWriteLock;
 
 /**
- * 简易 DSL 查询引擎。
+ * 链接查询引擎：表达式解析为 {@link LinkQuery} 语法树，在 {@link LinkQueryIndex} 的标签倒排位图和
+ * {@link GraphIndex} 的按类型邻接上求值。AND 先算估计结果最少的条件，后面的条件只在已有候选内求值，
+ * NOT 在最后以位图差集扣除；LIMIT 在最后一步逐个检查候选时提前结束。
  */
 public class LinkQueryService {
-    private static final Pattern OUT_PATTERN = Pattern.compile("out\\(type=\"([^\"]+)\"\\)->tag=\"([^\"]+)\"");
 
     public record QueryResult(List<NoteNode> nodes, List<NoteEdge> edges) {
     }
 
+    /**
+     * 在维护好的索引上查询。结果按页面编号排列，edges 为至少一端在结果中的边。
+     */
+    public QueryResult query(LinkQueryIndex index, String expression) {
+        Objects.requireNonNull(index, "index");
+        LinkQuery.Parsed parsed = expression == null || expression.isBlank() ? null : LinkQuery.parse(expression);
+        ReadWriteLock lock = index.graph().lock();
+        lock.readLock().lock();
+        try {
+            BitSet matched;
+            if (parsed == null) {
+                matched = (BitSet) index.present().clone();
+            } else {
+                matched = new Plan(index).evaluate(parsed.root(), null, parsed.limit());
+                truncate(matched, parsed.limit());
+            }
+            return collect(index, matched);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 一次性查询：临时为给定的页面与边建立索引。反复查询时应保留索引并使用 {@link #query(LinkQueryIndex, String)}。
+     */
     public QueryResult query(List<NoteNode> nodes, List<NoteEdge> edges, String expression) {
         Objects.requireNonNull(nodes, "nodes");
         Objects.requireNonNull(edges, "edges");
-        if (expression == null || expression.isBlank()) {
-            return new QueryResult(nodes, edges);
+        return query(LinkQueryIndex.build(GraphIndex.build(edges.stream()), nodes), expression);
+    }
+
+    private QueryResult collect(LinkQueryIndex index, BitSet matched) {
+        GraphIndex graph = index.graph();
+        List<NoteNode> nodes = new ArrayList<>(matched.cardinality());
+        List<NoteEdge> edges = new ArrayList<>();
+        for (int id = matched.nextSetBit(0); id >= 0; id = matched.nextSetBit(id + 1)) {
+            nodes.add(index.node(id));
+            graph.forEachEdge(id, true, edges::add);
+            // 源页面也在结果中的入边已随源页面的出边收集过。
+            graph.forEachEdge(id, false, edge -> {
+                int src = graph.nodeId(edge.getSrcPageId());
+                if (!matched.get(src)) {
+                    edges.add(edge);
+                }
+            });
+        }
+        return new QueryResult(nodes, edges);
+    }
+
+    private static void truncate(BitSet bits, int limit) {
+        if (limit <= 0) {
+            return;
         }
-        List<NoteNode> filtered = new ArrayList<>(nodes);
-        List<String> tokens = List.of(expression.split("\\s+AND\\s+"));
-        for (String token : tokens) {
-            token = token.trim();
-            if (token.startsWith("type=")) {
-                String value = token.substring("type=".length()).replace("\"", "").toLowerCase(Locale.ROOT);
-                if (!"note".equals(value)) {
-                    filtered.clear();
+        int id = bits.nextSetBit(0);
+        for (int kept = 0; id >= 0 && kept < limit; kept++) {
+            id = bits.nextSetBit(id + 1);
+        }
+        if (id >= 0) {
+            bits.clear(id, bits.length());
+        }
+    }
+
+    /**
+     * 求 query 在 within 范围内（为 null 时为全部页面）的结果，调用方持有索引读锁。
+     */
+    static BitSet evaluate(LinkQueryIndex index, LinkQuery query, BitSet within) {
+        return new Plan(index).evaluate(query, within, 0);
+    }
+
+    /**
+     * 一次查询的求值过程，调用方持有索引读锁。
+     */
+    private static final class Plan {
+        private final LinkQueryIndex index;
+        private final GraphIndex graph;
+
+        Plan(LinkQueryIndex index) {
+            this.index = index;
+            this.graph = index.graph();
+        }
+
+        /**
+         * 求 query 与 within 的交集（within 为 null 表示全部页面）。limit 大于 0 时调用方只需要最靠前的 limit 个结果，
+         * 返回值可能多于 limit，但不会漏掉这些结果。返回的位图归调用方所有。
+         */
+        BitSet evaluate(LinkQuery query, BitSet within, int limit) {
+            if (query instanceof LinkQuery.Tag tag) {
+                BitSet result = all(within);
+                result.and(index.pagesTagged(tag.tag()));
+                return result;
+            }
+            if (query instanceof LinkQuery.Type type) {
+                // 目前只有 note 一种页面类型。
+                return "note".equals(type.type().toLowerCase(Locale.ROOT)) ? all(within) : new BitSet();
+            }
+            if (query instanceof LinkQuery.Step step) {
+                return step(step, within, limit);
+            }
+            if (query instanceof LinkQuery.And and) {
+                return and(and.children(), within, limit);
+            }
+            if (query instanceof LinkQuery.Or or) {
+                BitSet result = new BitSet();
+                for (LinkQuery child : or.children()) {
+                    result.or(evaluate(child, within, limit));
                 }
-            } else if (token.startsWith("tag=")) {
-                String value = token.substring("tag=".length()).replace("\"", "");
-                filtered = filtered.stream()
-                        .filter(node -> node.getTags().stream().anyMatch(tag -> tag.equalsIgnoreCase(value)))
-                        .collect(Collectors.toCollection(ArrayList::new));
-            } else {
-                Matcher matcher = OUT_PATTERN.matcher(token);
-                if (matcher.matches()) {
-                    String edgeType = matcher.group(1);
-                    String targetTag = matcher.group(2);
-                    Set<String> allowedTargets = nodes.stream()
-                            .filter(node -> node.getTags().stream().anyMatch(tag -> tag.equalsIgnoreCase(targetTag)))
-                            .map(NoteNode::getId)
-                            .collect(Collectors.toSet());
-                    Set<String> allowedSources = edges.stream()
-                            .filter(edge -> edgeType.equalsIgnoreCase(edge.getType()) && allowedTargets.contains(edge.getDstPageId()))
-                            .map(NoteEdge::getSrcPageId)
-                            .collect(Collectors.toSet());
-                    filtered = filtered.stream()
-                            .filter(node -> allowedSources.contains(node.getId()))
-                            .collect(Collectors.toCollection(ArrayList::new));
+                return result;
+            }
+            LinkQuery.Not not = (LinkQuery.Not) query;
+            BitSet result = all(within);
+            result.andNot(evaluate(not.child(), result, 0));
+            return result;
+        }
+
+        private BitSet and(List<LinkQuery> children, BitSet within, int limit) {
+            List<LinkQuery> positive = new ArrayList<>();
+            List<LinkQuery> negative = new ArrayList<>();
+            for (LinkQuery child : children) {
+                if (child instanceof LinkQuery.Not not) {
+                    negative.add(not.child());
+                } else {
+                    positive.add(child);
+                }
+            }
+            positive.sort(Comparator.comparingLong(this::estimate));
+            BitSet current = within;
+            for (int i = 0; i < positive.size(); i++) {
+                boolean last = i == positive.size() - 1 && negative.isEmpty();
+                current = evaluate(positive.get(i), current, last ? limit : 0);
+                if (current.isEmpty()) {
+                    return current;
                 }
             }
+            if (positive.isEmpty()) {
+                current = all(within);
+            }
+            for (LinkQuery child : negative) {
+                current.andNot(evaluate(child, current, 0));
+                if (current.isEmpty()) {
+                    break;
+                }
+            }
+            return current;
+        }
+
+        /**
+         * 候选少于目标集合的估计时，只在候选的邻居内求目标条件，再逐个检查候选，可以在凑够 limit 后停止；
+         * 否则求出整个目标集合后反向遍历一次邻接。前者的耗时只与候选及其邻居有关，增量刷新走的就是这条路径。
+         */
+        private BitSet step(LinkQuery.Step step, BitSet within, int limit) {
+            int type = step.edgeType() == null ? GraphIndex.ANY_TYPE : graph.typeId(step.edgeType());
+            if (graph.edgeCount(type) == 0) {
+                return new BitSet();
+            }
+            BitSet result = new BitSet();
+            if (within != null && within.cardinality() < estimate(step.target())) {
+                BitSet neighbours = new BitSet();
+                for (int id = within.nextSetBit(0); id >= 0; id = within.nextSetBit(id + 1)) {
+                    graph.forEachNeighbour(id, step.outgoing(), type, neighbours::set);
+                }
+                BitSet targets = evaluate(step.target(), restrict(neighbours, null), 0);
+                int found = 0;
+                for (int id = within.nextSetBit(0); id >= 0; id = within.nextSetBit(id + 1)) {
+                    if (hasNeighbourIn(id, step.outgoing(), type, targets)) {
+                        result.set(id);
+                        if (++found == limit) {
+                            break;
+                        }
+                    }
+                }
+                return result;
+            }
+            BitSet targets = evaluate(step.target(), null, 0);
+            for (int id = targets.nextSetBit(0); id >= 0; id = targets.nextSetBit(id + 1)) {
+                graph.forEachNeighbour(id, !step.outgoing(), type, result::set);
+            }
+            return restrict(result, within);
+        }
+
+        private boolean hasNeighbourIn(int id, boolean outgoing, int type, BitSet targets) {
+            boolean[] found = new boolean[1];
+            graph.forEachNeighbour(id, outgoing, type, other -> found[0] |= targets.get(other));
+            return found[0];
+        }
+
+        /**
+         * 估计结果页面数，AND 据此排序。标签取位图基数，边条件取该类型的边数上限。
+         */
+        private long estimate(LinkQuery query) {
+            int pages = index.present().cardinality();
+            if (query instanceof LinkQuery.Tag tag) {
+                return index.pagesTagged(tag.tag()).cardinality();
+            }
+            if (query instanceof LinkQuery.Type type) {
+                return "note".equals(type.type().toLowerCase(Locale.ROOT)) ? pages : 0;
+            }
+            if (query instanceof LinkQuery.Step step) {
+                int edgeType = step.edgeType() == null ? GraphIndex.ANY_TYPE : graph.typeId(step.edgeType());
+                return Math.min(pages, graph.edgeCount(edgeType));
+            }
+            if (query instanceof LinkQuery.And and) {
+                return and.children().stream().mapToLong(this::estimate).min().orElse(pages);
+            }
+            if (query instanceof LinkQuery.Or or) {
+                return Math.min(pages, or.children().stream().mapToLong(this::estimate).sum());
+            }
+            return Math.max(0, pages - estimate(((LinkQuery.Not) query).child()));
+        }
+
+        private BitSet restrict(BitSet bits, BitSet within) {
+            bits.and(within == null ? index.present() : within);
+            return bits;
+        }
+
+        private BitSet all(BitSet within) {
+            return (BitSet) (within == null ? index.present() : within).clone();
         }
-        Set<String> filteredIds = filtered.stream()
-                .map(NoteNode::getId)
-                .collect(Collectors.toSet());
-        List<NoteEdge> filteredEdges = edges.stream()
-                .filter(edge -> filteredIds.contains(edge.getSrcPageId()) || filteredIds.contains(edge.getDstPageId()))
-                .collect(Collectors.toList());
-        return new QueryResult(filtered, filteredEdges);
     }
 }
@@ -0,0 +1,203 @@
+package com.bidinote.core.graph;
+
+import com.bidinote.core.model.NoteNode;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * 具名的已保存链接查询，结果集常驻内存。页面变更时只重算可能受影响的页面：查询中 out()/in() 最多嵌套 d 层时，
+ * 一个页面的标签或出边变化只会影响与它在变更前后图中相距不超过 d 步的页面，其余页面的结果保持不变。
+ * 重算后把新增与移除的页面作为增量交给该查询的回调。
+ */
+public final class SavedLinkQueries {
+    private final LinkQueryIndex index;
+    private final Map<String, Saved> queries = new LinkedHashMap<>();
+
+    /**
+     * 一次变更中某个查询新增与移除的页面 ID。
+     */
+    public record Delta(String name, List<String> added, List<String> removed) {
+    }
+
+    private static final class Saved {
+        private final String name;
+        private final LinkQuery query;
+        private final int depth;
+        private final Consumer<Delta> onChange;
+        private BitSet matched;
+
+        private Saved(String name, LinkQuery query, Consumer<Delta> onChange) {
+            this.name = name;
+            this.query = query;
+            this.depth = depth(query);
+            this.onChange = onChange;
+        }
+    }
+
+    public SavedLinkQueries(LinkQueryIndex index) {
+        this.index = Objects.requireNonNull(index, "index");
+    }
+
+    /**
+     * 保存并立即求值一个查询，同名查询被替换。结果集需要随变更增量维护，因此不支持 LIMIT。
+     */
+    public synchronized void register(String name, String expression, Consumer<Delta> onChange) {
+        Objects.requireNonNull(name, "name");
+        Objects.requireNonNull(onChange, "onChange");
+        LinkQuery.Parsed parsed = LinkQuery.parse(expression);
+        if (parsed.limit() > 0) {
+            throw new IllegalArgumentException("已保存的查询不支持 LIMIT: " + expression);
+        }
+        Saved saved = new Saved(name, parsed.root(), onChange);
+        ReadWriteLock lock = index.graph().lock();
+        lock.readLock().lock();
+        try {
+            saved.matched = LinkQueryService.evaluate(index, saved.query, null);
+        } finally {
+            lock.readLock().unlock();
+        }
+        queries.put(name, saved);
+    }
+
+    public synchronized void remove(String name) {
+        queries.remove(name);
+    }
+
+    public synchronized List<String> names() {
+        return List.copyOf(queries.keySet());
+    }
+
+    /**
+     * 返回查询当前的结果页面，按页面编号排列；查询不存在时抛出 IllegalArgumentException。
+     */
+    public synchronized List<NoteNode> results(String name) {
+        Saved saved = queries.get(name);
+        if (saved == null) {
+            throw new IllegalArgumentException("没有名为 " + name + " 的查询");
+        }
+        ReadWriteLock lock = index.graph().lock();
+        lock.readLock().lock();
+        try {
+            List<NoteNode> nodes = new ArrayList<>(saved.matched.cardinality());
+            for (int id = saved.matched.nextSetBit(0); id >= 0; id = saved.matched.nextSetBit(id + 1)) {
+                nodes.add(index.node(id));
+            }
+            return nodes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 执行 update（更新索引中 pageIds 的标签或出边），然后增量刷新全部查询并发布非空的增量。
+     * update 必须在这里执行，变更前的邻接决定了哪些页面会失去匹配。
+     */
+    public synchronized void apply(Collection<String> pageIds, Runnable update) {
+        if (queries.isEmpty()) {
+            update.run();
+            return;
+        }
+        int radius = queries.values().stream().mapToInt(saved -> saved.depth).max().orElse(0);
+        BitSet before = neighbourhood(pageIds, radius);
+        update.run();
+        BitSet affected = neighbourhood(pageIds, radius);
+        affected.or(before);
+        List<Delta> deltas = new ArrayList<>();
+        ReadWriteLock lock = index.graph().lock();
+        lock.readLock().lock();
+        try {
+            for (Saved saved : queries.values()) {
+                BitSet now = LinkQueryService.evaluate(index, saved.query, affected);
+                BitSet was = (BitSet) saved.matched.clone();
+                was.and(affected);
+                BitSet added = (BitSet) now.clone();
+                added.andNot(was);
+                BitSet removed = was;
+                removed.andNot(now);
+                if (!added.isEmpty() || !removed.isEmpty()) {
+                    saved.matched.andNot(removed);
+                    saved.matched.or(added);
+                    deltas.add(new Delta(saved.name, ulids(added), ulids(removed)));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (Delta delta : deltas) {
+            queries.get(delta.name()).onChange.accept(delta);
+        }
+    }
+
+    private BitSet neighbourhood(Collection<String> pageIds, int radius) {
+        ReadWriteLock lock = index.graph().lock();
+        lock.readLock().lock();
+        try {
+            return neighbourhoodLocked(pageIds, radius);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * pageIds 在当前图中 radius 步以内（不分方向）的页面。
+     */
+    private BitSet neighbourhoodLocked(Collection<String> pageIds, int radius) {
+        GraphIndex graph = index.graph();
+        BitSet reached = new BitSet();
+        BitSet frontier = new BitSet();
+        for (String pageId : pageIds) {
+            int id = graph.nodeId(pageId);
+            if (id >= 0) {
+                frontier.set(id);
+            }
+        }
+        reached.or(frontier);
+        for (int step = 0; step < radius && !frontier.isEmpty(); step++) {
+            BitSet next = new BitSet();
+            for (int id = frontier.nextSetBit(0); id >= 0; id = frontier.nextSetBit(id + 1)) {
+                graph.forEachNeighbour(id, true, GraphIndex.ANY_TYPE, next::set);
+                graph.forEachNeighbour(id, false, GraphIndex.ANY_TYPE, next::set);
+            }
+            next.andNot(reached);
+            reached.or(next);
+            frontier = next;
+        }
+        reached.and(index.present());
+        return reached;
+    }
+
+    private List<String> ulids(BitSet ids) {
+        List<String> result = new ArrayList<>(ids.cardinality());
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            result.add(index.graph().ulid(id));
+        }
+        return result;
+    }
+
+    /**
+     * out()/in() 的最大嵌套层数。
+     */
+    private static int depth(LinkQuery query) {
+        if (query instanceof LinkQuery.Step step) {
+            return 1 + depth(step.target());
+        }
+        if (query instanceof LinkQuery.And and) {
+            return and.children().stream().mapToInt(SavedLinkQueries::depth).max().orElse(0);
+        }
+        if (query instanceof LinkQuery.Or or) {
+            return or.children().stream().mapToInt(SavedLinkQueries::depth).max().orElse(0);
+        }
+        if (query instanceof LinkQuery.Not not) {
+            return depth(not.child());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,270 @@
+package com.bidinote.core.importer;
+
+import com.bidinote.core.model.NoteBlock;
+import com.bidinote.core.model.NoteEdge;
+import com.bidinote.core.model.NoteNode;
+import com.bidinote.core.parser.EdgeBuilder;
+import com.bidinote.core.parser.MarkdownBlockExtractor;
+import com.bidinote.core.parser.WikiLink;
+import com.bidinote.core.repository.NoteRepository;
+import com.bidinote.core.repository.NoteRepository.PageData;
+import com.bidinote.core.util.TextNormalizer;
+import com.bidinote.core.util.UlidHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 批量导入 Markdown 库。第一遍登记全部标题并在所有核心上并行切块；第二遍针对完整的标题集合并行解析链接，
+ * 由调用线程按批写入，每批一个事务。导入只写入页面、块与边，不计算未链接提及和链接建议。
+ * 文件名（去掉 .md）作为页面标题；库中已有同名页面时沿用其 ID 并整页覆盖，导入文件之间重名时只导入第一个。
+ */
+public class VaultImporter {
+    private static final Logger log = LoggerFactory.getLogger(VaultImporter.class);
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final int PROGRESS_INTERVAL = 200;
+
+    private final NoteRepository repository;
+    private final MarkdownBlockExtractor blockExtractor = new MarkdownBlockExtractor();
+    private final EdgeBuilder edgeBuilder = new EdgeBuilder();
+    private final int batchSize;
+    private final int parallelism;
+
+    public enum Phase {
+        PARSE, WRITE
+    }
+
+    public record Progress(Phase phase, int done, int total, Duration elapsed) {
+        public double pagesPerSecond() {
+            return elapsed.isZero() ? 0 : done * 1000.0 / elapsed.toMillis();
+        }
+    }
+
+    @FunctionalInterface
+    public interface ProgressListener {
+        void onProgress(Progress progress);
+    }
+
+    public record ImportResult(int pages, int blocks, int edges, int skipped, Duration elapsed) {
+        public double pagesPerSecond() {
+            return elapsed.isZero() ? 0 : pages * 1000.0 / elapsed.toMillis();
+        }
+    }
+
+    private record ParsedPage(NoteNode node, String markdown, List<NoteBlock> blocks, int[] blockRanges) {
+    }
+
+    public VaultImporter(NoteRepository repository) {
+        this(repository, DEFAULT_BATCH_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param batchSize   每个写事务包含的页面数
+     * @param parallelism 解析线程数
+     */
+    public VaultImporter(NoteRepository repository, int batchSize, int parallelism) {
+        if (batchSize < 1 || parallelism < 1) {
+            throw new IllegalArgumentException("batchSize 与 parallelism 必须大于 0");
+        }
+        this.repository = Objects.requireNonNull(repository, "repository");
+        this.batchSize = batchSize;
+        this.parallelism = parallelism;
+    }
+
+    public ImportResult importVault(Path root, ProgressListener listener) throws IOException {
+        Objects.requireNonNull(listener, "listener");
+        long started = System.nanoTime();
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".md"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        Map<String, NoteNode> byTitle = new HashMap<>();
+        Map<String, String> aliasToId = new HashMap<>();
+        try (Stream<NoteNode> nodes = repository.streamNodes()) {
+            nodes.forEach(node -> {
+                byTitle.putIfAbsent(node.getTitle(), node);
+                node.getAliases().stream().filter(alias -> !alias.isBlank())
+                        .forEach(alias -> aliasToId.putIfAbsent(TextNormalizer.normalize(alias), node.getId()));
+            });
+        }
+        Map<String, String> titleToId = new HashMap<>();
+        byTitle.forEach((title, node) -> titleToId.put(title, node.getId()));
+        Map<String, String> normalizedTitleToId = new HashMap<>();
+        byTitle.forEach((title, node) -> normalizedTitleToId.putIfAbsent(TextNormalizer.normalize(title), node.getId()));
+
+        Map<Path, NoteNode> targets = new HashMap<>();
+        Map<String, Path> imported = new HashMap<>();
+        int skipped = 0;
+        for (Path file : files) {
+            String title = titleOf(file);
+            Path first = imported.putIfAbsent(title, file);
+            if (first != null) {
+                log.warn("标题重复，跳过 {}（已导入 {}）", file, first);
+                skipped++;
+                continue;
+            }
+            NoteNode node = byTitle.get(title);
+            if (node == null) {
+                node = new NoteNode(UlidHelper.newUlid(), title);
+                titleToId.put(title, node.getId());
+            } else {
+                // 导入整页替换块与边，原有的正文哈希与链接签名不再对应库中内容，下次保存须完整执行。
+                node.setContentHash(0);
+                node.setLinkHash(0);
+            }
+            targets.put(file, node);
+            normalizedTitleToId.putIfAbsent(TextNormalizer.normalize(title), node.getId());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, new ImportThreadFactory());
+        try {
+            List<Future<ParsedPage>> parsing = new ArrayList<>();
+            List<NoteNode> parsingNodes = new ArrayList<>();
+            for (Path file : files) {
+                NoteNode node = targets.get(file);
+                if (node != null) {
+                    parsing.add(pool.submit(() -> parse(file, node)));
+                    parsingNodes.add(node);
+                }
+            }
+            List<ParsedPage> pages = new ArrayList<>(parsing.size());
+            for (int i = 0; i < parsing.size(); i++) {
+                ParsedPage page = await(parsing.get(i));
+                if (page == null) {
+                    // 读取失败的新页面不会写入，链接也不能指向它。
+                    NoteNode node = parsingNodes.get(i);
+                    if (!byTitle.containsKey(node.getTitle())) {
+                        titleToId.remove(node.getTitle());
+                        normalizedTitleToId.remove(TextNormalizer.normalize(node.getTitle()), node.getId());
+                    }
+                    skipped++;
+                } else {
+                    pages.add(page);
+                }
+                report(listener, Phase.PARSE, i + 1, parsing.size(), started);
+            }
+            parsing.clear();
+            parsingNodes.clear();
+
+            List<Future<PageData>> resolving = new ArrayList<>(pages.size());
+            for (ParsedPage page : pages) {
+                resolving.add(pool.submit(() -> resolve(page, titleToId, normalizedTitleToId, aliasToId)));
+            }
+            pages.clear();
+            int blockCount = 0;
+            int edgeCount = 0;
+            List<PageData> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < resolving.size(); i++) {
+                PageData data = await(resolving.get(i));
+                resolving.set(i, null);
+                batch.add(data);
+                blockCount += data.blocks().size();
+                edgeCount += data.edges().size();
+                if (batch.size() == batchSize || i == resolving.size() - 1) {
+                    repository.saveBatch(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+                report(listener, Phase.WRITE, i + 1, resolving.size(), started);
+            }
+            ImportResult result = new ImportResult(resolving.size(), blockCount, edgeCount, skipped, Duration.ofNanos(System.nanoTime() - started));
+            log.info("导入完成：{} 页，{} 块，{} 边，跳过 {} 个文件，耗时 {} ms", result.pages(), result.blocks(), result.edges(),
+                    result.skipped(), result.elapsed().toMillis());
+            return result;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private ParsedPage parse(Path file, NoteNode node) {
+        try {
+            String markdown = Files.readString(file, StandardCharsets.UTF_8);
+            node.setUpdatedAt(Files.getLastModifiedTime(file).toInstant());
+            MarkdownBlockExtractor.Result result = blockExtractor.extract(node.getId(), markdown);
+            return new ParsedPage(node, markdown, result.getBlocks(), result.getBlockRanges());
+        } catch (IOException e) {
+            log.warn("读取文件失败，跳过 {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * 与 NoteService 的链接解析一致：先按标题精确匹配，再按归一化后的标题、别名匹配。
+     */
+    private PageData resolve(ParsedPage page, Map<String, String> titleToId, Map<String, String> normalizedTitleToId,
+                             Map<String, String> aliasToId) {
+        List<NoteEdge> edges = edgeBuilder.build(page.node().getId(), page.blocks(), page.blockRanges(), page.markdown(),
+                link -> resolveTarget(link, titleToId, normalizedTitleToId, aliasToId));
+        return new PageData(page.node(), page.blocks(), edges);
+    }
+
+    private Optional<String> resolveTarget(WikiLink link, Map<String, String> titleToId, Map<String, String> normalizedTitleToId,
+                                           Map<String, String> aliasToId) {
+        String title = link.getTargetTitle();
+        if (title == null || title.isBlank()) {
+            return Optional.empty();
+        }
+        String id = titleToId.get(title);
+        if (id != null) {
+            return Optional.of(id);
+        }
+        String normalized = TextNormalizer.normalize(title);
+        id = normalizedTitleToId.get(normalized);
+        return id != null ? Optional.of(id) : Optional.ofNullable(aliasToId.get(normalized));
+    }
+
+    private static String titleOf(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(0, name.length() - ".md".length());
+    }
+
+    private static void report(ProgressListener listener, Phase phase, int done, int total, long started) {
+        if (done % PROGRESS_INTERVAL == 0 || done == total) {
+            listener.onProgress(new Progress(phase, done, total, Duration.ofNanos(System.nanoTime() - started)));
+        }
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("导入被中断", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("导入任务失败", e.getCause());
+        }
+    }
+
+    private static final class ImportThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "vault-import-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -1,46 +1,169 @@
 package com.bidinote.core.mention;
 
-import java.text.Normalizer;
+import com.bidinote.core.util.TextNormalizer;
+
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Locale;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 /**
  * 标题/别名词典，支持大小写、简繁、全角半角归一化。
+ * 长期持有并按页面增量更新：每次更新生成新的只读快照后整体替换，查找与提及识别读取当前快照，不加锁。
+ * 页面的归一化词条没有变化时不生成快照，因此普通保存不产生开销；词条变化后自动机在下一次识别时重建。
  */
 public class AliasDictionary {
-    private final Map<String, Set<String>> normalizedToIds = new HashMap<>();
+    private final Object writeLock = new Object();
+    // 每个页面当前的归一化词条，只在写锁内访问。
+    private final Map<String, Set<String>> termsById = new HashMap<>();
+    private volatile Snapshot snapshot = new Snapshot(Map.of());
+
+    /**
+     * 一个页面的标题与别名。
+     */
+    public record Entry(String noteId, String title, Collection<String> aliases) {
+    }
+
+    private static final class Snapshot {
+        private final Map<String, Set<String>> normalizedToIds;
+        private volatile MentionAutomaton automaton;
 
-    public void addEntry(String noteId, String title, Set<String> aliases) {
-        if (title != null) {
-            index(noteId, title);
+        private Snapshot(Map<String, Set<String>> normalizedToIds) {
+            this.normalizedToIds = normalizedToIds;
         }
-        if (aliases != null) {
-            aliases.forEach(alias -> index(noteId, alias));
+
+        // 并发时可能重复构建，结果相同。
+        private MentionAutomaton automaton() {
+            MentionAutomaton built = automaton;
+            if (built == null) {
+                built = new MentionAutomaton(normalizedToIds);
+                automaton = built;
+            }
+            return built;
         }
     }
 
-    private void index(String noteId, String text) {
-        if (text == null || text.isBlank()) {
-            return;
+    /**
+     * 以新的标题与别名替换 noteId 的词条。
+     */
+    public void putEntry(String noteId, String title, Collection<String> aliases) {
+        putAll(List.of(new Entry(noteId, title, aliases)));
+    }
+
+    /**
+     * 批量替换词条，只生成一次快照。
+     */
+    public void putAll(Collection<Entry> entries) {
+        synchronized (writeLock) {
+            Map<String, Set<String>> next = null;
+            for (Entry entry : entries) {
+                Set<String> terms = terms(entry);
+                Set<String> previous = termsById.getOrDefault(entry.noteId(), Set.of());
+                if (previous.equals(terms)) {
+                    continue;
+                }
+                if (next == null) {
+                    next = new HashMap<>(snapshot.normalizedToIds);
+                }
+                for (String term : previous) {
+                    if (!terms.contains(term)) {
+                        unindex(next, term, entry.noteId());
+                    }
+                }
+                for (String term : terms) {
+                    if (!previous.contains(term)) {
+                        index(next, term, entry.noteId());
+                    }
+                }
+                if (terms.isEmpty()) {
+                    termsById.remove(entry.noteId());
+                } else {
+                    termsById.put(entry.noteId(), terms);
+                }
+            }
+            if (next != null) {
+                snapshot = new Snapshot(next);
+            }
         }
-        String normalized = normalize(text);
-        normalizedToIds.computeIfAbsent(normalized, k -> new HashSet<>()).add(noteId);
+    }
+
+    public void removeEntry(String noteId) {
+        putEntry(noteId, null, List.of());
     }
 
     public Set<String> lookup(String rawText) {
-        String normalized = normalize(rawText);
-        return normalizedToIds.getOrDefault(normalized, Set.of());
+        String normalized = TextNormalizer.normalize(rawText);
+        return snapshot.normalizedToIds.getOrDefault(normalized, Set.of());
     }
 
-    private String normalize(String text) {
-        String result = Normalizer.normalize(text, Normalizer.Form.NFKC);
-        result = result.toLowerCase(Locale.ROOT);
-        // 简繁转换可使用第三方库，此处使用占位逻辑。
-        result = result.replace('臺', '台');
-        result = result.replace('與', '与');
-        return result;
+    /**
+     * 当前的归一化词条数。
+     */
+    public int size() {
+        return snapshot.normalizedToIds.size();
+    }
+
+    /**
+     * 估算当前快照占用的字节数：词条字符串与散列表，以及已构建的自动机。页面 ID 字符串与页面共享，只计引用。
+     */
+    public long estimatedBytes() {
+        Snapshot current = snapshot;
+        long bytes = 0;
+        for (Map.Entry<String, Set<String>> entry : current.normalizedToIds.entrySet()) {
+            // 散列表节点与桶 48 字节，String 对象与数组头 40 字节，单元素 Set 约 16 字节、多元素每个再加 8 字节引用。
+            bytes += 48 + 40 + 2L * entry.getKey().length() + 16 + 8L * entry.getValue().size();
+        }
+        MentionAutomaton automaton = current.automaton;
+        return automaton == null ? bytes : bytes + automaton.estimatedBytes();
+    }
+
+    /**
+     * 当前快照的自动机，首次使用时构建。
+     */
+    MentionAutomaton automaton() {
+        return snapshot.automaton();
+    }
+
+    private static Set<String> terms(Entry entry) {
+        Set<String> terms = new HashSet<>();
+        if (entry.title() != null && !entry.title().isBlank()) {
+            terms.add(TextNormalizer.normalize(entry.title()));
+        }
+        if (entry.aliases() != null) {
+            for (String alias : entry.aliases()) {
+                if (alias != null && !alias.isBlank()) {
+                    terms.add(TextNormalizer.normalize(alias));
+                }
+            }
+        }
+        return terms;
+    }
+
+    // 快照中的集合不可变，修改时整体替换。
+    private static void index(Map<String, Set<String>> map, String term, String noteId) {
+        Set<String> ids = map.get(term);
+        if (ids == null) {
+            map.put(term, Set.of(noteId));
+        } else {
+            Set<String> copy = new HashSet<>(ids);
+            copy.add(noteId);
+            map.put(term, Set.copyOf(copy));
+        }
+    }
+
+    private static void unindex(Map<String, Set<String>> map, String term, String noteId) {
+        Set<String> ids = map.get(term);
+        if (ids == null) {
+            return;
+        }
+        Set<String> copy = new HashSet<>(ids);
+        copy.remove(noteId);
+        if (copy.isEmpty()) {
+            map.remove(term);
+        } else {
+            map.put(term, Set.copyOf(copy));
+        }
     }
 }
@@ -0,0 +1,264 @@
+package com.bidinote.core.mention;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 由全部归一化标题与别名构建的 Aho-Corasick 自动机，按 char 转移。
+ * 构建时转移存放在以 (状态, 字符) 为键的开放寻址散列表中；建成后压平为按状态分段、段内按字符排序的数组，
+ * 根状态另有按字符直接下标的表，扫描时大多数字符只需一次数组访问。
+ */
+final class MentionAutomaton {
+    /**
+     * 扫描时遇到该字符回到根状态，用来隔开已链接的片段。
+     */
+    static final char BREAK = '\uFFFF';
+
+    // 构建期的散列转移表，压平后释放。
+    private long[] keys;
+    private int[] targets;
+    private int mask;
+    private int transitions;
+
+    // 压平后的转移：状态 s 的转移为 labels/next 中 [first[s], first[s + 1]) 一段。
+    private int[] first;
+    private char[] labels;
+    private int[] next;
+    private int[] rootNext;
+
+    private int[] fail;
+    private int[] depth;
+    // 沿失败链最近的终止状态，没有时为 -1。
+    private int[] output;
+    private final List<Set<String>> ids = new ArrayList<>();
+    private int states;
+
+    /**
+     * 匹配结果：归一化文本中 [start, end) 命中 noteIds。
+     */
+    record Match(int start, int end, Set<String> noteIds) {
+    }
+
+    MentionAutomaton(Map<String, Set<String>> patterns) {
+        int capacity = Integer.highestOneBit(Math.max(16, patterns.keySet().stream().mapToInt(String::length).sum() * 2)) * 2;
+        keys = new long[capacity];
+        Arrays.fill(keys, -1L);
+        targets = new int[capacity];
+        mask = capacity - 1;
+        depth = new int[16];
+        newState(0);
+        patterns.forEach(this::insert);
+        link();
+    }
+
+    /**
+     * 最左最长匹配：从左到右，每个位置取从这里开始的最长模式，命中后跳到其末尾继续，结果互不重叠。
+     * minLength 以下的模式不参与匹配。
+     */
+    List<Match> scan(CharSequence text, int minLength) {
+        int length = text.length();
+        int[] longest = new int[length];
+        int[] longestState = new int[length];
+        int state = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == BREAK) {
+                state = 0;
+                continue;
+            }
+            int target = transition(state, c);
+            while (target < 0 && state != 0) {
+                state = fail[state];
+                target = transition(state, c);
+            }
+            state = Math.max(target, 0);
+            for (int hit = ids.get(state) != null ? state : output[state]; hit > 0; hit = output[hit]) {
+                int start = i + 1 - depth[hit];
+                if (depth[hit] > longest[start]) {
+                    longest[start] = depth[hit];
+                    longestState[start] = hit;
+                }
+            }
+        }
+        List<Match> matches = new ArrayList<>();
+        int i = 0;
+        while (i < length) {
+            if (longest[i] >= minLength) {
+                int end = i + longest[i];
+                matches.add(new Match(i, end, ids.get(longestState[i])));
+                i = end;
+            } else {
+                i++;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * 压平后各数组占用的字节数，不含终止状态引用的页面 ID 集合。
+     */
+    long estimatedBytes() {
+        return 4L * first.length + 2L * labels.length + 4L * next.length + 4L * rootNext.length
+                + 4L * (fail.length + output.length + depth.length) + 8L * ids.size();
+    }
+
+    private void insert(String pattern, Set<String> noteIds) {
+        if (pattern.isEmpty() || pattern.indexOf(BREAK) >= 0) {
+            return;
+        }
+        int state = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            int target = buildTransition(state, pattern.charAt(i));
+            if (target < 0) {
+                target = newState(i + 1);
+                put(state, pattern.charAt(i), target);
+            }
+            state = target;
+        }
+        ids.set(state, Set.copyOf(noteIds));
+    }
+
+    /**
+     * 压平转移表，再按层计算失败链接与输出链接。
+     */
+    private void link() {
+        int[] counts = new int[states + 1];
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] >= 0) {
+                counts[(int) (keys[slot] >>> 16) + 1]++;
+            }
+        }
+        first = new int[states + 1];
+        for (int i = 0; i < states; i++) {
+            first[i + 1] = first[i] + counts[i + 1];
+        }
+        long[] entries = new long[transitions];
+        int[] fill = Arrays.copyOf(first, states);
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] >= 0) {
+                // 高 32 位为字符，低 32 位为目标状态，段内排序即按字符有序。
+                entries[fill[(int) (keys[slot] >>> 16)]++] = ((keys[slot] & 0xFFFF) << 32) | targets[slot];
+            }
+        }
+        for (int i = 0; i < states; i++) {
+            Arrays.sort(entries, first[i], first[i + 1]);
+        }
+        labels = new char[transitions];
+        next = new int[transitions];
+        for (int i = 0; i < transitions; i++) {
+            labels[i] = (char) (entries[i] >>> 32);
+            next[i] = (int) entries[i];
+        }
+        rootNext = new int[Character.MAX_VALUE + 1];
+        Arrays.fill(rootNext, -1);
+        for (int i = first[0]; i < first[1]; i++) {
+            rootNext[labels[i]] = next[i];
+        }
+        keys = null;
+        targets = null;
+
+        fail = new int[states];
+        output = new int[states];
+        output[0] = -1;
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            int parent = queue.poll();
+            for (int i = first[parent]; i < first[parent + 1]; i++) {
+                char c = labels[i];
+                int state = next[i];
+                int target = 0;
+                if (parent != 0) {
+                    int f = fail[parent];
+                    target = transition(f, c);
+                    while (target < 0 && f != 0) {
+                        f = fail[f];
+                        target = transition(f, c);
+                    }
+                    target = Math.max(target, 0);
+                }
+                fail[state] = target;
+                output[state] = ids.get(target) != null ? target : output[target];
+                queue.add(state);
+            }
+        }
+    }
+
+    private int newState(int stateDepth) {
+        if (states == depth.length) {
+            depth = Arrays.copyOf(depth, states * 2);
+        }
+        depth[states] = stateDepth;
+        ids.add(null);
+        return states++;
+    }
+
+    private int transition(int state, char c) {
+        if (state == 0) {
+            return rootNext[c];
+        }
+        int low = first[state];
+        int high = first[state + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (labels[mid] < c) {
+                low = mid + 1;
+            } else if (labels[mid] > c) {
+                high = mid - 1;
+            } else {
+                return next[mid];
+            }
+        }
+        return -1;
+    }
+
+    private int buildTransition(int state, char c) {
+        long key = ((long) state << 16) | c;
+        for (int slot = hash(key); ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return targets[slot];
+            }
+            if (keys[slot] < 0) {
+                return -1;
+            }
+        }
+    }
+
+    private void put(int state, char c, int target) {
+        if ((transitions + 1) * 2 > keys.length) {
+            grow();
+        }
+        long key = ((long) state << 16) | c;
+        int slot = hash(key);
+        while (keys[slot] >= 0) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        targets[slot] = target;
+        transitions++;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldTargets = targets;
+        keys = new long[oldKeys.length * 2];
+        Arrays.fill(keys, -1L);
+        targets = new int[keys.length];
+        mask = keys.length - 1;
+        transitions = 0;
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldKeys[slot] >= 0) {
+                put((int) (oldKeys[slot] >>> 16), (char) oldKeys[slot], oldTargets[slot]);
+            }
+        }
+    }
+
+    private int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+}
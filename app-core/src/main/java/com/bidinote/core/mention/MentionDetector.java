@@ -1,18 +1,19 @@
 package com.bidinote.core.mention;
 
-import com.bidinote.core.parser.WikiLink;
 import com.bidinote.core.parser.WikiLinkParser;
+import com.bidinote.core.util.TextNormalizer;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
-import java.util.Set;
 
 /**
- * 未链接提及识别：扫描纯文本命中词典，排除已链接部分。
+ * 未链接提及识别：把正文归一化一遍后用词典自动机单次扫描，最左最长匹配，已链接的片段不参与匹配。
  */
 public class MentionDetector {
+    private static final int MIN_LENGTH = 2;
+
     private final AliasDictionary dictionary;
     private final WikiLinkParser linkParser = new WikiLinkParser();
 
@@ -21,30 +22,133 @@ public class MentionDetector {
     }
 
     public List<UnlinkedMention> detect(String text) {
+        Normalized normalized = normalize(text, linkedSpans(text));
         List<UnlinkedMention> mentions = new ArrayList<>();
-        Set<Integer> linkedRange = new HashSet<>();
-        for (WikiLink link : linkParser.parse(text)) {
-            int start = text.indexOf(link.getRawText());
-            if (start >= 0) {
-                for (int i = start; i < start + link.getRawText().length(); i++) {
-                    linkedRange.add(i);
-                }
+        for (MentionAutomaton.Match match : dictionary.automaton().scan(normalized, MIN_LENGTH)) {
+            int start = normalized.sourceStart[match.start()];
+            int end = normalized.sourceEnd[match.end() - 1];
+            String segment = text.substring(start, end);
+            for (String noteId : match.noteIds()) {
+                mentions.add(new UnlinkedMention(noteId, segment, start, end));
             }
         }
-        for (int i = 0; i < text.length(); i++) {
-            if (linkedRange.contains(i)) {
+        return mentions;
+    }
+
+    /**
+     * 已链接片段的 [起点, 终点) 对，按起点排列。
+     */
+    private int[] linkedSpans(String text) {
+        int[][] spans = {new int[8]};
+        int[] count = {0};
+        linkParser.scan(text, link -> {
+            if (count[0] + 2 > spans[0].length) {
+                spans[0] = Arrays.copyOf(spans[0], spans[0].length * 2);
+            }
+            spans[0][count[0]++] = link.start();
+            spans[0][count[0]++] = link.end();
+        });
+        return Arrays.copyOf(spans[0], count[0]);
+    }
+
+    /**
+     * 归一化正文并记录每个归一化字符对应的原文区间。ASCII 直接转小写；连续的非 ASCII 片段整体归一化，
+     * 长度不变时逐字对应，否则退回按字符（连同其后的组合字符）逐个归一化。已链接片段替换为一个断开字符。
+     */
+    private static Normalized normalize(String text, int[] linked) {
+        Normalized out = new Normalized(text.length() + 1);
+        int nextLink = 0;
+        int i = 0;
+        while (i < text.length()) {
+            if (nextLink < linked.length && i >= linked[nextLink]) {
+                out.append(MentionAutomaton.BREAK, i, linked[nextLink + 1]);
+                i = Math.max(i, linked[nextLink + 1]);
+                nextLink += 2;
                 continue;
             }
-            for (int len = 2; len <= 20 && i + len <= text.length(); len++) {
-                if (linkedRange.contains(i + len - 1)) {
-                    break;
+            int limit = nextLink < linked.length ? linked[nextLink] : text.length();
+            char c = text.charAt(i);
+            // 后面紧跟非 ASCII 字符时可能是组合字符，和它一起归一化。
+            if (c < 0x80 && (i + 1 == limit || text.charAt(i + 1) < 0x80)) {
+                out.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c, i, i + 1);
+                i++;
+                continue;
+            }
+            int end = i + 1;
+            while (end < limit && text.charAt(end) >= 0x80) {
+                end++;
+            }
+            String run = text.substring(i, end);
+            String normalizedRun = TextNormalizer.normalize(run);
+            if (normalizedRun.length() == run.length()) {
+                for (int k = 0; k < run.length(); k++) {
+                    out.append(normalizedRun.charAt(k), i + k, i + k + 1);
                 }
-                String segment = text.substring(i, i + len);
-                for (String noteId : dictionary.lookup(segment)) {
-                    mentions.add(new UnlinkedMention(noteId, segment, i, i + len));
+            } else {
+                for (int unit = i; unit < end; ) {
+                    int unitEnd = unit + Character.charCount(text.codePointAt(unit));
+                    while (unitEnd < end && isCombining(text.codePointAt(unitEnd))) {
+                        unitEnd += Character.charCount(text.codePointAt(unitEnd));
+                    }
+                    String normalizedUnit = TextNormalizer.normalize(text.substring(unit, unitEnd));
+                    for (int k = 0; k < normalizedUnit.length(); k++) {
+                        out.append(normalizedUnit.charAt(k), unit, unitEnd);
+                    }
+                    unit = unitEnd;
                 }
             }
+            i = end;
+        }
+        return out;
+    }
+
+    private static boolean isCombining(int codePoint) {
+        int type = Character.getType(codePoint);
+        return type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK || type == Character.ENCLOSING_MARK;
+    }
+
+    private static final class Normalized implements CharSequence {
+        private char[] chars;
+        private int[] sourceStart;
+        private int[] sourceEnd;
+        private int length;
+
+        Normalized(int capacity) {
+            chars = new char[capacity];
+            sourceStart = new int[capacity];
+            sourceEnd = new int[capacity];
+        }
+
+        void append(char c, int start, int end) {
+            if (length == chars.length) {
+                chars = Arrays.copyOf(chars, length * 2);
+                sourceStart = Arrays.copyOf(sourceStart, length * 2);
+                sourceEnd = Arrays.copyOf(sourceEnd, length * 2);
+            }
+            chars[length] = c;
+            sourceStart[length] = start;
+            sourceEnd[length] = end;
+            length++;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return chars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(chars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, 0, length);
         }
-        return mentions;
     }
 }
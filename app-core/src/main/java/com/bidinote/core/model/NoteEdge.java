@@ -52,4 +52,25 @@ public class NoteEdge {
     public Instant getCreatedAt() {
         return createdAt;
     }
+
+    /**
+     * 两条边指向同一来源块、目标与类型即视为同一链接，与创建时间无关。
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        NoteEdge other = (NoteEdge) o;
+        return Objects.equals(srcBlockId, other.srcBlockId)
+                && srcPageId.equals(other.srcPageId)
+                && dstPageId.equals(other.dstPageId)
+                && Objects.equals(dstBlockId, other.dstBlockId)
+                && type.equals(other.type)
+                && Objects.equals(props, other.props);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(srcBlockId, srcPageId, dstPageId, dstBlockId, type, props);
+    }
 }
@@ -15,6 +15,11 @@ public class NoteNode {
     private final Set<String> aliases = new LinkedHashSet<>();
     private final Set<String> tags = new LinkedHashSet<>();
     private Instant updatedAt;
+    /**
+     * 上次保存的正文哈希与链接签名，由保存流程维护并随页面写入；0 表示未知。
+     */
+    private long contentHash;
+    private long linkHash;
 
     public NoteNode(String id, String title) {
         this.id = Objects.requireNonNull(id, "id");
@@ -73,6 +78,22 @@ public class NoteNode {
         this.updatedAt = updatedAt;
     }
 
+    public long getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(long contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public long getLinkHash() {
+        return linkHash;
+    }
+
+    public void setLinkHash(long linkHash) {
+        this.linkHash = linkHash;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,65 @@
+package com.bidinote.core.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 一次保存相对于已存储内容的增量：新增、修改、仅移动与删除的块，以及新增、删除的边。
+ * 边按多重集合比较，同一块内重复的链接会分别计数。
+ */
+public record PageChangeSet(List<NoteBlock> insertedBlocks,
+                            List<NoteBlock> updatedBlocks,
+                            List<NoteBlock> movedBlocks,
+                            List<String> deletedBlockIds,
+                            List<NoteEdge> addedEdges,
+                            List<NoteEdge> removedEdges) {
+
+    public static PageChangeSet between(List<NoteBlock> previousBlocks, List<NoteBlock> blocks,
+                                        List<NoteEdge> previousEdges, List<NoteEdge> edges) {
+        Map<String, NoteBlock> previousById = new HashMap<>();
+        previousBlocks.forEach(block -> previousById.put(block.getId(), block));
+        List<NoteBlock> inserted = new ArrayList<>();
+        List<NoteBlock> updated = new ArrayList<>();
+        List<NoteBlock> moved = new ArrayList<>();
+        for (NoteBlock block : blocks) {
+            NoteBlock old = previousById.remove(block.getId());
+            if (old == null) {
+                inserted.add(block);
+            } else if (!old.getText().equals(block.getText()) || !Objects.equals(old.getAnchor(), block.getAnchor())) {
+                updated.add(block);
+            } else if (old.getOrderNo() != block.getOrderNo()) {
+                moved.add(block);
+            }
+        }
+        List<String> deleted = new ArrayList<>(previousById.keySet());
+
+        Map<NoteEdge, Integer> remaining = new HashMap<>();
+        previousEdges.forEach(edge -> remaining.merge(edge, 1, Integer::sum));
+        List<NoteEdge> added = new ArrayList<>();
+        for (NoteEdge edge : edges) {
+            Integer count = remaining.get(edge);
+            if (count == null) {
+                added.add(edge);
+            } else if (count == 1) {
+                remaining.remove(edge);
+            } else {
+                remaining.put(edge, count - 1);
+            }
+        }
+        List<NoteEdge> removed = new ArrayList<>();
+        remaining.forEach((edge, count) -> {
+            for (int i = 0; i < count; i++) {
+                removed.add(edge);
+            }
+        });
+        return new PageChangeSet(inserted, updated, moved, deleted, added, removed);
+    }
+
+    public boolean isEmpty() {
+        return insertedBlocks.isEmpty() && updatedBlocks.isEmpty() && movedBlocks.isEmpty()
+                && deletedBlockIds.isEmpty() && addedEdges.isEmpty() && removedEdges.isEmpty();
+    }
+}
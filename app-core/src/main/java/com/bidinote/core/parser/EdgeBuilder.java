@@ -0,0 +1,82 @@
+package com.bidinote.core.parser;
+
+import com.bidinote.core.model.NoteBlock;
+import com.bidinote.core.model.NoteEdge;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * 根据页面中的 WikiLink 生成出边：块内链接生成 link/embed 边，整页的嵌入生成 transclusion 边。
+ * 链接目标如何解析为页面 ID 由调用方决定，解析不到的链接不生成边。
+ */
+public class EdgeBuilder {
+    public static final String FOLLOW_PROPS = "{\"mode\":\"follow\"}";
+    private final WikiLinkParser linkParser;
+
+    public EdgeBuilder() {
+        this(new WikiLinkParser());
+    }
+
+    public EdgeBuilder(WikiLinkParser linkParser) {
+        this.linkParser = Objects.requireNonNull(linkParser, "linkParser");
+    }
+
+    public List<NoteEdge> build(String pageId, List<NoteBlock> blocks, String markdown, Function<WikiLink, Optional<String>> resolver) {
+        return build(pageId, blocks, null, markdown, resolver);
+    }
+
+    /**
+     * blockRanges 为各块在 markdown 中的 [起点, 终点) 对（见 {@link MarkdownBlockExtractor.Result#getBlockRanges()}），
+     * 给出时一遍扫描整页同时得到块内链接与嵌入；为 null 或与块数不符时逐块扫描后再扫描整页。
+     */
+    public List<NoteEdge> build(String pageId, List<NoteBlock> blocks, int[] blockRanges, String markdown,
+                                Function<WikiLink, Optional<String>> resolver) {
+        List<NoteEdge> edges = new ArrayList<>();
+        List<NoteEdge> transclusions = new ArrayList<>();
+        Instant now = Instant.now();
+        String text = markdown == null ? "" : markdown;
+        if (blockRanges != null && blockRanges.length == blocks.size() * 2) {
+            linkParser.scanPage(text, blockRanges, link -> {
+                if (link.block() >= 0) {
+                    addLink(edges, pageId, blocks.get(link.block()), link, resolver, now);
+                }
+                if (link.isEmbed()) {
+                    addTransclusion(transclusions, pageId, link, resolver, now);
+                }
+            });
+        } else {
+            for (NoteBlock block : blocks) {
+                linkParser.scan(block.getText(), link -> addLink(edges, pageId, block, link, resolver, now));
+            }
+            linkParser.scan(text, link -> {
+                if (link.isEmbed()) {
+                    addTransclusion(transclusions, pageId, link, resolver, now);
+                }
+            });
+        }
+        edges.addAll(transclusions);
+        return edges;
+    }
+
+    private static void addLink(List<NoteEdge> edges, String pageId, NoteBlock block, WikiLinkParser.Link link,
+                                Function<WikiLink, Optional<String>> resolver, Instant now) {
+        resolver.apply(link.toWikiLink()).ifPresent(targetId -> {
+            String dstBlockId = link.type() == WikiLink.Type.BLOCK ? link.anchor() : null;
+            edges.add(new NoteEdge(block.getId(), pageId, targetId, dstBlockId,
+                    link.isEmbed() ? "embed" : "link",
+                    link.isEmbed() ? FOLLOW_PROPS : null,
+                    now));
+        });
+    }
+
+    private static void addTransclusion(List<NoteEdge> edges, String pageId, WikiLinkParser.Link link,
+                                        Function<WikiLink, Optional<String>> resolver, Instant now) {
+        resolver.apply(link.toWikiLink()).ifPresent(targetId -> edges.add(new NoteEdge(null, pageId, targetId, link.anchor(),
+                "transclusion", FOLLOW_PROPS, now)));
+    }
+}
@@ -2,7 +2,9 @@ package com.bidinote.core.parser;
 
 import com.bidinote.core.model.NoteBlock;
 import com.bidinote.core.util.UlidHelper;
+import com.vladsch.flexmark.ast.FencedCodeBlock;
 import com.vladsch.flexmark.ast.Heading;
+import com.vladsch.flexmark.ast.HtmlBlock;
 import com.vladsch.flexmark.ast.Paragraph;
 import com.vladsch.flexmark.ext.tables.TableBlock;
 import com.vladsch.flexmark.parser.Parser;
@@ -10,6 +12,7 @@ import com.vladsch.flexmark.util.ast.Document;
 import com.vladsch.flexmark.util.ast.Node;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -17,6 +20,8 @@ import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 使用 flexmark 将 Markdown 内容切分为块。每个段落/标题都会拥有一个持久化的块 ID。
+ * 结果记录每个顶层节点在原文中的区间，据此可以只重新解析编辑涉及的顶层节点，其余块原样保留。
+ * 每个块在原文中的区间也一并记录，块的文本即原文的这一段。
  */
 public class MarkdownBlockExtractor {
     private final Parser parser;
@@ -29,13 +34,40 @@ public class MarkdownBlockExtractor {
         this.parser = Objects.requireNonNull(parser, "parser");
     }
 
+    /**
+     * 顶层节点在原文中的区间 [start, end)，及其第一个块在块列表中的下标。
+     * open 表示节点可能向后吞并内容（未闭合的代码块、HTML 块），不能作为增量解析的边界。
+     */
+    record Segment(int start, int end, Class<? extends Node> type, int firstBlock, boolean open) {
+        Segment shift(int offset, int blockOffset) {
+            return new Segment(start + offset, end + offset, type, firstBlock + blockOffset, open);
+        }
+    }
+
     public static class Result {
         private final List<NoteBlock> blocks;
         private final Map<String, String> generatedIdMap;
+        private final String markdown;
+        private final List<Segment> segments;
+        private final int[] blockRanges;
+        private final int reparsedFrom;
+        private final int reparsedTo;
+        private final List<NoteBlock> replacedBlocks;
 
         public Result(List<NoteBlock> blocks, Map<String, String> generatedIdMap) {
+            this(blocks, generatedIdMap, null, List.of(), null, 0, blocks.size(), null);
+        }
+
+        private Result(List<NoteBlock> blocks, Map<String, String> generatedIdMap, String markdown, List<Segment> segments,
+                       int[] blockRanges, int reparsedFrom, int reparsedTo, List<NoteBlock> replacedBlocks) {
             this.blocks = blocks;
             this.generatedIdMap = generatedIdMap;
+            this.markdown = markdown;
+            this.segments = segments;
+            this.blockRanges = blockRanges;
+            this.reparsedFrom = reparsedFrom;
+            this.reparsedTo = reparsedTo;
+            this.replacedBlocks = replacedBlocks;
         }
 
         public List<NoteBlock> getBlocks() {
@@ -45,30 +77,201 @@ public class MarkdownBlockExtractor {
         public Map<String, String> getGeneratedIdMap() {
             return generatedIdMap;
         }
+
+        /**
+         * 各块在原文中的 [起点, 终点) 对，与 getBlocks 一一对应；结果不是由本类解析得到时为 null。
+         */
+        public int[] getBlockRanges() {
+            return blockRanges == null ? null : blockRanges.clone();
+        }
+
+        /**
+         * 是否由增量解析得到。增量结果中只有 [reparsedFrom, reparsedTo) 的块是新解析的，其余块沿用上一次结果的对象或 ID。
+         */
+        public boolean isIncremental() {
+            return replacedBlocks != null;
+        }
+
+        public int getReparsedFrom() {
+            return reparsedFrom;
+        }
+
+        public int getReparsedTo() {
+            return reparsedTo;
+        }
+
+        /**
+         * 增量解析时被新解析的块替换掉的旧块；全量解析时为空。
+         */
+        public List<NoteBlock> getReplacedBlocks() {
+            return replacedBlocks == null ? List.of() : replacedBlocks;
+        }
+
+        /**
+         * 换用同样数量、同样顺序的块（例如对齐了已有块 ID 之后），作为下一次增量解析的基础。
+         */
+        public Result withBlocks(List<NoteBlock> aligned) {
+            if (aligned.size() != blocks.size()) {
+                throw new IllegalArgumentException("块数量不一致: " + aligned.size() + " != " + blocks.size());
+            }
+            return new Result(List.copyOf(aligned), generatedIdMap, markdown, segments, blockRanges, reparsedFrom, reparsedTo, replacedBlocks);
+        }
     }
 
     public Result extract(String pageId, String markdown) {
-        Document document = parser.parse(markdown == null ? "" : markdown);
+        String text = markdown == null ? "" : markdown;
         List<NoteBlock> blocks = new ArrayList<>();
+        Ranges ranges = new Ranges();
         Map<String, String> generated = new ConcurrentHashMap<>();
-        traverse(document, pageId, blocks, generated, new int[]{0});
-        return new Result(blocks, generated);
+        List<Segment> segments = parseSegments(pageId, text, 0, blocks, ranges, generated);
+        return new Result(blocks, generated, text, segments, ranges.toArray(0), 0, blocks.size(), null);
     }
 
-    private void traverse(Node node, String pageId, List<NoteBlock> blocks, Map<String, String> generated, int[] orderHolder) {
-        for (Node current = node.getFirstChild(); current != null; current = current.getNext()) {
-            if (current instanceof Heading heading) {
-                String anchor = heading.getText().toString();
-                String blockId = getOrCreateBlockId(heading, generated);
-                blocks.add(new NoteBlock(blockId, pageId, heading.getChars().toString(), anchor, orderHolder[0]++));
-            } else if (current instanceof Paragraph paragraph) {
-                String blockId = getOrCreateBlockId(paragraph, generated);
-                blocks.add(new NoteBlock(blockId, pageId, paragraph.getChars().toString(), null, orderHolder[0]++));
-            } else if (current instanceof TableBlock tableBlock) {
-                String blockId = getOrCreateBlockId(tableBlock, generated);
-                blocks.add(new NoteBlock(blockId, pageId, tableBlock.getChars().toString(), null, orderHolder[0]++));
+    /**
+     * 在 previous 的基础上增量解析：只重新解析与 change 相交的顶层节点及其前后各一个节点，拼回其余节点的块。
+     * previous 不是由本类解析得到、change 与两份文本对不上，或重新解析后的边界节点与原来不一致（例如新开了一个未闭合的代码块），
+     * 都退回全量解析。
+     */
+    public Result extract(String pageId, Result previous, String markdown, TextChange change) {
+        String text = markdown == null ? "" : markdown;
+        if (previous == null || previous.markdown == null || change == null || !matches(previous.markdown, text, change)) {
+            return extract(pageId, text);
+        }
+        List<Segment> old = previous.segments;
+        int first = 0;
+        while (first < old.size() && old.get(first).end() < change.start()) {
+            first++;
+        }
+        int last = old.size() - 1;
+        while (last >= 0 && old.get(last).start() > change.oldEnd()) {
+            last--;
+        }
+        // 连同前后相邻的节点一起重新解析，它们可能与改动处合并或拆分。
+        first = Math.max(0, Math.min(first, last + 1) - 1);
+        last = Math.min(old.size() - 1, Math.max(last, first - 1) + 1);
+        int regionStart = first == 0 ? 0 : old.get(first - 1).end();
+        int oldRegionEnd = last == old.size() - 1 ? previous.markdown.length() : old.get(last + 1).start();
+        int regionEnd = oldRegionEnd + change.delta();
+        if (regionStart > change.start() || oldRegionEnd < change.oldEnd()) {
+            return extract(pageId, text);
+        }
+
+        Map<String, String> generated = new ConcurrentHashMap<>();
+        List<NoteBlock> regionBlocks = new ArrayList<>();
+        Ranges regionRanges = new Ranges();
+        int firstBlock = first < old.size() ? old.get(first).firstBlock() : previous.blocks.size();
+        List<Segment> region = parseSegments(pageId, text.substring(regionStart, regionEnd), firstBlock, regionBlocks, regionRanges, generated);
+        // 区间两端不是文首、文末时，两端的相邻节点必须原样解析回来，否则改动影响到了区间之外。
+        if (region.isEmpty() && (first > 0 || last < old.size() - 1)
+                || first > 0 && !sameSegment(old.get(first), region.get(0), regionStart)
+                || last < old.size() - 1 && !sameSegment(old.get(last), region.get(region.size() - 1), regionStart - change.delta())) {
+            return extract(pageId, text);
+        }
+
+        int oldBlockEnd = last + 1 < old.size() ? old.get(last + 1).firstBlock() : previous.blocks.size();
+        int blockDelta = regionBlocks.size() - (oldBlockEnd - firstBlock);
+        List<NoteBlock> blocks = new ArrayList<>(previous.blocks.size() + blockDelta);
+        blocks.addAll(previous.blocks.subList(0, firstBlock));
+        blocks.addAll(regionBlocks);
+        for (NoteBlock block : previous.blocks.subList(oldBlockEnd, previous.blocks.size())) {
+            blocks.add(blockDelta == 0 ? block
+                    : new NoteBlock(block.getId(), block.getPageId(), block.getText(), block.getAnchor(), block.getOrderNo() + blockDelta));
+        }
+        int[] ranges = new int[blocks.size() * 2];
+        System.arraycopy(previous.blockRanges, 0, ranges, 0, firstBlock * 2);
+        System.arraycopy(regionRanges.toArray(regionStart), 0, ranges, firstBlock * 2, regionBlocks.size() * 2);
+        for (int i = oldBlockEnd * 2, j = (firstBlock + regionBlocks.size()) * 2; i < previous.blockRanges.length; i++, j++) {
+            ranges[j] = previous.blockRanges[i] + change.delta();
+        }
+        List<Segment> segments = new ArrayList<>(old.size() - (last - first + 1) + region.size());
+        segments.addAll(old.subList(0, first));
+        for (Segment segment : region) {
+            segments.add(segment.shift(regionStart, 0));
+        }
+        for (Segment segment : old.subList(last + 1, old.size())) {
+            segments.add(segment.shift(change.delta(), blockDelta));
+        }
+        return new Result(blocks, generated, text, segments, ranges, firstBlock, firstBlock + regionBlocks.size(),
+                List.copyOf(previous.blocks.subList(firstBlock, oldBlockEnd)));
+    }
+
+    /**
+     * 变化范围之外的前缀与后缀在两份文本中必须一致。
+     */
+    private static boolean matches(String previous, String current, TextChange change) {
+        int suffix = previous.length() - change.oldEnd();
+        return change.oldEnd() <= previous.length()
+                && current.length() == change.newEnd() + suffix
+                && previous.regionMatches(0, current, 0, change.start())
+                && previous.regionMatches(change.oldEnd(), current, change.newEnd(), suffix);
+    }
+
+    /**
+     * before 为旧文本中的节点，after 为重新解析的节点（偏移加上 shift 后换算到旧文本）：类型、位置与长度一致，且不会向后延伸。
+     */
+    private static boolean sameSegment(Segment before, Segment after, int shift) {
+        return before.type() == after.type()
+                && !before.open() && !after.open()
+                && before.start() == after.start() + shift
+                && before.end() == after.end() + shift;
+    }
+
+    private List<Segment> parseSegments(String pageId, String text, int orderBase, List<NoteBlock> blocks, Ranges ranges,
+                                        Map<String, String> generated) {
+        Document document = parser.parse(text);
+        List<Segment> segments = new ArrayList<>();
+        int[] orderHolder = {orderBase};
+        for (Node current = document.getFirstChild(); current != null; current = current.getNext()) {
+            int firstBlock = orderBase + blocks.size();
+            collect(current, pageId, blocks, ranges, generated, orderHolder);
+            boolean open = current instanceof HtmlBlock
+                    || current instanceof FencedCodeBlock fenced && fenced.getClosingMarker().isEmpty();
+            segments.add(new Segment(current.getStartOffset(), current.getEndOffset(), current.getClass(), firstBlock, open));
+        }
+        return segments;
+    }
+
+    private void collect(Node node, String pageId, List<NoteBlock> blocks, Ranges ranges, Map<String, String> generated, int[] orderHolder) {
+        if (node instanceof Heading heading) {
+            String anchor = heading.getText().toString();
+            String blockId = getOrCreateBlockId(heading, generated);
+            blocks.add(new NoteBlock(blockId, pageId, heading.getChars().toString(), anchor, orderHolder[0]++));
+            ranges.add(node.getStartOffset(), node.getEndOffset());
+        } else if (node instanceof Paragraph paragraph) {
+            String blockId = getOrCreateBlockId(paragraph, generated);
+            blocks.add(new NoteBlock(blockId, pageId, paragraph.getChars().toString(), null, orderHolder[0]++));
+            ranges.add(node.getStartOffset(), node.getEndOffset());
+        } else if (node instanceof TableBlock tableBlock) {
+            String blockId = getOrCreateBlockId(tableBlock, generated);
+            blocks.add(new NoteBlock(blockId, pageId, tableBlock.getChars().toString(), null, orderHolder[0]++));
+            ranges.add(node.getStartOffset(), node.getEndOffset());
+        }
+        for (Node child = node.getFirstChild(); child != null; child = child.getNext()) {
+            collect(child, pageId, blocks, ranges, generated, orderHolder);
+        }
+    }
+
+    /**
+     * 块区间的 [起点, 终点) 对。
+     */
+    private static final class Ranges {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int start, int end) {
+            if (size + 2 > values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size++] = start;
+            values[size++] = end;
+        }
+
+        int[] toArray(int offset) {
+            int[] result = Arrays.copyOf(values, size);
+            for (int i = 0; i < size; i++) {
+                result[i] += offset;
             }
-            traverse(current, pageId, blocks, generated, orderHolder);
+            return result;
         }
     }
 
@@ -0,0 +1,40 @@
+package com.bidinote.core.parser;
+
+/**
+ * 两次保存之间文本的变化范围：旧文本的 [start, oldEnd) 被替换为新文本的 [start, newEnd)，范围外的文本不变。
+ * 编辑器的多次插入、删除可以逐个合并成一个覆盖全部改动的范围。
+ */
+public record TextChange(int start, int oldEnd, int newEnd) {
+
+    public TextChange {
+        if (start < 0 || oldEnd < start || newEnd < start) {
+            throw new IllegalArgumentException("无效的变化范围: " + start + ", " + oldEnd + ", " + newEnd);
+        }
+    }
+
+    /**
+     * 在 offset 处删除 removed 个字符并插入 inserted 个字符。
+     */
+    public static TextChange of(int offset, int removed, int inserted) {
+        return new TextChange(offset, offset + removed, offset + inserted);
+    }
+
+    /**
+     * 本次变化之后又发生 next（偏移基于本次变化后的文本），返回覆盖两者的变化范围。
+     */
+    public TextChange then(TextChange next) {
+        int newStart = Math.min(start, next.start);
+        // next 删除的部分超出本次新文本的范围时，超出部分在旧文本中原样存在，按偏移差换算回旧文本。
+        int oldEnd = next.oldEnd > newEnd ? this.oldEnd + (next.oldEnd - newEnd) : this.oldEnd;
+        int newEnd = Math.max(this.newEnd, next.oldEnd) + (next.newEnd - next.oldEnd);
+        return new TextChange(newStart, oldEnd, newEnd);
+    }
+
+    public TextChange then(int offset, int removed, int inserted) {
+        return then(of(offset, removed, inserted));
+    }
+
+    public int delta() {
+        return newEnd - oldEnd;
+    }
+}
@@ -18,13 +18,24 @@ public class WikiLink {
     private final String anchor;
     private final Type type;
     private final boolean embed;
+    private final int start;
+    private final int end;
 
     public WikiLink(String rawText, String targetTitle, String anchor, Type type, boolean embed) {
+        this(rawText, targetTitle, anchor, type, embed, -1, -1);
+    }
+
+    /**
+     * start、end 为链接在解析文本中的 [起点, 终点)，未知时为 -1。
+     */
+    public WikiLink(String rawText, String targetTitle, String anchor, Type type, boolean embed, int start, int end) {
         this.rawText = Objects.requireNonNull(rawText);
         this.targetTitle = targetTitle;
         this.anchor = anchor;
         this.type = type;
         this.embed = embed;
+        this.start = start;
+        this.end = end;
     }
 
     public String getRawText() {
@@ -46,4 +57,12 @@ public class WikiLink {
     public boolean isEmbed() {
         return embed;
     }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
 }
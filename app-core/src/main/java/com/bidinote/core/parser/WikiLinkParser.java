@@ -3,40 +3,222 @@ package com.bidinote.core.parser;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * 解析 Markdown 文本中的 wiki 链接、块引用与嵌入语法。
+ * 语法为 {@code !?[[内容]]}，内容非空且不含 {@code ]}；内容含 {@code ^} 时为块引用，否则含 {@code #} 时为标题链接。
+ * 单遍扫描，通过访问者逐个报告链接及其偏移；报告时复用同一个 {@link Link}，只有读取字段时才生成字符串。
  */
 public class WikiLinkParser {
-    private static final Pattern LINK_PATTERN = Pattern.compile("!?\\[\\[([^\\]]+)\\]\\]");
+
+    /**
+     * 扫描到的链接。同一次扫描中复用同一个对象，只在 {@link Visitor#visit} 调用期间有效，需要保留时用 {@link #toWikiLink()}。
+     */
+    public static final class Link {
+        private CharSequence text;
+        private int start;
+        private int end;
+        private boolean embed;
+        private WikiLink.Type type;
+        private int targetStart;
+        private int targetEnd;
+        private int anchorStart;
+        private int anchorEnd;
+        private int block;
+
+        private Link() {
+        }
+
+        /**
+         * 链接在扫描文本中的起点（含 {@code !}）。
+         */
+        public int start() {
+            return start;
+        }
+
+        public int end() {
+            return end;
+        }
+
+        public boolean isEmbed() {
+            return embed;
+        }
+
+        public WikiLink.Type type() {
+            return type;
+        }
+
+        /**
+         * 按页面扫描时链接所在块的下标，不在任何块内时为 -1；扫描普通文本时总是 -1。
+         */
+        public int block() {
+            return block;
+        }
+
+        public String rawText() {
+            return text.subSequence(start, end).toString();
+        }
+
+        public String targetTitle() {
+            return text.subSequence(targetStart, targetEnd).toString();
+        }
+
+        public String anchor() {
+            return anchorStart < 0 ? null : text.subSequence(anchorStart, anchorEnd).toString();
+        }
+
+        /**
+         * 原文，供调用方按偏移读取而不生成字符串。
+         */
+        public CharSequence text() {
+            return text;
+        }
+
+        public WikiLink toWikiLink() {
+            return new WikiLink(rawText(), targetTitle(), anchor(), type, embed, start, end);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Visitor {
+        void visit(Link link);
+    }
 
     public List<WikiLink> parse(String text) {
         Objects.requireNonNull(text, "text");
         List<WikiLink> result = new ArrayList<>();
-        Matcher matcher = LINK_PATTERN.matcher(text);
-        while (matcher.find()) {
-            String raw = matcher.group();
-            String inside = matcher.group(1).trim();
-            boolean embed = raw.startsWith("![");
-            WikiLink.Type type = WikiLink.Type.PAGE;
-            String anchor = null;
-            String target = inside;
-            if (inside.contains("#")) {
-                String[] parts = inside.split("#", 2);
-                target = parts[0].trim();
-                anchor = parts[1].trim();
-                type = WikiLink.Type.HEADING;
+        scan(text, link -> result.add(link.toWikiLink()));
+        return result;
+    }
+
+    public void scan(CharSequence text, Visitor visitor) {
+        scan(text, 0, text.length(), visitor);
+    }
+
+    /**
+     * 只扫描 [from, to)，链接不会跨越这两个边界，偏移相对于整个 text。
+     */
+    public void scan(CharSequence text, int from, int to, Visitor visitor) {
+        Objects.requireNonNull(text, "text");
+        Link link = new Link();
+        link.text = text;
+        link.block = -1;
+        scanRange(text, from, to, link, visitor);
+    }
+
+    /**
+     * 一遍扫描整页：blockRanges 为各块在 markdown 中的 [起点, 终点) 对，按文档顺序排列且互不重叠。
+     * 块内的链接报告所在块的下标，块之间的链接报告 -1，调用方可以同时得到块内链接与整页嵌入。
+     * 链接不跨越块的边界，与逐块扫描的结果一致。
+     */
+    public void scanPage(CharSequence markdown, int[] blockRanges, Visitor visitor) {
+        Objects.requireNonNull(markdown, "markdown");
+        if ((blockRanges.length & 1) != 0) {
+            throw new IllegalArgumentException("块区间必须成对出现: " + blockRanges.length);
+        }
+        Link link = new Link();
+        link.text = markdown;
+        int position = 0;
+        for (int i = 0; i < blockRanges.length; i += 2) {
+            int start = blockRanges[i];
+            int end = blockRanges[i + 1];
+            if (start < position || end < start || end > markdown.length()) {
+                throw new IllegalArgumentException("块区间无效: [" + start + ", " + end + ")");
+            }
+            link.block = -1;
+            scanRange(markdown, position, start, link, visitor);
+            link.block = i / 2;
+            scanRange(markdown, start, end, link, visitor);
+            position = end;
+        }
+        link.block = -1;
+        scanRange(markdown, position, markdown.length(), link, visitor);
+    }
+
+    /**
+     * 与 {@code !?\[\[([^\]]+)\]\]} 的最左匹配相同。close 记录下一个 ']' 的位置，起点单调前进，整体为线性时间。
+     */
+    private static void scanRange(CharSequence text, int from, int to, Link link, Visitor visitor) {
+        int close = from - 1;
+        int i = from;
+        while (i + 1 < to) {
+            char c = text.charAt(i);
+            int open;
+            if (c == '[' && text.charAt(i + 1) == '[') {
+                open = i;
+            } else if (c == '!' && i + 2 < to && text.charAt(i + 1) == '[' && text.charAt(i + 2) == '[') {
+                open = i + 1;
+            } else {
+                i++;
+                continue;
+            }
+            int contentStart = open + 2;
+            if (close < contentStart) {
+                close = contentStart;
+                while (close < to && text.charAt(close) != ']') {
+                    close++;
+                }
+            }
+            if (close == to) {
+                return;
             }
-            if (inside.contains("^")) {
-                String[] parts = inside.split("\\^", 2);
-                target = parts[0].trim();
-                anchor = parts[1].trim();
-                type = WikiLink.Type.BLOCK;
+            if (close > contentStart && close + 1 < to && text.charAt(close + 1) == ']') {
+                report(text, i, open, contentStart, close, link, visitor);
+                i = close + 2;
+            } else {
+                i++;
             }
-            result.add(new WikiLink(raw, target, anchor, embed ? WikiLink.Type.EMBED : type, embed));
         }
-        return result;
+    }
+
+    private static void report(CharSequence text, int start, int open, int contentStart, int contentEnd, Link link, Visitor visitor) {
+        link.start = start;
+        link.end = contentEnd + 2;
+        link.embed = start != open;
+        int innerStart = trimStart(text, contentStart, contentEnd);
+        int innerEnd = trimEnd(text, innerStart, contentEnd);
+        int hash = -1;
+        int caret = -1;
+        for (int k = innerStart; k < innerEnd && caret < 0; k++) {
+            char c = text.charAt(k);
+            if (c == '^') {
+                caret = k;
+            } else if (c == '#' && hash < 0) {
+                hash = k;
+            }
+        }
+        int separator = caret >= 0 ? caret : hash;
+        if (separator < 0) {
+            link.type = WikiLink.Type.PAGE;
+            link.targetStart = innerStart;
+            link.targetEnd = innerEnd;
+            link.anchorStart = -1;
+            link.anchorEnd = -1;
+        } else {
+            link.type = caret >= 0 ? WikiLink.Type.BLOCK : WikiLink.Type.HEADING;
+            link.targetStart = innerStart;
+            link.targetEnd = trimEnd(text, innerStart, separator);
+            link.anchorStart = trimStart(text, separator + 1, innerEnd);
+            link.anchorEnd = innerEnd;
+        }
+        if (link.embed) {
+            link.type = WikiLink.Type.EMBED;
+        }
+        visitor.visit(link);
+    }
+
+    // 与 String.trim 相同，去掉不大于空格的字符。
+    private static int trimStart(CharSequence text, int start, int end) {
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(CharSequence text, int start, int end) {
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
     }
 }
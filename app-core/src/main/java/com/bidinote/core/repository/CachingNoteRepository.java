@@ -0,0 +1,461 @@
+package com.bidinote.core.repository;
+
+import com.bidinote.core.model.NoteBlock;
+import com.bidinote.core.model.NoteEdge;
+import com.bidinote.core.model.NoteNode;
+import com.bidinote.core.model.PageChangeSet;
+import com.bidinote.core.util.TextNormalizer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 读穿透缓存：按 ID、标题与归一化标题/别名缓存节点，按页面缓存块、出边与入边，并缓存全部节点的快照。
+ * 所有条目共用一个按访问顺序淘汰的 LRU，同时受条目数与估算字节数约束。写方法只失效受影响的条目；
+ * 缓存中保存副本，读取时也返回副本，调用方修改返回的对象不会污染缓存。
+ */
+public class CachingNoteRepository implements NoteRepository {
+    private static final int DEFAULT_MAX_ENTRIES = 10_000;
+    private static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    private final NoteRepository delegate;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    /**
+     * 页面 ID 到结果中含有该页面的 TITLE 与 LOOKUP 条目，节点变化时只失效这些条目，不必扫描整个缓存。
+     */
+    private final Map<String, Set<Key>> pageKeys = new HashMap<>();
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    /**
+     * 每次失效递增。读取在访问底层存储前记下它，回填时若已变化则放弃，避免把写入前读到的旧值放回缓存。
+     */
+    private long generation;
+
+    private enum Kind {
+        NODE, TITLE, LOOKUP, ALL_NODES, BLOCKS, EDGES_OUT, EDGES_IN
+    }
+
+    private record Key(Kind kind, String id) {
+    }
+
+    private record Entry(Object value, long bytes) {
+    }
+
+    public record CacheStats(long hits, long misses, long evictions, int entries, long bytes) {
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+
+    public CachingNoteRepository(NoteRepository delegate) {
+        this(delegate, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    public CachingNoteRepository(NoteRepository delegate, int maxEntries, long maxBytes) {
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("缓存容量必须大于 0");
+        }
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized CacheStats stats() {
+        return new CacheStats(hits, misses, evictions, entries.size(), bytes);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        pageKeys.clear();
+        bytes = 0;
+        generation++;
+    }
+
+    @Override
+    public Optional<NoteNode> findNodeById(String id) {
+        Optional<NoteNode> node = cached(new Key(Kind.NODE, id), () -> delegate.findNodeById(id).map(CachingNoteRepository::copy),
+                value -> value.map(CachingNoteRepository::sizeOf).orElse(0L));
+        return node.map(CachingNoteRepository::copy);
+    }
+
+    /**
+     * 不存在的标题也会缓存，链接到尚未创建的页面时不必每次查库。
+     */
+    @Override
+    public Optional<NoteNode> findNodeByTitle(String title) {
+        Optional<NoteNode> node = cached(new Key(Kind.TITLE, title), () -> delegate.findNodeByTitle(title).map(CachingNoteRepository::copy),
+                value -> value.map(CachingNoteRepository::sizeOf).orElse(0L));
+        return node.map(CachingNoteRepository::copy);
+    }
+
+    /**
+     * 以归一化后的文本为键缓存，未命中的结果同样缓存。
+     */
+    @Override
+    public List<NoteNode> findNodesByTitleOrAlias(String text) {
+        if (text == null || text.isBlank()) {
+            return new ArrayList<>();
+        }
+        List<NoteNode> nodes = cached(new Key(Kind.LOOKUP, TextNormalizer.normalize(text)),
+                () -> delegate.findNodesByTitleOrAlias(text).stream().map(CachingNoteRepository::copy).toList(),
+                value -> value.stream().mapToLong(CachingNoteRepository::sizeOf).sum());
+        return nodes.stream().map(CachingNoteRepository::copy).collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    @Override
+    public Map<String, NoteNode> loadAllNodes() {
+        Map<String, NoteNode> snapshot = cached(new Key(Kind.ALL_NODES, ""), () -> {
+            Map<String, NoteNode> loaded = new LinkedHashMap<>();
+            delegate.loadAllNodes().forEach((id, node) -> loaded.put(id, copy(node)));
+            return loaded;
+        }, value -> value.values().stream().mapToLong(CachingNoteRepository::sizeOf).sum());
+        Map<String, NoteNode> result = new LinkedHashMap<>();
+        // 快照在写入时原地更新，复制要和 invalidateNode 持同一把锁。
+        synchronized (this) {
+            snapshot.forEach((id, node) -> result.put(id, copy(node)));
+        }
+        return result;
+    }
+
+    @Override
+    public Stream<NoteNode> streamNodes() {
+        return delegate.streamNodes();
+    }
+
+    @Override
+    public List<NoteBlock> findBlocksByPageId(String pageId) {
+        return new ArrayList<>(cached(new Key(Kind.BLOCKS, pageId), () -> List.copyOf(delegate.findBlocksByPageId(pageId)),
+                CachingNoteRepository::blocksSize));
+    }
+
+    @Override
+    public List<NoteEdge> findEdgesByPageId(String pageId) {
+        return new ArrayList<>(cached(new Key(Kind.EDGES_OUT, pageId), () -> List.copyOf(delegate.findEdgesByPageId(pageId)),
+                CachingNoteRepository::edgesSize));
+    }
+
+    @Override
+    public List<NoteEdge> findEdgesByTarget(String pageId) {
+        return new ArrayList<>(cached(new Key(Kind.EDGES_IN, pageId), () -> List.copyOf(delegate.findEdgesByTarget(pageId)),
+                CachingNoteRepository::edgesSize));
+    }
+
+    @Override
+    public void saveNode(NoteNode node) {
+        boolean written = false;
+        try {
+            delegate.saveNode(node);
+            written = true;
+        } finally {
+            invalidateNode(node, written);
+        }
+    }
+
+    @Override
+    public void saveBlocks(String pageId, List<NoteBlock> blocks) {
+        try {
+            delegate.saveBlocks(pageId, blocks);
+        } finally {
+            invalidate(List.of(new Key(Kind.BLOCKS, pageId)));
+        }
+    }
+
+    @Override
+    public void saveEdges(String pageId, List<NoteEdge> edges) {
+        List<NoteEdge> previous = findEdgesByPageId(pageId);
+        try {
+            delegate.saveEdges(pageId, edges);
+        } finally {
+            invalidateEdges(pageId, previous, edges);
+        }
+    }
+
+    @Override
+    public void saveAll(NoteNode node, List<NoteBlock> blocks, List<NoteEdge> edges) {
+        List<NoteEdge> previous = findEdgesByPageId(node.getId());
+        boolean written = false;
+        try {
+            delegate.saveAll(node, blocks, edges);
+            written = true;
+        } finally {
+            invalidatePage(node, previous, edges, written);
+        }
+    }
+
+    @Override
+    public void applyChanges(NoteNode node, PageChangeSet changes) {
+        boolean written = false;
+        try {
+            delegate.applyChanges(node, changes);
+            written = true;
+        } finally {
+            invalidateChanges(node, changes, written);
+        }
+    }
+
+    @Override
+    public void saveBatch(List<PageData> pages) {
+        List<List<NoteEdge>> previous = new ArrayList<>(pages.size());
+        pages.forEach(page -> previous.add(findEdgesByPageId(page.node().getId())));
+        boolean written = false;
+        try {
+            delegate.saveBatch(pages);
+            written = true;
+        } finally {
+            for (int i = 0; i < pages.size(); i++) {
+                PageData page = pages.get(i);
+                invalidatePage(page.node(), previous.get(i), page.edges(), written);
+            }
+        }
+    }
+
+    @Override
+    public void applyChangesBatch(List<PageUpdate> updates) {
+        boolean written = false;
+        try {
+            delegate.applyChangesBatch(updates);
+            written = true;
+        } finally {
+            for (PageUpdate update : updates) {
+                invalidateChanges(update.node(), update.changes(), written);
+            }
+        }
+    }
+
+    @Override
+    public void removeEdgesBySource(String pageId) {
+        List<NoteEdge> previous = findEdgesByPageId(pageId);
+        try {
+            delegate.removeEdgesBySource(pageId);
+        } finally {
+            invalidateEdges(pageId, previous, List.of());
+        }
+    }
+
+    @Override
+    public List<NoteEdge> loadAllEdges() {
+        return delegate.loadAllEdges();
+    }
+
+    @Override
+    public Stream<NoteEdge> streamEdges() {
+        return delegate.streamEdges();
+    }
+
+    @Override
+    public List<SearchHit> search(String keyword) {
+        return delegate.search(keyword);
+    }
+
+    @Override
+    public SearchPage search(String keyword, int limit, String cursor, boolean groupByPage) {
+        return delegate.search(keyword, limit, cursor, groupByPage);
+    }
+
+    private <T> T cached(Key key, Supplier<T> loader, ToLongFunction<T> sizer) {
+        long observed;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                @SuppressWarnings("unchecked")
+                T value = (T) entry.value();
+                return value;
+            }
+            misses++;
+            observed = generation;
+        }
+        T value = loader.get();
+        synchronized (this) {
+            if (observed == generation) {
+                put(key, value, sizer.applyAsLong(value));
+            }
+        }
+        return value;
+    }
+
+    private synchronized void put(Key key, Object value, long valueBytes) {
+        long size = valueBytes + 64;
+        if (size > maxBytes) {
+            return;
+        }
+        Entry entry = new Entry(value, size);
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes -= previous.bytes();
+            untrack(key, previous);
+        }
+        bytes += size;
+        track(key, entry);
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+            Map.Entry<Key, Entry> evicted = eldest.next();
+            bytes -= evicted.getValue().bytes();
+            untrack(evicted.getKey(), evicted.getValue());
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private synchronized void invalidate(Collection<Key> keys) {
+        generation++;
+        for (Key key : keys) {
+            Entry removed = entries.remove(key);
+            if (removed != null) {
+                bytes -= removed.bytes();
+                untrack(key, removed);
+            }
+        }
+    }
+
+    private void track(Key key, Entry entry) {
+        for (String pageId : pageIds(key, entry)) {
+            pageKeys.computeIfAbsent(pageId, id -> new HashSet<>()).add(key);
+        }
+    }
+
+    private void untrack(Key key, Entry entry) {
+        for (String pageId : pageIds(key, entry)) {
+            Set<Key> keys = pageKeys.get(pageId);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                pageKeys.remove(pageId);
+            }
+        }
+    }
+
+    private static List<String> pageIds(Key key, Entry entry) {
+        return switch (key.kind()) {
+            case TITLE -> ((Optional<?>) entry.value()).map(node -> List.of(((NoteNode) node).getId())).orElse(List.of());
+            case LOOKUP -> ((List<?>) entry.value()).stream().map(node -> ((NoteNode) node).getId()).toList();
+            default -> List.of();
+        };
+    }
+
+    /**
+     * 节点变化会影响它的 ID 条目、新旧标题条目、新旧标题与别名的归一化查找条目以及全部节点快照；旧标题与旧别名的条目
+     * 通过 pageKeys 找到。写入成功时在锁内原地替换快照中的这一个节点并按新旧大小差调整字节数，
+     * 每次保存后的 loadAllNodes 仍能命中；写入失败时直接丢弃快照。
+     */
+    private synchronized void invalidateNode(NoteNode node, boolean written) {
+        List<Key> keys = new ArrayList<>();
+        keys.add(new Key(Kind.NODE, node.getId()));
+        keys.add(new Key(Kind.TITLE, node.getTitle()));
+        if (node.getTitle() != null && !node.getTitle().isBlank()) {
+            keys.add(new Key(Kind.LOOKUP, TextNormalizer.normalize(node.getTitle())));
+        }
+        node.getAliases().stream().filter(alias -> alias != null && !alias.isBlank())
+                .forEach(alias -> keys.add(new Key(Kind.LOOKUP, TextNormalizer.normalize(alias))));
+        keys.addAll(pageKeys.getOrDefault(node.getId(), Set.of()));
+        Key allNodes = new Key(Kind.ALL_NODES, "");
+        if (!written) {
+            keys.add(allNodes);
+        }
+        invalidate(keys);
+        Entry snapshot = entries.get(allNodes);
+        if (snapshot == null) {
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, NoteNode> nodes = (Map<String, NoteNode>) snapshot.value();
+        NoteNode copy = copy(node);
+        NoteNode previous = nodes.put(node.getId(), copy);
+        long delta = sizeOf(copy) - (previous == null ? 0 : sizeOf(previous));
+        Entry updated = new Entry(nodes, snapshot.bytes() + delta);
+        if (updated.bytes() > maxBytes) {
+            invalidate(List.of(allNodes));
+            return;
+        }
+        entries.put(allNodes, updated);
+        bytes += delta;
+        evict();
+    }
+
+    private void invalidatePage(NoteNode node, List<NoteEdge> previousEdges, List<NoteEdge> edges, boolean written) {
+        invalidateNode(node, written);
+        invalidate(List.of(new Key(Kind.BLOCKS, node.getId())));
+        invalidateEdges(node.getId(), previousEdges, edges);
+    }
+
+    private void invalidateEdges(String pageId, List<NoteEdge> previous, List<NoteEdge> current) {
+        Set<Key> keys = new HashSet<>();
+        keys.add(new Key(Kind.EDGES_OUT, pageId));
+        previous.forEach(edge -> keys.add(new Key(Kind.EDGES_IN, edge.getDstPageId())));
+        current.forEach(edge -> keys.add(new Key(Kind.EDGES_IN, edge.getDstPageId())));
+        invalidate(keys);
+    }
+
+    private void invalidateChanges(NoteNode node, PageChangeSet changes, boolean written) {
+        invalidateNode(node, written);
+        if (!changes.insertedBlocks().isEmpty() || !changes.updatedBlocks().isEmpty()
+                || !changes.movedBlocks().isEmpty() || !changes.deletedBlockIds().isEmpty()) {
+            invalidate(List.of(new Key(Kind.BLOCKS, node.getId())));
+        }
+        if (!changes.addedEdges().isEmpty() || !changes.removedEdges().isEmpty()) {
+            invalidateEdges(node.getId(), changes.removedEdges(), changes.addedEdges());
+        }
+    }
+
+    private static NoteNode copy(NoteNode node) {
+        NoteNode copy = new NoteNode(node.getId(), node.getTitle());
+        copy.addAliases(node.getAliases());
+        copy.setTags(node.getTags());
+        copy.setUpdatedAt(node.getUpdatedAt());
+        copy.setContentHash(node.getContentHash());
+        copy.setLinkHash(node.getLinkHash());
+        return copy;
+    }
+
+    private static long sizeOf(String value) {
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+
+    private static long sizeOf(NoteNode node) {
+        long size = 96 + sizeOf(node.getId()) + sizeOf(node.getTitle());
+        for (String alias : node.getAliases()) {
+            size += 32 + sizeOf(alias);
+        }
+        for (String tag : node.getTags()) {
+            size += 32 + sizeOf(tag);
+        }
+        return size;
+    }
+
+    private static long blocksSize(List<NoteBlock> blocks) {
+        long size = 16;
+        for (NoteBlock block : blocks) {
+            size += 40 + sizeOf(block.getId()) + sizeOf(block.getPageId()) + sizeOf(block.getText()) + sizeOf(block.getAnchor());
+        }
+        return size;
+    }
+
+    private static long edgesSize(List<NoteEdge> edges) {
+        long size = 16;
+        for (NoteEdge edge : edges) {
+            size += 64 + sizeOf(edge.getSrcBlockId()) + sizeOf(edge.getSrcPageId()) + sizeOf(edge.getDstPageId())
+                    + sizeOf(edge.getDstBlockId()) + sizeOf(edge.getType()) + sizeOf(edge.getProps());
+        }
+        return size;
+    }
+}
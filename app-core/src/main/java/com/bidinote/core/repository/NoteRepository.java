@@ -3,10 +3,12 @@ package com.bidinote.core.repository;
 import com.bidinote.core.model.NoteBlock;
 import com.bidinote.core.model.NoteEdge;
 import com.bidinote.core.model.NoteNode;
+import com.bidinote.core.model.PageChangeSet;
 
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 /**
  * 存储层接口，由 app-storage 实现。
@@ -16,8 +18,18 @@ public interface NoteRepository {
 
     Optional<NoteNode> findNodeByTitle(String title);
 
+    /**
+     * 按归一化（NFKC、忽略大小写）后的标题或别名查找节点，标题命中排在别名命中之前。
+     */
+    List<NoteNode> findNodesByTitleOrAlias(String text);
+
     Map<String, NoteNode> loadAllNodes();
 
+    /**
+     * 逐条读取全部节点，不一次性加载到内存。流占用存储资源，调用方必须用 try-with-resources 关闭。
+     */
+    Stream<NoteNode> streamNodes();
+
     List<NoteBlock> findBlocksByPageId(String pageId);
 
     List<NoteEdge> findEdgesByPageId(String pageId);
@@ -30,12 +42,58 @@ public interface NoteRepository {
 
     void saveEdges(String pageId, List<NoteEdge> edges);
 
+    /**
+     * 在单个事务中保存页面节点及其全部块与边，要么全部生效，要么全部不生效。
+     */
+    void saveAll(NoteNode node, List<NoteBlock> blocks, List<NoteEdge> edges);
+
+    /**
+     * 在单个事务中保存页面节点，并只写入增量涉及的块、边与全文索引条目。
+     */
+    void applyChanges(NoteNode node, PageChangeSet changes);
+
+    /**
+     * 在单个事务中整页保存多个页面，供批量导入使用；任一页面失败则整批回滚。
+     */
+    void saveBatch(List<PageData> pages);
+
+    /**
+     * 在单个事务中写入多个页面的增量，任一页面失败则整批回滚。
+     */
+    void applyChangesBatch(List<PageUpdate> updates);
+
     void removeEdgesBySource(String pageId);
 
     List<NoteEdge> loadAllEdges();
 
+    /**
+     * 逐条读取全部边，适合在大型库上做整库遍历。流占用存储资源，调用方必须用 try-with-resources 关闭。
+     */
+    Stream<NoteEdge> streamEdges();
+
     List<SearchHit> search(String keyword);
 
+    /**
+     * 按相关度分页检索，最多返回 limit 条。cursor 为上一页返回的 nextCursor，首页传 null。
+     * groupByPage 为 true 时每个页面只返回得分最高的块。
+     */
+    SearchPage search(String keyword, int limit, String cursor, boolean groupByPage);
+
+    record PageData(NoteNode node, List<NoteBlock> blocks, List<NoteEdge> edges) {
+    }
+
+    record PageUpdate(NoteNode node, PageChangeSet changes) {
+    }
+
     record SearchHit(String pageId, String blockId, String snippet, double score) {
     }
+
+    /**
+     * 一页检索结果；nextCursor 为 null 表示没有更多结果。游标内容对调用方不透明。
+     */
+    record SearchPage(List<SearchHit> hits, String nextCursor) {
+        public boolean hasMore() {
+            return nextCursor != null;
+        }
+    }
 }
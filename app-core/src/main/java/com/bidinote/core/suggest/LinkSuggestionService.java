@@ -1,57 +1,268 @@
 package com.bidinote.core.suggest;
 
 import com.bidinote.core.model.NoteNode;
+import com.bidinote.core.util.CjkBigramSegmenter;
+import com.bidinote.core.util.TextNormalizer;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * 基于简单 TF-IDF 的链接建议。这里使用标题、别名与标签计算分数。
+ * 基于 BM25 的链接建议，文档为页面的标题、别名与标签。
+ * 长期持有一份词条到页面的倒排表并按页面增量更新；建议时只访问段落中出现的词条的倒排，再用大小为 limit 的堆取前几名。
+ * 词条为归一化后长度大于 1 的字母数字串，以及中日韩字符的二元组。
  */
 public class LinkSuggestionService {
-    private final Map<String, NoteNode> notesById;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<String, Integer> docIds = new HashMap<>();
+    // 以下数组以页面编号为下标，删除的页面留空位。
+    private NoteNode[] nodes = new NoteNode[16];
+    private String[][] terms = new String[16][];
+    private int[] lengths = new int[16];
+    private final List<Integer> freeIds = new ArrayList<>();
+    private int nextId;
+    private int documents;
+    private long totalLength;
+
+    /**
+     * 一个词条的倒排：页面编号与词频，删除时与末尾交换。
+     */
+    private static final class Postings {
+        private int[] docs = new int[4];
+        private int[] freqs = new int[4];
+        private int size;
+
+        void add(int doc, int freq) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            docs[size] = doc;
+            freqs[size] = freq;
+            size++;
+        }
+
+        void remove(int doc) {
+            for (int i = 0; i < size; i++) {
+                if (docs[i] == doc) {
+                    size--;
+                    docs[i] = docs[size];
+                    freqs[i] = freqs[size];
+                    return;
+                }
+            }
+        }
+    }
+
+    private record Scored(int doc, double score) {
+    }
+
+    public LinkSuggestionService() {
+    }
 
     public LinkSuggestionService(Map<String, NoteNode> notesById) {
-        this.notesById = Objects.requireNonNull(notesById, "notesById");
+        this(Objects.requireNonNull(notesById, "notesById").values());
+    }
+
+    public LinkSuggestionService(Collection<NoteNode> nodes) {
+        nodes.forEach(this::putNode);
+    }
+
+    /**
+     * 新增或替换页面，只改动该页旧词条与新词条的倒排。
+     */
+    public void putNode(NoteNode node) {
+        NoteNode snapshot = copy(node);
+        Map<String, Integer> frequencies = frequencies(documentText(snapshot));
+        lock.writeLock().lock();
+        try {
+            removeLocked(snapshot.getId());
+            if (frequencies.isEmpty()) {
+                return;
+            }
+            int doc = freeIds.isEmpty() ? nextId++ : freeIds.remove(freeIds.size() - 1);
+            if (doc == nodes.length) {
+                nodes = Arrays.copyOf(nodes, doc * 2);
+                terms = Arrays.copyOf(terms, doc * 2);
+                lengths = Arrays.copyOf(lengths, doc * 2);
+            }
+            int length = 0;
+            for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                postings.computeIfAbsent(entry.getKey(), k -> new Postings()).add(doc, entry.getValue());
+                length += entry.getValue();
+            }
+            docIds.put(snapshot.getId(), doc);
+            nodes[doc] = snapshot;
+            terms[doc] = frequencies.keySet().toArray(new String[0]);
+            lengths[doc] = length;
+            documents++;
+            totalLength += length;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeNode(String noteId) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(noteId);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     public List<NoteNode> suggest(String paragraphText, int limit) {
-        if (paragraphText == null || paragraphText.isBlank()) {
+        if (paragraphText == null || paragraphText.isBlank() || limit <= 0) {
             return List.of();
         }
-        Map<String, Long> tf = Arrays.stream(paragraphText.toLowerCase(Locale.ROOT).split("\\W+"))
-                .filter(token -> token.length() > 1)
-                .collect(Collectors.groupingBy(token -> token, Collectors.counting()));
-        return notesById.values().stream()
-                .filter(node -> node.getTitle() != null)
-                .map(node -> Map.entry(node, score(node, tf)))
-                .filter(entry -> entry.getValue() > 0)
-                .sorted(Map.Entry.<NoteNode, Double>comparingByValue(Comparator.reverseOrder()))
-                .limit(limit)
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toList());
-    }
-
-    private double score(NoteNode node, Map<String, Long> tf) {
-        Set<String> tokens = buildTokens(node);
-        double score = 0.0;
-        for (String token : tokens) {
-            score += tf.getOrDefault(token, 0L);
-        }
-        return score;
-    }
-
-    private Set<String> buildTokens(NoteNode node) {
-        return Arrays.stream((node.getTitle() + " " + String.join(" ", node.getAliases()) + " " + String.join(" ", node.getTags()))
-                        .toLowerCase(Locale.ROOT)
-                        .split("\\W+"))
-                .filter(token -> token.length() > 1)
-                .collect(Collectors.toSet());
+        Map<String, Integer> query = frequencies(paragraphText);
+        lock.readLock().lock();
+        try {
+            if (documents == 0) {
+                return List.of();
+            }
+            double averageLength = (double) totalLength / documents;
+            Map<Integer, Double> scores = new HashMap<>();
+            for (Map.Entry<String, Integer> entry : query.entrySet()) {
+                Postings list = postings.get(entry.getKey());
+                if (list == null) {
+                    continue;
+                }
+                double idf = Math.log(1 + (documents - list.size + 0.5) / (list.size + 0.5));
+                for (int i = 0; i < list.size; i++) {
+                    int doc = list.docs[i];
+                    double tf = list.freqs[i];
+                    double weight = idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * lengths[doc] / averageLength));
+                    scores.merge(doc, entry.getValue() * weight, Double::sum);
+                }
+            }
+            // 小顶堆只保留 limit 个，同分时页面编号小的优先。
+            Comparator<Scored> order = Comparator.comparingDouble(Scored::score).thenComparing(Scored::doc, Comparator.reverseOrder());
+            PriorityQueue<Scored> top = new PriorityQueue<>(limit + 1, order);
+            scores.forEach((doc, score) -> {
+                top.add(new Scored(doc, score));
+                if (top.size() > limit) {
+                    top.poll();
+                }
+            });
+            List<Scored> ranked = new ArrayList<>(top);
+            ranked.sort(order.reversed());
+            List<NoteNode> result = new ArrayList<>(ranked.size());
+            for (Scored scored : ranked) {
+                result.add(copy(nodes[scored.doc()]));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 为整页给出建议：依次取各段落的前 limit 名，去重后保留前 limit 个。
+     */
+    public List<NoteNode> suggestForPage(List<String> paragraphs, int limit) {
+        Set<NoteNode> result = new LinkedHashSet<>();
+        for (String paragraph : paragraphs) {
+            for (NoteNode node : suggest(paragraph, limit)) {
+                result.add(node);
+                if (result.size() == limit) {
+                    return new ArrayList<>(result);
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removeLocked(String noteId) {
+        Integer doc = docIds.remove(noteId);
+        if (doc == null) {
+            return;
+        }
+        for (String term : terms[doc]) {
+            Postings list = postings.get(term);
+            list.remove(doc);
+            if (list.size == 0) {
+                postings.remove(term);
+            }
+        }
+        totalLength -= lengths[doc];
+        documents--;
+        nodes[doc] = null;
+        terms[doc] = null;
+        freeIds.add(doc);
+    }
+
+    private static String documentText(NoteNode node) {
+        return node.getTitle() + " " + String.join(" ", node.getAliases()) + " " + String.join(" ", node.getTags());
+    }
+
+    /**
+     * 分词并计数：归一化后按字母数字切分，中日韩字符连续段切成二元组。
+     */
+    private static Map<String, Integer> frequencies(String text) {
+        String normalized = TextNormalizer.normalize(text);
+        Map<String, Integer> frequencies = new HashMap<>();
+        int i = 0;
+        while (i < normalized.length()) {
+            int cp = normalized.codePointAt(i);
+            if (!Character.isLetterOrDigit(cp)) {
+                i += Character.charCount(cp);
+                continue;
+            }
+            boolean cjk = CjkBigramSegmenter.isCjk(cp);
+            int start = i;
+            int end = i;
+            while (end < normalized.length()) {
+                int next = normalized.codePointAt(end);
+                if (!Character.isLetterOrDigit(next) || CjkBigramSegmenter.isCjk(next) != cjk) {
+                    break;
+                }
+                end += Character.charCount(next);
+            }
+            if (cjk) {
+                for (int a = start, b = normalized.offsetByCodePoints(a, 1); b < end; ) {
+                    int c = b + Character.charCount(normalized.codePointAt(b));
+                    frequencies.merge(normalized.substring(a, c), 1, Integer::sum);
+                    a = b;
+                    b = c;
+                }
+            } else if (normalized.codePointCount(start, end) > 1) {
+                frequencies.merge(normalized.substring(start, end), 1, Integer::sum);
+            }
+            i = end;
+        }
+        return frequencies;
+    }
+
+    private static NoteNode copy(NoteNode node) {
+        NoteNode copy = new NoteNode(node.getId(), node.getTitle());
+        copy.addAliases(node.getAliases());
+        copy.setTags(node.getTags());
+        copy.setUpdatedAt(node.getUpdatedAt());
+        return copy;
     }
 }
@@ -0,0 +1,87 @@
+package com.bidinote.core.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CJK 二元切分：把连续的中日韩字符拆成重叠的二元组，末字再单独成词，其他字符原样保留。
+ * 例如 "A/B测试方案" 切分为 "A/B 测试 试方 方案 案 "，供 unicode61 分词器建立子词索引。
+ */
+public final class CjkBigramSegmenter {
+    private CjkBigramSegmenter() {
+    }
+
+    public static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    /**
+     * 用于写入索引的切分文本。
+     */
+    public static String segment(CharSequence text) {
+        StringBuilder sb = new StringBuilder(text.length() * 3);
+        List<Integer> run = new ArrayList<>();
+        for (int i = 0; i < text.length(); ) {
+            int cp = Character.codePointAt(text, i);
+            i += Character.charCount(cp);
+            if (isCjk(cp)) {
+                run.add(cp);
+                continue;
+            }
+            flushIndexRun(run, sb);
+            sb.appendCodePoint(cp);
+        }
+        flushIndexRun(run, sb);
+        return sb.toString();
+    }
+
+    /**
+     * 用于查询的切分文本：只输出二元组，使其作为短语与索引中的连续词条对齐；单字保留为单字。
+     */
+    public static String segmentQuery(CharSequence text) {
+        StringBuilder sb = new StringBuilder(text.length() * 3);
+        List<Integer> run = new ArrayList<>();
+        for (int i = 0; i < text.length(); ) {
+            int cp = Character.codePointAt(text, i);
+            i += Character.charCount(cp);
+            if (isCjk(cp)) {
+                run.add(cp);
+                continue;
+            }
+            flushQueryRun(run, sb);
+            sb.appendCodePoint(cp);
+        }
+        flushQueryRun(run, sb);
+        return sb.toString().strip();
+    }
+
+    private static void flushIndexRun(List<Integer> run, StringBuilder sb) {
+        if (run.isEmpty()) {
+            return;
+        }
+        sb.append(' ');
+        for (int i = 0; i + 1 < run.size(); i++) {
+            sb.appendCodePoint(run.get(i)).appendCodePoint(run.get(i + 1)).append(' ');
+        }
+        sb.appendCodePoint(run.get(run.size() - 1)).append(' ');
+        run.clear();
+    }
+
+    private static void flushQueryRun(List<Integer> run, StringBuilder sb) {
+        if (run.isEmpty()) {
+            return;
+        }
+        sb.append(' ');
+        if (run.size() == 1) {
+            sb.appendCodePoint(run.get(0)).append(' ');
+        }
+        for (int i = 0; i + 1 < run.size(); i++) {
+            sb.appendCodePoint(run.get(i)).appendCodePoint(run.get(i + 1)).append(' ');
+        }
+        run.clear();
+    }
+}
@@ -0,0 +1,48 @@
+package com.bidinote.core.util;
+
+/**
+ * 64 位 FNV-1a 内容哈希，按 UTF-16 单元计算，用于判断页面内容是否变化。每段内容之后混入长度，
+ * 多段依次加入时不同的切分不会得到相同结果。0 保留表示“未知”，不会作为结果返回。
+ */
+public final class ContentHash {
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private long value = OFFSET_BASIS;
+
+    public static long of(CharSequence text) {
+        return new ContentHash().add(text).value();
+    }
+
+    public ContentHash add(CharSequence text) {
+        if (text == null) {
+            return add(-1L);
+        }
+        return add(text, 0, text.length());
+    }
+
+    /**
+     * 加入 text 的 [start, end) 段，与 add(text.subSequence(start, end)) 结果相同。
+     */
+    public ContentHash add(CharSequence text, int start, int end) {
+        long h = value;
+        for (int i = start; i < end; i++) {
+            h = (h ^ text.charAt(i)) * PRIME;
+        }
+        value = h;
+        return add(end - start);
+    }
+
+    public ContentHash add(long number) {
+        long h = value;
+        for (int shift = 0; shift < 64; shift += 16) {
+            h = (h ^ ((number >>> shift) & 0xFFFF)) * PRIME;
+        }
+        value = h;
+        return this;
+    }
+
+    public long value() {
+        return value == 0 ? 1 : value;
+    }
+}
@@ -0,0 +1,21 @@
+package com.bidinote.core.util;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * 标题与别名的归一化：NFKC、忽略大小写、简繁占位映射。词典匹配与数据库别名表共用同一规则。
+ */
+public final class TextNormalizer {
+    private TextNormalizer() {
+    }
+
+    public static String normalize(String text) {
+        String result = Normalizer.normalize(text, Normalizer.Form.NFKC);
+        result = result.toLowerCase(Locale.ROOT);
+        // 简繁转换可使用第三方库，此处使用占位逻辑。
+        result = result.replace('臺', '台');
+        result = result.replace('與', '与');
+        return result;
+    }
+}
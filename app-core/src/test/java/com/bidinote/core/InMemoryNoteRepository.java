@@ -3,15 +3,19 @@ package com.bidinote.core;
 import com.bidinote.core.model.NoteBlock;
 import com.bidinote.core.model.NoteEdge;
 import com.bidinote.core.model.NoteNode;
+import com.bidinote.core.model.PageChangeSet;
 import com.bidinote.core.repository.NoteRepository;
+import com.bidinote.core.util.TextNormalizer;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 class InMemoryNoteRepository implements NoteRepository {
     Map<String, NoteNode> nodes = new LinkedHashMap<>();
@@ -28,11 +32,35 @@ class InMemoryNoteRepository implements NoteRepository {
         return nodes.values().stream().filter(node -> node.getTitle().equals(title)).findFirst();
     }
 
+    @Override
+    public List<NoteNode> findNodesByTitleOrAlias(String text) {
+        if (text == null || text.isBlank()) {
+            return new ArrayList<>();
+        }
+        String norm = TextNormalizer.normalize(text);
+        List<NoteNode> byTitle = new ArrayList<>();
+        List<NoteNode> byAlias = new ArrayList<>();
+        for (NoteNode node : nodes.values()) {
+            if (TextNormalizer.normalize(node.getTitle()).equals(norm)) {
+                byTitle.add(node);
+            } else if (node.getAliases().stream().anyMatch(alias -> TextNormalizer.normalize(alias).equals(norm))) {
+                byAlias.add(node);
+            }
+        }
+        byTitle.addAll(byAlias);
+        return byTitle;
+    }
+
     @Override
     public Map<String, NoteNode> loadAllNodes() {
         return nodes;
     }
 
+    @Override
+    public Stream<NoteNode> streamNodes() {
+        return new ArrayList<>(nodes.values()).stream();
+    }
+
     @Override
     public List<NoteBlock> findBlocksByPageId(String pageId) {
         return blocksByPage.getOrDefault(pageId, new ArrayList<>());
@@ -64,6 +92,39 @@ class InMemoryNoteRepository implements NoteRepository {
         this.edges.addAll(edges);
     }
 
+    @Override
+    public void saveAll(NoteNode node, List<NoteBlock> blocks, List<NoteEdge> edges) {
+        saveNode(node);
+        saveBlocks(node.getId(), blocks);
+        saveEdges(node.getId(), edges);
+    }
+
+    @Override
+    public void saveBatch(List<PageData> pages) {
+        pages.forEach(page -> saveAll(page.node(), page.blocks(), page.edges()));
+    }
+
+    @Override
+    public void applyChangesBatch(List<PageUpdate> updates) {
+        updates.forEach(update -> applyChanges(update.node(), update.changes()));
+    }
+
+    @Override
+    public void applyChanges(NoteNode node, PageChangeSet changes) {
+        saveNode(node);
+        Map<String, NoteBlock> byId = new LinkedHashMap<>();
+        findBlocksByPageId(node.getId()).forEach(block -> byId.put(block.getId(), block));
+        changes.deletedBlockIds().forEach(byId::remove);
+        changes.insertedBlocks().forEach(block -> byId.put(block.getId(), block));
+        changes.updatedBlocks().forEach(block -> byId.put(block.getId(), block));
+        changes.movedBlocks().forEach(block -> byId.put(block.getId(), block));
+        List<NoteBlock> blocks = new ArrayList<>(byId.values());
+        blocks.sort(Comparator.comparingInt(NoteBlock::getOrderNo));
+        blocksByPage.put(node.getId(), blocks);
+        changes.removedEdges().forEach(edges::remove);
+        edges.addAll(changes.addedEdges());
+    }
+
     @Override
     public void removeEdgesBySource(String pageId) {
         edges.removeIf(edge -> edge.getSrcPageId().equals(pageId));
@@ -74,6 +135,11 @@ class InMemoryNoteRepository implements NoteRepository {
         return edges;
     }
 
+    @Override
+    public Stream<NoteEdge> streamEdges() {
+        return new ArrayList<>(edges).stream();
+    }
+
     @Override
     public List<SearchHit> search(String keyword) {
         return blocksByPage.values().stream()
@@ -82,4 +148,17 @@ class InMemoryNoteRepository implements NoteRepository {
                 .map(block -> new SearchHit(block.getPageId(), block.getId(), block.getText(), 1.0))
                 .collect(Collectors.toList());
     }
+
+    @Override
+    public SearchPage search(String keyword, int limit, String cursor, boolean groupByPage) {
+        List<SearchHit> hits = search(keyword);
+        if (groupByPage) {
+            Map<String, SearchHit> firstByPage = new LinkedHashMap<>();
+            hits.forEach(hit -> firstByPage.putIfAbsent(hit.pageId(), hit));
+            hits = new ArrayList<>(firstByPage.values());
+        }
+        int from = cursor == null ? 0 : Integer.parseInt(cursor);
+        int to = Math.min(hits.size(), from + limit);
+        return new SearchPage(hits.subList(from, to), to < hits.size() ? Integer.toString(to) : null);
+    }
 }
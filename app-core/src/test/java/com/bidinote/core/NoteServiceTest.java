@@ -1,15 +1,29 @@
 package com.bidinote.core;
 
 import com.bidinote.core.graph.GraphExpansionService;
+import com.bidinote.core.graph.GraphIndex;
 import com.bidinote.core.graph.LinkQueryService;
+import com.bidinote.core.graph.SavedLinkQueries;
+import com.bidinote.core.model.NoteBlock;
+import com.bidinote.core.model.NoteEdge;
 import com.bidinote.core.model.NoteNode;
+import com.bidinote.core.parser.TextChange;
+import com.bidinote.core.parser.WikiLink;
+import com.bidinote.core.parser.WikiLinkParser;
+import com.bidinote.core.repository.CachingNoteRepository;
 import com.bidinote.core.repository.NoteRepository.SearchHit;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -37,13 +51,245 @@ class NoteServiceTest {
         assertEquals(1, service.reverseLinks("B").size());
     }
 
+    @Test
+    void linkResolvesByNormalizedTitleOrAlias() {
+        NoteNode readme = new NoteNode("R", "Ｒｅａｄｍｅ");
+        readme.addAlias("Intro");
+        repository.saveNode(readme);
+        service.save(pageA, "见 [[readme]] 与 [[INTRO]]");
+        assertEquals(List.of("R", "R"), repository.findEdgesByPageId("A").stream().map(edge -> edge.getDstPageId()).toList());
+    }
+
+    @Test
+    void saveNewPagePersistsNodeWithBlocksAndEdges() {
+        NoteNode pageC = new NoteNode("C", "页面C");
+        service.save(pageC, "指向 [[页面A]] 与自身 [[页面C]]");
+        assertTrue(repository.findNodeById("C").isPresent());
+        assertEquals(1, repository.findBlocksByPageId("C").size());
+        assertEquals(2, repository.findEdgesByPageId("C").size());
+    }
+
+    @Test
+    void resaveKeepsUnchangedBlocksAndEdges() {
+        service.save(pageA, "# 标题\n\n链接 [[页面B]]\n\n第二段");
+        List<String> before = repository.findBlocksByPageId("A").stream().map(block -> block.getId()).toList();
+        service.save(pageA, "# 标题\n\n链接 [[页面B]]\n\n第二段已修改");
+        List<String> after = repository.findBlocksByPageId("A").stream().map(block -> block.getId()).toList();
+        assertEquals(before.subList(0, 2), after.subList(0, 2));
+        assertEquals(3, after.size());
+        assertEquals(1, repository.findEdgesByPageId("A").size());
+    }
+
+    @Test
+    void incrementalSaveReparsesOnlyEditedBlocks() {
+        String original = "# 标题\n\n第一段\n\n第二段\n\n第三段\n";
+        service.save(pageA, original);
+        List<String> before = repository.findBlocksByPageId("A").stream().map(block -> block.getId()).toList();
+
+        int offset = original.indexOf("第二段");
+        String inserted = original.substring(0, offset) + "插入 [[页面B]]\n\n" + original.substring(offset);
+        service.save(pageA, inserted, TextChange.of(offset, 0, "插入 [[页面B]]\n\n".length()));
+        List<NoteBlock> after = repository.findBlocksByPageId("A");
+        assertEquals(List.of("# 标题", "第一段", "插入 [[页面B]]", "第二段", "第三段"),
+                after.stream().map(block -> block.getText().strip()).toList());
+        assertEquals(List.of(0, 1, 2, 3, 4), after.stream().map(NoteBlock::getOrderNo).toList());
+        assertEquals(before, List.of(after.get(0).getId(), after.get(1).getId(), after.get(3).getId(), after.get(4).getId()));
+        assertEquals(1, repository.findEdgesByPageId("A").size());
+
+        // 与上次内容对不上的变化范围退回整页解析。
+        service.save(pageA, "只剩一段", TextChange.of(0, 0, 1));
+        assertEquals(List.of("只剩一段"), repository.findBlocksByPageId("A").stream().map(block -> block.getText().strip()).toList());
+    }
+
+    @Test
+    void unchangedContentSkipsSaveStages() {
+        String markdown = "链接 [[页面B]]\n\n正文";
+        assertTrue(service.save(pageA, markdown).skipped().isEmpty());
+        NoteService.SaveResult repeated = service.save(pageA, markdown);
+        assertEquals(EnumSet.allOf(NoteService.SaveStage.class), repeated.skipped());
+        assertEquals(2, repeated.blocks().size());
+
+        NoteService.SaveResult textOnly = service.save(pageA, "链接 [[页面B]]\n\n正文已修改");
+        assertEquals(Set.of(NoteService.SaveStage.EDGES), textOnly.skipped());
+        assertEquals(1, textOnly.edges().size());
+        assertEquals("正文已修改", repository.findBlocksByPageId("A").get(1).getText().strip());
+
+        // 未解析的链接不记录签名，目标页面出现后即使链接原文不变也会重建边。
+        service.save(pageA, "链接 [[页面C]]");
+        repository.saveNode(new NoteNode("C", "页面C"));
+        NoteService.SaveResult resolved = service.save(pageA, "链接 [[页面C]]\n\n补充");
+        assertFalse(resolved.skipped().contains(NoteService.SaveStage.EDGES));
+        assertEquals("C", repository.findEdgesByPageId("A").get(0).getDstPageId());
+    }
+
+    @Test
+    void unchangedContentStillResolvesDanglingLinks() {
+        String markdown = "链接 [[页面X]]\n\n正文";
+        service.save(pageA, markdown);
+        assertTrue(repository.findEdgesByPageId("A").isEmpty());
+        List<String> blockIds = repository.findBlocksByPageId("A").stream().map(NoteBlock::getId).toList();
+
+        repository.saveNode(new NoteNode("X", "页面X"));
+        NoteService.SaveResult resaved = service.save(pageA, markdown);
+        assertFalse(resaved.skipped().contains(NoteService.SaveStage.EDGES));
+        assertTrue(resaved.skipped().contains(NoteService.SaveStage.PARSE));
+        assertEquals(List.of("X"), repository.findEdgesByPageId("A").stream().map(edge -> edge.getDstPageId()).toList());
+        assertEquals(blockIds, repository.findBlocksByPageId("A").stream().map(NoteBlock::getId).toList());
+        // 链接都已解析，再次保存相同内容时跳过全部阶段。
+        assertEquals(EnumSet.allOf(NoteService.SaveStage.class), service.save(pageA, markdown).skipped());
+    }
+
+    @Test
+    void queuedSavesKeepLatestVersionOfEachPage() {
+        try (SaveQueue queue = new SaveQueue(service)) {
+            queue.submit(pageA, "第一版 [[页面B]]");
+            queue.submit(pageB, "页面B 正文");
+            NoteService.SaveResult latest = queue.submit(pageA, "第二版，不再链接").join();
+            queue.flush();
+            assertEquals(0, queue.queueDepth());
+            assertTrue(latest.edges().isEmpty());
+        }
+        assertEquals("第二版，不再链接", repository.findBlocksByPageId("A").get(0).getText().strip());
+        assertEquals(1, repository.findBlocksByPageId("B").size());
+        assertTrue(repository.loadAllEdges().isEmpty());
+    }
+
+    @Test
+    void cachingRepositoryInvalidatesOnRenameAndSave() {
+        CachingNoteRepository cached = new CachingNoteRepository(repository);
+        NoteService cachedService = new NoteService(cached);
+        cachedService.save(pageA, "链接 [[页面B]]");
+        assertEquals(1, cached.findEdgesByTarget("B").size());
+        assertTrue(cached.findNodeByTitle("页面B").isPresent());
+        cachedService.rename(cached.findNodeById("B").orElseThrow(), "新页面B");
+        assertTrue(cached.findNodeByTitle("页面B").isEmpty());
+        assertEquals("新页面B", cached.loadAllNodes().get("B").getTitle());
+        cachedService.save(pageA, "不再链接");
+        assertTrue(cached.findEdgesByTarget("B").isEmpty());
+        assertTrue(cached.stats().hits() > 0);
+    }
+
+    @Test
+    void cachingRepositoryInvalidatesOnlyEntriesOfChangedPage() {
+        CachingNoteRepository cached = new CachingNoteRepository(repository);
+        NoteNode page = new NoteNode("X", "旧标题");
+        page.addAlias("别名");
+        cached.saveNode(page);
+        assertTrue(cached.findNodeByTitle("旧标题").isPresent());
+        assertEquals(1, cached.findNodesByTitleOrAlias("别名").size());
+        assertTrue(cached.findNodeByTitle("页面B").isPresent());
+        assertTrue(cached.findNodesByTitleOrAlias("不存在").isEmpty());
+
+        NoteNode renamed = new NoteNode("X", "新标题");
+        cached.saveNode(renamed);
+        // 旧标题与旧别名不在新节点上，只能经由页面到条目的反向索引找到。
+        assertTrue(cached.findNodeByTitle("旧标题").isEmpty());
+        assertTrue(cached.findNodesByTitleOrAlias("别名").isEmpty());
+        long hits = cached.stats().hits();
+        assertTrue(cached.findNodeByTitle("页面B").isPresent());
+        assertTrue(cached.findNodesByTitleOrAlias("不存在").isEmpty());
+        assertEquals(hits + 2, cached.stats().hits());
+    }
+
+    @Test
+    void cachingRepositoryUpdatesAllNodesSnapshotInPlace() {
+        CachingNoteRepository cached = new CachingNoteRepository(repository);
+        assertEquals(2, cached.loadAllNodes().size());
+        cached.saveNode(new NoteNode("B", "改过的页面B，标题更长"));
+        cached.saveNode(new NoteNode("C", "页面C"));
+        long hits = cached.stats().hits();
+        Map<String, NoteNode> nodes = cached.loadAllNodes();
+        assertEquals(hits + 1, cached.stats().hits());
+        assertEquals("改过的页面B，标题更长", nodes.get("B").getTitle());
+        assertTrue(nodes.containsKey("C"));
+        // 原地调整后的字节数与重新加载的快照一致。
+        CachingNoteRepository fresh = new CachingNoteRepository(repository);
+        fresh.loadAllNodes();
+        assertEquals(fresh.stats().bytes(), cached.stats().bytes());
+    }
+
     @Test
     void unlinkedMentionDetected() {
-        NoteService.SaveResult result = service.save(pageA, "这里提到页面B但没有链接。");
+        NoteService.PageAnalysis result = service.save(pageA, "这里提到页面B但没有链接。").analysis().join();
         assertFalse(result.mentions().isEmpty());
         assertEquals("页面B", repository.findNodeById(result.mentions().get(0).noteId()).get().getTitle());
     }
 
+    @Test
+    void unlinkedMentionPrefersLongestMatchAndSkipsLinks() {
+        NoteNode longer = new NoteNode("L", "页面B手册");
+        longer.addAlias("ＲＥＡＤＭＥ");
+        repository.saveNode(longer);
+        String markdown = "见 [[页面B]]，另见页面B手册与 readme。";
+        NoteService.PageAnalysis result = service.save(pageA, markdown).analysis().join();
+        assertEquals(List.of("页面B手册", "readme"), result.mentions().stream().map(mention -> mention.matchedText()).toList());
+        assertEquals(List.of("L", "L"), result.mentions().stream().map(mention -> mention.noteId()).toList());
+        assertEquals(markdown.indexOf("readme"), result.mentions().get(1).start());
+    }
+
+    @Test
+    void analysisRunsAfterWriteAndNewerSaveSupersedesIt() {
+        List<Runnable> tasks = new ArrayList<>();
+        NoteService staged = new NoteService(repository, tasks::add);
+        NoteService.SaveResult first = staged.save(pageA, "第一版提到页面B");
+        assertEquals("第一版提到页面B", repository.findBlocksByPageId("A").get(0).getText().strip());
+        assertFalse(first.analysis().isDone());
+
+        NoteService.SaveResult second = staged.save(pageA, "第二版也提到页面B");
+        assertTrue(first.analysis().isCancelled());
+        // 内容未变化的保存沿用进行中的分析。
+        assertSame(second.analysis(), staged.save(pageA, "第二版也提到页面B").analysis());
+        tasks.forEach(Runnable::run);
+        assertEquals(List.of("页面B"), second.analysis().join().mentions().stream().map(mention -> mention.matchedText()).toList());
+        assertThrows(CancellationException.class, first.analysis()::join);
+    }
+
+    @Test
+    void wikiLinksReportOffsetsAndBuildEdgesInOnePass() {
+        String markdown = "见 [[ 页面B ^b1 ]] 与 [[页面B]]\n\n![[页面B#标题]]\n";
+        List<WikiLink> links = new WikiLinkParser().parse(markdown);
+        assertEquals(List.of(markdown.indexOf("[[ "), markdown.indexOf("[[页面B]]"), markdown.indexOf("![[")),
+                links.stream().map(WikiLink::getStart).toList());
+        assertEquals("b1", links.get(0).getAnchor());
+        assertEquals(WikiLink.Type.EMBED, links.get(2).getType());
+
+        service.save(pageA, markdown);
+        List<NoteBlock> blocks = repository.findBlocksByPageId("A");
+        assertEquals(List.of(
+                        blocks.get(0).getId() + " link b1",
+                        blocks.get(0).getId() + " link null",
+                        blocks.get(1).getId() + " embed null",
+                        "null transclusion 标题"),
+                repository.findEdgesByPageId("A").stream()
+                        .map(edge -> edge.getSrcBlockId() + " " + edge.getType() + " " + edge.getDstBlockId())
+                        .toList());
+    }
+
+    @Test
+    void aliasDictionaryFollowsRenamesWithoutRebuild() {
+        assertEquals(0, service.aliasDictionaryBytes());
+        service.save(pageA, "提到页面B").analysis().join();
+        long bytes = service.aliasDictionaryBytes();
+        assertTrue(bytes > 0);
+        service.rename(pageB, "新页面");
+        NoteService.PageAnalysis result = service.save(pageA, "提到新页面，也提到页面B").analysis().join();
+        assertEquals(List.of("新页面", "页面B"), result.mentions().stream().map(mention -> mention.matchedText()).toList());
+        assertTrue(service.aliasDictionaryBytes() > bytes);
+    }
+
+    @Test
+    void suggestionsRankRareTitleTermsAndFollowRenames() {
+        NoteNode roadmap = new NoteNode("R", "Roadmap 2025");
+        roadmap.setTags(Set.of("planning"));
+        repository.saveNode(roadmap);
+        NoteService.PageAnalysis result = service.save(pageA, "讨论 roadmap 与页面的关系").analysis().join();
+        assertEquals("R", result.suggestions().get(0).getId());
+
+        service.rename(pageB, "季度复盘");
+        result = service.save(pageA, "准备季度复盘材料").analysis().join();
+        assertEquals("B", result.suggestions().get(0).getId());
+    }
+
     @Test
     void renameKeepsAlias() {
         service.rename(pageB, "页面B-2025");
@@ -67,6 +313,76 @@ class NoteServiceTest {
         assertEquals(1, result.edges().size());
     }
 
+    @Test
+    void graphIndexFollowsSavedLinks() {
+        NoteNode pageC = new NoteNode("C", "页面C");
+        repository.saveNode(pageC);
+        service.save(pageA, "链接 [[页面B]]");
+        assertEquals(1, service.expandGraph("A", 2, 0).edges().size());
+
+        service.save(pageB, "链接 [[页面C]]");
+        GraphExpansionService.GraphResult result = service.expandGraph("A", 2, 0);
+        assertEquals(Set.of("A", "B", "C"), result.nodes().stream().map(NoteNode::getId).collect(Collectors.toSet()));
+        assertEquals(2, result.edges().size());
+
+        service.save(pageA, "不再链接");
+        assertEquals(List.of("A"), service.expandGraph("A", 2, 0).nodes().stream().map(NoteNode::getId).toList());
+        assertEquals(1, service.expandGraph("B", 1, 2).nodes().size());
+    }
+
+    @Test
+    void progressiveExpansionKeepsHighDegreePagesWithinBudget() {
+        for (String id : List.of("C", "D")) {
+            repository.saveNode(new NoteNode(id, "页面" + id));
+        }
+        service.save(pageA, "[[页面B]] [[页面C]] [[页面D]]");
+        service.save(pageB, "[[页面C]]");
+        List<GraphExpansionService.GraphLevel> levels = new ArrayList<>();
+        GraphExpansionService.ExpansionBudget budget = new GraphExpansionService.ExpansionBudget(3, 100, null);
+        GraphExpansionService.GraphResult result = service.expandGraphProgressively("A", 3, 0, budget, levels::add, Runnable::run).join();
+        assertEquals(2, levels.size());
+        assertEquals(List.of("A"), levels.get(0).nodes().stream().map(NoteNode::getId).toList());
+        assertEquals(Set.of("B", "C"), levels.get(1).nodes().stream().map(NoteNode::getId).collect(Collectors.toSet()));
+        assertTrue(levels.get(1).truncated());
+        assertEquals(3, result.nodes().size());
+
+        levels.clear();
+        List<Runnable> tasks = new ArrayList<>();
+        List<CompletableFuture<GraphExpansionService.GraphResult>> running = new ArrayList<>();
+        running.add(service.expandGraphProgressively("A", 3, 0, GraphExpansionService.ExpansionBudget.UNLIMITED, level -> {
+            levels.add(level);
+            running.get(0).cancel(false);
+        }, tasks::add));
+        tasks.forEach(Runnable::run);
+        assertThrows(CancellationException.class, running.get(0)::join);
+        assertEquals(1, levels.size());
+    }
+
+    @Test
+    void progressiveExpansionMatchesBatchAroundLowDegreePage() {
+        // L 的度数低于阈值，不向外展开；M 展开时仍要发出 L-M 这条边。
+        GraphIndex index = GraphIndex.build(Stream.of(
+                edge("A", "L"), edge("A", "M"), edge("L", "M"), edge("A", "X"), edge("M", "Y"), edge("M", "Z")));
+        Set<String> batch = index.expand("A", 2, 3).edges().stream().map(NoteServiceTest::edgeKey).collect(Collectors.toSet());
+        assertEquals(Set.of("A>L", "A>M", "A>X", "L>M", "M>Y", "M>Z"), batch);
+
+        GraphIndex.Expansion expansion = index.startExpansion("A", 3);
+        List<String> progressive = new ArrayList<>();
+        for (GraphIndex.Ring ring; (ring = expansion.next(Integer.MAX_VALUE, Integer.MAX_VALUE, () -> false)) != null; ) {
+            ring.edges().forEach(edge -> progressive.add(edgeKey(edge)));
+        }
+        assertEquals(batch.size(), progressive.size());
+        assertEquals(batch, Set.copyOf(progressive));
+    }
+
+    private static NoteEdge edge(String src, String dst) {
+        return new NoteEdge(null, src, dst, null, "link", null, null);
+    }
+
+    private static String edgeKey(NoteEdge edge) {
+        return edge.getSrcPageId() + ">" + edge.getDstPageId();
+    }
+
     @Test
     void linkQueryFiltersByTag() {
         pageA.setTags(Set.of("tag1"));
@@ -77,4 +393,65 @@ class NoteServiceTest {
         LinkQueryService.QueryResult result = service.query("tag=\"tag1\"");
         assertEquals(1, result.nodes().size());
     }
+
+    @Test
+    void linkQueryIndexHandlesCaseVariantTags() {
+        assertTrue(service.query("tag=\"project\"").nodes().isEmpty());
+        pageA.setTags(Set.of("Project", "project"));
+        service.save(pageA, "第一版");
+        service.save(pageA, "第二版");
+        assertEquals(List.of("A"), service.query("tag=\"PROJECT\"").nodes().stream().map(NoteNode::getId).toList());
+
+        pageA.setTags(Set.of("other"));
+        service.save(pageA, "第三版");
+        assertTrue(service.query("tag=\"project\"").nodes().isEmpty());
+    }
+
+    @Test
+    void linkQuerySupportsInEdgesNegationAndLimit() {
+        NoteNode meeting = new NoteNode("M", "会议");
+        meeting.setTags(Set.of("Meeting"));
+        NoteNode archived = new NoteNode("C", "归档");
+        archived.setTags(Set.of("project", "archived"));
+        pageA.setTags(Set.of("project"));
+        pageB.setTags(Set.of("project"));
+        for (NoteNode node : List.of(meeting, archived, pageA, pageB)) {
+            repository.saveNode(node);
+        }
+        service.save(meeting, "[[页面A]] [[归档]]");
+        assertEquals(List.of("A"), service.query("tag=project AND in()->tag=\"meeting\" AND NOT tag=archived").nodes().stream().map(NoteNode::getId).toList());
+        assertEquals(2, service.query("tag=project AND in()->tag=meeting").nodes().size());
+        assertEquals(0, service.query("tag=project AND in(type=\"embed\")->tag=meeting").nodes().size());
+        assertEquals(Set.of("B", "M"), service.query("NOT tag=project OR (tag=project AND NOT in()->tag=meeting)").nodes().stream()
+                .map(NoteNode::getId).collect(Collectors.toSet()));
+        assertEquals(1, service.query("tag=project LIMIT 1").nodes().size());
+
+        pageB.setTags(Set.of("meeting"));
+        service.save(pageB, "[[归档]]");
+        assertEquals(Set.of("M", "B"), service.query("out()->tag=archived").nodes().stream().map(NoteNode::getId).collect(Collectors.toSet()));
+        assertThrows(IllegalArgumentException.class, () -> service.query("tag=project AND"));
+    }
+
+    @Test
+    void savedQueryPublishesDeltasForChangedPages() {
+        NoteNode meeting = new NoteNode("M", "会议");
+        meeting.setTags(Set.of("meeting"));
+        pageA.setTags(Set.of("project"));
+        repository.saveNode(meeting);
+        repository.saveNode(pageA);
+        List<SavedLinkQueries.Delta> deltas = new ArrayList<>();
+        service.saveQuery("meetings", "tag=project AND in()->tag=meeting", deltas::add);
+        assertTrue(service.savedQueryResults("meetings").isEmpty());
+
+        service.save(meeting, "[[页面A]]");
+        assertEquals(List.of(new SavedLinkQueries.Delta("meetings", List.of("A"), List.of())), deltas);
+        assertEquals(List.of("A"), service.savedQueryResults("meetings").stream().map(NoteNode::getId).toList());
+
+        deltas.clear();
+        service.save(pageB, "无关内容");
+        assertTrue(deltas.isEmpty());
+        service.save(meeting, "不再链接");
+        assertEquals(List.of(new SavedLinkQueries.Delta("meetings", List.of(), List.of("A"))), deltas);
+        assertThrows(IllegalArgumentException.class, () -> service.saveQuery("top", "tag=project LIMIT 5", delta -> { }));
+    }
 }
@@ -0,0 +1,71 @@
+package com.bidinote.core;
+
+import com.bidinote.core.importer.VaultImporter;
+import com.bidinote.core.importer.VaultImporter.ImportResult;
+import com.bidinote.core.model.NoteEdge;
+import com.bidinote.core.model.NoteNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VaultImporterTest {
+    @TempDir
+    Path vault;
+
+    @Test
+    void importResolvesLinksAcrossFilesAndSkipsBadInput() throws Exception {
+        Files.writeString(vault.resolve("Alpha.md"), "去看 [[Beta]]，还有 [[Broken]]\n");
+        Files.writeString(vault.resolve("Beta.md"), "回到 [[Alpha]]\n");
+        // 非法 UTF-8，读取失败。
+        Files.write(vault.resolve("Broken.md"), new byte[]{(byte) 0xC3, 0x28});
+        Files.writeString(vault.resolve("Delta.md"), "delta\n");
+        Files.writeString(vault.resolve("Epsilon.md"), "epsilon\n");
+        Files.writeString(vault.resolve("Gamma.md"), "gamma 链接 [[Delta]]\n");
+        Files.createDirectories(vault.resolve("sub"));
+        Files.writeString(vault.resolve("sub").resolve("Alpha.md"), "重名的页面 [[Gamma]]\n");
+
+        List<Integer> batches = new ArrayList<>();
+        InMemoryNoteRepository repository = new InMemoryNoteRepository() {
+            @Override
+            public void saveBatch(List<PageData> pages) {
+                batches.add(pages.size());
+                super.saveBatch(pages);
+            }
+        };
+        NoteNode existing = new NoteNode("gamma-id", "Gamma");
+        existing.setContentHash(11);
+        existing.setLinkHash(13);
+        repository.saveNode(existing);
+
+        ImportResult result = new VaultImporter(repository, 2, 2).importVault(vault, progress -> { });
+
+        assertEquals(5, result.pages());
+        // sub/Alpha.md 与第一个 Alpha.md 重名，Broken.md 读取失败。
+        assertEquals(2, result.skipped());
+        assertEquals(List.of(2, 2, 1), batches);
+        assertEquals(5, repository.nodes.size());
+        assertTrue(repository.findNodeByTitle("Broken").isEmpty());
+
+        String alpha = repository.findNodeByTitle("Alpha").orElseThrow().getId();
+        String beta = repository.findNodeByTitle("Beta").orElseThrow().getId();
+        String delta = repository.findNodeByTitle("Delta").orElseThrow().getId();
+        // 第一遍登记全部标题，Alpha 能链到排在它后面的 Beta；[[Broken]] 不产生边。
+        assertEquals(List.of(beta), repository.findEdgesByPageId(alpha).stream().map(NoteEdge::getDstPageId).toList());
+        assertEquals(List.of(alpha), repository.findEdgesByPageId(beta).stream().map(NoteEdge::getDstPageId).toList());
+        assertTrue(repository.edges.stream().allMatch(edge -> repository.nodes.containsKey(edge.getDstPageId())));
+        assertEquals(result.edges(), repository.edges.size());
+
+        // 库中已有的同名页面沿用原 ID，旧哈希清零，下次保存会完整执行。
+        NoteNode gamma = repository.findNodeById("gamma-id").orElseThrow();
+        assertEquals(0, gamma.getContentHash());
+        assertEquals(0, gamma.getLinkHash());
+        assertEquals(List.of(delta), repository.findEdgesByPageId("gamma-id").stream().map(NoteEdge::getDstPageId).toList());
+        assertFalse(repository.findBlocksByPageId("gamma-id").isEmpty());
+    }
+}
@@ -0,0 +1,714 @@
+package com.bidinote.storage.log;
+
+import com.bidinote.core.model.NoteBlock;
+import com.bidinote.core.model.NoteEdge;
+import com.bidinote.core.model.NoteNode;
+import com.bidinote.core.model.PageChangeSet;
+import com.bidinote.core.repository.NoteRepository;
+import com.bidinote.core.util.TextNormalizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * 常驻内存的存储实现：节点、块与边全部保存在内存中，读取不访问磁盘。每次写入先作为一条带校验和的记录追加到操作日志，
+ * 再更新内存；日志超过阈值时在后台写出压缩快照并清空日志，启动时顺序读入快照再重放日志。
+ * 可选地把写入按顺序异步镜像到另一个 NoteRepository（通常是 SQLiteNoteRepository），全文检索交给镜像完成；
+ * 未配置镜像时检索退化为逐块子串匹配。增量保存在日志与镜像中都只记录增量，镜像的每次批量调用须是一个事务。
+ */
+public class LogStructuredNoteRepository implements NoteRepository, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(LogStructuredNoteRepository.class);
+    static final String SNAPSHOT_FILE = "snapshot.bin";
+    static final String LOG_FILE = "oplog.bin";
+    static final String MIRROR_FILE = "mirror.seq";
+    private static final long MIN_COMPACT_BYTES = 16L * 1024 * 1024;
+    private static final int MIRROR_BATCH = 500;
+    private static final long MIRROR_RETRY_MIN_MILLIS = 500;
+    private static final long MIRROR_RETRY_MAX_MILLIS = 60_000;
+    // 镜像长时间不可用时积压的记录上限，超过后放弃，留待下次启动补齐。
+    private static final int MAX_STALLED = 10_000;
+    private static final int SNIPPET_RADIUS = 30;
+
+    private final Path directory;
+    private final OpLog opLog;
+    private final NoteRepository mirror;
+    private final ScheduledThreadPoolExecutor mirrorWriter;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(daemon("note-log-compactor"));
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, NoteNode> nodes = new LinkedHashMap<>();
+    private final Map<String, List<NoteBlock>> blocksByPage = new LinkedHashMap<>();
+    private final Map<String, List<NoteEdge>> edgesBySource = new LinkedHashMap<>();
+    // 目标页面 -> 来源页面 -> 边；来源页面重写出边时按来源整组移除，不必扫描目标的全部入边。
+    private final Map<String, Map<String, List<NoteEdge>>> edgesByTarget = new HashMap<>();
+    private final Map<String, Set<String>> titleToIds = new HashMap<>();
+    private final Map<String, Set<String>> normalizedToIds = new HashMap<>();
+    // 以下三项只在镜像线程中访问：镜像失败后暂停推进，之后的记录按顺序积压，重试成功后依次补上。
+    private final Deque<OpLog.Entry> stalled = new ArrayDeque<>();
+    private long retryMillis;
+    private boolean mirrorAbandoned;
+    private long seq;
+    private volatile long snapshotBytes;
+
+    public LogStructuredNoteRepository(Path directory) {
+        this(directory, null, true);
+    }
+
+    public LogStructuredNoteRepository(Path directory, NoteRepository mirror) {
+        this(directory, mirror, true);
+    }
+
+    /**
+     * @param mirror        后台镜像目标，为 null 时不镜像。启动时按上次镜像到的日志序号补齐，日志已被压缩掉时整库重新同步。
+     * @param syncEachWrite 每条日志记录写入后是否 fsync；关闭后吞吐更高，但断电可能丢失最后几次写入
+     */
+    public LogStructuredNoteRepository(Path directory, NoteRepository mirror, boolean syncEachWrite) {
+        this.directory = Objects.requireNonNull(directory, "directory");
+        this.mirror = mirror;
+        this.mirrorWriter = mirror == null ? null : new ScheduledThreadPoolExecutor(1, daemon("note-log-mirror"));
+        if (mirrorWriter != null) {
+            mirrorWriter.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        }
+        try {
+            Files.createDirectories(directory);
+            Path snapshot = directory.resolve(SNAPSHOT_FILE);
+            long snapshotSeq = Snapshot.read(snapshot, this::apply);
+            seq = snapshotSeq;
+            snapshotBytes = Files.exists(snapshot) ? Files.size(snapshot) : 0;
+            long mirrored = mirror == null ? 0 : readMirroredSeq();
+            Set<String> unmirrored = new LinkedHashSet<>();
+            this.opLog = new OpLog(directory.resolve(LOG_FILE), syncEachWrite);
+            int replayed = opLog.replay(entry -> {
+                // 写出快照后、清空日志前崩溃时，日志里会留下快照已包含的记录；增量不能重复应用。
+                if (entry.seq() <= snapshotSeq) {
+                    return;
+                }
+                entry.ops().forEach(this::apply);
+                seq = Math.max(seq, entry.seq());
+                if (mirror != null && entry.seq() > mirrored) {
+                    entry.ops().forEach(op -> unmirrored.add(op.pageId()));
+                }
+            });
+            log.info("载入 {} 个页面，重放 {} 条日志记录", nodes.size(), replayed);
+            if (mirror != null) {
+                catchUpMirror(snapshotSeq, mirrored, unmirrored);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("载入日志存储失败: " + directory, e);
+        }
+    }
+
+    @Override
+    public Optional<NoteNode> findNodeById(String id) {
+        return read(() -> Optional.ofNullable(nodes.get(id)).map(LogStructuredNoteRepository::copy));
+    }
+
+    @Override
+    public Optional<NoteNode> findNodeByTitle(String title) {
+        return read(() -> titleToIds.getOrDefault(title, Set.of()).stream().findFirst().map(nodes::get).map(LogStructuredNoteRepository::copy));
+    }
+
+    @Override
+    public List<NoteNode> findNodesByTitleOrAlias(String text) {
+        if (text == null || text.isBlank()) {
+            return new ArrayList<>();
+        }
+        String normalized = TextNormalizer.normalize(text);
+        return read(() -> {
+            List<NoteNode> byTitle = new ArrayList<>();
+            List<NoteNode> byAlias = new ArrayList<>();
+            for (String id : normalizedToIds.getOrDefault(normalized, Set.of())) {
+                NoteNode node = nodes.get(id);
+                (TextNormalizer.normalize(node.getTitle()).equals(normalized) ? byTitle : byAlias).add(copy(node));
+            }
+            byTitle.addAll(byAlias);
+            return byTitle;
+        });
+    }
+
+    @Override
+    public Map<String, NoteNode> loadAllNodes() {
+        return read(() -> {
+            Map<String, NoteNode> map = new LinkedHashMap<>();
+            nodes.forEach((id, node) -> map.put(id, copy(node)));
+            return map;
+        });
+    }
+
+    @Override
+    public Stream<NoteNode> streamNodes() {
+        return read(() -> nodes.values().stream().map(LogStructuredNoteRepository::copy).toList()).stream();
+    }
+
+    @Override
+    public List<NoteBlock> findBlocksByPageId(String pageId) {
+        return read(() -> new ArrayList<>(blocksByPage.getOrDefault(pageId, List.of())));
+    }
+
+    @Override
+    public List<NoteEdge> findEdgesByPageId(String pageId) {
+        return read(() -> new ArrayList<>(edgesBySource.getOrDefault(pageId, List.of())));
+    }
+
+    @Override
+    public List<NoteEdge> findEdgesByTarget(String pageId) {
+        return read(() -> {
+            List<NoteEdge> edges = new ArrayList<>();
+            edgesByTarget.getOrDefault(pageId, Map.of()).values().forEach(edges::addAll);
+            return edges;
+        });
+    }
+
+    @Override
+    public List<NoteEdge> loadAllEdges() {
+        return read(() -> {
+            List<NoteEdge> edges = new ArrayList<>();
+            edgesBySource.values().forEach(edges::addAll);
+            return edges;
+        });
+    }
+
+    @Override
+    public Stream<NoteEdge> streamEdges() {
+        return loadAllEdges().stream();
+    }
+
+    @Override
+    public void saveNode(NoteNode node) {
+        Objects.requireNonNull(node, "node");
+        write(() -> List.of(new PageOp(node.getId(), copy(node), null, null)));
+    }
+
+    @Override
+    public void saveBlocks(String pageId, List<NoteBlock> blocks) {
+        write(() -> List.of(new PageOp(pageId, null, blocksOf(pageId, blocks), null)));
+    }
+
+    @Override
+    public void saveEdges(String pageId, List<NoteEdge> edges) {
+        write(() -> List.of(new PageOp(pageId, null, null, edgesOf(pageId, edges))));
+    }
+
+    @Override
+    public void saveAll(NoteNode node, List<NoteBlock> blocks, List<NoteEdge> edges) {
+        write(() -> List.of(fullPage(node, blocks, edges)));
+    }
+
+    @Override
+    public void applyChanges(NoteNode node, PageChangeSet changes) {
+        write(() -> List.of(delta(node, changes)));
+    }
+
+    @Override
+    public void saveBatch(List<PageData> pages) {
+        write(() -> pages.stream().map(page -> fullPage(page.node(), page.blocks(), page.edges())).toList());
+    }
+
+    @Override
+    public void applyChangesBatch(List<PageUpdate> updates) {
+        // 同一批内可能多次修改同一页面，增量按顺序逐条应用，后一次基于前一次的结果。
+        write(() -> updates.stream().map(update -> delta(update.node(), update.changes())).toList());
+    }
+
+    @Override
+    public void removeEdgesBySource(String pageId) {
+        write(() -> List.of(new PageOp(pageId, null, null, List.of())));
+    }
+
+    @Override
+    public List<SearchHit> search(String keyword) {
+        if (mirror != null) {
+            return mirror.search(keyword);
+        }
+        return scan(keyword, Integer.MAX_VALUE, null, false).hits();
+    }
+
+    @Override
+    public SearchPage search(String keyword, int limit, String cursor, boolean groupByPage) {
+        if (mirror != null) {
+            return mirror.search(keyword, limit, cursor, groupByPage);
+        }
+        return scan(keyword, limit, cursor, groupByPage);
+    }
+
+    /**
+     * 立即写出快照并清空操作日志。写出期间写入会等待，读取不受影响。
+     */
+    public void compact() {
+        lock.readLock().lock();
+        try {
+            long started = System.nanoTime();
+            snapshotBytes = Snapshot.write(directory.resolve(SNAPSHOT_FILE), seq, fullPages());
+            opLog.reset();
+            log.info("写出快照 {} 字节，日志序号 {}，耗时 {} ms", snapshotBytes, seq, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        } catch (IOException e) {
+            throw new IllegalStateException("写入快照失败: " + directory, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 阻塞到镜像线程处理完此前提交的写入；没有镜像时立即返回。镜像失败积压的记录不在等待之列。
+     */
+    public void awaitMirror() {
+        if (mirrorWriter == null) {
+            return;
+        }
+        try {
+            mirrorWriter.submit(() -> {
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("等待镜像失败", e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        compactor.shutdown();
+        if (mirrorWriter != null) {
+            mirrorWriter.shutdown();
+        }
+        try {
+            if (!compactor.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("快照任务未在超时前结束");
+            }
+            if (mirrorWriter != null && !mirrorWriter.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("镜像任务未在超时前结束，下次启动时补齐");
+                mirrorWriter.shutdownNow();
+            } else if (mirrorWriter != null && !stalled.isEmpty()) {
+                log.warn("镜像仍有 {} 条记录未写入，下次启动时补齐", stalled.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            opLog.close();
+        } catch (IOException e) {
+            log.error("关闭操作日志失败", e);
+        }
+    }
+
+    private <T> T read(Supplier<T> work) {
+        lock.readLock().lock();
+        try {
+            return work.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 在写锁内根据当前状态生成操作，先落日志再更新内存，最后按提交顺序交给镜像线程。
+     * 日志写入失败时内存保持不变。
+     */
+    private void write(Supplier<List<PageOp>> work) {
+        lock.writeLock().lock();
+        try {
+            List<PageOp> ops = work.get();
+            long next = seq + 1;
+            try {
+                opLog.append(next, ops);
+            } catch (IOException e) {
+                throw new IllegalStateException("写入操作日志失败", e);
+            }
+            seq = next;
+            ops.forEach(this::apply);
+            if (mirrorWriter != null) {
+                OpLog.Entry entry = new OpLog.Entry(next, ops);
+                mirrorWriter.execute(() -> mirror(entry));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        maybeCompact();
+    }
+
+    private void maybeCompact() {
+        long logBytes;
+        try {
+            logBytes = opLog.size();
+        } catch (IOException e) {
+            log.warn("读取操作日志大小失败", e);
+            return;
+        }
+        if (logBytes > Math.max(MIN_COMPACT_BYTES, snapshotBytes) && compacting.compareAndSet(false, true)) {
+            compactor.execute(() -> {
+                try {
+                    compact();
+                } catch (RuntimeException e) {
+                    log.error("后台压缩失败", e);
+                } finally {
+                    compacting.set(false);
+                }
+            });
+        }
+    }
+
+    private void apply(PageOp op) {
+        if (op.node() != null) {
+            NoteNode previous = nodes.put(op.pageId(), op.node());
+            if (previous != null) {
+                unindex(previous);
+            }
+            index(op.node());
+        }
+        if (op.blocks() != null) {
+            replaceBlocks(op.pageId(), op.blocks());
+        }
+        if (op.edges() != null) {
+            replaceEdges(op.pageId(), op.edges());
+        }
+        if (op.changes() != null) {
+            PageChangeSet changes = op.changes();
+            Map<String, NoteBlock> blocks = new LinkedHashMap<>();
+            blocksByPage.getOrDefault(op.pageId(), List.of()).forEach(block -> blocks.put(block.getId(), block));
+            changes.deletedBlockIds().forEach(blocks::remove);
+            changes.updatedBlocks().forEach(block -> blocks.put(block.getId(), block));
+            changes.movedBlocks().forEach(block -> blocks.put(block.getId(), block));
+            changes.insertedBlocks().forEach(block -> blocks.put(block.getId(), block));
+            replaceBlocks(op.pageId(), new ArrayList<>(blocks.values()));
+            List<NoteEdge> edges = new ArrayList<>(edgesBySource.getOrDefault(op.pageId(), List.of()));
+            changes.removedEdges().forEach(edges::remove);
+            edges.addAll(changes.addedEdges());
+            replaceEdges(op.pageId(), edges);
+        }
+    }
+
+    private void replaceBlocks(String pageId, List<NoteBlock> blocks) {
+        if (blocks.isEmpty()) {
+            blocksByPage.remove(pageId);
+        } else {
+            List<NoteBlock> sorted = new ArrayList<>(blocks);
+            sorted.sort(Comparator.comparingInt(NoteBlock::getOrderNo));
+            blocksByPage.put(pageId, sorted);
+        }
+    }
+
+    private void replaceEdges(String pageId, List<NoteEdge> edges) {
+        List<NoteEdge> previous = edgesBySource.remove(pageId);
+        if (previous != null) {
+            for (NoteEdge edge : previous) {
+                Map<String, List<NoteEdge>> incoming = edgesByTarget.get(edge.getDstPageId());
+                if (incoming != null && incoming.remove(pageId) != null && incoming.isEmpty()) {
+                    edgesByTarget.remove(edge.getDstPageId());
+                }
+            }
+        }
+        if (!edges.isEmpty()) {
+            edgesBySource.put(pageId, List.copyOf(edges));
+            for (NoteEdge edge : edges) {
+                edgesByTarget.computeIfAbsent(edge.getDstPageId(), k -> new LinkedHashMap<>())
+                        .computeIfAbsent(pageId, k -> new ArrayList<>())
+                        .add(edge);
+            }
+        }
+    }
+
+    private void index(NoteNode node) {
+        titleToIds.computeIfAbsent(node.getTitle(), k -> new LinkedHashSet<>()).add(node.getId());
+        for (String key : normalizedKeys(node)) {
+            normalizedToIds.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(node.getId());
+        }
+    }
+
+    private void unindex(NoteNode node) {
+        removeId(titleToIds, node.getTitle(), node.getId());
+        for (String key : normalizedKeys(node)) {
+            removeId(normalizedToIds, key, node.getId());
+        }
+    }
+
+    private static Set<String> normalizedKeys(NoteNode node) {
+        Set<String> keys = new LinkedHashSet<>();
+        if (!node.getTitle().isBlank()) {
+            keys.add(TextNormalizer.normalize(node.getTitle()));
+        }
+        node.getAliases().stream().filter(alias -> !alias.isBlank()).forEach(alias -> keys.add(TextNormalizer.normalize(alias)));
+        return keys;
+    }
+
+    private static void removeId(Map<String, Set<String>> index, String key, String id) {
+        Set<String> ids = index.get(key);
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private static PageOp delta(NoteNode node, PageChangeSet changes) {
+        String pageId = node.getId();
+        return PageOp.delta(copy(node), new PageChangeSet(blocksOf(pageId, changes.insertedBlocks()), blocksOf(pageId, changes.updatedBlocks()),
+                blocksOf(pageId, changes.movedBlocks()), List.copyOf(changes.deletedBlockIds()),
+                edgesOf(pageId, changes.addedEdges()), edgesOf(pageId, changes.removedEdges())));
+    }
+
+    private static PageOp fullPage(NoteNode node, List<NoteBlock> blocks, List<NoteEdge> edges) {
+        return new PageOp(node.getId(), copy(node), blocksOf(node.getId(), blocks), edgesOf(node.getId(), edges));
+    }
+
+    // 与 SQLite 实现一致，块与边一律归属于参数给出的页面。
+    private static List<NoteBlock> blocksOf(String pageId, List<NoteBlock> blocks) {
+        return blocks.stream()
+                .map(block -> block.getPageId().equals(pageId) ? block
+                        : new NoteBlock(block.getId(), pageId, block.getText(), block.getAnchor(), block.getOrderNo()))
+                .toList();
+    }
+
+    private static List<NoteEdge> edgesOf(String pageId, List<NoteEdge> edges) {
+        return edges.stream()
+                .map(edge -> edge.getSrcPageId().equals(pageId) ? edge
+                        : new NoteEdge(edge.getSrcBlockId(), pageId, edge.getDstPageId(), edge.getDstBlockId(), edge.getType(), edge.getProps(), edge.getCreatedAt()))
+                .toList();
+    }
+
+    /**
+     * 当前全部内容，每个页面一条操作。有节点的页面缺少的块或边记为空列表，便于镜像整页写入。
+     */
+    private List<PageOp> fullPages() {
+        Set<String> pageIds = new LinkedHashSet<>(nodes.keySet());
+        pageIds.addAll(blocksByPage.keySet());
+        pageIds.addAll(edgesBySource.keySet());
+        return fullPages(pageIds);
+    }
+
+    private List<PageOp> fullPages(Collection<String> pageIds) {
+        List<PageOp> pages = new ArrayList<>(pageIds.size());
+        for (String pageId : pageIds) {
+            NoteNode node = nodes.get(pageId);
+            List<NoteBlock> blocks = blocksByPage.get(pageId);
+            List<NoteEdge> edges = edgesBySource.get(pageId);
+            if (node != null) {
+                pages.add(new PageOp(pageId, node, blocks == null ? List.of() : blocks, edges == null ? List.of() : edges));
+            } else {
+                pages.add(new PageOp(pageId, null, blocks, edges));
+            }
+        }
+        return pages;
+    }
+
+    private SearchPage scan(String keyword, int limit, String cursor, boolean groupByPage) {
+        if (keyword == null || keyword.isBlank() || limit <= 0) {
+            return new SearchPage(List.of(), null);
+        }
+        String needle = keyword.strip().toLowerCase(Locale.ROOT);
+        int offset = cursor == null ? 0 : Integer.parseInt(cursor);
+        return read(() -> {
+            List<SearchHit> hits = new ArrayList<>();
+            int matched = 0;
+            for (Map.Entry<String, List<NoteBlock>> page : blocksByPage.entrySet()) {
+                for (NoteBlock block : page.getValue()) {
+                    int at = block.getText().toLowerCase(Locale.ROOT).indexOf(needle);
+                    if (at < 0) {
+                        continue;
+                    }
+                    if (matched++ >= offset) {
+                        if (hits.size() == limit) {
+                            return new SearchPage(hits, String.valueOf(offset + limit));
+                        }
+                        hits.add(new SearchHit(page.getKey(), block.getId(), snippet(block.getText(), at, needle.length()), 0.0));
+                    }
+                    if (groupByPage) {
+                        break;
+                    }
+                }
+            }
+            return new SearchPage(hits, null);
+        });
+    }
+
+    private static String snippet(String text, int start, int length) {
+        int end = start + length;
+        int from = Math.max(0, start - SNIPPET_RADIUS);
+        int to = Math.min(text.length(), end + SNIPPET_RADIUS);
+        return (from > 0 ? "..." : "") + text.substring(from, start) + "<b>" + text.substring(start, end) + "</b>"
+                + text.substring(end, to) + (to < text.length() ? "..." : "");
+    }
+
+    /**
+     * 启动时补齐镜像。镜像可能已经提交了序号文件之后的记录，增量不能重放，
+     * 因此把未镜像记录涉及的页面按当前内容整页写入，重复写入结果不变。
+     */
+    private void catchUpMirror(long snapshotSeq, long mirrored, Set<String> unmirrored) {
+        if (mirrored < snapshotSeq) {
+            // 镜像落后的部分已被压缩进快照，只能整库重新同步。
+            List<PageOp> pages = fullPages();
+            log.info("镜像落后于快照，重新同步 {} 个页面", pages.size());
+            enqueueResync(mirrored, pages);
+            return;
+        }
+        if (!unmirrored.isEmpty()) {
+            log.info("补齐镜像 {} 个页面", unmirrored.size());
+            enqueueResync(mirrored, fullPages(unmirrored));
+        }
+    }
+
+    private void enqueueResync(long mirrored, List<PageOp> pages) {
+        for (int from = 0; from < pages.size(); from += MIRROR_BATCH) {
+            int to = Math.min(pages.size(), from + MIRROR_BATCH);
+            OpLog.Entry entry = new OpLog.Entry(to == pages.size() ? seq : mirrored, pages.subList(from, to));
+            mirrorWriter.execute(() -> mirror(entry));
+        }
+    }
+
+    /**
+     * 在镜像线程中处理一条日志记录。此前有记录失败时不再写入，排在积压队列之后，保证镜像按日志顺序推进。
+     */
+    private void mirror(OpLog.Entry entry) {
+        if (mirrorAbandoned) {
+            return;
+        }
+        if (stalled.isEmpty() && push(entry)) {
+            return;
+        }
+        stalled.addLast(entry);
+        if (stalled.size() > MAX_STALLED) {
+            log.error("镜像积压超过 {} 条记录，停止镜像，下次启动时从序号文件处补齐", MAX_STALLED);
+            stalled.clear();
+            mirrorAbandoned = true;
+        } else if (stalled.size() == 1) {
+            scheduleRetry();
+        }
+    }
+
+    private void retryMirror() {
+        while (!stalled.isEmpty()) {
+            if (!push(stalled.peekFirst())) {
+                scheduleRetry();
+                return;
+            }
+            stalled.removeFirst();
+        }
+        if (retryMillis > 0) {
+            log.info("镜像已恢复");
+            retryMillis = 0;
+        }
+    }
+
+    private void scheduleRetry() {
+        retryMillis = retryMillis == 0 ? MIRROR_RETRY_MIN_MILLIS : Math.min(retryMillis * 2, MIRROR_RETRY_MAX_MILLIS);
+        try {
+            mirrorWriter.schedule(this::retryMirror, retryMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 正在关闭，积压的记录留待下次启动补齐。
+        }
+    }
+
+    /**
+     * 把一条记录写入镜像并推进镜像序号，返回是否成功。整页操作合并为一次批量保存，增量合并为一次批量增量保存。
+     * 替换操作重复写入结果不变；增量记录只含增量，对应镜像的一次调用，失败时整体回滚，因此失败的记录可以原样重试。
+     */
+    private boolean push(OpLog.Entry entry) {
+        try {
+            List<PageData> pages = new ArrayList<>();
+            List<PageUpdate> updates = new ArrayList<>();
+            for (PageOp op : entry.ops()) {
+                if (op.isFullPage()) {
+                    flushUpdates(updates);
+                    pages.add(new PageData(op.node(), op.blocks(), op.edges()));
+                    continue;
+                }
+                if (op.isDelta()) {
+                    flushPages(pages);
+                    updates.add(new PageUpdate(op.node(), op.changes()));
+                    continue;
+                }
+                flushPages(pages);
+                flushUpdates(updates);
+                if (op.node() != null) {
+                    mirror.saveNode(op.node());
+                }
+                if (op.blocks() != null) {
+                    mirror.saveBlocks(op.pageId(), op.blocks());
+                }
+                if (op.edges() != null) {
+                    mirror.saveEdges(op.pageId(), op.edges());
+                }
+            }
+            flushPages(pages);
+            flushUpdates(updates);
+        } catch (RuntimeException e) {
+            log.error("镜像写入日志记录 {} 失败，暂停镜像并稍后重试", entry.seq(), e);
+            return false;
+        }
+        try {
+            Files.writeString(directory.resolve(MIRROR_FILE), Long.toString(entry.seq()));
+        } catch (IOException e) {
+            // 镜像已写入，只是序号没有记下；下次启动会按整页补齐这些页面，不影响正确性。
+            log.warn("记录镜像序号 {} 失败", entry.seq(), e);
+        }
+        return true;
+    }
+
+    private void flushPages(List<PageData> pages) {
+        if (!pages.isEmpty()) {
+            mirror.saveBatch(List.copyOf(pages));
+            pages.clear();
+        }
+    }
+
+    private void flushUpdates(List<PageUpdate> updates) {
+        if (!updates.isEmpty()) {
+            mirror.applyChangesBatch(List.copyOf(updates));
+            updates.clear();
+        }
+    }
+
+    private long readMirroredSeq() {
+        Path file = directory.resolve(MIRROR_FILE);
+        try {
+            return Files.exists(file) ? Long.parseLong(Files.readString(file).strip()) : 0;
+        } catch (IOException | NumberFormatException e) {
+            log.warn("读取镜像序号失败，将整库重新同步", e);
+            return -1;
+        }
+    }
+
+    private static NoteNode copy(NoteNode node) {
+        NoteNode copy = new NoteNode(node.getId(), node.getTitle());
+        copy.addAliases(node.getAliases());
+        copy.setTags(node.getTags());
+        copy.setUpdatedAt(node.getUpdatedAt());
+        copy.setContentHash(node.getContentHash());
+        copy.setLinkHash(node.getLinkHash());
+        return copy;
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
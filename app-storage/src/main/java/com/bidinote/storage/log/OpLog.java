@@ -0,0 +1,154 @@
+package com.bidinote.storage.log;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * 只追加的操作日志。每条记录为 [长度][CRC32][序号, 操作列表]，一条记录内的操作作为一个事务生效。
+ * 重放时遇到长度或校验和不符的记录即认为是崩溃留下的残缺尾部，截断到最后一条完整记录。
+ */
+final class OpLog implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(OpLog.class);
+    private static final int HEADER_BYTES = 8;
+
+    record Entry(long seq, List<PageOp> ops) {
+    }
+
+    private final Path file;
+    private final boolean sync;
+    private final FileChannel channel;
+
+    OpLog(Path file, boolean sync) throws IOException {
+        this.file = file;
+        this.sync = sync;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * 从头顺序读出全部完整记录，返回记录条数。
+     */
+    int replay(Consumer<Entry> consumer) throws IOException {
+        long valid = 0;
+        int count = 0;
+        channel.position(0);
+        InputStream raw = Channels.newInputStream(channel);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 1 << 16));
+        long size = channel.size();
+        while (valid < size) {
+            Entry entry;
+            try {
+                int length = in.readInt();
+                int crc = in.readInt();
+                if (length < 0 || length > size - valid - HEADER_BYTES) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (crc32(payload) != crc) {
+                    break;
+                }
+                entry = decode(payload);
+                valid += HEADER_BYTES + length;
+            } catch (EOFException e) {
+                break;
+            }
+            consumer.accept(entry);
+            count++;
+        }
+        if (valid < size) {
+            log.warn("操作日志 {} 尾部 {} 字节不完整，已截断", file, size - valid);
+            channel.truncate(valid);
+        }
+        channel.position(valid);
+        return count;
+    }
+
+    /**
+     * 追加一条记录。写入失败时截回写入前的长度，避免残缺记录挡住之后追加的记录。
+     */
+    void append(long seq, List<PageOp> ops) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeLong(seq);
+        out.writeInt(ops.size());
+        for (PageOp op : ops) {
+            op.writeTo(out);
+        }
+        out.flush();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        int length = buffer.capacity() - HEADER_BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_BYTES, length);
+        buffer.putInt(0, length);
+        buffer.putInt(4, (int) crc.getValue());
+        long start = channel.position();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (sync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            channel.truncate(start);
+            channel.position(start);
+            throw e;
+        }
+    }
+
+    long size() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * 清空日志，在新快照落盘后调用。
+     */
+    void reset() throws IOException {
+        channel.truncate(0);
+        channel.position(0);
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static Entry decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        long seq = in.readLong();
+        int count = in.readInt();
+        List<PageOp> ops = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ops.add(PageOp.readFrom(in));
+        }
+        return new Entry(seq, ops);
+    }
+
+    private static int crc32(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+}
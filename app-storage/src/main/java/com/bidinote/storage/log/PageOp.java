@@ -0,0 +1,186 @@
+package com.bidinote.storage.log;
+
+import com.bidinote.core.model.NoteBlock;
+import com.bidinote.core.model.NoteEdge;
+import com.bidinote.core.model.NoteNode;
+import com.bidinote.core.model.PageChangeSet;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 日志与快照中的一条页面操作：用完整内容替换页面的节点、块或出边，为 null 的部分保持不变；
+ * changes 不为 null 时是增量操作，替换节点并把块与边的增量应用到页面当前内容上，只出现在日志中。
+ * 增量重复应用会重复添加边，重放日志时须跳过快照已包含的记录。
+ */
+record PageOp(String pageId, NoteNode node, List<NoteBlock> blocks, List<NoteEdge> edges, PageChangeSet changes) {
+    private static final int HAS_NODE = 1;
+    private static final int HAS_BLOCKS = 2;
+    private static final int HAS_EDGES = 4;
+    // 节点带有内容哈希与链接签名；早期写入的记录没有这两项，读出为 0。
+    private static final int HAS_HASHES = 8;
+    private static final int HAS_CHANGES = 16;
+
+    PageOp(String pageId, NoteNode node, List<NoteBlock> blocks, List<NoteEdge> edges) {
+        this(pageId, node, blocks, edges, null);
+    }
+
+    static PageOp delta(NoteNode node, PageChangeSet changes) {
+        return new PageOp(node.getId(), node, null, null, changes);
+    }
+
+    boolean isFullPage() {
+        return node != null && blocks != null && edges != null;
+    }
+
+    boolean isDelta() {
+        return changes != null;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        writeString(out, pageId);
+        out.writeByte((node != null ? HAS_NODE | HAS_HASHES : 0) | (blocks != null ? HAS_BLOCKS : 0) | (edges != null ? HAS_EDGES : 0)
+                | (changes != null ? HAS_CHANGES : 0));
+        if (node != null) {
+            writeString(out, node.getTitle());
+            writeStrings(out, node.getAliases());
+            writeStrings(out, node.getTags());
+            out.writeLong(node.getUpdatedAt().toEpochMilli());
+            out.writeLong(node.getContentHash());
+            out.writeLong(node.getLinkHash());
+        }
+        if (blocks != null) {
+            writeBlocks(out, blocks);
+        }
+        if (edges != null) {
+            writeEdges(out, edges);
+        }
+        if (changes != null) {
+            writeBlocks(out, changes.insertedBlocks());
+            writeBlocks(out, changes.updatedBlocks());
+            writeBlocks(out, changes.movedBlocks());
+            out.writeInt(changes.deletedBlockIds().size());
+            for (String blockId : changes.deletedBlockIds()) {
+                writeString(out, blockId);
+            }
+            writeEdges(out, changes.addedEdges());
+            writeEdges(out, changes.removedEdges());
+        }
+    }
+
+    static PageOp readFrom(DataInput in) throws IOException {
+        String pageId = readString(in);
+        int flags = in.readByte();
+        NoteNode node = null;
+        if ((flags & HAS_NODE) != 0) {
+            node = new NoteNode(pageId, readString(in));
+            node.addAliases(readStrings(in));
+            node.setTags(readStrings(in));
+            node.setUpdatedAt(Instant.ofEpochMilli(in.readLong()));
+            if ((flags & HAS_HASHES) != 0) {
+                node.setContentHash(in.readLong());
+                node.setLinkHash(in.readLong());
+            }
+        }
+        List<NoteBlock> blocks = (flags & HAS_BLOCKS) != 0 ? readBlocks(in, pageId) : null;
+        List<NoteEdge> edges = (flags & HAS_EDGES) != 0 ? readEdges(in, pageId) : null;
+        PageChangeSet changes = null;
+        if ((flags & HAS_CHANGES) != 0) {
+            List<NoteBlock> inserted = readBlocks(in, pageId);
+            List<NoteBlock> updated = readBlocks(in, pageId);
+            List<NoteBlock> moved = readBlocks(in, pageId);
+            int count = in.readInt();
+            List<String> deleted = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                deleted.add(readString(in));
+            }
+            changes = new PageChangeSet(inserted, updated, moved, deleted, readEdges(in, pageId), readEdges(in, pageId));
+        }
+        return new PageOp(pageId, node, blocks, edges, changes);
+    }
+
+    private static void writeBlocks(DataOutput out, List<NoteBlock> blocks) throws IOException {
+        out.writeInt(blocks.size());
+        for (NoteBlock block : blocks) {
+            writeString(out, block.getId());
+            writeString(out, block.getText());
+            writeString(out, block.getAnchor());
+            out.writeInt(block.getOrderNo());
+        }
+    }
+
+    private static List<NoteBlock> readBlocks(DataInput in, String pageId) throws IOException {
+        int count = in.readInt();
+        List<NoteBlock> blocks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            blocks.add(new NoteBlock(readString(in), pageId, readString(in), readString(in), in.readInt()));
+        }
+        return blocks;
+    }
+
+    private static void writeEdges(DataOutput out, List<NoteEdge> edges) throws IOException {
+        out.writeInt(edges.size());
+        for (NoteEdge edge : edges) {
+            writeString(out, edge.getSrcBlockId());
+            writeString(out, edge.getDstPageId());
+            writeString(out, edge.getDstBlockId());
+            writeString(out, edge.getType());
+            writeString(out, edge.getProps());
+            out.writeLong(edge.getCreatedAt().toEpochMilli());
+        }
+    }
+
+    private static List<NoteEdge> readEdges(DataInput in, String pageId) throws IOException {
+        int count = in.readInt();
+        List<NoteEdge> edges = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            edges.add(new NoteEdge(readString(in), pageId, readString(in), readString(in), readString(in), readString(in),
+                    Instant.ofEpochMilli(in.readLong())));
+        }
+        return edges;
+    }
+
+    // writeUTF 限制 64KB，长块文本改用长度前缀的 UTF-8；-1 表示 null。
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeStrings(DataOutput out, Set<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static Set<String> readStrings(DataInput in) throws IOException {
+        int count = in.readInt();
+        Set<String> values = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,82 @@
+package com.bidinote.storage.log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 压缩后的全量快照：[魔数][最后一条已包含的日志序号][页面数][每页一条完整 PageOp][CRC32]。
+ * 先写临时文件并落盘，再原子改名替换旧快照。
+ */
+final class Snapshot {
+    private static final int MAGIC = 0x424E5331;
+    private static final int TRAILER_BYTES = 8;
+
+    private Snapshot() {
+    }
+
+    /**
+     * 读取快照并逐页交给 consumer，返回快照对应的日志序号；快照不存在时返回 0。
+     */
+    static long read(Path file, Consumer<PageOp> consumer) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length < 16 + TRAILER_BYTES) {
+            throw new IOException("快照文件过短: " + file);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - TRAILER_BYTES);
+        if (crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - TRAILER_BYTES, TRAILER_BYTES).getLong()) {
+            throw new IOException("快照校验和不符: " + file);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - TRAILER_BYTES));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("不是有效的快照文件: " + file);
+        }
+        long seq = in.readLong();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            consumer.accept(PageOp.readFrom(in));
+        }
+        return seq;
+    }
+
+    /**
+     * 写入快照，返回文件字节数。
+     */
+    static long write(Path file, long seq, Collection<PageOp> pages) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            DataOutputStream checked = new DataOutputStream(new CheckedOutputStream(out, crc));
+            checked.writeInt(MAGIC);
+            checked.writeLong(seq);
+            checked.writeInt(pages.size());
+            for (PageOp page : pages) {
+                page.writeTo(checked);
+            }
+            checked.flush();
+            out.writeLong(crc.getValue());
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return Files.size(file);
+    }
+}
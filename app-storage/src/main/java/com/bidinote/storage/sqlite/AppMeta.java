@@ -0,0 +1,43 @@
+package com.bidinote.storage.sqlite;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Optional;
+
+/**
+ * app_meta 键值表的读写，保存全文索引配置、重建进度等数据库级元数据。
+ */
+final class AppMeta {
+    static final String FTS_PROFILE = "fts_profile";
+    static final String FTS_REBUILD_TARGET = "fts_rebuild_target";
+    static final String FTS_REBUILD_CURSOR = "fts_rebuild_cursor";
+
+    private AppMeta() {
+    }
+
+    static Optional<String> get(Connection connection, String key) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT value FROM app_meta WHERE key = ?")) {
+            ps.setString(1, key);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? Optional.ofNullable(rs.getString(1)) : Optional.empty();
+            }
+        }
+    }
+
+    static void put(Connection connection, String key, String value) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("REPLACE INTO app_meta(key, value) VALUES(?, ?)")) {
+            ps.setString(1, key);
+            ps.setString(2, value);
+            ps.executeUpdate();
+        }
+    }
+
+    static void remove(Connection connection, String key) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("DELETE FROM app_meta WHERE key = ?")) {
+            ps.setString(1, key);
+            ps.executeUpdate();
+        }
+    }
+}
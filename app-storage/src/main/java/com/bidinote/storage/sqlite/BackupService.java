@@ -0,0 +1,265 @@
+package com.bidinote.storage.sqlite;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlite.SQLiteConnection;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 在线热备份。用独立连接持有一个读事务，按 SQLite 在线备份接口每次复制若干页，步与步之间暂停；
+ * WAL 模式下读事务不阻塞写连接，整个备份看到的是同一个快照，写入不会使备份重新开始。
+ * 副本先写入临时文件，通过 quick_check 校验并切换为非 WAL 的单文件后再改名，最后按保留策略清理旧备份。
+ */
+public class BackupService implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(BackupService.class);
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final String PART_SUFFIX = ".part";
+    private static final int BUSY_RETRIES = 100;
+    private static final int BUSY_SLEEP_MILLIS = 100;
+
+    private final Path databasePath;
+    private final Path backupDir;
+    private final BackupPolicy policy;
+    private final String prefix;
+    private final Pattern backupName;
+    private final Object running = new Object();
+    private volatile boolean closing;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sqlite-backup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param pagesPerStep 每一步复制的页数
+     * @param pause        步与步之间的暂停
+     * @param keepLast     保留最近的备份个数
+     * @param keepDaily    另外为最近若干天各保留当天最后一个备份
+     */
+    public record BackupPolicy(int pagesPerStep, Duration pause, int keepLast, int keepDaily) {
+        public static final BackupPolicy DEFAULT = new BackupPolicy(256, Duration.ofMillis(10), 7, 30);
+
+        public BackupPolicy {
+            if (pagesPerStep < 1 || keepLast < 1 || keepDaily < 0) {
+                throw new IllegalArgumentException("pagesPerStep、keepLast 必须大于 0，keepDaily 不能为负");
+            }
+            Objects.requireNonNull(pause, "pause");
+        }
+    }
+
+    public record BackupResult(Path file, int pages, long bytes, Duration elapsed) {
+    }
+
+    public BackupService(Path databasePath, Path backupDir) {
+        this(databasePath, backupDir, BackupPolicy.DEFAULT);
+    }
+
+    public BackupService(Path databasePath, Path backupDir, BackupPolicy policy) {
+        this.databasePath = Objects.requireNonNull(databasePath, "databasePath");
+        this.backupDir = Objects.requireNonNull(backupDir, "backupDir");
+        this.policy = Objects.requireNonNull(policy, "policy");
+        String fileName = databasePath.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        this.prefix = dot > 0 ? fileName.substring(0, dot) : fileName;
+        this.backupName = Pattern.compile(Pattern.quote(prefix) + "-(\\d{8}-\\d{6})\\.db");
+    }
+
+    /**
+     * 按固定间隔在后台备份。距上次备份已超过间隔时在 initialDelay 后立即补做一次。
+     */
+    public void schedule(Duration interval, Duration initialDelay) {
+        if (interval.isZero() || interval.isNegative()) {
+            throw new IllegalArgumentException("备份间隔必须大于 0");
+        }
+        Duration delay = initialDelay;
+        LocalDateTime latest = listBackups().stream().map(this::stampOf).max(Comparator.naturalOrder()).orElse(null);
+        if (latest != null) {
+            Duration remaining = interval.minus(Duration.between(latest, LocalDateTime.now()));
+            if (remaining.compareTo(delay) > 0) {
+                delay = remaining;
+            }
+        }
+        log.info("计划每 {} 分钟备份一次，首次在 {} 秒后", interval.toMinutes(), delay.toSeconds());
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                backupNow();
+            } catch (RuntimeException e) {
+                log.error("定时备份失败", e);
+            }
+        }, delay.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 立即执行一次备份并清理过期备份，同一时间只运行一个备份。
+     */
+    public BackupResult backupNow() {
+        synchronized (running) {
+            long started = System.nanoTime();
+            Path target = backupDir.resolve(prefix + "-" + LocalDateTime.now().format(STAMP) + ".db");
+            Path part = target.resolveSibling(target.getFileName() + PART_SUFFIX);
+            try {
+                Files.createDirectories(backupDir);
+                Files.deleteIfExists(part);
+                int pages = copy(part);
+                verify(part);
+                Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                BackupResult result = new BackupResult(target, pages, Files.size(target), Duration.ofNanos(System.nanoTime() - started));
+                log.info("备份完成 {}：{} 页，{} 字节，耗时 {} ms", target, pages, result.bytes(), result.elapsed().toMillis());
+                prune();
+                return result;
+            } catch (SQLException | IOException e) {
+                deleteQuietly(part);
+                throw new IllegalStateException("备份数据库失败: " + target, e);
+            }
+        }
+    }
+
+    /**
+     * 备份目录中的全部备份，按时间从新到旧排列。
+     */
+    public List<Path> listBackups() {
+        if (!Files.isDirectory(backupDir)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> files = Files.list(backupDir)) {
+            return files.filter(file -> backupName.matcher(file.getFileName().toString()).matches())
+                    .filter(file -> stampOf(file) != null)
+                    .sorted(Comparator.comparing(this::stampOf).reversed())
+                    .toList();
+        } catch (IOException e) {
+            log.error("读取备份目录失败: {}", backupDir, e);
+            return new ArrayList<>();
+        }
+    }
+
+    private int copy(Path part) throws SQLException {
+        int[] pages = new int[1];
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databasePath)) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("PRAGMA busy_timeout=5000");
+            }
+            // 先打开读事务并读一页，之后每一步都复用这个快照。
+            connection.setAutoCommit(false);
+            try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery("SELECT count(*) FROM sqlite_master")) {
+                rs.next();
+            }
+            try {
+                long pauseMillis = policy.pause().toMillis();
+                int rc = ((SQLiteConnection) connection).getDatabase().backup("main", part.toString(), (remaining, pageCount) -> {
+                    pages[0] = pageCount;
+                    if (remaining > 0 && pauseMillis > 0 && !closing) {
+                        try {
+                            Thread.sleep(pauseMillis);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            closing = true;
+                        }
+                    }
+                }, BUSY_SLEEP_MILLIS, BUSY_RETRIES, policy.pagesPerStep());
+                if (rc != 0) {
+                    throw new SQLException("在线备份返回错误码 " + rc);
+                }
+            } finally {
+                connection.rollback();
+            }
+        }
+        return pages[0];
+    }
+
+    private void verify(Path part) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + part); Statement stmt = connection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("PRAGMA quick_check")) {
+                String first = rs.next() ? rs.getString(1) : null;
+                if (!"ok".equals(first) || rs.next()) {
+                    throw new SQLException("备份校验失败: " + first);
+                }
+            }
+            // 源库是 WAL 模式，副本改为单文件便于复制和归档。
+            stmt.execute("PRAGMA journal_mode=DELETE");
+        }
+    }
+
+    /**
+     * 保留最近 keepLast 个备份，并为最近 keepDaily 个有备份的日期各保留当天最后一个，其余删除。
+     */
+    void prune() {
+        List<Path> backups = listBackups();
+        Set<Path> kept = new HashSet<>(backups.subList(0, Math.min(policy.keepLast(), backups.size())));
+        Set<LocalDate> days = new HashSet<>();
+        for (Path backup : backups) {
+            LocalDate day = stampOf(backup).toLocalDate();
+            if (days.size() < policy.keepDaily() && days.add(day)) {
+                kept.add(backup);
+            }
+        }
+        for (Path backup : backups) {
+            if (!kept.contains(backup)) {
+                log.info("删除过期备份 {}", backup);
+                deleteQuietly(backup);
+            }
+        }
+    }
+
+    private LocalDateTime stampOf(Path file) {
+        Matcher matcher = backupName.matcher(file.getFileName().toString());
+        if (!matcher.matches()) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(matcher.group(1), STAMP);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("删除文件失败: {}", file, e);
+        }
+    }
+
+    /**
+     * 停止定时备份。正在进行的备份不再暂停，尽快完成后返回。
+     */
+    @Override
+    public void close() {
+        closing = true;
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("备份任务未在超时前结束");
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.bidinote.storage.sqlite;
+
+import org.sqlite.Function;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 块文本的透明压缩。超过阈值的块以 text = NULL、text_z = [格式][字典号][原长][deflate 数据] 存储，
+ * deflate 使用按库训练的预置字典（note_block_dict），字典号为 0 表示不用字典。
+ * 同时在每个连接上注册 block_text(text_z) 函数，供只能在 SQL 中取原文的地方使用。
+ */
+final class BlockCompression {
+    /**
+     * 取块原文的 SQL 表达式。COALESCE 按顺序求值，未压缩的块不会进入 Java 回调。
+     */
+    static final String TEXT_SQL = "COALESCE(text, block_text(text_z))";
+    static final int DICTIONARY_BYTES = 32 * 1024;
+    private static final byte FORMAT_DEFLATE = 1;
+    private static final int HEADER_BYTES = 9;
+    private static final int NO_DICTIONARY = 0;
+    // 压缩后至少省下一成空间才值得付出解压开销。
+    private static final double MIN_SAVING = 0.1;
+
+    private final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+    private volatile int activeDictionary = NO_DICTIONARY;
+    private volatile int thresholdBytes;
+    private final LongAdder blocksCompressed = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder blocksDecompressed = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    /**
+     * 在新连接上注册 block_text。驱动把调用上下文存放在 Function 实例中，每个连接必须使用独立的实例。
+     */
+    void register(Connection connection) throws SQLException {
+        Function.create(connection, "block_text", new Function() {
+            @Override
+            protected void xFunc() throws SQLException {
+                byte[] blob = value_blob(0);
+                if (blob == null) {
+                    result();
+                } else {
+                    result(decompress(blob));
+                }
+            }
+        }, 1, Function.FLAG_DETERMINISTIC);
+    }
+
+    /**
+     * 载入库中全部字典，最新的一份作为之后写入使用的字典。
+     */
+    void load(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT pk, dict FROM note_block_dict ORDER BY pk")) {
+            while (rs.next()) {
+                int id = rs.getInt(1);
+                dictionaries.put(id, rs.getBytes(2));
+                activeDictionary = id;
+            }
+        }
+    }
+
+    /**
+     * 保存新字典并切换为当前字典，必须在写连接上调用。旧字典保留，已压缩的块仍按原字典解压。
+     */
+    int addDictionary(Connection connection, byte[] dictionary) throws SQLException {
+        int id;
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO note_block_dict(dict, created_at) VALUES(?, ?)")) {
+            ps.setBytes(1, dictionary);
+            ps.setLong(2, System.currentTimeMillis());
+            ps.executeUpdate();
+        }
+        try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery("SELECT last_insert_rowid()")) {
+            rs.next();
+            id = rs.getInt(1);
+        }
+        dictionaries.put(id, dictionary);
+        activeDictionary = id;
+        return id;
+    }
+
+    boolean hasDictionary() {
+        return activeDictionary != NO_DICTIONARY;
+    }
+
+    int thresholdBytes() {
+        return thresholdBytes;
+    }
+
+    void setThresholdBytes(int thresholdBytes) {
+        if (thresholdBytes < 0) {
+            throw new IllegalArgumentException("压缩阈值不能为负数");
+        }
+        this.thresholdBytes = thresholdBytes;
+    }
+
+    /**
+     * 压缩块文本；未启用、低于阈值或压缩收益太小时返回 null，调用方按原文存储。
+     */
+    byte[] compress(String text) {
+        int threshold = thresholdBytes;
+        // UTF-8 每个 char 最多 3 字节，先用长度排除绝大多数短块，免去编码开销。
+        if (threshold <= 0 || text == null || text.length() * 3L < threshold) {
+            return null;
+        }
+        long start = System.nanoTime();
+        byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+        if (raw.length < threshold) {
+            return null;
+        }
+        int dictionaryId = activeDictionary;
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + HEADER_BYTES);
+        try {
+            if (dictionaryId != NO_DICTIONARY) {
+                deflater.setDictionary(dictionaries.get(dictionaryId));
+            }
+            deflater.setInput(raw);
+            deflater.finish();
+            out.write(ByteBuffer.allocate(HEADER_BYTES).put(FORMAT_DEFLATE).putInt(dictionaryId).putInt(raw.length).array(), 0, HEADER_BYTES);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+        compressNanos.add(System.nanoTime() - start);
+        if (out.size() > raw.length * (1 - MIN_SAVING)) {
+            return null;
+        }
+        blocksCompressed.increment();
+        rawBytes.add(raw.length);
+        storedBytes.add(out.size());
+        return out.toByteArray();
+    }
+
+    /**
+     * 按存储形式取原文：text_z 为空时就是 text 本身，只有压缩过的块才解压。
+     */
+    String text(String text, byte[] compressed) throws SQLException {
+        return compressed == null ? text : decompress(compressed);
+    }
+
+    String decompress(byte[] blob) throws SQLException {
+        long start = System.nanoTime();
+        ByteBuffer header = ByteBuffer.wrap(blob);
+        if (blob.length < HEADER_BYTES || header.get() != FORMAT_DEFLATE) {
+            throw new SQLException("无法识别的块压缩格式");
+        }
+        int dictionaryId = header.getInt();
+        int rawLength = header.getInt();
+        byte[] dictionary = dictionaryId == NO_DICTIONARY ? null : dictionaries.get(dictionaryId);
+        if (dictionaryId != NO_DICTIONARY && dictionary == null) {
+            throw new SQLException("缺少压缩字典 " + dictionaryId);
+        }
+        Inflater inflater = new Inflater(true);
+        byte[] raw = new byte[rawLength];
+        try {
+            inflater.setInput(blob, HEADER_BYTES, blob.length - HEADER_BYTES);
+            if (dictionary != null) {
+                inflater.setDictionary(dictionary);
+            }
+            int read = 0;
+            while (read < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, read, rawLength - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != rawLength) {
+                throw new SQLException("压缩块长度不符: 期望 " + rawLength + "，实际 " + read);
+            }
+        } catch (DataFormatException e) {
+            throw new SQLException("压缩块数据损坏", e);
+        } finally {
+            inflater.end();
+        }
+        blocksDecompressed.increment();
+        decompressNanos.add(System.nanoTime() - start);
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    SQLiteNoteRepository.CompressionStats stats() {
+        return new SQLiteNoteRepository.CompressionStats(blocksCompressed.sum(), rawBytes.sum(), storedBytes.sum(),
+                compressNanos.sum() / 1_000_000, blocksDecompressed.sum(), decompressNanos.sum() / 1_000_000);
+    }
+
+    /**
+     * 从样本训练预置字典：按行和句子切片，以（出现在几个样本中 - 1）× 字节数估计每个片段能省下的空间，
+     * 取收益最高的片段直到填满字典。deflate 对距离近的匹配编码更短，收益最高的片段放在字典末尾。
+     * 样本间没有重复片段时退化为样本原文拼接。
+     */
+    static byte[] train(List<String> samples, int maxBytes) {
+        Map<String, Integer> documentFrequency = new HashMap<>();
+        for (String sample : samples) {
+            Set<String> seen = new HashSet<>();
+            for (String piece : sample.split("(?<=[\\n。！？；.!?;])")) {
+                String trimmed = piece.strip();
+                if (trimmed.length() >= 4 && seen.add(trimmed)) {
+                    documentFrequency.merge(trimmed, 1, Integer::sum);
+                }
+            }
+        }
+        List<Map.Entry<String, Integer>> candidates = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : documentFrequency.entrySet()) {
+            if (entry.getValue() > 1) {
+                candidates.add(entry);
+            }
+        }
+        candidates.sort((a, b) -> Long.compare(gain(b), gain(a)));
+        List<byte[]> chosen = new ArrayList<>();
+        int total = 0;
+        for (Map.Entry<String, Integer> candidate : candidates) {
+            byte[] bytes = (candidate.getKey() + "\n").getBytes(StandardCharsets.UTF_8);
+            if (total + bytes.length <= maxBytes) {
+                chosen.add(bytes);
+                total += bytes.length;
+            }
+        }
+        for (int i = 0; i < samples.size() && total < maxBytes; i++) {
+            byte[] bytes = samples.get(i).getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(bytes.length, maxBytes - total);
+            chosen.add(Arrays.copyOf(bytes, length));
+            total += length;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(total);
+        for (int i = chosen.size() - 1; i >= 0; i--) {
+            out.writeBytes(chosen.get(i));
+        }
+        return out.toByteArray();
+    }
+
+    private static long gain(Map.Entry<String, Integer> entry) {
+        return (entry.getValue() - 1L) * entry.getKey().getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -4,31 +4,246 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Optional;
 
 /**
  * 初始化 SQLite 数据库结构，包括 FTS5。
  */
 public class DatabaseInitializer {
     private static final Logger log = LoggerFactory.getLogger(DatabaseInitializer.class);
-    private static final String[] SQLS = new String[]{
-            "PRAGMA journal_mode=WAL;",
-            "CREATE TABLE IF NOT EXISTS note_node (id TEXT PRIMARY KEY, title TEXT NOT NULL, aliases TEXT, tags TEXT, updated_at TEXT);",
-            "CREATE TABLE IF NOT EXISTS note_block (id TEXT PRIMARY KEY, page_id TEXT NOT NULL, text TEXT, anchor TEXT, order_no INTEGER);",
-            "CREATE TABLE IF NOT EXISTS note_edge (src_block_id TEXT, src_page_id TEXT NOT NULL, dst_page_id TEXT NOT NULL, dst_block_id TEXT, type TEXT, props TEXT, created_at TEXT);",
-            "CREATE INDEX IF NOT EXISTS idx_note_edge_dst ON note_edge(dst_page_id);",
-            "CREATE INDEX IF NOT EXISTS idx_note_edge_src ON note_edge(src_page_id);",
-            "CREATE INDEX IF NOT EXISTS idx_note_edge_type ON note_edge(type);",
-            "CREATE INDEX IF NOT EXISTS idx_note_block_order ON note_block(page_id, order_no);",
-            "CREATE VIRTUAL TABLE IF NOT EXISTS note_block_fts USING fts5(text, content='note_block', content_rowid='rowid');"
+    static final String FTS_TABLE = "note_block_fts";
+    static final String FTS_NEXT_TABLE = "note_block_fts_next";
+    static final int SCHEMA_VERSION = 5;
+    private static final String JULIAN_TO_EPOCH_MILLIS = "CAST(ROUND((julianday(%s) - 2440587.5) * 86400000.0) AS INTEGER)";
+    /**
+     * 最新版本的完整结构，新库直接按它创建。页面和块的 ULID 只在 note_key 中出现一次，其余表都用整数键引用；
+     * 块的整数键同时是 FTS 的 rowid。边的类型与属性组合很少，收进 note_edge_kind 字典。
+     * note_alias 保存标题与别名的归一化形式，链接解析按它走索引查找。
+     * 超过阈值的块文本压缩存入 text_z（此时 text 为 NULL），压缩字典保存在 note_block_dict。
+     * note_node 的 content_hash 与 link_hash 为上次保存的正文哈希与链接签名，内容未变的保存据此跳过。
+     */
+    private static final String[] SCHEMA = new String[]{
+            "CREATE TABLE IF NOT EXISTS note_key (pk INTEGER PRIMARY KEY, ulid TEXT NOT NULL UNIQUE);",
+            "CREATE TABLE IF NOT EXISTS note_node (pk INTEGER PRIMARY KEY, title TEXT NOT NULL, aliases TEXT, tags TEXT, updated_at INTEGER, content_hash INTEGER, link_hash INTEGER);",
+            "CREATE TABLE IF NOT EXISTS note_block (pk INTEGER PRIMARY KEY, page_pk INTEGER NOT NULL, text TEXT, anchor TEXT, order_no INTEGER, text_z BLOB);",
+            "CREATE TABLE IF NOT EXISTS note_block_dict (pk INTEGER PRIMARY KEY, dict BLOB NOT NULL, created_at INTEGER);",
+            "CREATE TABLE IF NOT EXISTS note_edge_kind (pk INTEGER PRIMARY KEY, type TEXT, props TEXT);",
+            "CREATE TABLE IF NOT EXISTS note_edge (src_block_pk INTEGER, src_page_pk INTEGER NOT NULL, dst_page_pk INTEGER NOT NULL, dst_block_id TEXT, kind_pk INTEGER NOT NULL, created_at INTEGER);",
+            "CREATE INDEX IF NOT EXISTS idx_note_edge_dst ON note_edge(dst_page_pk);",
+            "CREATE INDEX IF NOT EXISTS idx_note_edge_src ON note_edge(src_page_pk);",
+            "CREATE INDEX IF NOT EXISTS idx_note_edge_kind ON note_edge(kind_pk);",
+            "CREATE INDEX IF NOT EXISTS idx_note_block_order ON note_block(page_pk, order_no);",
+            "CREATE INDEX IF NOT EXISTS idx_note_node_title ON note_node(title);",
+            "CREATE TABLE IF NOT EXISTS note_alias (norm TEXT NOT NULL, node_pk INTEGER NOT NULL, is_title INTEGER NOT NULL, PRIMARY KEY (norm, node_pk)) WITHOUT ROWID;",
+            "CREATE INDEX IF NOT EXISTS idx_note_alias_node ON note_alias(node_pk);",
+            "CREATE TABLE IF NOT EXISTS app_meta (key TEXT PRIMARY KEY, value TEXT);"
+    };
+    /**
+     * v1（TEXT 主键、ISO 时间字符串）升级到 v2。块的整数键沿用原 rowid，现有全文索引与重建游标无需重建。
+     */
+    private static final String[] MIGRATE_V1_TO_V2 = new String[]{
+            "CREATE TABLE note_key (pk INTEGER PRIMARY KEY, ulid TEXT NOT NULL UNIQUE);",
+            "INSERT INTO note_key(pk, ulid) SELECT rowid, id FROM note_block;",
+            "INSERT OR IGNORE INTO note_key(ulid) SELECT id FROM note_node;",
+            "INSERT OR IGNORE INTO note_key(ulid) SELECT page_id FROM note_block;",
+            "INSERT OR IGNORE INTO note_key(ulid) SELECT src_page_id FROM note_edge;",
+            "INSERT OR IGNORE INTO note_key(ulid) SELECT dst_page_id FROM note_edge;",
+            "INSERT OR IGNORE INTO note_key(ulid) SELECT src_block_id FROM note_edge WHERE src_block_id IS NOT NULL;",
+            "CREATE TABLE note_node_v2 (pk INTEGER PRIMARY KEY, title TEXT NOT NULL, aliases TEXT, tags TEXT, updated_at INTEGER);",
+            "INSERT INTO note_node_v2(pk, title, aliases, tags, updated_at) SELECT k.pk, n.title, n.aliases, n.tags, "
+                    + JULIAN_TO_EPOCH_MILLIS.formatted("n.updated_at") + " FROM note_node n JOIN note_key k ON k.ulid = n.id;",
+            "CREATE TABLE note_block_v2 (pk INTEGER PRIMARY KEY, page_pk INTEGER NOT NULL, text TEXT, anchor TEXT, order_no INTEGER);",
+            "INSERT INTO note_block_v2(pk, page_pk, text, anchor, order_no) SELECT b.rowid, k.pk, b.text, b.anchor, b.order_no "
+                    + "FROM note_block b JOIN note_key k ON k.ulid = b.page_id;",
+            "CREATE TABLE note_edge_kind (pk INTEGER PRIMARY KEY, type TEXT, props TEXT);",
+            "INSERT INTO note_edge_kind(type, props) SELECT DISTINCT type, props FROM note_edge;",
+            "CREATE TABLE note_edge_v2 (src_block_pk INTEGER, src_page_pk INTEGER NOT NULL, dst_page_pk INTEGER NOT NULL, dst_block_id TEXT, kind_pk INTEGER NOT NULL, created_at INTEGER);",
+            "INSERT INTO note_edge_v2(src_block_pk, src_page_pk, dst_page_pk, dst_block_id, kind_pk, created_at) "
+                    + "SELECT sb.pk, sp.pk, dp.pk, e.dst_block_id, ek.pk, " + JULIAN_TO_EPOCH_MILLIS.formatted("e.created_at") + " FROM note_edge e "
+                    + "JOIN note_key sp ON sp.ulid = e.src_page_id JOIN note_key dp ON dp.ulid = e.dst_page_id "
+                    + "LEFT JOIN note_key sb ON sb.ulid = e.src_block_id "
+                    + "JOIN note_edge_kind ek ON ek.type IS e.type AND ek.props IS e.props;",
+            "DROP TABLE note_edge;",
+            "DROP TABLE note_block;",
+            "DROP TABLE note_node;",
+            "ALTER TABLE note_node_v2 RENAME TO note_node;",
+            "ALTER TABLE note_block_v2 RENAME TO note_block;",
+            "ALTER TABLE note_edge_v2 RENAME TO note_edge;",
+            // 删表时原有索引随之删除，按新列重建。
+            "CREATE INDEX idx_note_edge_dst ON note_edge(dst_page_pk);",
+            "CREATE INDEX idx_note_edge_src ON note_edge(src_page_pk);",
+            "CREATE INDEX idx_note_edge_kind ON note_edge(kind_pk);",
+            "CREATE INDEX idx_note_block_order ON note_block(page_pk, order_no);",
+            "CREATE TABLE IF NOT EXISTS app_meta (key TEXT PRIMARY KEY, value TEXT);"
+    };
+    /**
+     * v2 升级到 v3：新增标题索引与别名表。NFKC 归一化无法在 SQL 中完成，别名表由 {@link NoteAliases#rebuild} 填充。
+     */
+    private static final String[] MIGRATE_V2_TO_V3 = new String[]{
+            "CREATE INDEX idx_note_node_title ON note_node(title);",
+            "CREATE TABLE note_alias (norm TEXT NOT NULL, node_pk INTEGER NOT NULL, is_title INTEGER NOT NULL, PRIMARY KEY (norm, node_pk)) WITHOUT ROWID;",
+            "CREATE INDEX idx_note_alias_node ON note_alias(node_pk);"
+    };
+    /**
+     * v3 升级到 v4：块表新增压缩列与字典表。已有块保持原文，开启压缩后由后台逐批转换。
+     */
+    private static final String[] MIGRATE_V3_TO_V4 = new String[]{
+            "ALTER TABLE note_block ADD COLUMN text_z BLOB;",
+            "CREATE TABLE note_block_dict (pk INTEGER PRIMARY KEY, dict BLOB NOT NULL, created_at INTEGER);"
+    };
+
+    /**
+     * v4 升级到 v5：节点表新增内容哈希与链接签名。已有页面为 NULL，下一次保存时按完整流程处理并写入。
+     */
+    private static final String[] MIGRATE_V4_TO_V5 = new String[]{
+            "ALTER TABLE note_node ADD COLUMN content_hash INTEGER;",
+            "ALTER TABLE note_node ADD COLUMN link_hash INTEGER;"
+    };
+
+    @FunctionalInterface
+    private interface Migration {
+        void apply(Connection connection) throws SQLException;
+    }
+
+    /**
+     * 下标为起始版本，MIGRATIONS[v] 把 v 升级到 v + 1。
+     */
+    private static final Migration[] MIGRATIONS = new Migration[]{
+            null,
+            statements(MIGRATE_V1_TO_V2),
+            connection -> {
+                statements(MIGRATE_V2_TO_V3).apply(connection);
+                NoteAliases.rebuild(connection);
+            },
+            statements(MIGRATE_V3_TO_V4),
+            statements(MIGRATE_V4_TO_V5)
     };
 
     public void init(Connection connection) throws SQLException {
+        init(connection, null);
+    }
+
+    /**
+     * @param ftsProfile 期望的全文索引配置；为 null 时沿用数据库当前配置，新库使用 UNICODE61。
+     *                   与当前配置不同时只创建 note_block_fts_next 并登记重建任务，由后台逐批填充。
+     */
+    public void init(Connection connection, FtsProfile ftsProfile) throws SQLException {
+        execute(connection, "PRAGMA journal_mode=WAL;");
+        migrateSchema(connection);
+        prepareFts(connection, ftsProfile);
+    }
+
+    /**
+     * 按 PRAGMA user_version 逐级升级，每一级在独立事务中执行。早期版本没有写入 user_version，
+     * 存在 note_node 表即视为 v1。升级后执行 VACUUM 回收旧表占用的空间。
+     * 已是最新版本时再执行一遍幂等的完整结构，补上早期 v1 升级遗漏的索引。
+     */
+    private void migrateSchema(Connection connection) throws SQLException {
+        int version = userVersion(connection);
+        if (version == 0 && tableExists(connection, "note_node")) {
+            version = 1;
+        }
+        if (version > SCHEMA_VERSION) {
+            throw new SQLException("数据库结构版本 " + version + " 高于程序支持的版本 " + SCHEMA_VERSION);
+        }
+        if (version == 0) {
+            inTransaction(connection, statements(SCHEMA), SCHEMA_VERSION);
+            return;
+        }
+        if (version == SCHEMA_VERSION) {
+            statements(SCHEMA).apply(connection);
+            return;
+        }
+        for (int from = version; from < SCHEMA_VERSION; from++) {
+            log.info("升级数据库结构 v{} -> v{}", from, from + 1);
+            inTransaction(connection, MIGRATIONS[from], from + 1);
+        }
+        execute(connection, "VACUUM;");
+    }
+
+    private static Migration statements(String[] sqls) {
+        return connection -> {
+            for (String sql : sqls) {
+                execute(connection, sql);
+            }
+        };
+    }
+
+    private void inTransaction(Connection connection, Migration migration, int targetVersion) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            migration.apply(connection);
+            execute(connection, "PRAGMA user_version = " + targetVersion);
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    static int userVersion(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private void prepareFts(Connection connection, FtsProfile requested) throws SQLException {
+        Optional<FtsProfile> active = AppMeta.get(connection, AppMeta.FTS_PROFILE).map(FtsProfile::fromConfig);
+        if (active.isEmpty() && tableExists(connection, FTS_TABLE)) {
+            // 早期版本没有 app_meta，已有索引均为默认分词。
+            active = Optional.of(FtsProfile.UNICODE61);
+            AppMeta.put(connection, AppMeta.FTS_PROFILE, FtsProfile.UNICODE61.configName());
+        }
+        if (active.isEmpty()) {
+            FtsProfile profile = requested == null ? FtsProfile.UNICODE61 : requested;
+            execute(connection, profile.createTableSql(FTS_TABLE));
+            AppMeta.put(connection, AppMeta.FTS_PROFILE, profile.configName());
+            return;
+        }
+        FtsProfile target = requested == null ? active.get() : requested;
+        Optional<String> pending = AppMeta.get(connection, AppMeta.FTS_REBUILD_TARGET);
+        if (target == active.get()) {
+            if (pending.isPresent()) {
+                log.info("全文索引配置已恢复为 {}，放弃未完成的重建", target.configName());
+                clearRebuild(connection);
+            }
+            return;
+        }
+        if (pending.isPresent() && pending.get().equals(target.configName()) && tableExists(connection, FTS_NEXT_TABLE)) {
+            log.info("继续重建全文索引 {} -> {}", active.get().configName(), target.configName());
+            return;
+        }
+        clearRebuild(connection);
+        execute(connection, target.createTableSql(FTS_NEXT_TABLE));
+        AppMeta.put(connection, AppMeta.FTS_REBUILD_TARGET, target.configName());
+        AppMeta.put(connection, AppMeta.FTS_REBUILD_CURSOR, "0");
+        log.info("登记全文索引重建 {} -> {}", active.get().configName(), target.configName());
+    }
+
+    private void clearRebuild(Connection connection) throws SQLException {
+        execute(connection, "DROP TABLE IF EXISTS " + FTS_NEXT_TABLE);
+        AppMeta.remove(connection, AppMeta.FTS_REBUILD_TARGET);
+        AppMeta.remove(connection, AppMeta.FTS_REBUILD_CURSOR);
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        log.debug("执行建表 SQL: {}", sql);
         try (Statement stmt = connection.createStatement()) {
-            for (String sql : SQLS) {
-                log.debug("执行建表 SQL: {}", sql);
-                stmt.execute(sql);
+            stmt.execute(sql);
+        }
+    }
+
+    static boolean tableExists(Connection connection, String table) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT 1 FROM sqlite_master WHERE name = ?")) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
             }
         }
     }
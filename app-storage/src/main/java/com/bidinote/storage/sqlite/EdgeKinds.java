@@ -0,0 +1,55 @@
+package com.bidinote.storage.sqlite;
+
+import com.bidinote.storage.sqlite.SQLiteConnectionManager.PooledConnection;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * note_edge_kind 字典：边的 (type, props) 组合只有寥寥几种，每条边只保存字典键。
+ * 查到的键缓存在内存中；写事务失败时必须调用 {@link #invalidate()}，以免缓存回滚掉的键。
+ */
+final class EdgeKinds {
+    private final Map<Kind, Long> cache = new ConcurrentHashMap<>();
+
+    private record Kind(String type, String props) {
+    }
+
+    long find(PooledConnection conn, String type, String props) throws SQLException {
+        Kind kind = new Kind(type, props);
+        Long cached = cache.get(kind);
+        if (cached != null) {
+            return cached;
+        }
+        PreparedStatement ps = conn.prepare("SELECT pk FROM note_edge_kind WHERE type IS ? AND props IS ?");
+        ps.setString(1, type);
+        ps.setString(2, props);
+        try (ResultSet rs = ps.executeQuery()) {
+            if (!rs.next()) {
+                return NoteKeys.MISSING;
+            }
+            long pk = rs.getLong(1);
+            cache.put(kind, pk);
+            return pk;
+        }
+    }
+
+    long ensure(PooledConnection conn, String type, String props) throws SQLException {
+        long pk = find(conn, type, props);
+        if (pk != NoteKeys.MISSING) {
+            return pk;
+        }
+        PreparedStatement insert = conn.prepare("INSERT INTO note_edge_kind(type, props) VALUES(?, ?)");
+        insert.setString(1, type);
+        insert.setString(2, props);
+        insert.executeUpdate();
+        return find(conn, type, props);
+    }
+
+    void invalidate() {
+        cache.clear();
+    }
+}
@@ -0,0 +1,278 @@
+package com.bidinote.storage.sqlite;
+
+import com.bidinote.core.repository.NoteRepository.SearchHit;
+import com.bidinote.core.repository.NoteRepository.SearchPage;
+import com.bidinote.storage.sqlite.SQLiteConnectionManager.PooledConnection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static com.bidinote.storage.sqlite.BlockCompression.TEXT_SQL;
+import static com.bidinote.storage.sqlite.DatabaseInitializer.FTS_NEXT_TABLE;
+import static com.bidinote.storage.sqlite.DatabaseInitializer.FTS_TABLE;
+
+/**
+ * note_block_fts 的读写入口，屏蔽不同分词配置的差异并负责在线重建。
+ * 重建期间 note_block_fts_next 恰好包含 rowid 不大于游标的块；写入方在写连接上同步维护这部分，
+ * 游标之后的块由后台批次复制，完成后在一个事务内替换旧表。所有写方法都必须在写连接上调用。
+ */
+final class FtsIndex {
+    private static final int SNIPPET_RADIUS = 20;
+
+    private volatile FtsProfile profile;
+    private volatile FtsProfile rebuildTarget;
+    private volatile long rebuildCursor;
+
+    private FtsIndex(FtsProfile profile, FtsProfile rebuildTarget, long rebuildCursor) {
+        this.profile = profile;
+        this.rebuildTarget = rebuildTarget;
+        this.rebuildCursor = rebuildCursor;
+    }
+
+    static FtsIndex load(Connection connection) throws SQLException {
+        FtsProfile active = AppMeta.get(connection, AppMeta.FTS_PROFILE).map(FtsProfile::fromConfig).orElse(FtsProfile.UNICODE61);
+        FtsProfile target = AppMeta.get(connection, AppMeta.FTS_REBUILD_TARGET).map(FtsProfile::fromConfig).orElse(null);
+        long cursor = AppMeta.get(connection, AppMeta.FTS_REBUILD_CURSOR).map(Long::parseLong).orElse(0L);
+        return new FtsIndex(active, target, cursor);
+    }
+
+    FtsProfile profile() {
+        return profile;
+    }
+
+    boolean isRebuilding() {
+        return rebuildTarget != null;
+    }
+
+    void index(PooledConnection conn, long rowId, String text) throws SQLException {
+        insert(conn, FTS_TABLE, profile, rowId, text);
+        if (rebuildTarget != null && rowId <= rebuildCursor) {
+            insert(conn, FTS_NEXT_TABLE, rebuildTarget, rowId, text);
+        }
+    }
+
+    /**
+     * @param text 建索引时使用的原文，外部内容表需要它才能移除词条。
+     */
+    void unindex(PooledConnection conn, long rowId, String text) throws SQLException {
+        delete(conn, FTS_TABLE, profile, rowId, text);
+        if (rebuildTarget != null && rowId <= rebuildCursor) {
+            delete(conn, FTS_NEXT_TABLE, rebuildTarget, rowId, text);
+        }
+    }
+
+    /**
+     * 移除整页块的索引，必须在删除 note_block 行之前调用。
+     */
+    void unindexPage(PooledConnection conn, long pagePk) throws SQLException {
+        deletePage(conn, FTS_TABLE, profile, pagePk, Long.MAX_VALUE);
+        if (rebuildTarget != null) {
+            deletePage(conn, FTS_NEXT_TABLE, rebuildTarget, pagePk, rebuildCursor);
+        }
+    }
+
+    private void insert(PooledConnection conn, String table, FtsProfile target, long rowId, String text) throws SQLException {
+        PreparedStatement ps = conn.prepare("INSERT INTO " + table + "(rowid, text) VALUES (?, ?)");
+        ps.setLong(1, rowId);
+        ps.setString(2, target.indexText(text));
+        ps.executeUpdate();
+    }
+
+    private void delete(PooledConnection conn, String table, FtsProfile target, long rowId, String text) throws SQLException {
+        PreparedStatement ps;
+        if (target.externalContent()) {
+            ps = conn.prepare("INSERT INTO " + table + "(" + table + ", rowid, text) VALUES ('delete', ?, ?)");
+            ps.setLong(1, rowId);
+            ps.setString(2, text);
+        } else {
+            ps = conn.prepare("DELETE FROM " + table + " WHERE rowid = ?");
+            ps.setLong(1, rowId);
+        }
+        ps.executeUpdate();
+    }
+
+    private void deletePage(PooledConnection conn, String table, FtsProfile target, long pagePk, long maxRowId) throws SQLException {
+        PreparedStatement ps = target.externalContent()
+                ? conn.prepare("INSERT INTO " + table + "(" + table + ", rowid, text) SELECT 'delete', pk, " + TEXT_SQL + " FROM note_block WHERE page_pk = ? AND pk <= ?")
+                : conn.prepare("DELETE FROM " + table + " WHERE rowid IN (SELECT pk FROM note_block WHERE page_pk = ? AND pk <= ?)");
+        ps.setLong(1, pagePk);
+        ps.setLong(2, maxRowId);
+        ps.executeUpdate();
+    }
+
+    /**
+     * 先在 SQL 中按 (得分, rowid) 做键集分页并限制条数，再只为返回的这一页生成摘要。
+     */
+    SearchPage search(PooledConnection conn, String keyword, int limit, String cursor, boolean groupByPage) throws SQLException {
+        if (keyword == null || keyword.isBlank() || limit <= 0) {
+            return new SearchPage(List.of(), null);
+        }
+        String trimmed = keyword.strip();
+        FtsProfile current = profile;
+        String match = current.matchExpression(trimmed);
+        Cursor after = Cursor.decode(cursor);
+        PreparedStatement ps;
+        if (match == null) {
+            ps = conn.prepare(withKeys(groupByPage
+                    ? "SELECT rid, page_pk, 0.0 AS score FROM (SELECT MIN(pk) AS rid, page_pk FROM note_block WHERE " + TEXT_SQL + " LIKE ? ESCAPE '\\' GROUP BY page_pk) "
+                    + "WHERE rid > ? ORDER BY rid LIMIT ?"
+                    : "SELECT pk AS rid, page_pk, 0.0 AS score FROM note_block WHERE " + TEXT_SQL + " LIKE ? ESCAPE '\\' AND pk > ? ORDER BY pk LIMIT ?"));
+            ps.setString(1, "%" + trimmed.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%");
+            ps.setLong(2, after.rowId());
+            ps.setLong(3, limit + 1L);
+        } else {
+            // bm25() 不能直接出现在聚合查询中，分组模式先物化每块得分再取每页最小值。
+            String ranked = groupByPage
+                    ? "WITH scored AS MATERIALIZED (SELECT note_block.pk AS rid, note_block.page_pk AS page_pk, bm25(note_block_fts) AS score "
+                    + "FROM note_block_fts JOIN note_block ON note_block_fts.rowid = note_block.pk WHERE note_block_fts MATCH ?) "
+                    + "SELECT rid, page_pk, MIN(score) AS score FROM scored GROUP BY page_pk"
+                    : "SELECT note_block.pk AS rid, note_block.page_pk AS page_pk, bm25(note_block_fts) AS score "
+                    + "FROM note_block_fts JOIN note_block ON note_block_fts.rowid = note_block.pk WHERE note_block_fts MATCH ?";
+            ps = conn.prepare(withKeys("SELECT rid, page_pk, score FROM (" + ranked + ") WHERE score > ? OR (score = ? AND rid > ?) ORDER BY score, rid LIMIT ?"));
+            ps.setString(1, match);
+            ps.setDouble(2, after.score());
+            ps.setDouble(3, after.score());
+            ps.setLong(4, after.rowId());
+            ps.setLong(5, limit + 1L);
+        }
+        List<Long> rowIds = new ArrayList<>();
+        List<SearchHit> hits = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                rowIds.add(rs.getLong("rid"));
+                hits.add(new SearchHit(rs.getString("page_id"), rs.getString("id"), null, rs.getDouble("score")));
+            }
+        }
+        String next = null;
+        if (hits.size() > limit) {
+            hits = hits.subList(0, limit);
+            SearchHit last = hits.get(limit - 1);
+            next = new Cursor(last.score(), rowIds.get(limit - 1)).encode();
+        }
+        List<SearchHit> page = new ArrayList<>(hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            SearchHit hit = hits.get(i);
+            String snippet = match != null && current.externalContent()
+                    ? ftsSnippet(conn, match, rowIds.get(i), trimmed)
+                    : snippet(blockText(conn, rowIds.get(i)), trimmed);
+            page.add(new SearchHit(hit.pageId(), hit.blockId(), snippet, hit.score()));
+        }
+        return new SearchPage(page, next);
+    }
+
+    /**
+     * 分页在整数键上完成，只为截取出的这一页把页面和块的整数键换回 ULID。
+     */
+    private static String withKeys(String page) {
+        return "SELECT p.rid, pk.ulid AS page_id, bk.ulid AS id, p.score FROM (" + page + ") p "
+                + "JOIN note_key pk ON pk.pk = p.page_pk JOIN note_key bk ON bk.pk = p.rid ORDER BY p.score, p.rid";
+    }
+
+    /**
+     * FTS5 的 snippet() 直接读取 note_block.text，压缩过的块读到的是 NULL，此时改为解压后在 Java 中截取。
+     */
+    private String ftsSnippet(PooledConnection conn, String match, long rowId, String keyword) throws SQLException {
+        PreparedStatement ps = conn.prepare("SELECT snippet(note_block_fts, 0, '<b>', '</b>', '...', 20) FROM note_block_fts WHERE note_block_fts MATCH ? AND rowid = ?");
+        ps.setString(1, match);
+        ps.setLong(2, rowId);
+        try (ResultSet rs = ps.executeQuery()) {
+            String snippet = rs.next() ? rs.getString(1) : null;
+            if (snippet != null && !snippet.isEmpty()) {
+                return snippet;
+            }
+        }
+        return snippet(blockText(conn, rowId), keyword);
+    }
+
+    private String blockText(PooledConnection conn, long rowId) throws SQLException {
+        PreparedStatement ps = conn.prepare("SELECT " + TEXT_SQL + " FROM note_block WHERE pk = ?");
+        ps.setLong(1, rowId);
+        try (ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getString(1) : "";
+        }
+    }
+
+    /**
+     * 键集游标：上一页最后一条的 (得分, rowid)。得分按位编码，避免浮点往返误差。
+     */
+    private record Cursor(double score, long rowId) {
+        private static final Cursor START = new Cursor(Double.NEGATIVE_INFINITY, Long.MIN_VALUE);
+
+        static Cursor decode(String value) {
+            if (value == null || value.isBlank()) {
+                return START;
+            }
+            String[] parts = value.split(":", 2);
+            try {
+                return new Cursor(Double.longBitsToDouble(Long.parseUnsignedLong(parts[0], 16)), Long.parseLong(parts[1]));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("无效的检索游标: " + value, e);
+            }
+        }
+
+        String encode() {
+            return Long.toHexString(Double.doubleToRawLongBits(score)) + ":" + rowId;
+        }
+    }
+
+    static String snippet(String text, String keyword) {
+        if (text == null) {
+            return "";
+        }
+        int start = text.toLowerCase(Locale.ROOT).indexOf(keyword.toLowerCase(Locale.ROOT));
+        if (start < 0) {
+            return text.length() > SNIPPET_RADIUS * 2 ? text.substring(0, SNIPPET_RADIUS * 2) + "..." : text;
+        }
+        int end = start + keyword.length();
+        int from = Math.max(0, start - SNIPPET_RADIUS);
+        int to = Math.min(text.length(), end + SNIPPET_RADIUS);
+        return (from > 0 ? "..." : "") + text.substring(from, start) + "<b>" + text.substring(start, end) + "</b>"
+                + text.substring(end, to) + (to < text.length() ? "..." : "");
+    }
+
+    /**
+     * 复制下一批块到 note_block_fts_next；没有剩余块时替换旧表。
+     *
+     * @return 重建已完成（或本就没有重建任务）时返回 true。
+     */
+    boolean rebuildStep(PooledConnection conn, int batchSize) throws SQLException {
+        FtsProfile target = rebuildTarget;
+        if (target == null) {
+            return true;
+        }
+        PreparedStatement select = conn.prepare("SELECT pk, " + TEXT_SQL + " FROM note_block WHERE pk > ? ORDER BY pk LIMIT ?");
+        select.setLong(1, rebuildCursor);
+        select.setInt(2, batchSize);
+        long cursor = rebuildCursor;
+        int copied = 0;
+        try (ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                cursor = rs.getLong(1);
+                insert(conn, FTS_NEXT_TABLE, target, cursor, rs.getString(2));
+                copied++;
+            }
+        }
+        if (copied > 0) {
+            AppMeta.put(conn.raw(), AppMeta.FTS_REBUILD_CURSOR, Long.toString(cursor));
+            rebuildCursor = cursor;
+            return false;
+        }
+        try (Statement stmt = conn.raw().createStatement()) {
+            stmt.execute("DROP TABLE " + FTS_TABLE);
+            stmt.execute("ALTER TABLE " + FTS_NEXT_TABLE + " RENAME TO " + FTS_TABLE);
+        }
+        AppMeta.put(conn.raw(), AppMeta.FTS_PROFILE, target.configName());
+        AppMeta.remove(conn.raw(), AppMeta.FTS_REBUILD_TARGET);
+        AppMeta.remove(conn.raw(), AppMeta.FTS_REBUILD_CURSOR);
+        profile = target;
+        rebuildTarget = null;
+        rebuildCursor = 0;
+        return true;
+    }
+}
@@ -0,0 +1,75 @@
+package com.bidinote.storage.sqlite;
+
+import com.bidinote.core.util.CjkBigramSegmenter;
+
+import java.util.Locale;
+
+/**
+ * note_block_fts 的分词配置。
+ * <ul>
+ *     <li>UNICODE61：默认分词，整段中文会被视为一个词，只适合西文。</li>
+ *     <li>TRIGRAM：三元组分词，可做任意子串匹配，但少于 3 个字的查询无法走索引。</li>
+ *     <li>CJK_BIGRAM：写入前在 Java 中做 CJK 二元切分，两个字的中文词即可命中索引。</li>
+ * </ul>
+ */
+public enum FtsProfile {
+    UNICODE61("unicode61"),
+    TRIGRAM("trigram"),
+    CJK_BIGRAM("cjk_bigram");
+
+    private final String configName;
+
+    FtsProfile(String configName) {
+        this.configName = configName;
+    }
+
+    public String configName() {
+        return configName;
+    }
+
+    public static FtsProfile fromConfig(String value) {
+        if (value != null) {
+            String normalized = value.trim().toLowerCase(Locale.ROOT);
+            for (FtsProfile profile : values()) {
+                if (profile.configName.equals(normalized)) {
+                    return profile;
+                }
+            }
+        }
+        throw new IllegalArgumentException("未知的全文索引配置: " + value);
+    }
+
+    /**
+     * 外部内容表直接引用 note_block.text；CJK_BIGRAM 索引的是切分后的文本，只能自带内容。
+     */
+    boolean externalContent() {
+        return this != CJK_BIGRAM;
+    }
+
+    String createTableSql(String table) {
+        return switch (this) {
+            case UNICODE61 -> "CREATE VIRTUAL TABLE IF NOT EXISTS " + table + " USING fts5(text, content='note_block', content_rowid='pk');";
+            case TRIGRAM -> "CREATE VIRTUAL TABLE IF NOT EXISTS " + table + " USING fts5(text, content='note_block', content_rowid='pk', tokenize='trigram');";
+            case CJK_BIGRAM -> "CREATE VIRTUAL TABLE IF NOT EXISTS " + table + " USING fts5(text, tokenize='unicode61');";
+        };
+    }
+
+    String indexText(String text) {
+        return this == CJK_BIGRAM ? CjkBigramSegmenter.segment(text) : text;
+    }
+
+    /**
+     * 把用户关键字转换为 MATCH 表达式；返回 null 表示该关键字无法走索引。
+     */
+    String matchExpression(String keyword) {
+        return switch (this) {
+            case UNICODE61 -> keyword + "*";
+            case TRIGRAM -> keyword.codePointCount(0, keyword.length()) < 3 ? null : quote(keyword);
+            case CJK_BIGRAM -> quote(CjkBigramSegmenter.segmentQuery(keyword)) + "*";
+        };
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
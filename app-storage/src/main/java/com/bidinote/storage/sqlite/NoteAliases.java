@@ -0,0 +1,76 @@
+package com.bidinote.storage.sqlite;
+
+import com.bidinote.core.util.TextNormalizer;
+import com.bidinote.storage.sqlite.SQLiteConnectionManager.PooledConnection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+
+/**
+ * note_alias 表：页面标题与别名的归一化形式到页面整数键的索引，随 note_node 一起写入。
+ */
+final class NoteAliases {
+    private static final String INSERT = "INSERT OR IGNORE INTO note_alias(norm, node_pk, is_title) VALUES(?,?,?)";
+    private static final int REBUILD_BATCH = 500;
+
+    private NoteAliases() {
+    }
+
+    /**
+     * 用页面当前的标题与别名替换其索引行。必须在写连接上调用。
+     */
+    static void replace(PooledConnection conn, long nodePk, String title, Set<String> aliases) throws SQLException {
+        PreparedStatement delete = conn.prepare("DELETE FROM note_alias WHERE node_pk = ?");
+        delete.setLong(1, nodePk);
+        delete.executeUpdate();
+        PreparedStatement insert = conn.prepare(INSERT);
+        addRows(insert, nodePk, title, aliases);
+        insert.executeBatch();
+    }
+
+    /**
+     * 按 note_node 的现有内容重建整张表，供结构升级使用。
+     */
+    static void rebuild(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("DELETE FROM note_alias");
+        }
+        try (Statement select = connection.createStatement();
+             ResultSet rs = select.executeQuery("SELECT pk, title, aliases FROM note_node");
+             PreparedStatement insert = connection.prepareStatement(INSERT)) {
+            int pending = 0;
+            while (rs.next()) {
+                addRows(insert, rs.getLong(1), rs.getString(2), JsonUtils.fromJsonArray(rs.getString(3)));
+                if (++pending == REBUILD_BATCH) {
+                    insert.executeBatch();
+                    pending = 0;
+                }
+            }
+            insert.executeBatch();
+        }
+    }
+
+    // 标题先于别名写入，两者归一化后相同时保留标题标记。
+    private static void addRows(PreparedStatement insert, long nodePk, String title, Set<String> aliases) throws SQLException {
+        addRow(insert, nodePk, title, true);
+        if (aliases != null) {
+            for (String alias : aliases) {
+                addRow(insert, nodePk, alias, false);
+            }
+        }
+    }
+
+    private static void addRow(PreparedStatement insert, long nodePk, String text, boolean title) throws SQLException {
+        if (text == null || text.isBlank()) {
+            return;
+        }
+        insert.setString(1, TextNormalizer.normalize(text));
+        insert.setLong(2, nodePk);
+        insert.setInt(3, title ? 1 : 0);
+        insert.addBatch();
+    }
+}
@@ -0,0 +1,51 @@
+package com.bidinote.storage.sqlite;
+
+import com.bidinote.storage.sqlite.SQLiteConnectionManager.PooledConnection;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * note_key 表：页面与块的 ULID 到整数键的映射。其他表只保存整数键，ULID 在库中只出现一次。
+ */
+final class NoteKeys {
+    static final long MISSING = -1;
+
+    private NoteKeys() {
+    }
+
+    static long find(PooledConnection conn, String ulid) throws SQLException {
+        if (ulid == null) {
+            return MISSING;
+        }
+        PreparedStatement ps = conn.prepare("SELECT pk FROM note_key WHERE ulid = ?");
+        ps.setString(1, ulid);
+        try (ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : MISSING;
+        }
+    }
+
+    /**
+     * 返回 ULID 对应的整数键，不存在时分配一个。必须在写连接上调用。
+     */
+    static long ensure(PooledConnection conn, String ulid) throws SQLException {
+        long pk = find(conn, ulid);
+        if (pk != MISSING) {
+            return pk;
+        }
+        PreparedStatement insert = conn.prepare("INSERT INTO note_key(ulid) VALUES(?)");
+        insert.setString(1, ulid);
+        insert.executeUpdate();
+        try (ResultSet rs = conn.prepare("SELECT last_insert_rowid()").executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    static void remove(PooledConnection conn, long pk) throws SQLException {
+        PreparedStatement delete = conn.prepare("DELETE FROM note_key WHERE pk = ?");
+        delete.setLong(1, pk);
+        delete.executeUpdate();
+    }
+}
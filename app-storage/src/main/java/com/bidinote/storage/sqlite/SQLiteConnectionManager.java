@@ -0,0 +1,311 @@
+package com.bidinote.storage.sqlite;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * SQLite 连接管理：一个串行化的写连接 + 一组 WAL 读连接，每个连接自带预编译语句缓存。
+ * 写操作在同一线程内可嵌套，只有最外层负责提交；持有写锁的线程读取时复用写连接，以便看到未提交的修改。
+ */
+public class SQLiteConnectionManager implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(SQLiteConnectionManager.class);
+    private static final long BORROW_TIMEOUT_SECONDS = 30;
+
+    private final String url;
+    private final int maxReaders;
+    private final ConnectionSetup setup;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final BlockingQueue<PooledConnection> idleReaders = new LinkedBlockingQueue<>();
+    private final List<PooledConnection> allReaders = new ArrayList<>();
+    private final PooledConnection writer;
+    private volatile boolean closed;
+
+    @FunctionalInterface
+    public interface SqlWork<T> {
+        T execute(PooledConnection connection) throws SQLException;
+    }
+
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * 每个新打开的连接在投入使用前执行一次，用于注册自定义函数等连接级设置。
+     */
+    @FunctionalInterface
+    public interface ConnectionSetup {
+        void apply(Connection connection) throws SQLException;
+    }
+
+    public SQLiteConnectionManager(Path databasePath, int maxReaders) throws SQLException {
+        this(databasePath, maxReaders, connection -> {
+        });
+    }
+
+    public SQLiteConnectionManager(Path databasePath, int maxReaders, ConnectionSetup setup) throws SQLException {
+        if (maxReaders < 1) {
+            throw new IllegalArgumentException("maxReaders 必须大于 0");
+        }
+        this.url = "jdbc:sqlite:" + databasePath;
+        this.maxReaders = maxReaders;
+        this.setup = setup;
+        this.writer = open(false);
+    }
+
+    public static int defaultReaderCount() {
+        return Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * 在读连接上执行查询。当前线程持有写锁时直接使用写连接。
+     */
+    public <T> T read(SqlWork<T> work) throws SQLException {
+        if (writeLock.isHeldByCurrentThread()) {
+            return work.execute(writer);
+        }
+        PooledConnection reader = borrowReader();
+        try {
+            return work.execute(reader);
+        } finally {
+            idleReaders.offer(reader);
+        }
+    }
+
+    /**
+     * 以惰性流逐行读取查询结果，内存占用与结果集大小无关。流关闭前独占一个读连接（持有写锁的线程则使用写连接），
+     * 因此调用方必须用 try-with-resources 关闭流。语句不进入缓存，遍历过程中可以安全地再访问数据库。
+     */
+    public <T> Stream<T> stream(String sql, int fetchSize, RowMapper<T> mapper) throws SQLException {
+        boolean onWriter = writeLock.isHeldByCurrentThread();
+        PooledConnection connection = onWriter ? writer : borrowReader();
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true) && !onWriter) {
+                idleReaders.offer(connection);
+            }
+        };
+        PreparedStatement statement = null;
+        ResultSet rs;
+        try {
+            statement = connection.raw().prepareStatement(sql);
+            statement.setFetchSize(fetchSize);
+            rs = statement.executeQuery();
+        } catch (SQLException | RuntimeException e) {
+            closeQuietly(statement);
+            release.run();
+            throw e;
+        }
+        PreparedStatement owned = statement;
+        Spliterator<T> rows = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if (!rs.next()) {
+                        return false;
+                    }
+                    action.accept(mapper.map(rs));
+                    return true;
+                } catch (SQLException e) {
+                    throw new IllegalStateException("读取结果集失败", e);
+                }
+            }
+        };
+        return StreamSupport.stream(rows, false).onClose(() -> {
+            closeQuietly(owned);
+            release.run();
+        });
+    }
+
+    private void closeQuietly(Statement statement) {
+        if (statement == null) {
+            return;
+        }
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            log.warn("关闭语句失败", e);
+        }
+    }
+
+    /**
+     * 在写连接上以单个事务执行写操作；嵌套调用并入外层事务。
+     */
+    public <T> T write(SqlWork<T> work) throws SQLException {
+        ensureOpen();
+        writeLock.lock();
+        try {
+            if (writeLock.getHoldCount() > 1) {
+                return work.execute(writer);
+            }
+            Connection connection = writer.raw();
+            connection.setAutoCommit(false);
+            try {
+                T result = work.execute(writer);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                rollbackQuietly(connection);
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 独占写连接但不开启事务，用于建表、迁移等需要自行控制事务或不能处于事务中的操作。
+     */
+    public <T> T withWriter(SqlWork<T> work) throws SQLException {
+        ensureOpen();
+        writeLock.lock();
+        try {
+            return work.execute(writer);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private PooledConnection borrowReader() throws SQLException {
+        ensureOpen();
+        PooledConnection reader = idleReaders.poll();
+        if (reader != null) {
+            return reader;
+        }
+        synchronized (allReaders) {
+            if (allReaders.size() < maxReaders) {
+                PooledConnection created = open(true);
+                allReaders.add(created);
+                return created;
+            }
+        }
+        try {
+            reader = idleReaders.poll(BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待读连接被中断", e);
+        }
+        if (reader == null) {
+            throw new SQLException("等待读连接超时");
+        }
+        return reader;
+    }
+
+    private PooledConnection open(boolean readOnly) throws SQLException {
+        Connection connection = DriverManager.getConnection(url);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA foreign_keys=OFF");
+            stmt.execute("PRAGMA busy_timeout=5000");
+            if (readOnly) {
+                stmt.execute("PRAGMA query_only=ON");
+            }
+            setup.apply(connection);
+        } catch (SQLException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+        return new PooledConnection(connection);
+    }
+
+    private void ensureOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("连接管理器已关闭");
+        }
+    }
+
+    private void rollbackQuietly(Connection connection) {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            log.warn("回滚事务失败", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        writeLock.lock();
+        try {
+            writer.close();
+        } finally {
+            writeLock.unlock();
+        }
+        synchronized (allReaders) {
+            allReaders.forEach(PooledConnection::close);
+            allReaders.clear();
+        }
+        idleReaders.clear();
+    }
+
+    /**
+     * 长连接及其预编译语句缓存。语句由缓存持有，调用方只需关闭 ResultSet。
+     */
+    public static final class PooledConnection {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement != null && statement.isClosed()) {
+                // 执行出错时驱动可能已经释放语句，需要重新编译。
+                statements.remove(sql);
+                statement = null;
+            }
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            } else {
+                statement.clearParameters();
+            }
+            return statement;
+        }
+
+        public Connection raw() {
+            return connection;
+        }
+
+        private void close() {
+            for (PreparedStatement statement : statements.values()) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    log.warn("关闭预编译语句失败", e);
+                }
+            }
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.warn("关闭连接失败", e);
+            }
+        }
+    }
+}
@@ -3,81 +3,142 @@ package com.bidinote.storage.sqlite;
 import com.bidinote.core.model.NoteBlock;
 import com.bidinote.core.model.NoteEdge;
 import com.bidinote.core.model.NoteNode;
+import com.bidinote.core.model.PageChangeSet;
 import com.bidinote.core.repository.NoteRepository;
+import com.bidinote.core.util.TextNormalizer;
+import com.bidinote.storage.sqlite.SQLiteConnectionManager.PooledConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.sql.Types;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 /**
  * SQLite 实现，负责与 FTS5 联动。
  */
-public class SQLiteNoteRepository implements NoteRepository {
+public class SQLiteNoteRepository implements NoteRepository, AutoCloseable {
     private static final Logger log = LoggerFactory.getLogger(SQLiteNoteRepository.class);
+    private static final int FTS_REBUILD_BATCH = 500;
+    private static final long FTS_REBUILD_PAUSE_MILLIS = 20;
+    private static final long FTS_REBUILD_RETRY_MILLIS = 5000;
+    private static final int DEFAULT_FETCH_SIZE = 256;
+    private static final int COMPRESSION_SAMPLE_LIMIT = 2000;
+    private static final int COMPRESSION_BATCH = 200;
+    private static final String NODE_COLUMNS = "SELECT k.ulid AS id, n.title, n.aliases, n.tags, n.updated_at, n.content_hash, n.link_hash FROM note_node n JOIN note_key k ON k.pk = n.pk";
+    private static final String EDGE_COLUMNS = "SELECT sb.ulid AS src_block_id, sp.ulid AS src_page_id, dp.ulid AS dst_page_id, e.dst_block_id, ek.type, ek.props, e.created_at "
+            + "FROM note_edge e JOIN note_key sp ON sp.pk = e.src_page_pk JOIN note_key dp ON dp.pk = e.dst_page_pk "
+            + "LEFT JOIN note_key sb ON sb.pk = e.src_block_pk JOIN note_edge_kind ek ON ek.pk = e.kind_pk";
     private final Path databasePath;
+    private final SQLiteConnectionManager connections;
+    private final FtsIndex fts;
+    private final EdgeKinds edgeKinds = new EdgeKinds();
+    private final BlockCompression compression = new BlockCompression();
+    private volatile int fetchSize = DEFAULT_FETCH_SIZE;
+    private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sqlite-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 块文本压缩的统计：累计压缩的块数、压缩前后字节数与耗时，以及读取时解压的块数与耗时。
+     * 压缩耗时包含因收益太小而放弃压缩的尝试。
+     */
+    public record CompressionStats(long blocksCompressed, long rawBytes, long storedBytes, long compressMillis,
+                                   long blocksDecompressed, long decompressMillis) {
+        public double ratio() {
+            return storedBytes == 0 ? 0 : (double) rawBytes / storedBytes;
+        }
+    }
 
     public SQLiteNoteRepository(Path databasePath) {
+        this(databasePath, SQLiteConnectionManager.defaultReaderCount(), null);
+    }
+
+    public SQLiteNoteRepository(Path databasePath, FtsProfile ftsProfile) {
+        this(databasePath, SQLiteConnectionManager.defaultReaderCount(), ftsProfile);
+    }
+
+    /**
+     * @param ftsProfile 全文索引分词配置，为 null 时沿用数据库当前配置。与当前配置不同时在后台重建索引，
+     *                   重建完成前检索仍使用旧索引，编辑不受影响；中途退出后下次启动从断点继续。
+     */
+    public SQLiteNoteRepository(Path databasePath, int readerPoolSize, FtsProfile ftsProfile) {
         this.databasePath = databasePath;
         try {
             Files.createDirectories(databasePath.getParent());
-            try (Connection connection = getConnection()) {
-                new DatabaseInitializer().init(connection);
-            }
+            this.connections = new SQLiteConnectionManager(databasePath, readerPoolSize, compression::register);
+            this.fts = connections.withWriter(conn -> {
+                new DatabaseInitializer().init(conn.raw(), ftsProfile);
+                compression.load(conn.raw());
+                return FtsIndex.load(conn.raw());
+            });
         } catch (Exception e) {
             throw new IllegalStateException("初始化数据库失败", e);
         }
-    }
-
-    private Connection getConnection() throws SQLException {
-        String url = "jdbc:sqlite:" + databasePath;
-        Connection connection = DriverManager.getConnection(url);
-        try (Statement stmt = connection.createStatement()) {
-            stmt.execute("PRAGMA foreign_keys=OFF");
-            stmt.execute("PRAGMA busy_timeout=5000");
+        if (fts.isRebuilding()) {
+            scheduleFtsRebuild(0);
         }
-        return connection;
     }
 
     @Override
     public Optional<NoteNode> findNodeById(String id) {
-        String sql = "SELECT id, title, aliases, tags, updated_at FROM note_node WHERE id = ?";
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, id);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    return Optional.of(mapNode(rs));
+        return findSingleNode(NODE_COLUMNS + " WHERE n.pk = (SELECT pk FROM note_key WHERE ulid = ?)", id);
+    }
+
+    @Override
+    public Optional<NoteNode> findNodeByTitle(String title) {
+        return findSingleNode(NODE_COLUMNS + " WHERE n.title = ?", title);
+    }
+
+    @Override
+    public List<NoteNode> findNodesByTitleOrAlias(String text) {
+        List<NoteNode> nodes = new ArrayList<>();
+        if (text == null || text.isBlank()) {
+            return nodes;
+        }
+        try {
+            connections.read(conn -> {
+                PreparedStatement ps = conn.prepare(NODE_COLUMNS + " JOIN note_alias a ON a.node_pk = n.pk WHERE a.norm = ? ORDER BY a.is_title DESC, n.pk");
+                ps.setString(1, TextNormalizer.normalize(text));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        nodes.add(mapNode(rs));
+                    }
                 }
-            }
+                return null;
+            });
         } catch (SQLException e) {
-            log.error("查询节点失败", e);
+            log.error("按标题或别名查询节点失败", e);
         }
-        return Optional.empty();
+        return nodes;
     }
 
-    @Override
-    public Optional<NoteNode> findNodeByTitle(String title) {
-        String sql = "SELECT id, title, aliases, tags, updated_at FROM note_node WHERE title = ?";
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, title);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    return Optional.of(mapNode(rs));
+    private Optional<NoteNode> findSingleNode(String sql, String value) {
+        try {
+            return connections.read(conn -> {
+                PreparedStatement ps = conn.prepare(sql);
+                ps.setString(1, value);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? Optional.of(mapNode(rs)) : Optional.<NoteNode>empty();
                 }
-            }
+            });
         } catch (SQLException e) {
             log.error("查询节点失败", e);
         }
@@ -87,34 +148,48 @@ public class SQLiteNoteRepository implements NoteRepository {
     @Override
     public Map<String, NoteNode> loadAllNodes() {
         Map<String, NoteNode> map = new LinkedHashMap<>();
-        String sql = "SELECT id, title, aliases, tags, updated_at FROM note_node";
-        try (Connection conn = getConnection(); Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
-            while (rs.next()) {
-                NoteNode node = mapNode(rs);
-                map.put(node.getId(), node);
-            }
-        } catch (SQLException e) {
+        try (Stream<NoteNode> nodes = streamNodes()) {
+            nodes.forEach(node -> map.put(node.getId(), node));
+        } catch (IllegalStateException e) {
             log.error("加载节点失败", e);
         }
         return map;
     }
 
+    @Override
+    public Stream<NoteNode> streamNodes() {
+        return streamRows(NODE_COLUMNS, this::mapNode);
+    }
+
+    private <T> Stream<T> streamRows(String sql, SQLiteConnectionManager.RowMapper<T> mapper) {
+        try {
+            return connections.stream(sql, fetchSize, mapper);
+        } catch (SQLException e) {
+            throw new IllegalStateException("打开结果集失败", e);
+        }
+    }
+
     @Override
     public List<NoteBlock> findBlocksByPageId(String pageId) {
         List<NoteBlock> blocks = new ArrayList<>();
-        String sql = "SELECT id, page_id, text, anchor, order_no FROM note_block WHERE page_id = ? ORDER BY order_no";
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, pageId);
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    blocks.add(new NoteBlock(
-                            rs.getString("id"),
-                            rs.getString("page_id"),
-                            rs.getString("text"),
-                            rs.getString("anchor"),
-                            rs.getInt("order_no")));
+        String sql = "SELECT k.ulid AS id, b.text, b.text_z, b.anchor, b.order_no FROM note_block b JOIN note_key k ON k.pk = b.pk "
+                + "WHERE b.page_pk = (SELECT pk FROM note_key WHERE ulid = ?) ORDER BY b.order_no";
+        try {
+            connections.read(conn -> {
+                PreparedStatement ps = conn.prepare(sql);
+                ps.setString(1, pageId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        blocks.add(new NoteBlock(
+                                rs.getString("id"),
+                                pageId,
+                                compression.text(rs.getString("text"), rs.getBytes("text_z")),
+                                rs.getString("anchor"),
+                                rs.getInt("order_no")));
+                    }
                 }
-            }
+                return null;
+            });
         } catch (SQLException e) {
             log.error("查询块失败", e);
         }
@@ -123,32 +198,27 @@ public class SQLiteNoteRepository implements NoteRepository {
 
     @Override
     public List<NoteEdge> findEdgesByPageId(String pageId) {
-        return queryEdges("SELECT src_block_id, src_page_id, dst_page_id, dst_block_id, type, props, created_at FROM note_edge WHERE src_page_id = ?", pageId);
+        return queryEdges(EDGE_COLUMNS + " WHERE e.src_page_pk = (SELECT pk FROM note_key WHERE ulid = ?)", pageId);
     }
 
     @Override
     public List<NoteEdge> findEdgesByTarget(String pageId) {
-        return queryEdges("SELECT src_block_id, src_page_id, dst_page_id, dst_block_id, type, props, created_at FROM note_edge WHERE dst_page_id = ?", pageId);
+        return queryEdges(EDGE_COLUMNS + " WHERE e.dst_page_pk = (SELECT pk FROM note_key WHERE ulid = ?)", pageId);
     }
 
     private List<NoteEdge> queryEdges(String sql, String pageId) {
         List<NoteEdge> edges = new ArrayList<>();
-        try (Connection conn = getConnection(); PreparedStatement ps = pageId == null ? conn.prepareStatement(sql) : conn.prepareStatement(sql)) {
-            if (pageId != null) {
+        try {
+            connections.read(conn -> {
+                PreparedStatement ps = conn.prepare(sql);
                 ps.setString(1, pageId);
-            }
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    edges.add(new NoteEdge(
-                            rs.getString("src_block_id"),
-                            rs.getString("src_page_id"),
-                            rs.getString("dst_page_id"),
-                            rs.getString("dst_block_id"),
-                            rs.getString("type"),
-                            rs.getString("props"),
-                            Instant.parse(Optional.ofNullable(rs.getString("created_at")).orElse(Instant.now().toString()))));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        edges.add(mapEdge(rs));
+                    }
                 }
-            }
+                return null;
+            });
         } catch (SQLException e) {
             log.error("查询边失败", e);
         }
@@ -157,14 +227,11 @@ public class SQLiteNoteRepository implements NoteRepository {
 
     @Override
     public void saveNode(NoteNode node) {
-        String sql = "REPLACE INTO note_node(id, title, aliases, tags, updated_at) VALUES(?,?,?,?,?)";
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, node.getId());
-            ps.setString(2, node.getTitle());
-            ps.setString(3, JsonUtils.toJsonArray(node.getAliases()));
-            ps.setString(4, JsonUtils.toJsonArray(node.getTags()));
-            ps.setString(5, node.getUpdatedAt().toString());
-            ps.executeUpdate();
+        try {
+            write(conn -> {
+                writeNode(conn, node);
+                return null;
+            });
         } catch (SQLException e) {
             log.error("保存节点失败", e);
         }
@@ -172,38 +239,11 @@ public class SQLiteNoteRepository implements NoteRepository {
 
     @Override
     public void saveBlocks(String pageId, List<NoteBlock> blocks) {
-        String deleteSql = "DELETE FROM note_block WHERE page_id = ?";
-        String insertSql = "INSERT INTO note_block(id, page_id, text, anchor, order_no) VALUES(?,?,?,?,?)";
-        String insertFts = "INSERT INTO note_block_fts(rowid, text) VALUES ((SELECT rowid FROM note_block WHERE id = ?), ?)";
-        try (Connection conn = getConnection()) {
-            conn.setAutoCommit(false);
-            try (PreparedStatement delete = conn.prepareStatement(deleteSql)) {
-                delete.setString(1, pageId);
-                delete.executeUpdate();
-            }
-            try (Statement cleanup = conn.createStatement()) {
-                cleanup.execute("DELETE FROM note_block_fts WHERE rowid NOT IN (SELECT rowid FROM note_block)");
-            }
-            try (PreparedStatement insert = conn.prepareStatement(insertSql)) {
-                for (NoteBlock block : blocks) {
-                    insert.setString(1, block.getId());
-                    insert.setString(2, block.getPageId());
-                    insert.setString(3, block.getText());
-                    insert.setString(4, block.getAnchor());
-                    insert.setInt(5, block.getOrderNo());
-                    insert.addBatch();
-                }
-                insert.executeBatch();
-            }
-            try (PreparedStatement fts = conn.prepareStatement(insertFts)) {
-                for (NoteBlock block : blocks) {
-                    fts.setString(1, block.getId());
-                    fts.setString(2, block.getText());
-                    fts.addBatch();
-                }
-                fts.executeBatch();
-            }
-            conn.commit();
+        try {
+            write(conn -> {
+                writeBlocks(conn, pageId, blocks);
+                return null;
+            });
         } catch (SQLException e) {
             log.error("保存块失败", e);
         }
@@ -211,39 +251,284 @@ public class SQLiteNoteRepository implements NoteRepository {
 
     @Override
     public void saveEdges(String pageId, List<NoteEdge> edges) {
-        String deleteSql = "DELETE FROM note_edge WHERE src_page_id = ?";
-        String insertSql = "INSERT INTO note_edge(src_block_id, src_page_id, dst_page_id, dst_block_id, type, props, created_at) VALUES(?,?,?,?,?,?,?)";
-        try (Connection conn = getConnection()) {
-            conn.setAutoCommit(false);
-            try (PreparedStatement delete = conn.prepareStatement(deleteSql)) {
-                delete.setString(1, pageId);
-                delete.executeUpdate();
-            }
-            try (PreparedStatement insert = conn.prepareStatement(insertSql)) {
-                for (NoteEdge edge : edges) {
-                    insert.setString(1, edge.getSrcBlockId());
-                    insert.setString(2, edge.getSrcPageId());
-                    insert.setString(3, edge.getDstPageId());
-                    insert.setString(4, edge.getDstBlockId());
-                    insert.setString(5, edge.getType());
-                    insert.setString(6, edge.getProps());
-                    insert.setString(7, edge.getCreatedAt().toString());
-                    insert.addBatch();
+        try {
+            write(conn -> {
+                writeEdges(conn, pageId, edges);
+                return null;
+            });
+        } catch (SQLException e) {
+            log.error("保存边失败", e);
+        }
+    }
+
+    @Override
+    public void saveAll(NoteNode node, List<NoteBlock> blocks, List<NoteEdge> edges) {
+        try {
+            write(conn -> {
+                writeNode(conn, node);
+                writeBlocks(conn, node.getId(), blocks);
+                writeEdges(conn, node.getId(), edges);
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new IllegalStateException("保存页面失败: " + node.getId(), e);
+        }
+    }
+
+    @Override
+    public void saveBatch(List<PageData> pages) {
+        try {
+            write(conn -> {
+                for (PageData page : pages) {
+                    writeNode(conn, page.node());
+                    writeBlocks(conn, page.node().getId(), page.blocks());
+                    writeEdges(conn, page.node().getId(), page.edges());
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new IllegalStateException("批量保存页面失败: " + pages.size() + " 页", e);
+        }
+    }
+
+    /**
+     * 写事务失败时边类型字典缓存可能含有已回滚的键，需要一并丢弃。
+     */
+    private <T> T write(SQLiteConnectionManager.SqlWork<T> work) throws SQLException {
+        try {
+            return connections.write(work);
+        } catch (SQLException | RuntimeException e) {
+            edgeKinds.invalidate();
+            throw e;
+        }
+    }
+
+    private void writeNode(PooledConnection conn, NoteNode node) throws SQLException {
+        PreparedStatement ps = conn.prepare("REPLACE INTO note_node(pk, title, aliases, tags, updated_at, content_hash, link_hash) VALUES(?,?,?,?,?,?,?)");
+        long pk = NoteKeys.ensure(conn, node.getId());
+        ps.setLong(1, pk);
+        ps.setString(2, node.getTitle());
+        ps.setString(3, JsonUtils.toJsonArray(node.getAliases()));
+        ps.setString(4, JsonUtils.toJsonArray(node.getTags()));
+        ps.setLong(5, node.getUpdatedAt().toEpochMilli());
+        ps.setLong(6, node.getContentHash());
+        ps.setLong(7, node.getLinkHash());
+        ps.executeUpdate();
+        NoteAliases.replace(conn, pk, node.getTitle(), node.getAliases());
+    }
+
+    /**
+     * 整页替换块。仍然保留的块沿用原整数键，边对它们的引用不受影响；不再出现的块连同键一起删除。
+     */
+    private void writeBlocks(PooledConnection conn, String pageId, List<NoteBlock> blocks) throws SQLException {
+        long pagePk = NoteKeys.ensure(conn, pageId);
+        fts.unindexPage(conn, pagePk);
+        Set<String> kept = new HashSet<>();
+        blocks.forEach(block -> kept.add(block.getId()));
+        List<Long> dropped = new ArrayList<>();
+        PreparedStatement select = conn.prepare("SELECT b.pk, k.ulid FROM note_block b JOIN note_key k ON k.pk = b.pk WHERE b.page_pk = ?");
+        select.setLong(1, pagePk);
+        try (ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                if (!kept.contains(rs.getString(2))) {
+                    dropped.add(rs.getLong(1));
                 }
-                insert.executeBatch();
             }
-            conn.commit();
+        }
+        PreparedStatement delete = conn.prepare("DELETE FROM note_block WHERE page_pk = ?");
+        delete.setLong(1, pagePk);
+        delete.executeUpdate();
+        for (long pk : dropped) {
+            NoteKeys.remove(conn, pk);
+        }
+        for (NoteBlock block : blocks) {
+            insertBlock(conn, pagePk, block);
+        }
+    }
+
+    /**
+     * 写入块并建立全文索引。块已存在时覆盖原行，调用方须先用 {@link #unindexBlock} 移除旧文本的词条。
+     */
+    private void insertBlock(PooledConnection conn, long pagePk, NoteBlock block) throws SQLException {
+        long pk = NoteKeys.ensure(conn, block.getId());
+        PreparedStatement insert = conn.prepare("INSERT INTO note_block(pk, page_pk, text, text_z, anchor, order_no) VALUES(?,?,?,?,?,?) "
+                + "ON CONFLICT(pk) DO UPDATE SET page_pk = excluded.page_pk, text = excluded.text, text_z = excluded.text_z, "
+                + "anchor = excluded.anchor, order_no = excluded.order_no");
+        insert.setLong(1, pk);
+        insert.setLong(2, pagePk);
+        bindText(insert, 3, block.getText());
+        insert.setString(5, block.getAnchor());
+        insert.setInt(6, block.getOrderNo());
+        insert.executeUpdate();
+        fts.index(conn, pk, block.getText());
+    }
+
+    /**
+     * 在 index 与 index + 1 两个位置绑定 text 与 text_z：达到压缩阈值的块只存压缩数据。
+     */
+    private void bindText(PreparedStatement ps, int index, String text) throws SQLException {
+        byte[] compressed = compression.compress(text);
+        if (compressed == null) {
+            ps.setString(index, text);
+            ps.setNull(index + 1, Types.BLOB);
+        } else {
+            ps.setNull(index, Types.VARCHAR);
+            ps.setBytes(index + 1, compressed);
+        }
+    }
+
+    /**
+     * 外部内容表的 FTS5 需要用原文执行 'delete' 命令才能移除词条，因此先取出旧文本。
+     * 返回被移除块的整数键，块不存在时返回 {@link NoteKeys#MISSING}。
+     */
+    private long unindexBlock(PooledConnection conn, String blockId) throws SQLException {
+        long pk = NoteKeys.find(conn, blockId);
+        if (pk == NoteKeys.MISSING) {
+            return pk;
+        }
+        PreparedStatement select = conn.prepare("SELECT text, text_z FROM note_block WHERE pk = ?");
+        select.setLong(1, pk);
+        try (ResultSet rs = select.executeQuery()) {
+            if (!rs.next()) {
+                return NoteKeys.MISSING;
+            }
+            fts.unindex(conn, pk, compression.text(rs.getString(1), rs.getBytes(2)));
+        }
+        return pk;
+    }
+
+    private void writeEdges(PooledConnection conn, String pageId, List<NoteEdge> edges) throws SQLException {
+        PreparedStatement delete = conn.prepare("DELETE FROM note_edge WHERE src_page_pk = ?");
+        delete.setLong(1, NoteKeys.ensure(conn, pageId));
+        delete.executeUpdate();
+        for (NoteEdge edge : edges) {
+            insertEdge(conn, edge);
+        }
+    }
+
+    private void insertEdge(PooledConnection conn, NoteEdge edge) throws SQLException {
+        PreparedStatement insert = conn.prepare("INSERT INTO note_edge(src_block_pk, src_page_pk, dst_page_pk, dst_block_id, kind_pk, created_at) VALUES(?,?,?,?,?,?)");
+        if (edge.getSrcBlockId() == null) {
+            insert.setNull(1, Types.INTEGER);
+        } else {
+            insert.setLong(1, NoteKeys.ensure(conn, edge.getSrcBlockId()));
+        }
+        insert.setLong(2, NoteKeys.ensure(conn, edge.getSrcPageId()));
+        insert.setLong(3, NoteKeys.ensure(conn, edge.getDstPageId()));
+        insert.setString(4, edge.getDstBlockId());
+        insert.setLong(5, edgeKinds.ensure(conn, edge.getType(), edge.getProps()));
+        insert.setLong(6, edge.getCreatedAt().toEpochMilli());
+        insert.executeUpdate();
+    }
+
+    private void deleteEdge(PooledConnection conn, NoteEdge edge) throws SQLException {
+        long srcPage = NoteKeys.find(conn, edge.getSrcPageId());
+        long dstPage = NoteKeys.find(conn, edge.getDstPageId());
+        long srcBlock = NoteKeys.find(conn, edge.getSrcBlockId());
+        long kind = edgeKinds.find(conn, edge.getType(), edge.getProps());
+        if (srcPage == NoteKeys.MISSING || dstPage == NoteKeys.MISSING || kind == NoteKeys.MISSING
+                || (edge.getSrcBlockId() != null && srcBlock == NoteKeys.MISSING)) {
+            return;
+        }
+        PreparedStatement delete = conn.prepare("DELETE FROM note_edge WHERE rowid = (SELECT rowid FROM note_edge WHERE src_page_pk = ? AND src_block_pk IS ? "
+                + "AND dst_page_pk = ? AND dst_block_id IS ? AND kind_pk = ? LIMIT 1)");
+        delete.setLong(1, srcPage);
+        if (edge.getSrcBlockId() == null) {
+            delete.setNull(2, Types.INTEGER);
+        } else {
+            delete.setLong(2, srcBlock);
+        }
+        delete.setLong(3, dstPage);
+        delete.setString(4, edge.getDstBlockId());
+        delete.setLong(5, kind);
+        delete.executeUpdate();
+    }
+
+    @Override
+    public void applyChanges(NoteNode node, PageChangeSet changes) {
+        try {
+            write(conn -> {
+                writeChanges(conn, node, changes);
+                return null;
+            });
         } catch (SQLException e) {
-            log.error("保存边失败", e);
+            throw new IllegalStateException("增量保存页面失败: " + node.getId(), e);
+        }
+    }
+
+    @Override
+    public void applyChangesBatch(List<PageUpdate> updates) {
+        try {
+            write(conn -> {
+                for (PageUpdate update : updates) {
+                    writeChanges(conn, update.node(), update.changes());
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new IllegalStateException("批量增量保存失败: " + updates.size() + " 页", e);
+        }
+    }
+
+    private void writeChanges(PooledConnection conn, NoteNode node, PageChangeSet changes) throws SQLException {
+        writeNode(conn, node);
+        // 先删边：被删除块的键随块一起移除，之后就无法再定位引用它的边。
+        for (NoteEdge edge : changes.removedEdges()) {
+            deleteEdge(conn, edge);
+        }
+        for (String blockId : changes.deletedBlockIds()) {
+            long pk = unindexBlock(conn, blockId);
+            if (pk == NoteKeys.MISSING) {
+                continue;
+            }
+            PreparedStatement delete = conn.prepare("DELETE FROM note_block WHERE pk = ?");
+            delete.setLong(1, pk);
+            delete.executeUpdate();
+            NoteKeys.remove(conn, pk);
+        }
+        long pagePk = NoteKeys.ensure(conn, node.getId());
+        for (NoteBlock block : changes.updatedBlocks()) {
+            long pk = unindexBlock(conn, block.getId());
+            if (pk == NoteKeys.MISSING) {
+                insertBlock(conn, pagePk, block);
+                continue;
+            }
+            PreparedStatement update = conn.prepare("UPDATE note_block SET text = ?, text_z = ?, anchor = ?, order_no = ? WHERE pk = ?");
+            bindText(update, 1, block.getText());
+            update.setString(3, block.getAnchor());
+            update.setInt(4, block.getOrderNo());
+            update.setLong(5, pk);
+            update.executeUpdate();
+            fts.index(conn, pk, block.getText());
+        }
+        for (NoteBlock block : changes.movedBlocks()) {
+            PreparedStatement move = conn.prepare("UPDATE note_block SET order_no = ? WHERE pk = (SELECT pk FROM note_key WHERE ulid = ?)");
+            move.setInt(1, block.getOrderNo());
+            move.setString(2, block.getId());
+            move.executeUpdate();
+        }
+        for (NoteBlock block : changes.insertedBlocks()) {
+            // 增量可能基于过期的读取（绕过 SaveQueue 并发保存同一页，或同一增量重复提交），块已存在时按更新处理。
+            unindexBlock(conn, block.getId());
+            insertBlock(conn, pagePk, block);
+        }
+        for (NoteEdge edge : changes.addedEdges()) {
+            insertEdge(conn, edge);
         }
     }
 
     @Override
     public void removeEdgesBySource(String pageId) {
-        String sql = "DELETE FROM note_edge WHERE src_page_id = ?";
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, pageId);
-            ps.executeUpdate();
+        try {
+            write(conn -> {
+                long pagePk = NoteKeys.find(conn, pageId);
+                if (pagePk != NoteKeys.MISSING) {
+                    PreparedStatement ps = conn.prepare("DELETE FROM note_edge WHERE src_page_pk = ?");
+                    ps.setLong(1, pagePk);
+                    ps.executeUpdate();
+                }
+                return null;
+            });
         } catch (SQLException e) {
             log.error("删除边失败", e);
         }
@@ -251,25 +536,201 @@ public class SQLiteNoteRepository implements NoteRepository {
 
     @Override
     public List<NoteEdge> loadAllEdges() {
-        return queryEdges("SELECT src_block_id, src_page_id, dst_page_id, dst_block_id, type, props, created_at FROM note_edge", null);
+        List<NoteEdge> edges = new ArrayList<>();
+        try (Stream<NoteEdge> stream = streamEdges()) {
+            stream.forEach(edges::add);
+        } catch (IllegalStateException e) {
+            log.error("加载边失败", e);
+        }
+        return edges;
+    }
+
+    @Override
+    public Stream<NoteEdge> streamEdges() {
+        return streamRows(EDGE_COLUMNS, this::mapEdge);
     }
 
     @Override
     public List<SearchHit> search(String keyword) {
-        List<SearchHit> hits = new ArrayList<>();
-        String sql = "SELECT note_block.page_id, note_block.id, snippet(note_block_fts, 0, '<b>', '</b>', '...', 20) AS snippet, bm25(note_block_fts) AS score " +
-                "FROM note_block_fts JOIN note_block ON note_block_fts.rowid = note_block.rowid WHERE note_block_fts MATCH ? ORDER BY score";
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, keyword + "*");
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    hits.add(new SearchHit(rs.getString("page_id"), rs.getString("id"), rs.getString("snippet"), rs.getDouble("score")));
+        try {
+            return connections.read(conn -> fts.search(conn, keyword, Integer.MAX_VALUE, null, false).hits());
+        } catch (SQLException e) {
+            log.error("全文检索失败", e);
+        }
+        return new ArrayList<>();
+    }
+
+    @Override
+    public SearchPage search(String keyword, int limit, String cursor, boolean groupByPage) {
+        try {
+            return connections.read(conn -> fts.search(conn, keyword, limit, cursor, groupByPage));
+        } catch (SQLException e) {
+            log.error("全文检索失败", e);
+        }
+        return new SearchPage(List.of(), null);
+    }
+
+    /**
+     * 设置整库流式读取时每次从驱动取回的行数，只影响之后打开的流。
+     */
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("fetchSize 必须大于 0");
+        }
+        this.fetchSize = fetchSize;
+    }
+
+    public FtsProfile getFtsProfile() {
+        return fts.profile();
+    }
+
+    public boolean isFtsRebuilding() {
+        return fts.isRebuilding();
+    }
+
+    /**
+     * 设置块文本压缩阈值（UTF-8 字节数），之后写入的块达到阈值即压缩存储；0 表示关闭。已压缩的块不受影响。
+     */
+    public void setCompressionThreshold(int bytes) {
+        compression.setThresholdBytes(bytes);
+    }
+
+    public boolean hasCompressionDictionary() {
+        return compression.hasDictionary();
+    }
+
+    public CompressionStats getCompressionStats() {
+        return compression.stats();
+    }
+
+    /**
+     * 从达到阈值的块中抽样训练压缩字典并切换为当前字典。未开启压缩或没有样本时不做任何事，返回 false。
+     */
+    public boolean trainCompressionDictionary() {
+        int threshold = compression.thresholdBytes();
+        if (threshold <= 0) {
+            return false;
+        }
+        try {
+            List<String> samples = new ArrayList<>();
+            connections.read(conn -> {
+                PreparedStatement select = conn.prepare("SELECT " + BlockCompression.TEXT_SQL + " FROM note_block "
+                        + "WHERE length(CAST(" + BlockCompression.TEXT_SQL + " AS BLOB)) >= ? ORDER BY random() LIMIT ?");
+                select.setInt(1, threshold);
+                select.setInt(2, COMPRESSION_SAMPLE_LIMIT);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        samples.add(rs.getString(1));
+                    }
                 }
+                return null;
+            });
+            if (samples.isEmpty()) {
+                return false;
             }
+            byte[] dictionary = BlockCompression.train(samples, BlockCompression.DICTIONARY_BYTES);
+            return write(conn -> {
+                int id = compression.addDictionary(conn.raw(), dictionary);
+                log.info("压缩字典 {} 训练完成，样本 {} 个，字典 {} 字节", id, samples.size(), dictionary.length);
+                return true;
+            });
         } catch (SQLException e) {
-            log.error("全文检索失败", e);
+            log.error("训练压缩字典失败", e);
         }
-        return hits;
+        return false;
+    }
+
+    /**
+     * 把达到阈值但仍以原文存储的块逐批改为压缩存储，每批单独提交，返回转换的块数。
+     * 解压后的原文不变，全文索引无需改动。
+     */
+    public int compressExistingBlocks() {
+        int threshold = compression.thresholdBytes();
+        if (threshold <= 0) {
+            return 0;
+        }
+        int converted = 0;
+        long cursor = 0;
+        try {
+            while (true) {
+                long after = cursor;
+                long[] progress = write(conn -> {
+                    PreparedStatement select = conn.prepare("SELECT pk, text FROM note_block WHERE pk > ? AND text_z IS NULL "
+                            + "AND length(CAST(text AS BLOB)) >= ? ORDER BY pk LIMIT ?");
+                    select.setLong(1, after);
+                    select.setInt(2, threshold);
+                    select.setInt(3, COMPRESSION_BATCH);
+                    List<Long> pks = new ArrayList<>();
+                    List<byte[]> blobs = new ArrayList<>();
+                    long last = after;
+                    try (ResultSet rs = select.executeQuery()) {
+                        while (rs.next()) {
+                            last = rs.getLong(1);
+                            byte[] compressed = compression.compress(rs.getString(2));
+                            if (compressed != null) {
+                                pks.add(last);
+                                blobs.add(compressed);
+                            }
+                        }
+                    }
+                    PreparedStatement update = conn.prepare("UPDATE note_block SET text = NULL, text_z = ? WHERE pk = ?");
+                    for (int i = 0; i < pks.size(); i++) {
+                        update.setBytes(1, blobs.get(i));
+                        update.setLong(2, pks.get(i));
+                        update.executeUpdate();
+                    }
+                    return new long[]{last, pks.size()};
+                });
+                if (progress[0] == cursor) {
+                    break;
+                }
+                cursor = progress[0];
+                converted += (int) progress[1];
+            }
+        } catch (SQLException e) {
+            log.error("压缩已有块失败", e);
+        }
+        return converted;
+    }
+
+    private void scheduleFtsRebuild(long delayMillis) {
+        if (!maintenance.isShutdown()) {
+            maintenance.schedule(this::runFtsRebuildStep, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 每批在写连接上复制少量块后让出写锁，保存操作最多等待一个批次。
+     */
+    private void runFtsRebuildStep() {
+        try {
+            boolean finished = write(conn -> fts.rebuildStep(conn, FTS_REBUILD_BATCH));
+            if (finished) {
+                log.info("全文索引重建完成，当前配置 {}", fts.profile().configName());
+            } else {
+                scheduleFtsRebuild(FTS_REBUILD_PAUSE_MILLIS);
+            }
+        } catch (SQLException e) {
+            log.error("全文索引重建失败，稍后重试", e);
+            scheduleFtsRebuild(FTS_REBUILD_RETRY_MILLIS);
+        }
+    }
+
+    public Path getDatabasePath() {
+        return databasePath;
+    }
+
+    @Override
+    public void close() {
+        maintenance.shutdownNow();
+        try {
+            if (!maintenance.awaitTermination(5, TimeUnit.SECONDS)) {
+                log.warn("后台维护任务未在超时前结束");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        connections.close();
     }
 
     private NoteNode mapNode(ResultSet rs) throws SQLException {
@@ -277,7 +738,25 @@ public class SQLiteNoteRepository implements NoteRepository {
         Set<String> aliases = JsonUtils.fromJsonArray(rs.getString("aliases"));
         aliases.forEach(node::addAlias);
         node.setTags(JsonUtils.fromJsonArray(rs.getString("tags")));
-        node.setUpdatedAt(Instant.parse(Optional.ofNullable(rs.getString("updated_at")).orElse(Instant.now().toString())));
+        node.setUpdatedAt(instant(rs, "updated_at"));
+        node.setContentHash(rs.getLong("content_hash"));
+        node.setLinkHash(rs.getLong("link_hash"));
         return node;
     }
+
+    private NoteEdge mapEdge(ResultSet rs) throws SQLException {
+        return new NoteEdge(
+                rs.getString("src_block_id"),
+                rs.getString("src_page_id"),
+                rs.getString("dst_page_id"),
+                rs.getString("dst_block_id"),
+                rs.getString("type"),
+                rs.getString("props"),
+                instant(rs, "created_at"));
+    }
+
+    private static Instant instant(ResultSet rs, String column) throws SQLException {
+        long millis = rs.getLong(column);
+        return rs.wasNull() ? Instant.now() : Instant.ofEpochMilli(millis);
+    }
 }
@@ -0,0 +1,144 @@
+package com.bidinote.storage;
+
+import com.bidinote.core.model.NoteBlock;
+import com.bidinote.core.model.NoteEdge;
+import com.bidinote.core.model.NoteNode;
+import com.bidinote.core.model.PageChangeSet;
+import com.bidinote.core.repository.NoteRepository;
+import com.bidinote.core.repository.NoteRepository.PageData;
+import com.bidinote.core.repository.NoteRepository.PageUpdate;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 所有 NoteRepository 实现都必须满足的行为，包括关闭后重新打开仍能读到已写入的内容。
+ */
+public abstract class NoteRepositoryContractTest<R extends NoteRepository & AutoCloseable> {
+    @TempDir
+    protected Path dir;
+    protected R repository;
+
+    protected abstract R open(Path dir);
+
+    @BeforeEach
+    void openRepository() {
+        repository = open(dir);
+    }
+
+    @AfterEach
+    void closeRepository() throws Exception {
+        repository.close();
+    }
+
+    protected void reopen() throws Exception {
+        repository.close();
+        repository = open(dir);
+    }
+
+    @Test
+    void savedPageSurvivesReopen() throws Exception {
+        NoteNode page = new NoteNode("P1", "第一页");
+        page.addAlias("First");
+        page.setContentHash(42);
+        page.setLinkHash(-7);
+        repository.saveAll(page, List.of(block("P1", "b1", "hello contract world", 0), block("P1", "b2", "第二段", 1)),
+                List.of(edge("P1", "b1", "P2")));
+        reopen();
+        NoteNode loaded = repository.findNodeById("P1").orElseThrow();
+        assertEquals("第一页", loaded.getTitle());
+        assertEquals(List.of("First"), List.copyOf(loaded.getAliases()));
+        assertEquals(42, loaded.getContentHash());
+        assertEquals(-7, loaded.getLinkHash());
+        assertEquals(List.of("b1", "b2"), repository.findBlocksByPageId("P1").stream().map(NoteBlock::getId).toList());
+        assertEquals(List.of(edge("P1", "b1", "P2")), repository.findEdgesByPageId("P1"));
+        assertEquals(1, repository.findEdgesByTarget("P2").size());
+        assertEquals(1, repository.loadAllEdges().size());
+        try (Stream<NoteNode> nodes = repository.streamNodes()) {
+            assertEquals(1, nodes.count());
+        }
+    }
+
+    @Test
+    void titleAndAliasLookupIsNormalized() {
+        NoteNode readme = new NoteNode("R", "Ｒｅａｄｍｅ");
+        readme.addAlias("Intro");
+        repository.saveNode(readme);
+        repository.saveNode(new NoteNode("X", "intro"));
+        assertEquals("R", repository.findNodeByTitle("Ｒｅａｄｍｅ").orElseThrow().getId());
+        assertTrue(repository.findNodeByTitle("readme").isEmpty());
+        assertEquals(List.of("R"), repository.findNodesByTitleOrAlias("README").stream().map(NoteNode::getId).toList());
+        assertEquals(List.of("X", "R"), repository.findNodesByTitleOrAlias("INTRO").stream().map(NoteNode::getId).toList());
+
+        readme.setTitle("Guide");
+        readme.clearAliases();
+        repository.saveNode(readme);
+        assertTrue(repository.findNodesByTitleOrAlias("readme").isEmpty());
+        assertEquals(List.of("X"), repository.findNodesByTitleOrAlias("intro").stream().map(NoteNode::getId).toList());
+    }
+
+    @Test
+    void appliedChangesMatchFullSave() throws Exception {
+        NoteNode page = new NoteNode("P1", "页面");
+        List<NoteBlock> before = List.of(block("P1", "b1", "保留", 0), block("P1", "b2", "删除", 1));
+        List<NoteEdge> edgesBefore = List.of(edge("P1", "b2", "P2"));
+        repository.saveAll(page, before, edgesBefore);
+        List<NoteBlock> after = List.of(block("P1", "b3", "新增", 0), block("P1", "b1", "保留", 1));
+        List<NoteEdge> edgesAfter = List.of(edge("P1", "b3", "P3"));
+        repository.applyChanges(page, PageChangeSet.between(before, after, edgesBefore, edgesAfter));
+        reopen();
+        assertEquals(List.of("b3", "b1"), repository.findBlocksByPageId("P1").stream().map(NoteBlock::getId).toList());
+        assertEquals(edgesAfter, repository.findEdgesByPageId("P1"));
+        assertTrue(repository.findEdgesByTarget("P2").isEmpty());
+        assertEquals(1, repository.findEdgesByTarget("P3").size());
+    }
+
+    @Test
+    void batchesAreWrittenTogether() throws Exception {
+        NoteNode a = new NoteNode("A", "甲");
+        NoteNode b = new NoteNode("B", "乙");
+        repository.saveBatch(List.of(new PageData(a, List.of(block("A", "a1", "甲正文", 0)), List.of(edge("A", "a1", "B"))),
+                new PageData(b, List.of(block("B", "b1", "乙正文", 0)), List.of())));
+        List<NoteBlock> aBlocks = List.of(block("A", "a1", "甲正文已改", 0));
+        repository.applyChangesBatch(List.of(new PageUpdate(a, PageChangeSet.between(
+                repository.findBlocksByPageId("A"), aBlocks, repository.findEdgesByPageId("A"), List.of()))));
+        reopen();
+        assertEquals(2, repository.loadAllNodes().size());
+        assertEquals("甲正文已改", repository.findBlocksByPageId("A").get(0).getText());
+        assertTrue(repository.findEdgesByTarget("B").isEmpty());
+        assertEquals(1, repository.findBlocksByPageId("B").size());
+    }
+
+    @Test
+    void removingSourceEdgesClearsBacklinks() {
+        repository.saveAll(new NoteNode("A", "甲"), List.of(block("A", "a1", "x", 0)), List.of(edge("A", "a1", "B"), edge("A", null, "C")));
+        repository.removeEdgesBySource("A");
+        assertTrue(repository.findEdgesByPageId("A").isEmpty());
+        assertTrue(repository.findEdgesByTarget("B").isEmpty());
+        assertTrue(repository.loadAllEdges().isEmpty());
+    }
+
+    @Test
+    void searchFindsBlockText() {
+        repository.saveAll(new NoteNode("A", "甲"), List.of(block("A", "a1", "hello contract world", 0), block("A", "a2", "nothing here", 1)), List.of());
+        List<NoteRepository.SearchHit> hits = repository.search("contract");
+        assertEquals(1, hits.size());
+        assertEquals("a1", hits.get(0).blockId());
+        assertEquals("A", hits.get(0).pageId());
+    }
+
+    protected static NoteBlock block(String pageId, String id, String text, int orderNo) {
+        return new NoteBlock(id, pageId, text, null, orderNo);
+    }
+
+    protected static NoteEdge edge(String srcPageId, String srcBlockId, String dstPageId) {
+        return new NoteEdge(srcBlockId, srcPageId, dstPageId, null, "link", null, null);
+    }
+}
@@ -0,0 +1,163 @@
+package com.bidinote.storage.log;
+
+import com.bidinote.core.model.NoteBlock;
+import com.bidinote.core.model.NoteEdge;
+import com.bidinote.core.model.NoteNode;
+import com.bidinote.core.model.PageChangeSet;
+import com.bidinote.storage.NoteRepositoryContractTest;
+import com.bidinote.storage.sqlite.SQLiteNoteRepository;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogStructuredNoteRepositoryTest extends NoteRepositoryContractTest<LogStructuredNoteRepository> {
+    @Override
+    protected LogStructuredNoteRepository open(Path dir) {
+        return new LogStructuredNoteRepository(dir.resolve("log"));
+    }
+
+    @Test
+    void tornTailIsDiscardedOnReopen() throws Exception {
+        repository.saveNode(new NoteNode("A", "甲"));
+        repository.close();
+        Files.write(dir.resolve("log").resolve(LogStructuredNoteRepository.LOG_FILE), new byte[]{0, 0, 1, 0, 7, 7}, StandardOpenOption.APPEND);
+        repository = open(dir);
+        assertEquals("甲", repository.findNodeById("A").orElseThrow().getTitle());
+        repository.saveNode(new NoteNode("B", "乙"));
+        reopen();
+        assertEquals(2, repository.loadAllNodes().size());
+    }
+
+    @Test
+    void snapshotAndLogReloadTogether() throws Exception {
+        repository.saveAll(new NoteNode("A", "甲"), List.of(block("A", "a1", "快照前", 0)), List.of(edge("A", "a1", "B")));
+        repository.compact();
+        assertEquals(0, Files.size(dir.resolve("log").resolve(LogStructuredNoteRepository.LOG_FILE)));
+        repository.saveAll(new NoteNode("B", "乙"), List.of(block("B", "b1", "快照后", 0)), List.of());
+        reopen();
+        assertEquals(2, repository.loadAllNodes().size());
+        assertEquals("快照前", repository.findBlocksByPageId("A").get(0).getText());
+        assertEquals(1, repository.findEdgesByTarget("B").size());
+    }
+
+    @Test
+    void mirrorReceivesWritesAndServesSearch() throws Exception {
+        try (SQLiteNoteRepository sqlite = new SQLiteNoteRepository(dir.resolve("mirror.db"))) {
+            try (LogStructuredNoteRepository mirrored = new LogStructuredNoteRepository(dir.resolve("mirrored"), sqlite)) {
+                mirrored.saveAll(new NoteNode("A", "甲"), List.of(block("A", "a1", "mirrored keyword", 0)), List.of(edge("A", "a1", "B")));
+                mirrored.awaitMirror();
+                assertEquals("甲", sqlite.findNodeById("A").orElseThrow().getTitle());
+                assertEquals(1, sqlite.findEdgesByTarget("B").size());
+                assertEquals("a1", mirrored.search("keyword").get(0).blockId());
+            }
+        }
+    }
+
+    @Test
+    void deltaSavesAreLoggedAndMirroredAsChanges() throws Exception {
+        AtomicInteger deltas = new AtomicInteger();
+        Path logDir = dir.resolve("mirrored");
+        List<NoteBlock> before = List.of(block("A", "a1", "first", 0), block("A", "a2", "second", 1), block("A", "a3", "third", 2));
+        List<NoteBlock> after = List.of(block("A", "a1", "first edited", 0), block("A", "a3", "third", 1), block("A", "a4", "fourth", 2));
+        List<NoteEdge> edgesBefore = List.of(edge("A", "a1", "B"), edge("A", "a2", "C"));
+        List<NoteEdge> edgesAfter = List.of(edge("A", "a1", "B"), edge("A", "a4", "D"));
+        try (SQLiteNoteRepository sqlite = new SQLiteNoteRepository(dir.resolve("mirror.db")) {
+            @Override
+            public void applyChangesBatch(List<PageUpdate> updates) {
+                deltas.addAndGet(updates.size());
+                super.applyChangesBatch(updates);
+            }
+        }) {
+            try (LogStructuredNoteRepository mirrored = new LogStructuredNoteRepository(logDir, sqlite)) {
+                mirrored.saveAll(new NoteNode("A", "甲"), before, edgesBefore);
+                mirrored.applyChanges(new NoteNode("A", "甲"), PageChangeSet.between(before, after, edgesBefore, edgesAfter));
+                mirrored.awaitMirror();
+                assertEquals(1, deltas.get());
+                assertEquals(List.of("a1", "a3", "a4"), sqlite.findBlocksByPageId("A").stream().map(NoteBlock::getId).toList());
+                assertEquals("first edited", sqlite.findBlocksByPageId("A").get(0).getText());
+                assertEquals(List.of("B", "D"), sqlite.findEdgesByPageId("A").stream().map(NoteEdge::getDstPageId).sorted().toList());
+            }
+
+            List<PageOp> ops = new ArrayList<>();
+            try (OpLog opLog = new OpLog(logDir.resolve(LogStructuredNoteRepository.LOG_FILE), false)) {
+                opLog.replay(entry -> ops.addAll(entry.ops()));
+            }
+            assertEquals(2, ops.size());
+            assertTrue(ops.get(1).isDelta());
+            assertNull(ops.get(1).blocks());
+            assertEquals(List.of("a2"), ops.get(1).changes().deletedBlockIds());
+            assertEquals(List.of("a3"), ops.get(1).changes().movedBlocks().stream().map(NoteBlock::getId).toList());
+
+            // 镜像序号落在增量之前（镜像已提交、序号未写入时崩溃）：启动补齐按整页写入，边不会重复。
+            Files.writeString(logDir.resolve(LogStructuredNoteRepository.MIRROR_FILE), "1");
+            try (LogStructuredNoteRepository reopened = new LogStructuredNoteRepository(logDir, sqlite)) {
+                reopened.awaitMirror();
+                assertEquals(List.of("a1", "a3", "a4"), reopened.findBlocksByPageId("A").stream().map(NoteBlock::getId).toList());
+                assertEquals(2, reopened.findEdgesByPageId("A").size());
+                assertEquals(1, deltas.get());
+                assertEquals(List.of("B", "D"), sqlite.findEdgesByPageId("A").stream().map(NoteEdge::getDstPageId).sorted().toList());
+                assertEquals("2", Files.readString(logDir.resolve(LogStructuredNoteRepository.MIRROR_FILE)));
+            }
+        }
+    }
+
+    @Test
+    void mirrorPausesAfterFailureAndResumesFromFailedEntry() throws Exception {
+        AtomicBoolean broken = new AtomicBoolean();
+        AtomicInteger failures = new AtomicInteger();
+        Path logDir = dir.resolve("mirrored");
+        Path mirrorFile = logDir.resolve(LogStructuredNoteRepository.MIRROR_FILE);
+        try (SQLiteNoteRepository sqlite = new SQLiteNoteRepository(dir.resolve("mirror.db")) {
+            @Override
+            public void saveBatch(List<PageData> pages) {
+                failIfBroken();
+                super.saveBatch(pages);
+            }
+
+            @Override
+            public void applyChangesBatch(List<PageUpdate> updates) {
+                failIfBroken();
+                super.applyChangesBatch(updates);
+            }
+
+            private void failIfBroken() {
+                if (broken.get()) {
+                    failures.incrementAndGet();
+                    throw new IllegalStateException("镜像不可用");
+                }
+            }
+        }; LogStructuredNoteRepository mirrored = new LogStructuredNoteRepository(logDir, sqlite)) {
+            List<NoteBlock> before = List.of(block("A", "a1", "one", 0));
+            mirrored.saveAll(new NoteNode("A", "甲"), before, List.of());
+            mirrored.awaitMirror();
+
+            broken.set(true);
+            List<NoteBlock> after = List.of(block("A", "a1", "one two", 0), block("A", "a2", "three", 1));
+            mirrored.applyChanges(new NoteNode("A", "甲"), PageChangeSet.between(before, after, List.of(), List.of()));
+            mirrored.saveAll(new NoteNode("B", "乙"), List.of(block("B", "b1", "later", 0)), List.of());
+            mirrored.awaitMirror();
+            // 失败的记录之后的写入排队等待，不越过它写入镜像。
+            assertEquals(1, failures.get());
+            assertTrue(sqlite.findNodeById("B").isEmpty());
+            assertEquals("1", Files.readString(mirrorFile));
+
+            broken.set(false);
+            long deadline = System.nanoTime() + 10_000_000_000L;
+            while (sqlite.findNodeById("B").isEmpty()) {
+                assertTrue(System.nanoTime() < deadline, "镜像未恢复");
+                Thread.sleep(20);
+            }
+            mirrored.awaitMirror();
+            assertEquals(List.of("one two", "three"), sqlite.findBlocksByPageId("A").stream().map(NoteBlock::getText).toList());
+            assertEquals("3", Files.readString(mirrorFile));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.bidinote.storage.sqlite;
+
+import com.bidinote.core.model.NoteBlock;
+import com.bidinote.core.model.NoteNode;
+import com.bidinote.storage.sqlite.BackupService.BackupPolicy;
+import com.bidinote.storage.sqlite.BackupService.BackupResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BackupServiceTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void liveBackupRunsAlongsideWriterAndOpensAsPlainDatabase() throws Exception {
+        Path database = dir.resolve("notes.db");
+        Path backups = dir.resolve("backups");
+        String text = "备份测试的正文内容。".repeat(100);
+        AtomicInteger written = new AtomicInteger();
+        AtomicInteger duringBackup = new AtomicInteger();
+        AtomicBoolean backingUp = new AtomicBoolean();
+        AtomicBoolean stop = new AtomicBoolean();
+        try (SQLiteNoteRepository repository = new SQLiteNoteRepository(database)) {
+            for (int i = 0; i < 200; i++) {
+                save(repository, "P" + i, text);
+            }
+            written.set(200);
+            Thread writer = new Thread(() -> {
+                while (!stop.get()) {
+                    save(repository, "P" + written.get(), text);
+                    written.incrementAndGet();
+                    if (backingUp.get()) {
+                        duringBackup.incrementAndGet();
+                    }
+                }
+            });
+            writer.start();
+            BackupResult result;
+            // 每步只复制一页并暂停，保证备份期间写线程有机会提交。
+            try (BackupService backup = new BackupService(database, backups, new BackupPolicy(1, Duration.ofMillis(2), 7, 30))) {
+                backingUp.set(true);
+                result = backup.backupNow();
+                backingUp.set(false);
+            } finally {
+                stop.set(true);
+                writer.join();
+            }
+
+            assertTrue(duringBackup.get() > 0, "备份期间写入被阻塞");
+            assertTrue(result.pages() > 1);
+            assertTrue(Files.exists(result.file()));
+            assertFalse(Files.exists(Path.of(result.file() + "-wal")));
+            try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + result.file()); Statement st = conn.createStatement()) {
+                try (ResultSet rs = st.executeQuery("PRAGMA journal_mode")) {
+                    rs.next();
+                    assertEquals("delete", rs.getString(1));
+                }
+                try (ResultSet rs = st.executeQuery("SELECT count(*) FROM note_node")) {
+                    rs.next();
+                    int copied = rs.getInt(1);
+                    assertTrue(copied >= 200 && copied <= written.get(), "副本页面数 " + copied);
+                }
+            }
+        }
+        try (SQLiteNoteRepository copy = new SQLiteNoteRepository(onlyBackup(backups))) {
+            assertEquals(text, copy.findBlocksByPageId("P199").get(0).getText());
+            assertFalse(copy.search("备份测试").isEmpty());
+        }
+    }
+
+    @Test
+    void pruneKeepsLatestAndLastBackupOfRecentDays() throws Exception {
+        Path backups = Files.createDirectories(dir.resolve("backups"));
+        List<String> stamps = List.of("20240105-200000", "20240105-100000", "20240104-180000", "20240104-090000",
+                "20240103-120000", "20240103-080000", "20240102-230000", "20240101-230000");
+        for (String stamp : stamps) {
+            Files.createFile(backups.resolve("notes-" + stamp + ".db"));
+        }
+        Files.createFile(backups.resolve("other-20240101-000000.db"));
+        try (BackupService backup = new BackupService(dir.resolve("notes.db"), backups, new BackupPolicy(256, Duration.ZERO, 2, 3))) {
+            backup.prune();
+            assertEquals(List.of("notes-20240105-200000.db", "notes-20240105-100000.db", "notes-20240104-180000.db",
+                    "notes-20240103-120000.db"), backup.listBackups().stream().map(file -> file.getFileName().toString()).toList());
+        }
+        // 不属于本库的文件不受影响。
+        assertTrue(Files.exists(backups.resolve("other-20240101-000000.db")));
+    }
+
+    @Test
+    void failedBackupLeavesNoPartFile() throws Exception {
+        Path database = dir.resolve("broken.db");
+        Path backups = dir.resolve("backups");
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + database); Statement st = conn.createStatement()) {
+            st.execute("CREATE TABLE t (x TEXT)");
+            try (PreparedStatement ps = conn.prepareStatement("INSERT INTO t VALUES (?)")) {
+                for (int i = 0; i < 50; i++) {
+                    ps.setString(1, "row " + i + " " + "x".repeat(1000));
+                    ps.executeUpdate();
+                }
+            }
+        }
+        // 第 1 页（sqlite_master）完好，表的根页被写坏：读事务能打开，复制后的副本过不了 quick_check。
+        try (RandomAccessFile file = new RandomAccessFile(database.toFile(), "rw")) {
+            byte[] garbage = new byte[4096];
+            Arrays.fill(garbage, (byte) 0x5A);
+            file.seek(4096);
+            file.write(garbage);
+        }
+        try (BackupService backup = new BackupService(database, backups, new BackupPolicy(4, Duration.ZERO, 7, 30))) {
+            assertThrows(IllegalStateException.class, backup::backupNow);
+            assertTrue(backup.listBackups().isEmpty());
+        }
+        try (Stream<Path> files = Files.list(backups)) {
+            Set<String> left = files.map(file -> file.getFileName().toString()).collect(Collectors.toSet());
+            assertTrue(left.isEmpty(), "残留文件 " + left);
+        }
+    }
+
+    private static void save(SQLiteNoteRepository repository, String id, String text) {
+        repository.saveAll(new NoteNode(id, "页面 " + id), List.of(new NoteBlock(id + "-b", id, text, null, 0)), List.of());
+    }
+
+    private static Path onlyBackup(Path backups) throws Exception {
+        try (Stream<Path> files = Files.list(backups)) {
+            List<Path> all = files.toList();
+            assertEquals(1, all.size(), "备份目录 " + all);
+            return all.get(0);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.bidinote.storage.sqlite;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SQLiteConnectionManagerTest {
+    @TempDir
+    Path dir;
+    SQLiteConnectionManager connections;
+
+    @BeforeEach
+    void open() throws SQLException {
+        connections = new SQLiteConnectionManager(dir.resolve("pool.db"), 2);
+        connections.withWriter(conn -> {
+            try (Statement st = conn.raw().createStatement()) {
+                st.execute("PRAGMA journal_mode=WAL");
+                st.execute("CREATE TABLE item (id INTEGER PRIMARY KEY, name TEXT)");
+            }
+            return null;
+        });
+    }
+
+    @AfterEach
+    void close() {
+        connections.close();
+    }
+
+    @Test
+    void concurrentWritesAreSerializedWithoutBusyErrors() throws Exception {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                tasks.add(pool.submit(() -> {
+                    for (int i = 0; i < 50; i++) {
+                        int row = i;
+                        connections.write(conn -> {
+                            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                            insert(conn, "t" + thread + "-" + row);
+                            active.decrementAndGet();
+                            return null;
+                        });
+                        // 读连接与写事务并行，WAL 下互不阻塞。
+                        assertTrue(count() >= 1);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                // 任一线程遇到 SQLITE_BUSY 都会在这里抛出。
+                task.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, maxActive.get());
+        assertEquals(400, count());
+    }
+
+    @Test
+    void nestedWriteJoinsOuterTransaction() throws Exception {
+        assertThrows(IllegalStateException.class, () -> connections.write(conn -> {
+            insert(conn, "outer");
+            connections.write(inner -> {
+                assertSame(conn, inner);
+                insert(inner, "inner");
+                return null;
+            });
+            // 内层返回时没有提交，外层失败后两行一起回滚。
+            throw new IllegalStateException("回滚");
+        }));
+        assertEquals(0, count());
+
+        connections.write(conn -> {
+            insert(conn, "outer");
+            return connections.write(inner -> insert(inner, "inner"));
+        });
+        assertEquals(2, count());
+    }
+
+    @Test
+    void readOnWriterThreadSeesUncommittedRows() throws Exception {
+        CountDownLatch inserted = new CountDownLatch(1);
+        CountDownLatch checked = new CountDownLatch(1);
+        AtomicInteger seenByOtherThread = new AtomicInteger(-1);
+        Thread reader = new Thread(() -> {
+            try {
+                inserted.await();
+                seenByOtherThread.set(count());
+            } catch (Exception e) {
+                seenByOtherThread.set(-2);
+            } finally {
+                checked.countDown();
+            }
+        });
+        reader.start();
+        connections.write(conn -> {
+            insert(conn, "pending");
+            assertEquals(1, count());
+            inserted.countDown();
+            try {
+                assertTrue(checked.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new SQLException(e);
+            }
+            return null;
+        });
+        reader.join();
+        // 其他线程从读连接读取，看不到尚未提交的行，也不会被写事务阻塞。
+        assertEquals(0, seenByOtherThread.get());
+        assertEquals(1, count());
+    }
+
+    @Test
+    void streamClosedEarlyReturnsReaderToPool() throws Exception {
+        connections.write(conn -> {
+            for (int i = 0; i < 100; i++) {
+                insert(conn, "row" + i);
+            }
+            return null;
+        });
+        // 次数多于读连接数：任何一次没有归还，后面的借用都会等到超时。
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (int i = 0; i < 5; i++) {
+                try (Stream<String> names = connections.stream("SELECT name FROM item ORDER BY id", 10, rs -> rs.getString(1))) {
+                    assertEquals("row0", names.findFirst().orElseThrow());
+                }
+            }
+            assertThrows(SQLException.class, () -> connections.stream("SELECT missing FROM item", 10, rs -> rs.getString(1)));
+            assertThrows(SQLException.class, () -> connections.stream("SELECT missing FROM item", 10, rs -> rs.getString(1)));
+            assertEquals(100, count());
+        });
+    }
+
+    @Test
+    void streamOnWriterThreadReadsThroughWriter() throws Exception {
+        connections.write(conn -> {
+            insert(conn, "pending");
+            try (Stream<String> names = connections.stream("SELECT name FROM item", 10, rs -> rs.getString(1))) {
+                assertEquals(List.of("pending"), names.toList());
+            }
+            return null;
+        });
+        assertEquals(1, count());
+    }
+
+    private int count() throws SQLException {
+        return connections.read(conn -> {
+            try (ResultSet rs = conn.prepare("SELECT count(*) FROM item").executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        });
+    }
+
+    private static Void insert(SQLiteConnectionManager.PooledConnection conn, String name) throws SQLException {
+        PreparedStatement ps = conn.prepare("INSERT INTO item(name) VALUES(?)");
+        ps.setString(1, name);
+        ps.executeUpdate();
+        return null;
+    }
+}
@@ -0,0 +1,336 @@
+package com.bidinote.storage.sqlite;
+
+import com.bidinote.core.model.NoteBlock;
+import com.bidinote.core.model.NoteEdge;
+import com.bidinote.core.model.NoteNode;
+import com.bidinote.core.model.PageChangeSet;
+import com.bidinote.core.repository.NoteRepository.PageUpdate;
+import com.bidinote.core.repository.NoteRepository.SearchHit;
+import com.bidinote.core.repository.NoteRepository.SearchPage;
+import com.bidinote.core.util.CjkBigramSegmenter;
+import com.bidinote.storage.NoteRepositoryContractTest;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SQLiteNoteRepositoryTest extends NoteRepositoryContractTest<SQLiteNoteRepository> {
+    /**
+     * 第一版发布时的表结构，迁移测试从它开始。
+     */
+    private static final List<String> V1_SCHEMA = List.of(
+            "CREATE TABLE note_node (id TEXT PRIMARY KEY, title TEXT NOT NULL, aliases TEXT, tags TEXT, updated_at TEXT)",
+            "CREATE TABLE note_block (id TEXT PRIMARY KEY, page_id TEXT NOT NULL, text TEXT, anchor TEXT, order_no INTEGER)",
+            "CREATE TABLE note_edge (src_block_id TEXT, src_page_id TEXT NOT NULL, dst_page_id TEXT NOT NULL, dst_block_id TEXT, "
+                    + "type TEXT, props TEXT, created_at TEXT)",
+            "CREATE INDEX idx_note_edge_dst ON note_edge(dst_page_id)",
+            "CREATE INDEX idx_note_edge_src ON note_edge(src_page_id)",
+            "CREATE INDEX idx_note_edge_type ON note_edge(type)",
+            "CREATE INDEX idx_note_block_order ON note_block(page_id, order_no)",
+            "CREATE VIRTUAL TABLE note_block_fts USING fts5(text, content='note_block', content_rowid='rowid')");
+
+    @Override
+    protected SQLiteNoteRepository open(Path dir) {
+        return new SQLiteNoteRepository(dir.resolve("notes.db"));
+    }
+
+    @Test
+    void compressedBlocksReadAndSearchLikePlainText() throws Exception {
+        String longText = "项目周报：本周完成了检索模块的重构。".repeat(40) + " needle";
+        repository.saveAll(new NoteNode("A", "甲"), List.of(block("A", "a1", longText, 0)), List.of());
+        repository.setCompressionThreshold(256);
+        assertTrue(repository.trainCompressionDictionary());
+        assertEquals(1, repository.compressExistingBlocks());
+        repository.saveAll(new NoteNode("B", "乙"), List.of(block("B", "b1", longText.replace("needle", "haystack"), 0),
+                block("B", "b2", "short needle", 1)), List.of());
+
+        SQLiteNoteRepository.CompressionStats stats = repository.getCompressionStats();
+        assertEquals(2, stats.blocksCompressed());
+        assertTrue(stats.ratio() > 2, "压缩比 " + stats.ratio());
+        reopen();
+        assertEquals(longText, repository.findBlocksByPageId("A").get(0).getText());
+        List<SearchHit> hits = repository.search("needle");
+        assertEquals(List.of("a1", "b2"), hits.stream().map(SearchHit::blockId).sorted().toList());
+        assertTrue(hits.stream().allMatch(hit -> hit.snippet().contains("needle")));
+
+        List<NoteBlock> before = repository.findBlocksByPageId("A");
+        List<NoteBlock> after = List.of(block("A", "a1", longText.replace("needle", "thread"), 0));
+        repository.applyChanges(new NoteNode("A", "甲"), PageChangeSet.between(before, after, List.of(), List.of()));
+        assertTrue(repository.search("needle").stream().noneMatch(hit -> hit.blockId().equals("a1")));
+        assertEquals("a1", repository.search("thread").get(0).blockId());
+    }
+
+    @Test
+    void staleDeltaReinsertingExistingBlockActsAsUpdate() {
+        List<NoteBlock> before = List.of(block("A", "a1", "first", 0));
+        List<NoteBlock> after = List.of(block("A", "a1", "first", 0), block("A", "a2", "inserted needle", 1));
+        repository.saveAll(new NoteNode("A", "甲"), before, List.of());
+        PageChangeSet changes = PageChangeSet.between(before, after, List.of(), List.of());
+        repository.applyChanges(new NoteNode("A", "甲"), changes);
+        // 两次保存都基于写入前读到的内容计算增量，第二次插入的块已经存在。
+        repository.applyChanges(new NoteNode("A", "甲"), changes);
+        List<NoteBlock> stale = List.of(block("A", "a1", "first", 0), block("A", "a2", "inserted haystack", 1));
+        repository.applyChangesBatch(List.of(new PageUpdate(new NoteNode("A", "甲"), PageChangeSet.between(before, stale, List.of(), List.of()))));
+
+        assertEquals(List.of("a1", "a2"), repository.findBlocksByPageId("A").stream().map(NoteBlock::getId).toList());
+        assertEquals("inserted haystack", repository.findBlocksByPageId("A").get(1).getText());
+        assertTrue(repository.search("needle").isEmpty());
+        assertEquals(List.of("a2"), repository.search("haystack").stream().map(SearchHit::blockId).toList());
+    }
+
+    @Test
+    void streamsClosedEarlyReleaseTheirConnections() {
+        for (int i = 0; i < 20; i++) {
+            repository.saveAll(new NoteNode("P" + i, "页面" + i), List.of(block("P" + i, "b" + i, "text " + i, 0)), List.of(edge("P" + i, "b" + i, "P0")));
+        }
+        // 读连接最多 4 个，未归还的流会让之后的读取等到超时。
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (int i = 0; i < 10; i++) {
+                try (Stream<NoteNode> nodes = repository.streamNodes()) {
+                    assertTrue(nodes.findFirst().isPresent());
+                }
+                try (Stream<NoteEdge> edges = repository.streamEdges()) {
+                    assertEquals(3, edges.limit(3).count());
+                }
+            }
+            assertEquals(20, repository.loadAllNodes().size());
+            assertEquals(20, repository.findEdgesByTarget("P0").size());
+        });
+    }
+
+    @Test
+    void cjkBigramProfileFindsTwoCharacterWords() {
+        try (SQLiteNoteRepository cjk = new SQLiteNoteRepository(dir.resolve("cjk.db"), FtsProfile.CJK_BIGRAM)) {
+            cjk.saveAll(new NoteNode("A", "甲"), List.of(block("A", "a1", "今天讨论检索模块的重构", 0), block("A", "a2", "午饭吃什么", 1)), List.of());
+            assertEquals(FtsProfile.CJK_BIGRAM, cjk.getFtsProfile());
+            assertEquals(List.of("a1"), cjk.search("检索").stream().map(SearchHit::blockId).toList());
+            assertEquals(List.of("a1"), cjk.search("模块的重构").stream().map(SearchHit::blockId).toList());
+            assertTrue(cjk.search("检索").get(0).snippet().contains("<b>检索</b>"));
+        }
+    }
+
+    @Test
+    void trigramProfileFallsBackToLikeForShortKeywords() {
+        try (SQLiteNoteRepository trigram = new SQLiteNoteRepository(dir.resolve("trigram.db"), FtsProfile.TRIGRAM)) {
+            trigram.saveAll(new NoteNode("A", "甲"), List.of(block("A", "a1", "release 检索 notes", 0), block("A", "a2", "100% done", 1)), List.of());
+            // 少于 3 个字走 LIKE，得分固定为 0；% 按字面匹配。
+            List<SearchHit> shortHits = trigram.search("检索");
+            assertEquals(List.of("a1"), shortHits.stream().map(SearchHit::blockId).toList());
+            assertEquals(0.0, shortHits.get(0).score());
+            assertEquals(List.of("a2"), trigram.search("0%").stream().map(SearchHit::blockId).toList());
+            assertTrue(trigram.search("检查").isEmpty());
+            assertEquals(List.of("a1"), trigram.search("lease").stream().map(SearchHit::blockId).toList());
+        }
+    }
+
+    @Test
+    void profileSwitchRebuildsIntoNextTableAndResumesFromCursor() throws Exception {
+        Path path = dir.resolve("switch.db");
+        try (SQLiteNoteRepository plain = new SQLiteNoteRepository(path, FtsProfile.UNICODE61)) {
+            plain.saveAll(new NoteNode("A", "甲"), List.of(block("A", "a1", "第一段讨论检索", 0), block("A", "a2", "第二段讨论检索", 1),
+                    block("A", "a3", "第三段讨论检索", 2)), List.of());
+            assertTrue(plain.search("检索").isEmpty());
+        }
+        // 模拟登记重建后只完成了第一批就退出：next 表中只有第一块，游标停在它的 rowid。
+        // 第一块故意写入不同的词，续建若从头复制会因 rowid 重复而失败，也就搜不到这个词。
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + path)) {
+            new DatabaseInitializer().init(conn, FtsProfile.CJK_BIGRAM);
+            assertTrue(DatabaseInitializer.tableExists(conn, DatabaseInitializer.FTS_NEXT_TABLE));
+            assertEquals("cjk_bigram", AppMeta.get(conn, AppMeta.FTS_REBUILD_TARGET).orElseThrow());
+            assertEquals("0", AppMeta.get(conn, AppMeta.FTS_REBUILD_CURSOR).orElseThrow());
+            long first = firstBlockRowId(conn);
+            try (PreparedStatement ps = conn.prepareStatement("INSERT INTO " + DatabaseInitializer.FTS_NEXT_TABLE + "(rowid, text) VALUES (?, ?)")) {
+                ps.setLong(1, first);
+                ps.setString(2, CjkBigramSegmenter.segment("断点之前"));
+                ps.executeUpdate();
+            }
+            AppMeta.put(conn, AppMeta.FTS_REBUILD_CURSOR, Long.toString(first));
+        }
+        try (SQLiteNoteRepository switched = new SQLiteNoteRepository(path, FtsProfile.CJK_BIGRAM)) {
+            awaitFtsRebuild(switched, path);
+            assertEquals(FtsProfile.CJK_BIGRAM, switched.getFtsProfile());
+            assertEquals(List.of("a1"), switched.search("断点").stream().map(SearchHit::blockId).toList());
+            assertEquals(List.of("a2", "a3"), switched.search("检索").stream().map(SearchHit::blockId).sorted().toList());
+            switched.saveAll(new NoteNode("B", "乙"), List.of(block("B", "b1", "重建之后写入检索", 0)), List.of());
+            assertEquals(3, switched.search("检索").size());
+        }
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + path)) {
+            assertFalse(DatabaseInitializer.tableExists(conn, DatabaseInitializer.FTS_NEXT_TABLE));
+            assertTrue(AppMeta.get(conn, AppMeta.FTS_REBUILD_CURSOR).isEmpty());
+        }
+    }
+
+    @Test
+    void searchPagesWithKeysetCursorAndBreaksTiesByRowId() {
+        List<NoteBlock> blocks = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            blocks.add(block("A", "t" + i, "shared needle text", i));
+        }
+        blocks.add(block("A", "best", "needle needle", 7));
+        repository.saveAll(new NoteNode("A", "甲"), blocks, List.of());
+        List<String> all = repository.search("needle").stream().map(SearchHit::blockId).toList();
+        // 文本相同的块得分相同，按 rowid（写入顺序）排列。
+        assertEquals(List.of("best", "t0", "t1", "t2", "t3", "t4", "t5", "t6"), all);
+
+        List<String> paged = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            SearchPage page = repository.search("needle", 3, cursor, false);
+            assertTrue(page.hits().size() <= 3);
+            page.hits().forEach(hit -> paged.add(hit.blockId()));
+            cursor = page.nextCursor();
+            pages++;
+        } while (cursor != null);
+        assertEquals(all, paged);
+        assertEquals(3, pages);
+
+        // 恰好取完时不返回游标。
+        SearchPage first = repository.search("needle", 4, null, false);
+        SearchPage second = repository.search("needle", 4, first.nextCursor(), false);
+        assertEquals(all.subList(4, 8), second.hits().stream().map(SearchHit::blockId).toList());
+        assertFalse(second.hasMore());
+    }
+
+    @Test
+    void groupedSearchReturnsBestBlockPerPage() {
+        repository.saveAll(new NoteNode("A", "甲"), List.of(block("A", "a1", "needle in a long haystack of words", 0),
+                block("A", "a2", "needle needle", 1), block("A", "a3", "another needle here", 2)), List.of());
+        repository.saveAll(new NoteNode("B", "乙"), List.of(block("B", "b1", "needle again", 0), block("B", "b2", "needle once more", 1)), List.of());
+        repository.saveAll(new NoteNode("C", "丙"), List.of(block("C", "c1", "nothing", 0)), List.of());
+
+        SearchPage grouped = repository.search("needle", 10, null, true);
+        assertEquals(List.of("A", "B"), grouped.hits().stream().map(SearchHit::pageId).sorted().toList());
+        assertEquals("a2", grouped.hits().stream().filter(hit -> hit.pageId().equals("A")).findFirst().orElseThrow().blockId());
+        assertFalse(grouped.hasMore());
+
+        SearchPage first = repository.search("needle", 1, null, true);
+        SearchPage second = repository.search("needle", 1, first.nextCursor(), true);
+        assertTrue(first.hasMore());
+        assertFalse(second.hasMore());
+        assertNotEquals(first.hits().get(0).pageId(), second.hits().get(0).pageId());
+    }
+
+    @Test
+    void malformedSearchCursorIsRejected() {
+        repository.saveAll(new NoteNode("A", "甲"), List.of(block("A", "a1", "needle", 0)), List.of());
+        assertThrows(IllegalArgumentException.class, () -> repository.search("needle", 10, "not-a-cursor", false));
+        assertThrows(IllegalArgumentException.class, () -> repository.search("needle", 10, "zz:1", false));
+        assertThrows(IllegalArgumentException.class, () -> repository.search("needle", 10, "3ff0000000000000:x", true));
+    }
+
+    @Test
+    void versionOneDatabaseMigratesToCurrentSchema() throws Exception {
+        Path path = dir.resolve("v1.db");
+        String updated = "2024-03-01T10:15:30.123Z";
+        String created = "2024-03-02T08:00:00.456Z";
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + path); Statement st = conn.createStatement()) {
+            for (String ddl : V1_SCHEMA) {
+                st.execute(ddl);
+            }
+            st.executeUpdate("INSERT INTO note_node VALUES ('P1', '周报', '[\"weekly\"]', '[\"work\"]', '" + updated + "')");
+            st.executeUpdate("INSERT INTO note_node VALUES ('P2', '检索', '[]', '[]', '" + updated + "')");
+            st.executeUpdate("INSERT INTO note_block VALUES ('b1', 'P1', 'legacy needle text', NULL, 0)");
+            st.executeUpdate("INSERT INTO note_block VALUES ('b2', 'P1', 'second block', 'sec', 1)");
+            st.executeUpdate("INSERT INTO note_block VALUES ('c1', 'P2', 'other page', NULL, 0)");
+            st.executeUpdate("INSERT INTO note_block_fts(rowid, text) SELECT rowid, text FROM note_block");
+            st.executeUpdate("INSERT INTO note_edge VALUES ('b1', 'P1', 'P2', NULL, 'link', NULL, '" + created + "')");
+            st.executeUpdate("INSERT INTO note_edge VALUES (NULL, 'P1', 'P2', 'c1', 'embed', '{\"size\":2}', '" + created + "')");
+        }
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + path)) {
+            new DatabaseInitializer().init(conn);
+            assertEquals(5, DatabaseInitializer.userVersion(conn));
+            assertEquals(Set.of("idx_note_edge_dst", "idx_note_edge_src", "idx_note_edge_kind", "idx_note_block_order",
+                    "idx_note_node_title", "idx_note_alias_node"), indexNames(conn));
+            try (Statement st = conn.createStatement();
+                 ResultSet rs = st.executeQuery("EXPLAIN QUERY PLAN SELECT * FROM note_edge WHERE dst_page_pk = 1")) {
+                assertTrue(rs.next());
+                assertTrue(rs.getString("detail").contains("idx_note_edge_dst"), rs.getString("detail"));
+            }
+            // 早期升级过的库缺少这些索引，打开时补建。
+            try (Statement st = conn.createStatement()) {
+                st.execute("DROP INDEX idx_note_edge_dst");
+                st.execute("DROP INDEX idx_note_block_order");
+            }
+            new DatabaseInitializer().init(conn);
+            assertTrue(indexNames(conn).containsAll(Set.of("idx_note_edge_dst", "idx_note_block_order")));
+        }
+
+        try (SQLiteNoteRepository migrated = new SQLiteNoteRepository(path)) {
+            NoteNode node = migrated.findNodeById("P1").orElseThrow();
+            assertEquals("周报", node.getTitle());
+            assertEquals(Set.of("weekly"), node.getAliases());
+            assertEquals(Set.of("work"), node.getTags());
+            assertEquals(Instant.parse(updated), node.getUpdatedAt());
+            assertEquals("P1", migrated.findNodesByTitleOrAlias("weekly").get(0).getId());
+
+            List<NoteBlock> blocks = migrated.findBlocksByPageId("P1");
+            assertEquals(List.of("b1", "b2"), blocks.stream().map(NoteBlock::getId).toList());
+            assertEquals("sec", blocks.get(1).getAnchor());
+
+            List<NoteEdge> edges = migrated.findEdgesByPageId("P1");
+            assertEquals(2, edges.size());
+            NoteEdge link = edges.stream().filter(edge -> edge.getType().equals("link")).findFirst().orElseThrow();
+            assertEquals("b1", link.getSrcBlockId());
+            assertEquals("P2", link.getDstPageId());
+            assertEquals(Instant.parse(created), link.getCreatedAt());
+            NoteEdge embed = edges.stream().filter(edge -> edge.getType().equals("embed")).findFirst().orElseThrow();
+            assertNull(embed.getSrcBlockId());
+            assertEquals("c1", embed.getDstBlockId());
+            assertEquals("{\"size\":2}", embed.getProps());
+            assertEquals(List.of("P1"), migrated.findEdgesByTarget("P2").stream().map(NoteEdge::getSrcPageId).distinct().toList());
+
+            assertEquals(List.of("b1"), migrated.search("needle").stream().map(SearchHit::blockId).toList());
+        }
+    }
+
+    private static Set<String> indexNames(Connection conn) throws SQLException {
+        Set<String> names = new HashSet<>();
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND name LIKE 'idx_%'")) {
+            while (rs.next()) {
+                names.add(rs.getString(1));
+            }
+        }
+        return names;
+    }
+
+    private static long firstBlockRowId(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT MIN(pk) FROM note_block"); ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * 等到后台重建结束且换表已提交，另开的连接看不到 note_block_fts_next 为止。
+     */
+    private static void awaitFtsRebuild(SQLiteNoteRepository repository, Path path) throws Exception {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (true) {
+            if (!repository.isFtsRebuilding()) {
+                try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + path)) {
+                    if (!DatabaseInitializer.tableExists(conn, DatabaseInitializer.FTS_NEXT_TABLE)) {
+                        return;
+                    }
+                }
+            }
+            assertTrue(System.nanoTime() < deadline, "全文索引重建超时");
+            Thread.sleep(20);
+        }
+    }
+}
@@ -21,6 +21,12 @@ public class AppConfig {
         values.put("dbPath", configDir.resolve("notes.db").toString());
         values.put("theme", "light");
         values.put("locale", "zh_CN");
+        values.put("ftsProfile", "cjk_bigram");
+        values.put("backupDir", configDir.resolve("backups").toString());
+        values.put("backupIntervalHours", "24");
+        values.put("backupKeepLast", "7");
+        values.put("backupKeepDaily", "30");
+        values.put("blockCompressionKB", "4");
     }
 
     public void load() {
@@ -71,6 +77,47 @@ public class AppConfig {
         return values.getOrDefault("locale", "zh_CN");
     }
 
+    /**
+     * 全文索引分词：unicode61、trigram 或 cjk_bigram。修改后下次启动在后台重建索引。
+     */
+    public String getFtsProfile() {
+        return values.getOrDefault("ftsProfile", "cjk_bigram");
+    }
+
+    public String getBackupDir() {
+        return values.getOrDefault("backupDir", configDir.resolve("backups").toString());
+    }
+
+    /**
+     * 在线备份间隔（小时），0 表示不做定时备份。
+     */
+    public int getBackupIntervalHours() {
+        return intValue("backupIntervalHours", 24);
+    }
+
+    public int getBackupKeepLast() {
+        return intValue("backupKeepLast", 7);
+    }
+
+    public int getBackupKeepDaily() {
+        return intValue("backupKeepDaily", 30);
+    }
+
+    /**
+     * 块文本达到该大小（KB）时压缩存储，0 表示不压缩。
+     */
+    public int getBlockCompressionKB() {
+        return intValue("blockCompressionKB", 4);
+    }
+
+    private int intValue(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(values.getOrDefault(key, String.valueOf(defaultValue)).trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     private void parseJson(String json) {
         json = json.trim();
         json = json.substring(1, json.length() - 1);
@@ -1,11 +1,16 @@
 package com.bidinote.ui;
 
 import com.bidinote.core.NoteService;
+import com.bidinote.core.SaveQueue;
 import com.bidinote.core.model.NoteBlock;
 import com.bidinote.core.model.NoteEdge;
 import com.bidinote.core.model.NoteNode;
+import com.bidinote.core.parser.TextChange;
+import com.bidinote.core.repository.CachingNoteRepository;
 import com.bidinote.core.repository.NoteRepository;
-import com.bidinote.core.repository.NoteRepository.SearchHit;
+import com.bidinote.core.repository.NoteRepository.SearchPage;
+import com.bidinote.storage.sqlite.BackupService;
+import com.bidinote.storage.sqlite.FtsProfile;
 import com.bidinote.storage.sqlite.SQLiteNoteRepository;
 import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
 import org.fife.ui.rsyntaxtextarea.SyntaxConstants;
@@ -16,6 +21,7 @@ import com.vladsch.flexmark.util.ast.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.swing.BoundedRangeModel;
 import javax.swing.DefaultListModel;
 import javax.swing.JButton;
 import javax.swing.JDialog;
@@ -49,24 +55,35 @@ import java.awt.Point;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.CompletableFuture;
+import java.util.Optional;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * BidiNote 主应用入口。
  */
 public class BidiNoteApp extends JFrame {
     private static final Logger log = LoggerFactory.getLogger(BidiNoteApp.class);
+    private static final int SEARCH_PAGE_SIZE = 50;
+    private static final Duration BACKUP_INITIAL_DELAY = Duration.ofMinutes(5);
     private final AppConfig config = new AppConfig();
     private Localization i18n;
     private NoteService noteService;
+    private SaveQueue saveQueue;
     private NoteRepository repository;
+    private SQLiteNoteRepository storage;
+    private BackupService backupService;
+    private CachingNoteRepository cache;
     private final ExecutorService executor = Executors.newFixedThreadPool(4);
     private final Parser markdownParser = Parser.builder().build();
     private final HtmlRenderer htmlRenderer = HtmlRenderer.builder().build();
@@ -82,9 +99,17 @@ public class BidiNoteApp extends JFrame {
     private JLabelStatus statusBar;
     private NoteNode currentNode;
     private Timer saveTimer;
+    /**
+     * 上一次提交保存以来编辑器中的变化范围，随保存一起提交以便只重新解析改动的块。只在事件线程访问。
+     */
+    private TextChange pendingChange;
     private JPopupMenu autoCompleteMenu;
     private JTabbedPane rightTabs;
     private DefaultListModel<String> queryResultModel = new DefaultListModel<>();
+    private String searchKeyword;
+    private String searchCursor;
+    private int searchGeneration;
+    private boolean searchLoading;
 
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
@@ -97,17 +122,60 @@ public class BidiNoteApp extends JFrame {
         config.load();
         i18n = new Localization(config.getLocale());
         new ThemeManager().apply(config.getTheme());
-        repository = new SQLiteNoteRepository(Paths.get(config.getDbPath()));
-        noteService = new NoteService(repository);
+        storage = new SQLiteNoteRepository(Paths.get(config.getDbPath()), FtsProfile.fromConfig(config.getFtsProfile()));
+        cache = new CachingNoteRepository(storage);
+        repository = cache;
+        noteService = new NoteService(repository, executor);
+        saveQueue = new SaveQueue(noteService);
+        enableBlockCompression();
+        scheduleBackups();
         initUi();
         loadNotes();
     }
 
+    /**
+     * 设置压缩阈值后在后台补齐：首次开启时先训练字典，再把已有的大块逐批改为压缩存储。
+     */
+    private void enableBlockCompression() {
+        int thresholdKB = config.getBlockCompressionKB();
+        if (thresholdKB <= 0) {
+            return;
+        }
+        storage.setCompressionThreshold(thresholdKB * 1024);
+        executor.submit(() -> {
+            if (!storage.hasCompressionDictionary() && !storage.trainCompressionDictionary()) {
+                return;
+            }
+            int converted = storage.compressExistingBlocks();
+            if (converted > 0) {
+                SQLiteNoteRepository.CompressionStats stats = storage.getCompressionStats();
+                log.info("已压缩 {} 个块，{} -> {} 字节，压缩比 {}，耗时 {} ms", converted, stats.rawBytes(), stats.storedBytes(),
+                        String.format(Locale.ROOT, "%.2f", stats.ratio()), stats.compressMillis());
+            }
+        });
+    }
+
+    private void scheduleBackups() {
+        if (config.getBackupIntervalHours() <= 0) {
+            return;
+        }
+        BackupService.BackupPolicy policy = new BackupService.BackupPolicy(BackupService.BackupPolicy.DEFAULT.pagesPerStep(),
+                BackupService.BackupPolicy.DEFAULT.pause(), Math.max(1, config.getBackupKeepLast()), Math.max(0, config.getBackupKeepDaily()));
+        backupService = new BackupService(storage.getDatabasePath(), Paths.get(config.getBackupDir()), policy);
+        backupService.schedule(Duration.ofHours(config.getBackupIntervalHours()), BACKUP_INITIAL_DELAY);
+    }
+
     private void initUi() {
         setTitle("BidiNote");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setPreferredSize(new Dimension(1400, 900));
         setLayout(new BorderLayout());
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                shutdown();
+            }
+        });
 
         JPanel topBar = new JPanel(new FlowLayout(FlowLayout.LEFT));
         JButton commandButton = new JButton(i18n.get("command_palette"));
@@ -126,7 +194,14 @@ public class BidiNoteApp extends JFrame {
         searchField.addActionListener(this::handleSearch);
         JPanel leftPanel = new JPanel(new BorderLayout());
         leftPanel.add(searchField, BorderLayout.NORTH);
-        leftPanel.add(new JScrollPane(noteList), BorderLayout.CENTER);
+        JScrollPane noteScroll = new JScrollPane(noteList);
+        noteScroll.getVerticalScrollBar().addAdjustmentListener(e -> {
+            BoundedRangeModel range = noteScroll.getVerticalScrollBar().getModel();
+            if (searchCursor != null && range.getValue() + range.getExtent() >= range.getMaximum() - 20) {
+                loadNextSearchPage();
+            }
+        });
+        leftPanel.add(noteScroll, BorderLayout.CENTER);
 
         editor = new RSyntaxTextArea();
         editor.setSyntaxEditingStyle(SyntaxConstants.SYNTAX_STYLE_MARKDOWN);
@@ -135,11 +210,13 @@ public class BidiNoteApp extends JFrame {
         editor.getDocument().addDocumentListener(new DocumentListener() {
             @Override
             public void insertUpdate(DocumentEvent e) {
+                recordChange(TextChange.of(e.getOffset(), 0, e.getLength()));
                 scheduleSave();
             }
 
             @Override
             public void removeUpdate(DocumentEvent e) {
+                recordChange(TextChange.of(e.getOffset(), e.getLength(), 0));
                 scheduleSave();
             }
 
@@ -202,6 +279,32 @@ public class BidiNoteApp extends JFrame {
         });
     }
 
+    private void shutdown() {
+        if (saveTimer != null && saveTimer.isRunning()) {
+            saveTimer.stop();
+            saveCurrent();
+        }
+        saveQueue.close();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                log.warn("后台任务未在超时前结束");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (backupService != null) {
+            backupService.close();
+        }
+        CachingNoteRepository.CacheStats stats = cache.stats();
+        log.info("缓存命中率 {}%，命中 {}，未命中 {}，淘汰 {}", Math.round(stats.hitRate() * 100), stats.hits(), stats.misses(), stats.evictions());
+        SQLiteNoteRepository.CompressionStats compression = storage.getCompressionStats();
+        log.info("块压缩：压缩 {} 块（{} -> {} 字节，压缩比 {}，{} ms），解压 {} 块（{} ms）", compression.blocksCompressed(),
+                compression.rawBytes(), compression.storedBytes(), String.format(Locale.ROOT, "%.2f", compression.ratio()),
+                compression.compressMillis(), compression.blocksDecompressed(), compression.decompressMillis());
+        storage.close();
+    }
+
     private void openCommandPalette() {
         JDialog dialog = new JDialog(this, i18n.get("command_palette"), true);
         DefaultListModel<NoteNode> model = new DefaultListModel<>();
@@ -211,9 +314,10 @@ public class BidiNoteApp extends JFrame {
         filter.getDocument().addDocumentListener(new SimpleDocumentListener(() -> {
             String keyword = filter.getText().toLowerCase(Locale.ROOT);
             model.clear();
-            repository.loadAllNodes().values().stream()
-                    .filter(node -> node.getTitle().toLowerCase(Locale.ROOT).contains(keyword))
-                    .forEach(model::addElement);
+            try (Stream<NoteNode> nodes = repository.streamNodes()) {
+                nodes.filter(node -> node.getTitle().toLowerCase(Locale.ROOT).contains(keyword))
+                        .forEach(model::addElement);
+            }
         }));
         list.addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting()) {
@@ -241,14 +345,43 @@ public class BidiNoteApp extends JFrame {
 
     private void handleSearch(ActionEvent event) {
         String keyword = searchField.getText();
+        if (keyword.isBlank()) {
+            loadNotes();
+            return;
+        }
+        searchKeyword = keyword;
+        searchCursor = null;
+        searchGeneration++;
+        searchLoading = false;
+        noteListModel.clear();
+        loadNextSearchPage();
+    }
+
+    /**
+     * 每次只取一页按页面分组的结果，列表滚动到底部时再取下一页。
+     */
+    private void loadNextSearchPage() {
+        if (searchLoading || searchKeyword == null) {
+            return;
+        }
+        searchLoading = true;
+        String keyword = searchKeyword;
+        String cursor = searchCursor;
+        int generation = searchGeneration;
         executor.submit(() -> {
-            List<SearchHit> hits = noteService.search(keyword);
+            SearchPage page = noteService.search(keyword, SEARCH_PAGE_SIZE, cursor, true);
+            List<NoteNode> nodes = page.hits().stream()
+                    .map(hit -> repository.findNodeById(hit.pageId()))
+                    .flatMap(Optional::stream)
+                    .collect(Collectors.toList());
             SwingUtilities.invokeLater(() -> {
-                noteListModel.clear();
-                for (SearchHit hit : hits) {
-                    repository.findNodeById(hit.pageId()).ifPresent(noteListModel::addElement);
+                if (generation != searchGeneration) {
+                    return;
                 }
-                statusBar.setText(i18n.get("search_result") + hits.size());
+                searchLoading = false;
+                nodes.forEach(noteListModel::addElement);
+                searchCursor = page.nextCursor();
+                statusBar.setText(i18n.get("search_result") + noteListModel.size() + (page.hasMore() ? "+" : ""));
             });
         });
     }
@@ -273,6 +406,8 @@ public class BidiNoteApp extends JFrame {
             List<NoteEdge> edges = noteService.reverseLinks(node.getId());
             SwingUtilities.invokeLater(() -> {
                 editor.setText(markdown);
+                // 载入的内容由块拼接而成，与上次保存的原文不同，下一次保存整页解析。
+                pendingChange = null;
                 renderBacklinks(edges);
                 renderProperties(node);
                 statusBar.setText(i18n.get("loaded") + node.getTitle());
@@ -298,6 +433,10 @@ public class BidiNoteApp extends JFrame {
         propertyArea.setText(sb.toString());
     }
 
+    private void recordChange(TextChange change) {
+        pendingChange = pendingChange == null ? change : pendingChange.then(change);
+    }
+
     private void scheduleSave() {
         if (currentNode == null) {
             return;
@@ -314,17 +453,32 @@ public class BidiNoteApp extends JFrame {
         if (currentNode == null) {
             return;
         }
+        NoteNode node = currentNode;
         String markdown = editor.getText();
+        TextChange change = pendingChange;
+        pendingChange = null;
         statusBar.setText(i18n.get("saving"));
-        CompletableFuture.supplyAsync(() -> noteService.save(currentNode, markdown), executor)
-                .thenAccept(result -> SwingUtilities.invokeLater(() -> {
-                    updatePreview(markdown);
-                    renderBacklinks(result.edges());
-                    mentionArea.setText(result.mentions().stream()
-                            .map(m -> m.matchedText() + " -> " + repository.findNodeById(m.noteId()).map(NoteNode::getTitle).orElse("?"))
-                            .collect(Collectors.joining("\n")));
-                    statusBar.setText(i18n.get("saved"));
-                }))
+        saveQueue.submit(node, markdown, change)
+                .thenAccept(result -> {
+                    SwingUtilities.invokeLater(() -> {
+                        statusBar.setText(i18n.get("saved"));
+                        // 内容未变化时没有新的结果，保留当前显示。
+                        if (result.skipped().contains(NoteService.SaveStage.ANALYSIS)) {
+                            return;
+                        }
+                        updatePreview(markdown);
+                        renderBacklinks(result.edges());
+                    });
+                    // 提及随后送达；被同页的新保存取代时 future 已取消，不会回调。
+                    result.analysis().thenAccept(analysis -> SwingUtilities.invokeLater(() -> {
+                        if (currentNode != node) {
+                            return;
+                        }
+                        mentionArea.setText(analysis.mentions().stream()
+                                .map(m -> m.matchedText() + " -> " + repository.findNodeById(m.noteId()).map(NoteNode::getTitle).orElse("?"))
+                                .collect(Collectors.joining("\n")));
+                    }));
+                })
                 .exceptionally(ex -> {
                     log.error("保存失败", ex);
                     SwingUtilities.invokeLater(() -> statusBar.setText(i18n.get("save_failed")));
@@ -339,6 +493,9 @@ public class BidiNoteApp extends JFrame {
     }
 
     private void loadNotes() {
+        searchKeyword = null;
+        searchCursor = null;
+        searchGeneration++;
         noteListModel.clear();
         repository.loadAllNodes().values().forEach(noteListModel::addElement);
     }
@@ -2,6 +2,7 @@ package com.bidinote.ui.tools;
 
 import com.bidinote.core.NoteService;
 import com.bidinote.core.model.NoteNode;
+import com.bidinote.storage.sqlite.FtsProfile;
 import com.bidinote.storage.sqlite.SQLiteNoteRepository;
 import com.bidinote.ui.AppConfig;
 
@@ -16,22 +17,23 @@ public class SeedGenerator {
     public static void main(String[] args) {
         AppConfig config = new AppConfig();
         config.load();
-        SQLiteNoteRepository repository = new SQLiteNoteRepository(Paths.get(config.getDbPath()));
-        NoteService service = new NoteService(repository);
-        Random random = new Random(42);
-        IntStream.range(0, 50).forEach(i -> {
-            NoteNode node = new NoteNode("NODE" + i, "页面" + i);
-            repository.saveNode(node);
-            StringBuilder content = new StringBuilder();
-            content.append("# 页面").append(i).append('\n');
-            content.append("这是第").append(i).append("篇示例笔记，包含一些文字和引用。\n");
-            if (i > 0) {
-                int target = random.nextInt(i);
-                content.append("引用 [[页面").append(target).append("]] 和 ![[页面").append(target).append("]]。\n");
-            }
-            content.append("段落结尾。\n");
-            service.save(node, content.toString());
-        });
+        try (SQLiteNoteRepository repository = new SQLiteNoteRepository(Paths.get(config.getDbPath()), FtsProfile.fromConfig(config.getFtsProfile()))) {
+            NoteService service = new NoteService(repository);
+            Random random = new Random(42);
+            IntStream.range(0, 50).forEach(i -> {
+                NoteNode node = new NoteNode("NODE" + i, "页面" + i);
+                repository.saveNode(node);
+                StringBuilder content = new StringBuilder();
+                content.append("# 页面").append(i).append('\n');
+                content.append("这是第").append(i).append("篇示例笔记，包含一些文字和引用。\n");
+                if (i > 0) {
+                    int target = random.nextInt(i);
+                    content.append("引用 [[页面").append(target).append("]] 和 ![[页面").append(target).append("]]。\n");
+                }
+                content.append("段落结尾。\n");
+                service.save(node, content.toString());
+            });
+        }
         System.out.println("示例数据生成完成");
     }
 }
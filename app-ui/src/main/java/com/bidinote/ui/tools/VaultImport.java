@@ -0,0 +1,33 @@
+package com.bidinote.ui.tools;
+
+import com.bidinote.core.importer.VaultImporter;
+import com.bidinote.storage.sqlite.FtsProfile;
+import com.bidinote.storage.sqlite.SQLiteNoteRepository;
+import com.bidinote.ui.AppConfig;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * 将已有的 Markdown 库批量导入当前数据库。用法：VaultImport &lt;库目录&gt;
+ */
+public class VaultImport {
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("用法: VaultImport <库目录>");
+            System.exit(1);
+        }
+        AppConfig config = new AppConfig();
+        config.load();
+        Path vault = Paths.get(args[0]);
+        try (SQLiteNoteRepository repository = new SQLiteNoteRepository(Paths.get(config.getDbPath()), FtsProfile.fromConfig(config.getFtsProfile()))) {
+            VaultImporter.ImportResult result = new VaultImporter(repository).importVault(vault, progress ->
+                    System.out.printf("%s %d/%d  %.0f 页/秒%n", progress.phase() == VaultImporter.Phase.PARSE ? "解析" : "写入",
+                            progress.done(), progress.total(), progress.pagesPerSecond()));
+            System.out.printf("导入完成：%d 页，%d 块，%d 边，跳过 %d 个文件，耗时 %.1f 秒（%.0f 页/秒）%n",
+                    result.pages(), result.blocks(), result.edges(), result.skipped(),
+                    result.elapsed().toMillis() / 1000.0, result.pagesPerSecond());
+        }
+    }
+}